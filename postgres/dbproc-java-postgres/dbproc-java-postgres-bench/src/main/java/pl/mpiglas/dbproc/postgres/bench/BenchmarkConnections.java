@@ -0,0 +1,44 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens JDBC connections to the benchmark database described by
+ * <code>jdbc-connection.properties</code>.
+ *
+ * @author Milosz Piglas
+ */
+final class BenchmarkConnections
+{
+
+    private BenchmarkConnections()
+    {
+    }
+
+    static Connection open() throws IOException, SQLException
+    {
+        Properties props = properties();
+        return DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+
+    /**
+     * @return <code>url</code>, <code>user</code> and <code>password</code>
+     * of the benchmark database
+     * @throws IOException
+     */
+    static Properties properties() throws IOException
+    {
+        Properties props = new Properties();
+        try (InputStream in = BenchmarkConnections.class.getResourceAsStream("/jdbc-connection.properties"))
+        {
+            props.load(in);
+        }
+        return props;
+    }
+}
@@ -0,0 +1,75 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.ProcedureQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call cost of {@link ProcedureQuery} calls shown in
+ * <code>PostgresCayenneTest</code>. A new context is created for every call,
+ * like in the tests.
+ *
+ * @author Milosz Piglas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CayenneCallBenchmark
+{
+
+    private ServerRuntime runtime;
+
+    @Setup
+    public void initCayenne()
+    {
+        runtime = new ServerRuntime("cayenne-dbproc.xml");
+    }
+
+    @Benchmark
+    public QueryResponse numSum()
+    {
+        ProcedureQuery query = new ProcedureQuery("num_sum");
+        query.addParameter("anum", 100);
+        query.addParameter("bnum", 11);
+        return runtime.newContext().performGenericQuery(query);
+    }
+
+    @Benchmark
+    public QueryResponse modmul()
+    {
+        ProcedureQuery query = new ProcedureQuery("modmul");
+        query.addParameter("anum", 10);
+        query.addParameter("bnum", 3);
+        return runtime.newContext().performGenericQuery(query);
+    }
+
+    @Benchmark
+    public QueryResponse outText()
+    {
+        return runtime.newContext().performGenericQuery(new ProcedureQuery("out_text"));
+    }
+
+    @TearDown
+    public void releaseResources()
+    {
+        runtime.shutdown();
+    }
+}
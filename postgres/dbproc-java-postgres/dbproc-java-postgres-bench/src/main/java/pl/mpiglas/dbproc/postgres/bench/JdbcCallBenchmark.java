@@ -0,0 +1,156 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call cost of the plain JDBC call styles shown in
+ * <code>PostgresJdbcTest</code>. Every benchmark prepares and closes its
+ * statement, exactly like the tests do.
+ *
+ * @author Milosz Piglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(
+{
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JdbcCallBenchmark
+{
+
+    private Connection pgCon;
+
+    @Setup
+    public void openConnection() throws IOException, SQLException
+    {
+        pgCon = BenchmarkConnections.open();
+    }
+
+    /**
+     * <code>SELECT * from num_sum(?, ?)</code> read from result set.
+     */
+    @Benchmark
+    public int selectNumSum() throws SQLException
+    {
+        try (PreparedStatement ps = pgCon.prepareStatement("SELECT * from num_sum(?, ?)"))
+        {
+            ps.setInt(1, 100);
+            ps.setInt(2, 11);
+            try (ResultSet resultSet = ps.executeQuery())
+            {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * <code>{? = call num_sum(?, ?)}</code> with registered return value.
+     */
+    @Benchmark
+    public int callNumSumReturnValue() throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{? = call num_sum(?, ?)}"))
+        {
+            proc.registerOutParameter(1, Types.INTEGER);
+            proc.setInt(2, 100);
+            proc.setInt(3, 11);
+            proc.execute();
+            return proc.getInt(1);
+        }
+    }
+
+    /**
+     * <code>{call num_sum(?, ?)}</code> read from result set.
+     */
+    @Benchmark
+    public int callNumSumResultSet() throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{call num_sum(?, ?)}"))
+        {
+            proc.setInt(1, 100);
+            proc.setInt(2, 11);
+            try (ResultSet resultSet = proc.executeQuery())
+            {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * <code>{call modmul(?, ?)}</code> with OUT values read from result set.
+     */
+    @Benchmark
+    public int callModmulResultSet() throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{call modmul(?, ?)}"))
+        {
+            proc.setInt(1, 10);
+            proc.setInt(2, 3);
+            try (ResultSet resultSet = proc.executeQuery())
+            {
+                resultSet.next();
+                return resultSet.getInt(1) + resultSet.getInt(2);
+            }
+        }
+    }
+
+    /**
+     * <code>{call modmul(?, ?, ?, ?)}</code> with registered OUT parameters.
+     */
+    @Benchmark
+    public int callModmulOutParameters() throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{call modmul(?, ?, ?, ?)}"))
+        {
+            proc.setInt(1, 10);
+            proc.setInt(2, 3);
+            proc.registerOutParameter(3, Types.INTEGER);
+            proc.registerOutParameter(4, Types.INTEGER);
+            proc.execute();
+            return proc.getInt(3) + proc.getInt(4);
+        }
+    }
+
+    /**
+     * <code>{? = call out_text()}</code> with registered return value.
+     */
+    @Benchmark
+    public String callOutTextReturnValue() throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{? = call out_text()}"))
+        {
+            proc.registerOutParameter(1, Types.VARCHAR);
+            proc.execute();
+            return proc.getString(1);
+        }
+    }
+
+    @TearDown
+    public void closeConnection() throws SQLException
+    {
+        pgCon.close();
+    }
+}
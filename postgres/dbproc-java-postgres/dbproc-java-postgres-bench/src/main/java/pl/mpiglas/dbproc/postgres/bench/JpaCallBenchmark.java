@@ -0,0 +1,98 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.ParameterMode;
+import javax.persistence.Persistence;
+import javax.persistence.StoredProcedureQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call cost of {@link StoredProcedureQuery} calls shown in
+ * <code>PostgresJpaTest</code>.
+ *
+ * @author Milosz Piglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(
+{
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JpaCallBenchmark
+{
+
+    private EntityManagerFactory factory;
+    private EntityManager em;
+
+    @Setup
+    public void initEntityManager()
+    {
+        factory = Persistence.createEntityManagerFactory("postgresBenchPu");
+        em = factory.createEntityManager();
+    }
+
+    @Benchmark
+    public Object numSum()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("num_sum");
+        proc.registerStoredProcedureParameter(1, Integer.class, ParameterMode.IN);
+        proc.registerStoredProcedureParameter(2, Integer.class, ParameterMode.IN);
+        proc.setParameter(1, 100);
+        proc.setParameter(2, 11);
+        return proc.getSingleResult();
+    }
+
+    @Benchmark
+    public Object modmulSingleResult()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("modmul");
+        proc.registerStoredProcedureParameter(1, Integer.class, ParameterMode.IN);
+        proc.registerStoredProcedureParameter(2, Integer.class, ParameterMode.IN);
+        proc.setParameter(1, 10);
+        proc.setParameter(2, 3);
+        return proc.getSingleResult();
+    }
+
+    @Benchmark
+    public Object modmulOutParameters()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("modmul");
+        proc.registerStoredProcedureParameter(1, Integer.class, ParameterMode.IN);
+        proc.registerStoredProcedureParameter(2, Integer.class, ParameterMode.IN);
+        proc.registerStoredProcedureParameter(3, Integer.class, ParameterMode.OUT);
+        proc.registerStoredProcedureParameter(4, Integer.class, ParameterMode.OUT);
+        proc.setParameter(1, 10);
+        proc.setParameter(2, 3);
+        proc.execute();
+        return proc.getOutputParameterValue(4);
+    }
+
+    @Benchmark
+    public Object outText()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("out_text");
+        return proc.getSingleResult();
+    }
+
+    @TearDown
+    public void releaseResources()
+    {
+        em.close();
+        factory.close();
+    }
+}
@@ -0,0 +1,196 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of {@link LoadTest} parsed from <code>--name=value</code> command
+ * line options:
+ * <ul>
+ * <li><code>rate</code> - calls per second started regardless of response
+ * times, 0 runs closed loop, where every thread calls as fast as it can,</li>
+ * <li><code>threads</code> - number of calling threads,</li>
+ * <li><code>pool</code> - size of connection pool shared by threads,</li>
+ * <li><code>warmup</code>, <code>duration</code> - e.g. <code>30s</code>,
+ * <code>500ms</code> or <code>5m</code>,</li>
+ * <li><code>mix</code> - weighted procedures, e.g.
+ * <code>num_sum:70,modmul:20,gen_rows:10</code>,</li>
+ * <li><code>rows</code> - rows requested from <code>gen_rows</code> and
+ * <code>int_set</code>,</li>
+ * <li><code>report</code> - path of JSON report.</li>
+ * </ul>
+ *
+ * @author Milosz Piglas
+ */
+final class LoadConfig
+{
+
+    static final int DEFAULT_RATE = 500;
+    static final int DEFAULT_THREADS = 16;
+    static final int DEFAULT_POOL_SIZE = 16;
+    static final long DEFAULT_WARMUP_SECONDS = 10;
+    static final long DEFAULT_DURATION_SECONDS = 60;
+    static final String DEFAULT_MIX = "num_sum:70,modmul:20,gen_rows:10";
+    static final int DEFAULT_ROWS = 1000;
+    static final String DEFAULT_REPORT = "load-report.json";
+
+    private final int rate;
+    private final int threads;
+    private final int poolSize;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final Map<String, Integer> mix;
+    private final int rows;
+    private final Path report;
+
+    private LoadConfig(int rate, int threads, int poolSize, long warmupNanos, long durationNanos,
+            Map<String, Integer> mix, int rows, Path report)
+    {
+        this.rate = rate;
+        this.threads = threads;
+        this.poolSize = poolSize;
+        this.warmupNanos = warmupNanos;
+        this.durationNanos = durationNanos;
+        this.mix = mix;
+        this.rows = rows;
+        this.report = report;
+    }
+
+    static LoadConfig parse(String... args)
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("rate", String.valueOf(DEFAULT_RATE));
+        options.put("threads", String.valueOf(DEFAULT_THREADS));
+        options.put("pool", String.valueOf(DEFAULT_POOL_SIZE));
+        options.put("warmup", DEFAULT_WARMUP_SECONDS + "s");
+        options.put("duration", DEFAULT_DURATION_SECONDS + "s");
+        options.put("mix", DEFAULT_MIX);
+        options.put("rows", String.valueOf(DEFAULT_ROWS));
+        options.put("report", DEFAULT_REPORT);
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+            {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, eq);
+            if (!options.containsKey(name))
+            {
+                throw new IllegalArgumentException("Unknown option " + name + ", expected one of " + options.keySet());
+            }
+            options.put(name, arg.substring(eq + 1));
+        }
+        int rate = nonNegative("rate", Integer.parseInt(options.get("rate")));
+        int threads = positive("threads", Integer.parseInt(options.get("threads")));
+        int poolSize = positive("pool", Integer.parseInt(options.get("pool")));
+        long duration = positive("duration", nanos(options.get("duration")));
+        int rows = nonNegative("rows", Integer.parseInt(options.get("rows")));
+        return new LoadConfig(rate, threads, poolSize, nanos(options.get("warmup")), duration,
+                mix(options.get("mix")), rows, Paths.get(options.get("report")));
+    }
+
+    /**
+     * @param value e.g. <code>500ms</code>, <code>30s</code>,
+     * <code>5m</code>, plain number is seconds
+     */
+    static long nanos(String value)
+    {
+        String trimmed = value.trim();
+        if (trimmed.endsWith("ms"))
+        {
+            return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+        }
+        if (trimmed.endsWith("s"))
+        {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+        }
+        if (trimmed.endsWith("m"))
+        {
+            return TimeUnit.MINUTES.toNanos(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+        }
+        return TimeUnit.SECONDS.toNanos(Long.parseLong(trimmed));
+    }
+
+    static Map<String, Integer> mix(String value)
+    {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : value.split(","))
+        {
+            String[] parts = entry.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            weights.put(parts[0].trim(), positive("weight of " + parts[0], weight));
+        }
+        return Collections.unmodifiableMap(weights);
+    }
+
+    private static <N extends Number> N positive(String name, N value)
+    {
+        if (value.longValue() <= 0)
+        {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return value;
+    }
+
+    private static int nonNegative(String name, int value)
+    {
+        if (value < 0)
+        {
+            throw new IllegalArgumentException(name + " must not be negative: " + value);
+        }
+        return value;
+    }
+
+    /**
+     * @return calls per second, 0 for closed loop
+     */
+    int getRate()
+    {
+        return rate;
+    }
+
+    boolean isOpenLoop()
+    {
+        return rate > 0;
+    }
+
+    int getThreads()
+    {
+        return threads;
+    }
+
+    int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    long getWarmup(TimeUnit unit)
+    {
+        return unit.convert(warmupNanos, TimeUnit.NANOSECONDS);
+    }
+
+    long getDuration(TimeUnit unit)
+    {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    Map<String, Integer> getMix()
+    {
+        return mix;
+    }
+
+    int getRows()
+    {
+        return rows;
+    }
+
+    Path getReport()
+    {
+        return report;
+    }
+}
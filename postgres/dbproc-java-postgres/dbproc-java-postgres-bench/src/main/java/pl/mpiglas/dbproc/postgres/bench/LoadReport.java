@@ -0,0 +1,235 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Results of {@link LoadTest} written as JSON. Latency is measured from the
+ * time call was scheduled to start, so in open loop it includes time spent
+ * waiting behind slow calls and is not affected by coordinated omission.
+ * Service time is measured from the time call actually started, it includes
+ * waiting for pooled connection. Times are reported in microseconds.
+ *
+ * @author Milosz Piglas
+ */
+final class LoadReport
+{
+
+    private static final double[] PERCENTILES =
+    {
+        50.0, 90.0, 99.0, 99.9, 99.99
+    };
+    private static final String[] PERCENTILE_NAMES =
+    {
+        "p50", "p90", "p99", "p999", "p9999"
+    };
+
+    /**
+     * Results of single procedure, or of all procedures together.
+     */
+    static final class Result
+    {
+
+        final Histogram latency;
+        final Histogram serviceTime;
+        final long calls;
+        final long errors;
+        final long rows;
+
+        Result(Histogram latency, Histogram serviceTime, long calls, long errors, long rows)
+        {
+            this.latency = latency;
+            this.serviceTime = serviceTime;
+            this.calls = calls;
+            this.errors = errors;
+            this.rows = rows;
+        }
+    }
+
+    private final LoadConfig config;
+    private final long elapsedNanos;
+    private final Result total;
+    private final Map<String, Result> procedures;
+    private final Map<String, Long> errors;
+    private final Map<String, Number> pool = new LinkedHashMap<>();
+
+    LoadReport(LoadConfig config, long elapsedNanos, Result total, Map<String, Result> procedures,
+            Map<String, Long> errors)
+    {
+        this.config = config;
+        this.elapsedNanos = elapsedNanos;
+        this.total = total;
+        this.procedures = procedures;
+        this.errors = errors;
+    }
+
+    /**
+     * Adds pool statistics of measured period.
+     *
+     * @param checkouts number of connection checkouts
+     * @param waitNanos total time waiting for connections
+     * @param timeouts number of checkouts, which timed out
+     * @param created number of opened physical connections
+     */
+    void setPool(long checkouts, long waitNanos, long timeouts, long created)
+    {
+        pool.put("size", config.getPoolSize());
+        pool.put("checkouts", checkouts);
+        pool.put("waitTimeMillis", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        pool.put("meanWaitMicros", checkouts == 0 ? 0.0 : waitNanos / 1000.0 / checkouts);
+        pool.put("timeouts", timeouts);
+        pool.put("created", created);
+    }
+
+    double getThroughput(Result result)
+    {
+        return elapsedNanos == 0 ? 0.0 : result.calls * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    Result getTotal()
+    {
+        return total;
+    }
+
+    void write(Path file) throws IOException
+    {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            out.write(toJson());
+            out.write('\n');
+        }
+    }
+
+    String toJson()
+    {
+        StringBuilder json = new StringBuilder(1024);
+        json.append("{\n");
+        json.append("  \"config\": {");
+        json.append("\"openLoop\": ").append(config.isOpenLoop());
+        json.append(", \"rate\": ").append(config.getRate());
+        json.append(", \"threads\": ").append(config.getThreads());
+        json.append(", \"warmupSeconds\": ").append(config.getWarmup(TimeUnit.MILLISECONDS) / 1000.0);
+        json.append(", \"durationSeconds\": ").append(config.getDuration(TimeUnit.MILLISECONDS) / 1000.0);
+        json.append(", \"rows\": ").append(config.getRows());
+        json.append(", \"mix\": {");
+        String separator = "";
+        for (Map.Entry<String, Integer> weight : config.getMix().entrySet())
+        {
+            json.append(separator).append(quote(weight.getKey())).append(": ").append(weight.getValue());
+            separator = ", ";
+        }
+        json.append("}},\n");
+        json.append("  \"elapsedSeconds\": ").append(format(elapsedNanos / 1e9)).append(",\n");
+        json.append("  \"total\": ");
+        result(json, total, "  ");
+        json.append(",\n  \"procedures\": {");
+        separator = "\n";
+        for (Map.Entry<String, Result> procedure : procedures.entrySet())
+        {
+            json.append(separator).append("    ").append(quote(procedure.getKey())).append(": ");
+            result(json, procedure.getValue(), "    ");
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"pool\": {");
+        separator = "";
+        for (Map.Entry<String, Number> stat : pool.entrySet())
+        {
+            json.append(separator).append(quote(stat.getKey())).append(": ").append(format(stat.getValue()));
+            separator = ", ";
+        }
+        json.append("},\n  \"errors\": {");
+        separator = "";
+        for (Map.Entry<String, Long> error : errors.entrySet())
+        {
+            json.append(separator).append(quote(error.getKey())).append(": ").append(error.getValue());
+            separator = ", ";
+        }
+        json.append("}\n}");
+        return json.toString();
+    }
+
+    private void result(StringBuilder json, Result result, String indent)
+    {
+        json.append("{\n").append(indent).append("  \"calls\": ").append(result.calls);
+        json.append(", \"errors\": ").append(result.errors);
+        json.append(", \"rows\": ").append(result.rows);
+        json.append(", \"throughput\": ").append(format(getThroughput(result))).append(",\n");
+        json.append(indent).append("  \"latencyMicros\": ");
+        histogram(json, result.latency);
+        json.append(",\n").append(indent).append("  \"serviceTimeMicros\": ");
+        histogram(json, result.serviceTime);
+        json.append("\n").append(indent).append("}");
+    }
+
+    private static void histogram(StringBuilder json, Histogram histogram)
+    {
+        json.append("{\"mean\": ").append(format(micros(histogram.getMean())));
+        for (int i = 0; i < PERCENTILES.length; i++)
+        {
+            json.append(", ").append(quote(PERCENTILE_NAMES[i])).append(": ")
+                    .append(format(micros(histogram.getValueAtPercentile(PERCENTILES[i]))));
+        }
+        json.append(", \"max\": ").append(format(micros(histogram.getMaxValue()))).append("}");
+    }
+
+    private static double micros(double nanos)
+    {
+        return nanos / 1000.0;
+    }
+
+    private static String format(Number value)
+    {
+        double number = value.doubleValue();
+        if (value instanceof Integer || value instanceof Long || number == Math.rint(number)
+                && !Double.isInfinite(number))
+        {
+            return String.valueOf(value.longValue());
+        }
+        return Double.isNaN(number) || Double.isInfinite(number) ? "null" : String.format(Locale.ROOT, "%.3f", number);
+    }
+
+    static String quote(String value)
+    {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,271 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import pl.mpiglas.dbproc.postgres.jdbc.pool.PoolConfig;
+import pl.mpiglas.dbproc.postgres.jdbc.pool.ProcedureConnectionPool;
+
+/**
+ * Drives mixed procedure workload from many threads sharing
+ * {@link ProcedureConnectionPool} and writes JSON report with throughput,
+ * latency percentiles, pool wait time and errors, see {@link LoadReport}.
+ *
+ * In open loop, default, calls are scheduled at constant rate and every call
+ * is measured from its scheduled start, so calls delayed by slow ones are
+ * accounted for. Closed loop, with <code>--rate=0</code>, finds maximal
+ * throughput, but its latency hides queueing.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar pl.mpiglas.dbproc.postgres.bench.LoadTest \
+ *     --rate=2000 --threads=32 --pool=16 --warmup=30s --duration=5m \
+ *     --mix=num_sum:70,modmul:20,gen_rows:10 --rows=1000 --report=load-report.json
+ * </pre>
+ *
+ * Calls started during warm-up are not measured.
+ *
+ * @author Milosz Piglas
+ */
+public class LoadTest
+{
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LoadConfig config;
+    private final LoadWorkload workload;
+    private final ProcedureConnectionPool pool;
+    private final Stats[] stats;
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    LoadTest(LoadConfig config, ProcedureConnectionPool pool)
+    {
+        this.config = config;
+        this.workload = new LoadWorkload(config.getMix(), config.getRows());
+        this.pool = pool;
+        this.stats = new Stats[workload.getNames().size()];
+        for (int i = 0; i < stats.length; i++)
+        {
+            stats[i] = new Stats();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException
+    {
+        LoadConfig config = LoadConfig.parse(args);
+        Properties props = BenchmarkConnections.properties();
+        PoolConfig poolConfig = PoolConfig.of(props.getProperty("url"), props.getProperty("user"),
+                props.getProperty("password"))
+                .withMaxSize(config.getPoolSize())
+                .withMinIdle(config.getPoolSize());
+        try (ProcedureConnectionPool pool = new ProcedureConnectionPool(poolConfig))
+        {
+            LoadReport report = new LoadTest(config, pool).run();
+            report.write(config.getReport());
+            LoadReport.Result total = report.getTotal();
+            System.out.printf("calls %d, errors %d, throughput %.1f/s, latency p50 %.1f us, p99 %.1f us, "
+                    + "max %.1f us, report %s%n", total.calls, total.errors, report.getThroughput(total),
+                    total.latency.getValueAtPercentile(50.0) / 1000.0,
+                    total.latency.getValueAtPercentile(99.0) / 1000.0, total.latency.getMaxValue() / 1000.0,
+                    config.getReport().toAbsolutePath());
+        }
+    }
+
+    /**
+     * Runs warm-up and measurement.
+     *
+     * @return report of measured period
+     * @throws InterruptedException
+     */
+    LoadReport run() throws InterruptedException
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(config.getThreads(), task ->
+        {
+            Thread thread = new Thread(task, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        long measureStart = start + config.getWarmup(TimeUnit.NANOSECONDS);
+        long end = measureStart + config.getDuration(TimeUnit.NANOSECONDS);
+        PoolSnapshot before = null;
+        try
+        {
+            if (config.isOpenLoop())
+            {
+                double intervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) config.getRate();
+                for (long i = 0;; i++)
+                {
+                    long scheduled = start + (long) (i * intervalNanos);
+                    if (scheduled - end >= 0)
+                    {
+                        break;
+                    }
+                    if (before == null && scheduled - measureStart >= 0)
+                    {
+                        parkUntil(measureStart);
+                        before = new PoolSnapshot(pool);
+                    }
+                    parkUntil(scheduled);
+                    boolean measured = scheduled - measureStart >= 0;
+                    workers.execute(() -> call(scheduled, measured));
+                }
+            }
+            else
+            {
+                for (int t = 0; t < config.getThreads(); t++)
+                {
+                    workers.execute(() ->
+                    {
+                        long now;
+                        while ((now = System.nanoTime()) - end < 0)
+                        {
+                            call(now, now - measureStart >= 0);
+                        }
+                    });
+                }
+                parkUntil(measureStart);
+                before = new PoolSnapshot(pool);
+            }
+        }
+        finally
+        {
+            workers.shutdown();
+        }
+        if (before == null)
+        {
+            before = new PoolSnapshot(pool);
+        }
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        long elapsed = Math.max(System.nanoTime(), end) - measureStart;
+        return report(elapsed, before, new PoolSnapshot(pool));
+    }
+
+    private void call(long scheduled, boolean measured)
+    {
+        int index = workload.next();
+        long started = System.nanoTime();
+        long rows = 0;
+        boolean failed = false;
+        try (Connection connection = pool.getConnection())
+        {
+            rows = workload.get(index).execute(connection);
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            failed = true;
+            if (measured)
+            {
+                String key = ex instanceof SQLException && ((SQLException) ex).getSQLState() != null
+                        ? ex.getClass().getSimpleName() + " " + ((SQLException) ex).getSQLState()
+                        : ex.getClass().getSimpleName();
+                errors.computeIfAbsent(key, k -> new LongAdder()).increment();
+            }
+        }
+        long done = System.nanoTime();
+        if (measured)
+        {
+            stats[index].record(done - scheduled, done - started, rows, failed);
+        }
+    }
+
+    private LoadReport report(long elapsed, PoolSnapshot before, PoolSnapshot after)
+    {
+        List<String> names = workload.getNames();
+        Map<String, LoadReport.Result> procedures = new LinkedHashMap<>();
+        Histogram latency = new Histogram(3);
+        Histogram serviceTime = new Histogram(3);
+        long calls = 0;
+        long failures = 0;
+        long rows = 0;
+        for (int i = 0; i < stats.length; i++)
+        {
+            LoadReport.Result result = stats[i].result();
+            procedures.put(names.get(i), result);
+            latency.add(result.latency);
+            serviceTime.add(result.serviceTime);
+            calls += result.calls;
+            failures += result.errors;
+            rows += result.rows;
+        }
+        Map<String, Long> errorCounts = new TreeMap<>();
+        errors.forEach((key, count) -> errorCounts.put(key, count.sum()));
+        LoadReport report = new LoadReport(config, elapsed,
+                new LoadReport.Result(latency, serviceTime, calls, failures, rows), procedures, errorCounts);
+        report.setPool(after.checkouts - before.checkouts, after.waitNanos - before.waitNanos,
+                after.timeouts - before.timeouts, after.created - before.created);
+        return report;
+    }
+
+    private static void parkUntil(long deadline)
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(Math.min(remaining, MAX_PARK_NANOS));
+        }
+    }
+
+    /**
+     * Measurements of single procedure.
+     */
+    private static final class Stats
+    {
+
+        private final Recorder latency = new Recorder(3);
+        private final Recorder serviceTime = new Recorder(3);
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+
+        void record(long latencyNanos, long serviceNanos, long rowCount, boolean failed)
+        {
+            latency.recordValue(latencyNanos);
+            serviceTime.recordValue(serviceNanos);
+            calls.increment();
+            rows.add(rowCount);
+            if (failed)
+            {
+                errors.increment();
+            }
+        }
+
+        LoadReport.Result result()
+        {
+            return new LoadReport.Result(latency.getIntervalHistogram(), serviceTime.getIntervalHistogram(),
+                    calls.sum(), errors.sum(), rows.sum());
+        }
+    }
+
+    /**
+     * Cumulative pool statistics at some moment.
+     */
+    private static final class PoolSnapshot
+    {
+
+        private final long checkouts;
+        private final long waitNanos;
+        private final long timeouts;
+        private final long created;
+
+        PoolSnapshot(ProcedureConnectionPool pool)
+        {
+            this.checkouts = pool.getCheckouts();
+            this.waitNanos = pool.getWaitTime(TimeUnit.NANOSECONDS);
+            this.timeouts = pool.getTimeouts();
+            this.created = pool.getCreated();
+        }
+    }
+}
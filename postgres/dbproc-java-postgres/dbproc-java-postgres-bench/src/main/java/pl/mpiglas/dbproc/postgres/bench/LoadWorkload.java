@@ -0,0 +1,125 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted mix of sample procedure calls driven by {@link LoadTest}.
+ *
+ * @author Milosz Piglas
+ */
+final class LoadWorkload
+{
+
+    /**
+     * Single procedure call on borrowed connection.
+     */
+    @FunctionalInterface
+    interface Operation
+    {
+
+        /**
+         * @param connection pooled connection
+         * @return number of rows read
+         * @throws SQLException
+         */
+        long execute(Connection connection) throws SQLException;
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private final int[] cumulativeWeights;
+
+    /**
+     * @param mix weights of procedures
+     * @param rows rows requested from set-returning procedures
+     */
+    LoadWorkload(Map<String, Integer> mix, int rows)
+    {
+        cumulativeWeights = new int[mix.size()];
+        int total = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet())
+        {
+            total += entry.getValue();
+            cumulativeWeights[names.size()] = total;
+            names.add(entry.getKey());
+            operations.add(operation(entry.getKey(), rows));
+        }
+    }
+
+    List<String> getNames()
+    {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return index of randomly chosen operation
+     */
+    int next()
+    {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++)
+        {
+            if (pick < cumulativeWeights[i])
+            {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Weight " + pick + " out of range");
+    }
+
+    Operation get(int index)
+    {
+        return operations.get(index);
+    }
+
+    private static Operation operation(String name, int rows)
+    {
+        switch (name)
+        {
+            case "num_sum":
+                return connection -> query(connection, "SELECT num_sum(?, ?)",
+                        ThreadLocalRandom.current().nextInt(1000), ThreadLocalRandom.current().nextInt(1000));
+            case "modmul":
+                return connection -> query(connection, "SELECT * FROM modmul(?, ?)",
+                        ThreadLocalRandom.current().nextInt(1000), 1 + ThreadLocalRandom.current().nextInt(100));
+            case "out_text":
+                return connection -> query(connection, "SELECT * FROM out_text()");
+            case "gen_rows":
+                return connection -> query(connection, "SELECT * FROM gen_rows(?)", rows);
+            case "int_set":
+                return connection -> query(connection, "SELECT * FROM int_set(?)", rows);
+            default:
+                throw new IllegalArgumentException("Unknown procedure " + name
+                        + ", expected num_sum, modmul, out_text, gen_rows or int_set");
+        }
+    }
+
+    private static long query(Connection connection, String sql, int... args) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement(sql))
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                statement.setInt(i + 1, args[i]);
+            }
+            long count = 0;
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    resultSet.getObject(1);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
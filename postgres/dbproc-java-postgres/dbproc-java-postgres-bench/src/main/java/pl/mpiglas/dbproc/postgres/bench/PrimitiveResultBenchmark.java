@@ -0,0 +1,104 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pl.mpiglas.dbproc.postgres.jdbc.PrimitiveResultReader;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureResultIterator;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader;
+
+/**
+ * Reading <code>int_set</code> into boxed list and with primitive reader.
+ * With reused buffer, <code>alloc [B/row]</code> of primitive variants is
+ * what driver allocates for fetched rows only; the difference to
+ * <code>boxedList</code> is the boxing and list overhead removed.
+ *
+ * @author Milosz Piglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(
+{
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PrimitiveResultBenchmark
+{
+
+    private static final String INT_SET = "SELECT * FROM int_set(?)";
+
+    @Param(
+    {
+        "1000", "100000", "10000000"
+    })
+    public int rows;
+
+    private Connection pgCon;
+    private ProcedureStreamReader streamReader;
+    private PrimitiveResultReader primitiveReader;
+    private PrimitiveResultReader.IntArray buffer;
+
+    @Setup
+    public void init() throws IOException, SQLException
+    {
+        pgCon = BenchmarkConnections.open();
+        streamReader = new ProcedureStreamReader(pgCon);
+        primitiveReader = new PrimitiveResultReader(pgCon);
+        buffer = new PrimitiveResultReader.IntArray(rows);
+    }
+
+    @Benchmark
+    public List<Integer> boxedList() throws SQLException
+    {
+        List<Integer> values = new ArrayList<>();
+        try (ProcedureResultIterator<Integer> iterator = streamReader.iterator(INT_SET, rs -> rs.getInt(1), rows))
+        {
+            while (iterator.hasNext())
+            {
+                values.add(iterator.next());
+            }
+        }
+        return values;
+    }
+
+    @Benchmark
+    public PrimitiveResultReader.IntArray reusedBuffer() throws SQLException
+    {
+        buffer.clear();
+        primitiveReader.forEachInt(INT_SET, buffer, rows);
+        return buffer;
+    }
+
+    @Benchmark
+    public long intStreamSum() throws SQLException
+    {
+        try (IntStream values = primitiveReader.intStream(INT_SET, rows))
+        {
+            return values.asLongStream().sum();
+        }
+    }
+
+    @TearDown
+    public void releaseResources() throws SQLException
+    {
+        pgCon.close();
+    }
+}
@@ -0,0 +1,86 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs procedure call benchmarks with the GC profiler enabled and prints
+ * summary with throughput in ops/s, p99 latency and allocations per call and
+ * per returned row.
+ *
+ * Accepts regular JMH command line options, e.g.
+ * <code>java -jar target/benchmarks.jar SetReturning -p rows=10,1000</code>
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureBenchmarks
+{
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException
+    {
+        Options opts = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(opts).run();
+        printSummary(results);
+    }
+
+    private static void printSummary(Collection<RunResult> results)
+    {
+        System.out.println();
+        System.out.printf("%-60s %10s %14s %14s %14s %14s%n",
+                "Benchmark", "rows", "ops/s", "p99 [us]", "alloc [B/op]", "alloc [B/row]");
+        for (RunResult result : results)
+        {
+            BenchmarkParams params = result.getParams();
+            String rowsParam = params.getParam("rows");
+            long rows = rowsParam == null ? 1 : Long.parseLong(rowsParam);
+            double alloc = allocationPerOp(result.getSecondaryResults());
+            String throughput = "";
+            String p99 = "";
+            long unitNanos = params.getTimeUnit().toNanos(1);
+            switch (params.getMode())
+            {
+                case Throughput:
+                    double opsPerSecond = result.getPrimaryResult().getScore() * TimeUnit.SECONDS.toNanos(1) / unitNanos;
+                    throughput = String.format("%.1f", opsPerSecond);
+                    break;
+                case SampleTime:
+                    double percentile = result.getPrimaryResult().getStatistics().getPercentile(99.0);
+                    p99 = String.format("%.1f", percentile * unitNanos / 1000.0);
+                    break;
+                default:
+                    break;
+            }
+            System.out.printf("%-60s %10s %14s %14s %14.1f %14.2f%n",
+                    params.getBenchmark(), rowsParam == null ? "-" : rowsParam, throughput, p99,
+                    alloc, alloc / rows);
+        }
+    }
+
+    private static double allocationPerOp(Map<String, Result> secondary)
+    {
+        for (Map.Entry<String, Result> entry : secondary.entrySet())
+        {
+            if (entry.getKey().endsWith(ALLOC_NORM))
+            {
+                return entry.getValue().getScore();
+            }
+        }
+        return Double.NaN;
+    }
+}
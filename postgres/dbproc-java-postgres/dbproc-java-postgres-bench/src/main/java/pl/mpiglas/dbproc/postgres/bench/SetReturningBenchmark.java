@@ -0,0 +1,150 @@
+package pl.mpiglas.dbproc.postgres.bench;
+
+import java.io.IOException;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.ParameterMode;
+import javax.persistence.Persistence;
+import javax.persistence.StoredProcedureQuery;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.ProcedureQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reading <code>gen_rows</code> and <code>int_set</code> results of growing
+ * size with every call style. JPA and Cayenne keep the whole result in memory,
+ * so the largest sizes need a big heap; restrict them with
+ * <code>-p rows=...</code> when needed.
+ *
+ * @author Milosz Piglas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(
+{
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SetReturningBenchmark
+{
+
+    @Param(
+    {
+        "10", "1000", "100000", "10000000"
+    })
+    public int rows;
+
+    private Connection pgCon;
+    private EntityManagerFactory factory;
+    private EntityManager em;
+    private ServerRuntime runtime;
+
+    @Setup
+    public void init() throws IOException, SQLException
+    {
+        pgCon = BenchmarkConnections.open();
+        factory = Persistence.createEntityManagerFactory("postgresBenchPu");
+        em = factory.createEntityManager();
+        runtime = new ServerRuntime("cayenne-dbproc.xml");
+    }
+
+    @Benchmark
+    public void jdbcGenRows(Blackhole bh) throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{call gen_rows(?)}"))
+        {
+            proc.setInt(1, rows);
+            try (ResultSet resultSet = proc.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    bh.consume(resultSet.getString(1));
+                    bh.consume(resultSet.getInt(2));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void jdbcIntSet(Blackhole bh) throws SQLException
+    {
+        try (CallableStatement proc = pgCon.prepareCall("{call int_set(?)}"))
+        {
+            proc.setInt(1, rows);
+            try (ResultSet resultSet = proc.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    bh.consume(resultSet.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<?> jpaGenRows()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("gen_rows");
+        proc.registerStoredProcedureParameter(1, Integer.class, ParameterMode.IN);
+        proc.setParameter(1, rows);
+        List<?> result = proc.getResultList();
+        em.clear();
+        return result;
+    }
+
+    @Benchmark
+    public List<?> jpaIntSet()
+    {
+        StoredProcedureQuery proc = em.createStoredProcedureQuery("int_set");
+        proc.registerStoredProcedureParameter(1, Integer.class, ParameterMode.IN);
+        proc.setParameter(1, rows);
+        List<?> result = proc.getResultList();
+        em.clear();
+        return result;
+    }
+
+    @Benchmark
+    public List<?> cayenneGenRows()
+    {
+        ProcedureQuery query = new ProcedureQuery("gen_rows");
+        query.addParameter("nrows", rows);
+        return runtime.newContext().performQuery(query);
+    }
+
+    @Benchmark
+    public List<?> cayenneIntSet()
+    {
+        ProcedureQuery query = new ProcedureQuery("int_set");
+        query.addParameter("len", rows);
+        return runtime.newContext().performQuery(query);
+    }
+
+    @TearDown
+    public void releaseResources() throws SQLException
+    {
+        runtime.shutdown();
+        em.close();
+        factory.close();
+        pgCon.close();
+    }
+}
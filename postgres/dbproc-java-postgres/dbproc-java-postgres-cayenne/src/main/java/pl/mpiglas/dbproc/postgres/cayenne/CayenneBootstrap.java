@@ -0,0 +1,171 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import java.sql.Connection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import pl.mpiglas.dbproc.postgres.jdbc.LazyBootstrap;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Builds {@link ServerRuntime} once, on background thread. Cayenne loads
+ * project and data maps lazily, on the first use of runtime, so bootstrap
+ * loads data domain eagerly and optionally replaces procedures of data map
+ * with definitions read from database with {@link ProcedureMaps}.
+ *
+ * <pre>
+ * CayenneBootstrap cayenne = CayenneBootstrap.shared("cayenne-dbproc.xml");
+ * // other startup work
+ * ObjectContext ctx = cayenne.newContext();
+ * </pre>
+ *
+ * Bootstrap phases are <code>createRuntime</code>,
+ * <code>loadDataDomain</code>, <code>introspectProcedures</code> and
+ * <code>registerProcedures</code>.
+ *
+ * @author Milosz Piglas
+ */
+public final class CayenneBootstrap implements AutoCloseable
+{
+
+    private static final ConcurrentMap<String, CayenneBootstrap> SHARED = new ConcurrentHashMap<>();
+
+    private final String configurationLocation;
+    private final LazyBootstrap<ServerRuntime> bootstrap;
+
+    /**
+     * @param configurationLocation Cayenne project, e.g.
+     * <code>cayenne-dbproc.xml</code>
+     */
+    public CayenneBootstrap(String configurationLocation)
+    {
+        this(configurationLocation, null, null);
+    }
+
+    /**
+     * @param configurationLocation Cayenne project
+     * @param dataMapName data map receiving procedures, null to skip
+     * registration
+     * @param schema schema of registered procedures
+     */
+    public CayenneBootstrap(String configurationLocation, String dataMapName, String schema)
+    {
+        this.configurationLocation = configurationLocation;
+        this.bootstrap = new LazyBootstrap<>(configurationLocation, phases ->
+        {
+            ServerRuntime runtime = phases.time("createRuntime", () -> new ServerRuntime(configurationLocation));
+            try
+            {
+                phases.time("loadDataDomain", runtime::getDataDomain);
+                if (dataMapName != null)
+                {
+                    ProcedureRegistry registry = phases.time("introspectProcedures", () ->
+                    {
+                        try (Connection con = runtime.getDataSource().getConnection())
+                        {
+                            return ProcedureRegistry.introspect(con, schema);
+                        }
+                    });
+                    phases.time("registerProcedures", () ->
+                    {
+                        ProcedureMaps.register(runtime, dataMapName, registry);
+                        return registry;
+                    });
+                }
+                return runtime;
+            }
+            catch (Exception | Error ex)
+            {
+                runtime.shutdown();
+                throw ex;
+            }
+        });
+    }
+
+    /**
+     * Returns bootstrap shared by all callers with the same configuration
+     * location. Bootstrap is started on the first call.
+     *
+     * @param configurationLocation Cayenne project
+     * @return started bootstrap
+     */
+    public static CayenneBootstrap shared(String configurationLocation)
+    {
+        return SHARED.computeIfAbsent(configurationLocation, CayenneBootstrap::new).start();
+    }
+
+    /**
+     * Starts building runtime on background thread.
+     *
+     * @return this bootstrap
+     */
+    public CayenneBootstrap start()
+    {
+        bootstrap.start();
+        return this;
+    }
+
+    /**
+     * @return runtime, waits for bootstrap or builds it in calling thread if
+     * bootstrap was not started
+     */
+    public ServerRuntime getRuntime()
+    {
+        return bootstrap.get();
+    }
+
+    public ObjectContext newContext()
+    {
+        return getRuntime().newContext();
+    }
+
+    public String getConfigurationLocation()
+    {
+        return configurationLocation;
+    }
+
+    public boolean isReady()
+    {
+        return bootstrap.isDone();
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of bootstrap, or -1 if it is not finished
+     */
+    public long getBootstrapTime(TimeUnit unit)
+    {
+        return bootstrap.getBootstrapTime(unit);
+    }
+
+    /**
+     * @param unit time unit
+     * @return total time callers waited for runtime
+     */
+    public long getWaitTime(TimeUnit unit)
+    {
+        return bootstrap.getWaitTime(unit);
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of completed bootstrap phases
+     */
+    public Map<String, Long> getPhases(TimeUnit unit)
+    {
+        return bootstrap.getPhases(unit);
+    }
+
+    /**
+     * Shuts runtime down and removes bootstrap from shared ones.
+     */
+    @Override
+    public void close()
+    {
+        SHARED.remove(configurationLocation, this);
+        bootstrap.close(ServerRuntime::shutdown);
+    }
+}
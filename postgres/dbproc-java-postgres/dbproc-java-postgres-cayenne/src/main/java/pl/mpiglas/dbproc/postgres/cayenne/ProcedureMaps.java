@@ -0,0 +1,94 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.Procedure;
+import org.apache.cayenne.map.ProcedureParameter;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter.Mode;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Builds Cayenne {@link Procedure} definitions from {@link ProcedureRegistry},
+ * instead of declaring them by hand in data map XML.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureMaps
+{
+
+    /**
+     * Name of artificial OUT parameter, which receives value returned from
+     * scalar procedure.
+     */
+    public static final String RETURN_PARAMETER = "ret";
+
+    private ProcedureMaps()
+    {
+    }
+
+    /**
+     * Adds all procedures from registry to data map. Procedures already
+     * declared in data map are replaced.
+     *
+     * @param runtime Cayenne runtime
+     * @param dataMapName name of data map, e.g. <code>procedures</code>
+     * @param registry procedure metadata
+     */
+    public static void register(ServerRuntime runtime, String dataMapName, ProcedureRegistry registry)
+    {
+        DataMap map = runtime.getDataDomain().getDataMap(dataMapName);
+        if (map == null)
+        {
+            throw new IllegalArgumentException("Unknown data map " + dataMapName);
+        }
+        for (ProcedureMetadata procedure : registry.getProcedures())
+        {
+            map.removeProcedure(procedure.getName());
+            map.addProcedure(toProcedure(procedure));
+        }
+        runtime.getDataDomain().getEntityResolver().refreshMappingCache();
+    }
+
+    /**
+     * Converts procedure metadata to Cayenne procedure. Scalar procedures
+     * without OUT parameters return value to artificial
+     * {@link #RETURN_PARAMETER}. Result columns of set-returning procedures
+     * are read from result set, so they are not declared.
+     *
+     * @param metadata procedure metadata
+     * @return Cayenne procedure
+     */
+    public static Procedure toProcedure(ProcedureMetadata metadata)
+    {
+        Procedure procedure = new Procedure(metadata.getName());
+        boolean hasOutParams = metadata.getParameters().stream()
+                .anyMatch(p -> p.getMode() == Mode.OUT || p.getMode() == Mode.INOUT);
+        if (metadata.isScalar() && !hasOutParams)
+        {
+            procedure.setReturningValue(true);
+            int type = metadata.getOutputs().get(0).getSqlType();
+            procedure.addCallParameter(new ProcedureParameter(RETURN_PARAMETER, type, ProcedureParameter.OUT_PARAMETER));
+        }
+        for (pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter param : metadata.getParameters())
+        {
+            int direction;
+            switch (param.getMode())
+            {
+                case IN:
+                    direction = ProcedureParameter.IN_PARAMETER;
+                    break;
+                case INOUT:
+                    direction = ProcedureParameter.IN_OUT_PARAMETER;
+                    break;
+                case OUT:
+                    direction = ProcedureParameter.OUT_PARAMETER;
+                    break;
+                default:
+                    continue;
+            }
+            procedure.addCallParameter(new ProcedureParameter(param.getName(), param.getSqlType(), direction));
+        }
+        return procedure;
+    }
+}
@@ -0,0 +1,192 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.map.Procedure;
+import org.apache.cayenne.query.ProcedureQuery;
+import pl.mpiglas.dbproc.postgres.jdbc.Deadline;
+import pl.mpiglas.dbproc.postgres.jdbc.StatementTimeout;
+import pl.mpiglas.dbproc.postgres.jdbc.UncheckedSQLException;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureListener;
+
+/**
+ * Performs {@link ProcedureQuery} and reports call to
+ * {@link ProcedureListener}, e.g.
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureMetrics}. Cayenne
+ * reads all rows before returning, so time to the first row is measured when
+ * result is complete.
+ *
+ * Cayenne has no query timeout, so queries with {@link Deadline} are
+ * performed in transaction, which pins connection of data node, and
+ * {@link StatementTimeout} of that connection is limited for the time of
+ * query.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureQueries
+{
+
+    private ProcedureQueries()
+    {
+    }
+
+    /**
+     * Performs query and returns rows of the first result set, see
+     * {@link ObjectContext#performQuery(org.apache.cayenne.query.Query)}.
+     *
+     * @param context object context
+     * @param query procedure query
+     * @param listener listener of calls
+     * @return rows
+     */
+    public static <T> List<T> performQuery(ObjectContext context, ProcedureQuery query, ProcedureListener listener)
+    {
+        return performQuery(null, context, query, listener, Deadline.NONE);
+    }
+
+    /**
+     * Performs query, which has to finish before deadline, and returns rows
+     * of the first result set. Query stopped by deadline fails with
+     * {@link UncheckedSQLException} caused by {@link SQLTimeoutException}.
+     *
+     * @param runtime Cayenne runtime, which performs transaction
+     * @param context object context
+     * @param query procedure query
+     * @param listener listener of calls
+     * @param deadline deadline of query
+     * @return rows
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> performQuery(ServerRuntime runtime, ObjectContext context, ProcedureQuery query,
+            ProcedureListener listener, Deadline deadline)
+    {
+        ProcedureCall call = ProcedureCall.start(listener, procedureName(query), query.getParameters().values().toArray());
+        try
+        {
+            List<T> rows = withDeadline(runtime, query, deadline, () -> context.performQuery(query));
+            call.rowsRead(rows.size());
+            call.finish();
+            return rows;
+        }
+        catch (RuntimeException ex)
+        {
+            call.fail(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Performs query and returns all its results, see
+     * {@link ObjectContext#performGenericQuery(org.apache.cayenne.query.Query)}.
+     * Rows of all result lists are counted.
+     *
+     * @param context object context
+     * @param query procedure query
+     * @param listener listener of calls
+     * @return query response
+     */
+    public static QueryResponse performGenericQuery(ObjectContext context, ProcedureQuery query,
+            ProcedureListener listener)
+    {
+        return performGenericQuery(null, context, query, listener, Deadline.NONE);
+    }
+
+    /**
+     * Performs query, which has to finish before deadline, and returns all
+     * its results.
+     *
+     * @param runtime Cayenne runtime, which performs transaction
+     * @param context object context
+     * @param query procedure query
+     * @param listener listener of calls
+     * @param deadline deadline of query
+     * @return query response
+     * @see #performQuery(ServerRuntime, ObjectContext, ProcedureQuery, ProcedureListener, Deadline)
+     */
+    public static QueryResponse performGenericQuery(ServerRuntime runtime, ObjectContext context,
+            ProcedureQuery query, ProcedureListener listener, Deadline deadline)
+    {
+        ProcedureCall call = ProcedureCall.start(listener, procedureName(query), query.getParameters().values().toArray());
+        try
+        {
+            QueryResponse response = withDeadline(runtime, query, deadline, () -> context.performGenericQuery(query));
+            for (response.reset(); response.next();)
+            {
+                if (response.isList())
+                {
+                    call.rowsRead(response.currentList().size());
+                }
+            }
+            response.reset();
+            call.finish();
+            return response;
+        }
+        catch (RuntimeException ex)
+        {
+            call.fail(ex);
+            throw ex;
+        }
+    }
+
+    private static <T> T withDeadline(ServerRuntime runtime, ProcedureQuery query, Deadline deadline,
+            Supplier<T> work)
+    {
+        if (!deadline.isBounded())
+        {
+            return work.get();
+        }
+        String procedure = procedureName(query);
+        DataSource dataSource = ProcedureStreams.dataSource(runtime.getDataDomain(), query);
+        try
+        {
+            return runtime.performInTransaction(() ->
+            {
+                try
+                {
+                    // connection of transaction, which is used by query too
+                    StatementTimeout timeout = StatementTimeout.set(dataSource.getConnection(), deadline, procedure);
+                    T result = work.get();
+                    // on failure timeout is restored by rollback
+                    timeout.close();
+                    return result;
+                }
+                catch (SQLException ex)
+                {
+                    throw new UncheckedSQLException(ex);
+                }
+            });
+        }
+        catch (RuntimeException ex)
+        {
+            for (Throwable cause = ex; cause != null; cause = cause.getCause())
+            {
+                if (cause instanceof SQLException)
+                {
+                    SQLException failure = StatementTimeout.translate(deadline, procedure, (SQLException) cause);
+                    if (failure instanceof SQLTimeoutException)
+                    {
+                        throw new UncheckedSQLException(failure);
+                    }
+                }
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * @param query procedure query
+     * @return name of called procedure
+     */
+    public static String procedureName(ProcedureQuery query)
+    {
+        Object root = query.getRoot();
+        return root instanceof Procedure ? ((Procedure) root).getName() : String.valueOf(root);
+    }
+}
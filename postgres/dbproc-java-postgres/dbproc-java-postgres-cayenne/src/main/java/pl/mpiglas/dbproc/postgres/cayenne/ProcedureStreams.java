@@ -0,0 +1,492 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.sql.DataSource;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ResultBatchIterator;
+import org.apache.cayenne.ResultIterator;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.access.DataDomain;
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.map.Procedure;
+import org.apache.cayenne.map.ProcedureParameter;
+import org.apache.cayenne.query.ProcedureQuery;
+import pl.mpiglas.dbproc.postgres.jdbc.Deadline;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureResultIterator;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader;
+import pl.mpiglas.dbproc.postgres.jdbc.RowMapper;
+import pl.mpiglas.dbproc.postgres.jdbc.UncheckedSQLException;
+
+/**
+ * Reads rows of set-returning procedures, like <code>gen_rows</code>, without
+ * materializing the whole result, as
+ * {@link ObjectContext#performQuery(org.apache.cayenne.query.Query)} does.
+ *
+ * Procedure is called with {@link ProcedureStreamReader} on connection of
+ * data node, which serves procedure's data map, so driver fetches rows with
+ * cursor, <code>fetchSize</code> rows at a time. Cayenne's own iterated
+ * queries cannot be used: procedure action closes result set as soon as it
+ * was read. Rows can be read in two ways:
+ * <ul>
+ * <li>as {@link DataRow} keyed by column labels, with Cayenne
+ * {@link ResultIterator}, one by one or in batches. Column values are read
+ * with {@link java.sql.ResultSet#getObject(int)}, not with Cayenne extended
+ * types,</li>
+ * <li>as objects created by {@link RowMapper}, e.g. column arrays or
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.ConstructorRowMapper}, so no map is
+ * created per row.</li>
+ * </ul>
+ *
+ * <pre>
+ * try (Stream&lt;Object[]&gt; rows = ProcedureStreams.stream(runtime, query, ProcedureStreams.COLUMNS, 1000))
+ * {
+ *     rows.forEach(row -&gt; ...);
+ * }
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureStreams
+{
+
+    public static final int DEFAULT_FETCH_SIZE = ProcedureStreamReader.DEFAULT_FETCH_SIZE;
+
+    /**
+     * Maps row to array of column values.
+     */
+    public static final RowMapper<Object[]> COLUMNS = resultSet ->
+    {
+        Object[] columns = new Object[resultSet.getMetaData().getColumnCount()];
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i] = resultSet.getObject(i + 1);
+        }
+        return columns;
+    };
+
+    /**
+     * Maps row to data row keyed by column labels.
+     */
+    public static final RowMapper<DataRow> DATA_ROWS = resultSet ->
+    {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        DataRow row = new DataRow(metaData.getColumnCount());
+        for (int i = 1; i <= metaData.getColumnCount(); i++)
+        {
+            row.put(metaData.getColumnLabel(i), resultSet.getObject(i));
+        }
+        return row;
+    };
+
+    private ProcedureStreams()
+    {
+    }
+
+    /**
+     * Calls procedure of query on JDBC connection of its data node and returns
+     * iterator over data rows. Iterator must be closed to release cursor and
+     * connection.
+     *
+     * @param context data context
+     * @param query procedure query with input parameters
+     * @param fetchSize number of rows fetched in single round trip
+     * @return iterator over data rows
+     * @throws UncheckedSQLException if procedure could not be called
+     */
+    public static ResultIterator<DataRow> iterator(ObjectContext context, ProcedureQuery query, int fetchSize)
+    {
+        return iterator(context, query, fetchSize, Deadline.NONE);
+    }
+
+    /**
+     * Calls procedure of query and returns iterator over data rows, which
+     * have to be read before deadline. Running query is then cancelled in
+     * database and iterator throws {@link UncheckedSQLException} caused by
+     * {@link java.sql.SQLTimeoutException}.
+     *
+     * @param context data context
+     * @param query procedure query with input parameters
+     * @param fetchSize number of rows fetched in single round trip
+     * @param deadline deadline of call, including consuming rows
+     * @return iterator over data rows
+     * @throws UncheckedSQLException if procedure could not be called
+     */
+    public static ResultIterator<DataRow> iterator(ObjectContext context, ProcedureQuery query, int fetchSize,
+            Deadline deadline)
+    {
+        if (!(context instanceof DataContext))
+        {
+            throw new IllegalArgumentException("Iterated queries require DataContext, got " + context.getClass());
+        }
+        if (fetchSize <= 0)
+        {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        ResolvedCall call = new ResolvedCall(((DataContext) context).getParentDataDomain(), query);
+        try
+        {
+            Connection connection = call.dataSource.getConnection();
+            try
+            {
+                return new DataRowIterator(new ProcedureStreamReader(connection, fetchSize)
+                        .iterator(deadline, call.sql, DATA_ROWS, call.args), connection);
+            }
+            catch (SQLException | RuntimeException ex)
+            {
+                try
+                {
+                    connection.close();
+                }
+                catch (SQLException closeEx)
+                {
+                    ex.addSuppressed(closeEx);
+                }
+                throw ex;
+            }
+        }
+        catch (SQLException ex)
+        {
+            throw new UncheckedSQLException(ex);
+        }
+    }
+
+    /**
+     * Calls procedure of query and returns iterator over lists of data
+     * rows.
+     *
+     * @param context data context
+     * @param query procedure query
+     * @param fetchSize number of rows fetched in single round trip
+     * @param batchSize number of rows in single batch
+     * @return iterator over batches
+     */
+    public static ResultBatchIterator<DataRow> batchIterator(ObjectContext context, ProcedureQuery query,
+            int fetchSize, int batchSize)
+    {
+        return batchIterator(context, query, fetchSize, batchSize, Deadline.NONE);
+    }
+
+    /**
+     * Calls procedure of query and returns iterator over lists of data rows,
+     * which have to be read before deadline.
+     *
+     * @param context data context
+     * @param query procedure query
+     * @param fetchSize number of rows fetched in single round trip
+     * @param batchSize number of rows in single batch
+     * @param deadline deadline of call, including consuming rows
+     * @return iterator over batches
+     */
+    public static ResultBatchIterator<DataRow> batchIterator(ObjectContext context, ProcedureQuery query,
+            int fetchSize, int batchSize, Deadline deadline)
+    {
+        return new ResultBatchIterator<>(iterator(context, query, fetchSize, deadline), batchSize);
+    }
+
+    /**
+     * Calls procedure of query and returns stream of data rows. Stream must
+     * be closed.
+     *
+     * @param context data context
+     * @param query procedure query
+     * @param fetchSize number of rows fetched in single round trip
+     * @return stream of data rows
+     */
+    public static Stream<DataRow> stream(ObjectContext context, ProcedureQuery query, int fetchSize)
+    {
+        return stream(context, query, fetchSize, Deadline.NONE);
+    }
+
+    /**
+     * Calls procedure of query and returns stream of data rows, which have to
+     * be read before deadline. Stream must be closed.
+     *
+     * @param context data context
+     * @param query procedure query
+     * @param fetchSize number of rows fetched in single round trip
+     * @param deadline deadline of call, including consuming rows
+     * @return stream of data rows
+     */
+    public static Stream<DataRow> stream(ObjectContext context, ProcedureQuery query, int fetchSize,
+            Deadline deadline)
+    {
+        ResultIterator<DataRow> rows = iterator(context, query, fetchSize, deadline);
+        Iterator<DataRow> iterator = rows.iterator();
+        Spliterator<DataRow> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(rows::close);
+    }
+
+    /**
+     * Calls procedure of query on JDBC connection of its data node and returns
+     * stream of mapped rows. Stream must be closed to release cursor and
+     * connection.
+     *
+     * @param runtime Cayenne runtime
+     * @param query procedure query with input parameters
+     * @param mapper maps single row
+     * @param fetchSize number of rows fetched in single round trip
+     * @return stream of rows
+     * @throws SQLException
+     */
+    public static <T> Stream<T> stream(ServerRuntime runtime, ProcedureQuery query, RowMapper<T> mapper,
+            int fetchSize) throws SQLException
+    {
+        return stream(runtime, query, mapper, fetchSize, Deadline.NONE);
+    }
+
+    /**
+     * Calls procedure of query and returns stream of mapped rows, which have
+     * to be read before deadline. Stream must be closed.
+     *
+     * @param runtime Cayenne runtime
+     * @param query procedure query with input parameters
+     * @param mapper maps single row
+     * @param fetchSize number of rows fetched in single round trip
+     * @param deadline deadline of call, including consuming rows
+     * @return stream of rows
+     * @throws java.sql.SQLTimeoutException if deadline passed before first
+     * rows were fetched
+     * @throws SQLException
+     */
+    public static <T> Stream<T> stream(ServerRuntime runtime, ProcedureQuery query, RowMapper<T> mapper,
+            int fetchSize, Deadline deadline) throws SQLException
+    {
+        ResolvedCall call = new ResolvedCall(runtime.getDataDomain(), query);
+        Connection connection = call.dataSource.getConnection();
+        try
+        {
+            return new ProcedureStreamReader(connection, fetchSize).stream(deadline, call.sql, mapper, call.args)
+                    .onClose(() -> close(connection));
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            try
+            {
+                connection.close();
+            }
+            catch (SQLException closeEx)
+            {
+                ex.addSuppressed(closeEx);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Passes mapped rows to consumer while they are fetched.
+     *
+     * @param runtime Cayenne runtime
+     * @param query procedure query with input parameters
+     * @param mapper maps single row
+     * @param consumer consumer of rows
+     * @param fetchSize number of rows fetched in single round trip
+     * @return number of rows
+     * @throws SQLException
+     */
+    public static <T> long forEach(ServerRuntime runtime, ProcedureQuery query, RowMapper<T> mapper,
+            Consumer<? super T> consumer, int fetchSize) throws SQLException
+    {
+        return forEach(runtime, query, mapper, consumer, fetchSize, Deadline.NONE);
+    }
+
+    /**
+     * Passes mapped rows to consumer until all are read or deadline passes.
+     * Running query is then cancelled in database and
+     * {@link UncheckedSQLException} caused by
+     * {@link java.sql.SQLTimeoutException} is thrown.
+     *
+     * @param runtime Cayenne runtime
+     * @param query procedure query with input parameters
+     * @param mapper maps single row
+     * @param consumer consumer of rows
+     * @param fetchSize number of rows fetched in single round trip
+     * @param deadline deadline of call, including consuming rows
+     * @return number of rows
+     * @throws java.sql.SQLTimeoutException if deadline passed before first
+     * rows were fetched
+     * @throws SQLException
+     */
+    public static <T> long forEach(ServerRuntime runtime, ProcedureQuery query, RowMapper<T> mapper,
+            Consumer<? super T> consumer, int fetchSize, Deadline deadline) throws SQLException
+    {
+        ResolvedCall call = new ResolvedCall(runtime.getDataDomain(), query);
+        long count = 0;
+        try (Connection connection = call.dataSource.getConnection();
+                ProcedureResultIterator<T> rows = new ProcedureStreamReader(connection, fetchSize)
+                        .iterator(deadline, call.sql, mapper, call.args))
+        {
+            while (rows.hasNext())
+            {
+                consumer.accept(rows.next());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param procedure Cayenne procedure
+     * @return <code>SELECT * FROM name(?, ...)</code> with placeholders of
+     * input parameters
+     */
+    static String selectSql(Procedure procedure)
+    {
+        String args = inputs(procedure).stream().map(p -> "?").collect(Collectors.joining(", "));
+        return "SELECT * FROM " + procedure.getFullyQualifiedName() + "(" + args + ")";
+    }
+
+    /**
+     * @param domain data domain
+     * @param query procedure query
+     * @return data source of data node serving procedure of query
+     */
+    static DataSource dataSource(DataDomain domain, ProcedureQuery query)
+    {
+        return new ResolvedCall(domain, query).dataSource;
+    }
+
+    private static void close(Connection connection)
+    {
+        try
+        {
+            connection.close();
+        }
+        catch (SQLException ex)
+        {
+            throw new UncheckedSQLException(ex);
+        }
+    }
+
+    private static List<ProcedureParameter> inputs(Procedure procedure)
+    {
+        List<ProcedureParameter> inputs = new ArrayList<>();
+        for (ProcedureParameter param : procedure.getCallParameters())
+        {
+            if (param.isInParameter())
+            {
+                inputs.add(param);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Cayenne iterator over rows read with {@link ProcedureStreamReader}.
+     * Closing it closes connection of data node.
+     */
+    private static final class DataRowIterator implements ResultIterator<DataRow>
+    {
+
+        private final ProcedureResultIterator<DataRow> rows;
+        private final Connection connection;
+
+        DataRowIterator(ProcedureResultIterator<DataRow> rows, Connection connection)
+        {
+            this.rows = rows;
+            this.connection = connection;
+        }
+
+        @Override
+        public Iterator<DataRow> iterator()
+        {
+            return rows;
+        }
+
+        /**
+         * Reads remaining rows and closes iterator.
+         */
+        @Override
+        public List<DataRow> allRows()
+        {
+            List<DataRow> all = new ArrayList<>();
+            try
+            {
+                while (rows.hasNext())
+                {
+                    all.add(rows.next());
+                }
+            }
+            finally
+            {
+                close();
+            }
+            return all;
+        }
+
+        @Override
+        public boolean hasNextRow()
+        {
+            return rows.hasNext();
+        }
+
+        @Override
+        public DataRow nextRow()
+        {
+            return rows.next();
+        }
+
+        @Override
+        public void skipRow()
+        {
+            rows.next();
+        }
+
+        @Override
+        public void close()
+        {
+            try
+            {
+                rows.close();
+            }
+            finally
+            {
+                ProcedureStreams.close(connection);
+            }
+        }
+    }
+
+    /**
+     * Procedure of query resolved to SQL, arguments and data source of its
+     * data node.
+     */
+    private static final class ResolvedCall
+    {
+
+        private final String sql;
+        private final Object[] args;
+        private final DataSource dataSource;
+
+        ResolvedCall(DataDomain domain, ProcedureQuery query)
+        {
+            Object root = query.getRoot();
+            Procedure procedure = root instanceof Procedure ? (Procedure) root
+                    : domain.getEntityResolver().getProcedure(String.valueOf(root));
+            if (procedure == null)
+            {
+                throw new IllegalArgumentException("Unknown procedure " + ProcedureQueries.procedureName(query));
+            }
+            List<ProcedureParameter> inputs = inputs(procedure);
+            this.args = new Object[inputs.size()];
+            for (int i = 0; i < args.length; i++)
+            {
+                args[i] = query.getParameters().get(inputs.get(i).getName());
+            }
+            this.sql = selectSql(procedure);
+            DataNode node = domain.lookupDataNode(procedure.getDataMap());
+            this.dataSource = node.getDataSource();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.query.ProcedureQuery;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Runtime built in background with procedures registered from database.
+ *
+ * @author Milosz Piglas
+ */
+public class CayenneBootstrapTest
+{
+
+    @Test
+    public void shouldCallProcedureRegisteredDuringBootstrap()
+    {
+        try (CayenneBootstrap cayenne = new CayenneBootstrap("cayenne-dbproc.xml", "procedures", "public").start())
+        {
+            ProcedureQuery query = new ProcedureQuery("num_sum");
+            query.addParameter("anum", 100);
+            query.addParameter("bnum", 11);
+
+            List<DataRow> outRows = cayenne.newContext().performGenericQuery(query).firstList();
+            Assertions.assertThat(outRows.get(0)).containsEntry(ProcedureMaps.RETURN_PARAMETER, 111);
+            Assertions.assertThat(cayenne.getPhases(TimeUnit.MILLISECONDS)).containsOnlyKeys("createRuntime",
+                    "loadDataDomain", "introspectProcedures", "registerProcedures");
+            Assertions.assertThat(cayenne.getWaitTime(TimeUnit.NANOSECONDS)).isPositive();
+        }
+    }
+}
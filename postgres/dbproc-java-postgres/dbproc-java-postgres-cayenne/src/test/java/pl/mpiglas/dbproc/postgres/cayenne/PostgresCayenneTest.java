@@ -1,5 +1,9 @@
 package pl.mpiglas.dbproc.postgres.cayenne;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -12,6 +16,8 @@ import org.assertj.core.api.Assertions;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.UncheckedSQLException;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
 
 /**
  * Tests calling PostgreSQL procedures with Apache Cayenne.
@@ -126,6 +132,63 @@ public class PostgresCayenneTest
         Assertions.assertThat(outRows.get(0)).containsEntry("txt", "out_text");
     }
 
+    /**
+     * Procedures declared in data map are replaced with definitions built from
+     * database metadata, including artificial 'ret' parameter.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldCallProcedureRegisteredFromMetadata() throws SQLException
+    {
+        ProcedureRegistry registry;
+        try (Connection con = runtime.getDataSource().getConnection())
+        {
+            registry = ProcedureRegistry.introspect(con, "public");
+        }
+        ProcedureMaps.register(runtime, "procedures", registry);
+
+        ProcedureQuery query = new ProcedureQuery("num_sum");
+        query.addParameter("anum", 100);
+        query.addParameter("bnum", 11);
+
+        ObjectContext ctx = runtime.newContext();
+        List<DataRow> outRows = ctx.performGenericQuery(query).firstList();
+        Assertions.assertThat(outRows).hasSize(1);
+        Assertions.assertThat(outRows.get(0)).containsEntry(ProcedureMaps.RETURN_PARAMETER, 111);
+    }
+
+    /**
+     * Connections of runtime data source, which generated Cayenne
+     * implementations of procedure interfaces use, belong to Cayenne
+     * transaction bound to thread.
+     */
+    @Test
+    public void shouldTakeConnectionOfThreadTransaction()
+    {
+        long[] transactions = runtime.performInTransaction(() -> new long[]
+        {
+            currentTransaction(), currentTransaction()
+        });
+        Assertions.assertThat(transactions[0]).isEqualTo(transactions[1]);
+        Assertions.assertThat(currentTransaction()).isNotEqualTo(currentTransaction());
+    }
+
+    private long currentTransaction()
+    {
+        try (Connection con = runtime.getDataSource().getConnection();
+                Statement statement = con.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT txid_current()"))
+        {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+        catch (SQLException ex)
+        {
+            throw new UncheckedSQLException(ex);
+        }
+    }
+
     @After
     public void releaseResources()
     {
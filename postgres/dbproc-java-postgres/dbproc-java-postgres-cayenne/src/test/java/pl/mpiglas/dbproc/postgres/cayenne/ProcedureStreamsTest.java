@@ -0,0 +1,98 @@
+package pl.mpiglas.dbproc.postgres.cayenne;
+
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ResultBatchIterator;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.map.Procedure;
+import org.apache.cayenne.map.ProcedureParameter;
+import org.apache.cayenne.query.ProcedureQuery;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Streaming rows of set-returning procedures with Cayenne.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureStreamsTest
+{
+
+    @Test
+    public void shouldSelectFromProcedureWithInputParameters()
+    {
+        Procedure procedure = new Procedure("num_sum");
+        procedure.setReturningValue(true);
+        procedure.addCallParameter(new ProcedureParameter("ret", Types.INTEGER, ProcedureParameter.OUT_PARAMETER));
+        procedure.addCallParameter(new ProcedureParameter("anum", Types.INTEGER, ProcedureParameter.IN_PARAMETER));
+        procedure.addCallParameter(new ProcedureParameter("bnum", Types.INTEGER, ProcedureParameter.IN_PARAMETER));
+
+        Assertions.assertThat(ProcedureStreams.selectSql(procedure)).isEqualTo("SELECT * FROM num_sum(?, ?)");
+    }
+
+    /**
+     * Data rows are read in batches, without materializing whole result.
+     */
+    @Test
+    public void shouldIterateDataRowsInBatches()
+    {
+        ServerRuntime runtime = new ServerRuntime("cayenne-dbproc.xml");
+        try
+        {
+            ProcedureQuery query = new ProcedureQuery("gen_rows");
+            query.addParameter("nrows", 10);
+
+            try (ResultBatchIterator<DataRow> batches = ProcedureStreams.batchIterator(runtime.newContext(), query, 3, 4))
+            {
+                List<Integer> sizes = new ArrayList<>();
+                List<Object> strs = new ArrayList<>();
+                for (List<DataRow> batch : batches)
+                {
+                    sizes.add(batch.size());
+                    strs.add(batch.get(0).get("str"));
+                }
+                Assertions.assertThat(sizes).containsExactly(4, 4, 2);
+                Assertions.assertThat(strs).containsExactly("ROW0", "ROW4", "ROW8");
+            }
+        }
+        finally
+        {
+            runtime.shutdown();
+        }
+    }
+
+    /**
+     * Rows are mapped to column arrays on connection of data node.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldStreamMappedRows() throws SQLException
+    {
+        ServerRuntime runtime = new ServerRuntime("cayenne-dbproc.xml");
+        try
+        {
+            ProcedureQuery query = new ProcedureQuery("gen_rows");
+            query.addParameter("nrows", 5);
+
+            try (Stream<Object[]> rows = ProcedureStreams.stream(runtime, query, ProcedureStreams.COLUMNS, 2))
+            {
+                List<String> result = rows.map(row -> row[0] + ":" + row[1]).collect(Collectors.toList());
+                Assertions.assertThat(result).containsExactly("ROW0:1", "ROW1:2", "ROW2:3", "ROW3:4", "ROW4:5");
+            }
+            long count = ProcedureStreams.forEach(runtime, query, rs -> rs.getInt(2), num ->
+            {
+            }, 2);
+            Assertions.assertThat(count).isEqualTo(5);
+        }
+        finally
+        {
+            runtime.shutdown();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls procedures asynchronously, each call on its own connection taken
+ * from {@link ConnectionSource}. Independent calls can be started together
+ * and their round trips overlap instead of adding up.
+ *
+ * <pre>
+ * try (AsyncProcedureCaller caller = new AsyncProcedureCaller(dataSource::getConnection, 8))
+ * {
+ *     CompletableFuture&lt;Object[]&gt; sum = caller.call(numSum, 1, 2);
+ *     CompletableFuture&lt;Object[]&gt; text = caller.call(outText);
+ *     CompletableFuture&lt;Object[]&gt; mod = caller.call(modmul, 10, 3);
+ *     CompletableFuture.allOf(sum, text, mod).join();
+ * }
+ * </pre>
+ *
+ * Calls run on virtual threads when JVM supports them, on pool of platform
+ * threads otherwise. Number of calls in flight is limited, so that source
+ * is not drained; calls over the limit wait on executor thread, not on
+ * calling thread. Futures fail with {@link CompletionException} caused by
+ * {@link SQLException}.
+ *
+ * Calls with {@link Deadline} count time waiting for executor thread, free
+ * slot and connection in, and fail with {@link java.sql.SQLTimeoutException} if
+ * deadline passes before call is started.
+ *
+ * @author Milosz Piglas
+ */
+public class AsyncProcedureCaller implements AutoCloseable
+{
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * Work done with caller.
+     */
+    @FunctionalInterface
+    public interface CallerFunction<T>
+    {
+
+        T apply(ProcedureCaller caller) throws SQLException;
+    }
+
+    private final ConnectionSource source;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private final ProcedureResultCache results;
+
+    public AsyncProcedureCaller(ConnectionSource source)
+    {
+        this(source, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates caller with its own executor, shut down on close.
+     *
+     * @param source source of connections
+     * @param maxInFlight maximal number of concurrent calls
+     */
+    public AsyncProcedureCaller(ConnectionSource source, int maxInFlight)
+    {
+        this(source, maxInFlight, newExecutor(maxInFlight), true, null);
+    }
+
+    /**
+     * @param source source of connections
+     * @param maxInFlight maximal number of concurrent calls
+     * @param executor executor of calls, left running on close
+     * @param results cache of results, may be null
+     */
+    public AsyncProcedureCaller(ConnectionSource source, int maxInFlight, Executor executor,
+            ProcedureResultCache results)
+    {
+        this(source, maxInFlight, executor, false, results);
+    }
+
+    private AsyncProcedureCaller(ConnectionSource source, int maxInFlight, Executor executor, boolean ownExecutor,
+            ProcedureResultCache results)
+    {
+        if (maxInFlight <= 0)
+        {
+            throw new IllegalArgumentException("Number of calls in flight must be positive: " + maxInFlight);
+        }
+        this.source = source;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight, true);
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.results = results;
+    }
+
+    /**
+     * Calls procedure asynchronously.
+     *
+     * @param signature procedure signature
+     * @param args values of input parameters
+     * @return future of output values, see
+     * {@link ProcedureCaller#call(ProcedureSignature, Object...)}
+     */
+    public CompletableFuture<Object[]> call(ProcedureSignature signature, Object... args)
+    {
+        return call(Deadline.NONE, signature, args);
+    }
+
+    /**
+     * Calls procedure asynchronously, call has to finish before deadline.
+     *
+     * @param deadline deadline of call
+     * @param signature procedure signature
+     * @param args values of input parameters
+     * @return future of output values, see
+     * {@link ProcedureCaller#call(Deadline, ProcedureSignature, Object...)}
+     */
+    public CompletableFuture<Object[]> call(Deadline deadline, ProcedureSignature signature, Object... args)
+    {
+        Object[] copy = args.clone();
+        return submit(deadline, signature.getName(), caller -> caller.call(deadline, signature, copy));
+    }
+
+    /**
+     * Calls procedure asynchronously and maps all rows of returned result
+     * set.
+     *
+     * @param signature procedure signature
+     * @param mapper maps single row
+     * @param args values of input parameters
+     * @return future of mapped rows
+     */
+    public <T> CompletableFuture<List<T>> query(ProcedureSignature signature, RowMapper<T> mapper, Object... args)
+    {
+        return query(Deadline.NONE, signature, mapper, args);
+    }
+
+    /**
+     * Calls procedure asynchronously and maps all rows of returned result
+     * set, all rows have to be read before deadline.
+     *
+     * @param deadline deadline of call
+     * @param signature procedure signature
+     * @param mapper maps single row
+     * @param args values of input parameters
+     * @return future of mapped rows
+     */
+    public <T> CompletableFuture<List<T>> query(Deadline deadline, ProcedureSignature signature, RowMapper<T> mapper,
+            Object... args)
+    {
+        Object[] copy = args.clone();
+        return submit(deadline, signature.getName(), caller -> caller.query(deadline, signature, mapper, copy));
+    }
+
+    /**
+     * Runs work with caller bound to connection of its own, e.g. several
+     * dependent calls.
+     *
+     * @param work work using caller
+     * @return future of work result
+     */
+    public <T> CompletableFuture<T> submit(CallerFunction<T> work)
+    {
+        return submit(Deadline.NONE, "submitted work", work);
+    }
+
+    /**
+     * Runs work with caller bound to connection of its own, if it can be
+     * started before deadline. Work should pass deadline to its calls.
+     *
+     * @param deadline deadline of work
+     * @param work work using caller
+     * @return future of work result
+     */
+    public <T> CompletableFuture<T> submit(Deadline deadline, CallerFunction<T> work)
+    {
+        return submit(deadline, "submitted work", work);
+    }
+
+    private <T> CompletableFuture<T> submit(Deadline deadline, String procedure, CallerFunction<T> work)
+    {
+        return CompletableFuture.supplyAsync(() -> run(deadline, procedure, work), executor);
+    }
+
+    /**
+     * @return number of calls running now
+     */
+    public int getInFlight()
+    {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    /**
+     * @return number of calls waiting for free slot
+     */
+    public int getQueued()
+    {
+        return inFlight.getQueueLength();
+    }
+
+    /**
+     * Shuts down executor created by caller. Running calls are completed.
+     */
+    @Override
+    public void close()
+    {
+        if (ownExecutor)
+        {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private <T> T run(Deadline deadline, String procedure, CallerFunction<T> work)
+    {
+        try
+        {
+            if (!deadline.isBounded())
+            {
+                inFlight.acquire();
+            }
+            else if (deadline.isExpired()
+                    || !inFlight.tryAcquire(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS))
+            {
+                throw new CompletionException(deadline.exceeded(procedure, null));
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(new SQLException("Interrupted while waiting for connection", ex));
+        }
+        try (Connection connection = source.getConnection();
+                ProcedureCaller caller = new ProcedureCaller(new StatementCache(connection), results))
+        {
+            deadline.check(procedure);
+            return work.apply(caller);
+        }
+        catch (SQLException ex)
+        {
+            throw new CompletionException(ex);
+        }
+        finally
+        {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Creates executor running each task on new virtual thread, available
+     * since Java 21. On older JVMs creates pool of daemon platform threads of
+     * given size.
+     *
+     * @param poolSize size of pool of platform threads
+     * @return executor
+     */
+    public static ExecutorService newExecutor(int poolSize)
+    {
+        try
+        {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            return Executors.newFixedThreadPool(poolSize, platformThreads());
+        }
+    }
+
+    private static ThreadFactory platformThreads()
+    {
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, "dbproc-async-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
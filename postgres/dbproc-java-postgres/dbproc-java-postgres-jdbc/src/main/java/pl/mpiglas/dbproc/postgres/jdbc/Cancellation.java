@@ -0,0 +1,165 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels statement in database when deadline passes. Cancellation is armed
+ * for the time of single call and must be closed afterwards, which also
+ * clears query timeout of statement, so that cached statement can be reused
+ * without deadline.
+ *
+ * @author Milosz Piglas
+ */
+final class Cancellation implements AutoCloseable
+{
+
+    /**
+     * Cancellation of call without deadline.
+     */
+    static final Cancellation NONE = new Cancellation(null, Deadline.NONE);
+
+    private final Statement statement;
+    private final Deadline deadline;
+    private ScheduledFuture<?> task;
+    private boolean fired;
+    private boolean closed;
+
+    private Cancellation(Statement statement, Deadline deadline)
+    {
+        this.statement = statement;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param statement statement about to be executed
+     * @param deadline deadline of call
+     * @return cancellation, which has to be armed right before execution
+     */
+    static Cancellation of(Statement statement, Deadline deadline)
+    {
+        return deadline.isBounded() ? new Cancellation(statement, deadline) : NONE;
+    }
+
+    /**
+     * Sets query timeout of statement and schedules its cancellation. Does
+     * nothing for {@link Deadline#NONE}.
+     *
+     * @param procedure name of called procedure
+     * @throws SQLTimeoutException if deadline already passed
+     * @throws SQLException
+     */
+    void arm(String procedure) throws SQLException
+    {
+        if (!deadline.isBounded())
+        {
+            return;
+        }
+        deadline.check(procedure);
+        statement.setQueryTimeout(deadline.getQueryTimeoutSeconds());
+        task = Canceller.EXECUTOR.schedule(this::fire, deadline.remaining(TimeUnit.NANOSECONDS),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param procedure name of called procedure
+     * @throws SQLTimeoutException if deadline passed
+     */
+    void check(String procedure) throws SQLTimeoutException
+    {
+        deadline.check(procedure);
+    }
+
+    synchronized boolean isFired()
+    {
+        return fired;
+    }
+
+    /**
+     * @param procedure name of called procedure
+     * @param ex exception thrown by call
+     * @return {@link SQLTimeoutException} if call failed because of
+     * deadline, otherwise the same exception
+     */
+    SQLException translate(String procedure, SQLException ex)
+    {
+        if (!deadline.isBounded() || ex instanceof SQLTimeoutException)
+        {
+            return ex;
+        }
+        if (isFired() || (deadline.isExpired() && Deadline.QUERY_CANCELED.equals(ex.getSQLState())))
+        {
+            return deadline.exceeded(procedure, ex);
+        }
+        return ex;
+    }
+
+    private synchronized void fire()
+    {
+        if (closed)
+        {
+            return;
+        }
+        fired = true;
+        try
+        {
+            statement.cancel();
+        }
+        catch (SQLException ex)
+        {
+            // statement finished or connection is broken, nothing to cancel
+        }
+    }
+
+    /**
+     * Disarms cancellation and clears query timeout of statement.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed || task == null)
+            {
+                closed = true;
+                return;
+            }
+            closed = true;
+        }
+        task.cancel(false);
+        try
+        {
+            if (!statement.isClosed())
+            {
+                statement.setQueryTimeout(0);
+            }
+        }
+        catch (SQLException ex)
+        {
+            // statement is unusable and will be discarded by its owner
+        }
+    }
+
+    /**
+     * Single daemon thread cancelling statements of all calls.
+     */
+    private static final class Canceller
+    {
+
+        private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, task ->
+        {
+            Thread thread = new Thread(task, "dbproc-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static
+        {
+            EXECUTOR.setRemoveOnCancelPolicy(true);
+        }
+    }
+}
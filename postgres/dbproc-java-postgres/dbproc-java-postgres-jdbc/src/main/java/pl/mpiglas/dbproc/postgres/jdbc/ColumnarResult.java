@@ -0,0 +1,795 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Result of procedure kept in memory column by column, for repeated scans of
+ * large outputs, like <code>gen_rows</code>. Numbers are stored as primitive
+ * values in fixed-width buffers, text as UTF-8 bytes of all rows in single
+ * buffer with offsets of rows in another. There are no objects per row, so
+ * result of millions of rows takes little more than its raw data and does not
+ * add to garbage collection work.
+ *
+ * Buffers are allocated on heap or, with {@link Memory#DIRECT}, outside of
+ * heap with {@link ByteBuffer#allocateDirect(int)}; direct memory is released
+ * when result is garbage collected.
+ *
+ * <pre>
+ * ColumnarResult rows = ColumnarResult.read(reader, ColumnarResult.Memory.DIRECT, "SELECT * FROM gen_rows(?)", 5000000);
+ * ColumnarResult.Cursor cursor = rows.all().filterInt(1, num -&gt; num % 2 == 0).cursor();
+ * while (cursor.next())
+ * {
+ *     System.out.println(cursor.getString(0));
+ * }
+ * </pre>
+ *
+ * Columns are typed by their SQL types: integer and smaller as
+ * {@link ColumnType#INT}, <code>bigint</code> as {@link ColumnType#LONG},
+ * floating point as {@link ColumnType#DOUBLE}, all other types as
+ * {@link ColumnType#TEXT}. Once read, result is not modified and can be scanned
+ * from many threads.
+ *
+ * @author Milosz Piglas
+ */
+public final class ColumnarResult
+{
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int AVERAGE_TEXT_LENGTH = 16;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Where column buffers are allocated.
+     */
+    public enum Memory
+    {
+        HEAP, DIRECT;
+
+        ByteBuffer allocate(int capacity)
+        {
+            ByteBuffer buffer = this == DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            return buffer.order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Type of values stored in column.
+     */
+    public enum ColumnType
+    {
+        INT(Integer.BYTES), LONG(Long.BYTES), DOUBLE(Double.BYTES), TEXT(Integer.BYTES);
+
+        private final int width;
+
+        ColumnType(int width)
+        {
+            this.width = width;
+        }
+
+        static ColumnType of(int sqlType)
+        {
+            switch (sqlType)
+            {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return INT;
+                case Types.BIGINT:
+                    return LONG;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return DOUBLE;
+                default:
+                    return TEXT;
+            }
+        }
+    }
+
+    private final String[] names;
+    private final Column[] columns;
+    private final int rowCount;
+
+    private ColumnarResult(String[] names, Column[] columns, int rowCount)
+    {
+        this.names = names;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Calls procedure and reads all rows into columns. Rows are fetched with
+     * database cursor, so they are never all held by driver. Result without
+     * rows has no columns either.
+     *
+     * @param reader reader calling procedure
+     * @param memory where buffers are allocated
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param args procedure arguments
+     * @return columns of result
+     * @throws SQLException
+     */
+    public static ColumnarResult read(ProcedureStreamReader reader, Memory memory, String sql, Object... args)
+            throws SQLException
+    {
+        Loader loader = new Loader(memory, DEFAULT_CAPACITY);
+        try (ProcedureResultIterator<Void> rows = reader.iterator(sql, loader, args))
+        {
+            while (rows.hasNext())
+            {
+                rows.next();
+            }
+        }
+        catch (UncheckedSQLException ex)
+        {
+            throw ex.getCause();
+        }
+        return loader.build();
+    }
+
+    /**
+     * Reads remaining rows of result set into columns. Result set is not
+     * closed.
+     *
+     * @param resultSet result set
+     * @param memory where buffers are allocated
+     * @param capacity expected number of rows
+     * @return columns of result
+     * @throws SQLException
+     */
+    public static ColumnarResult from(ResultSet resultSet, Memory memory, int capacity) throws SQLException
+    {
+        Loader loader = new Loader(memory, capacity);
+        loader.init(resultSet.getMetaData());
+        while (resultSet.next())
+        {
+            loader.map(resultSet);
+        }
+        return loader.build();
+    }
+
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public int getColumnCount()
+    {
+        return columns.length;
+    }
+
+    public String getColumnName(int column)
+    {
+        return names[column];
+    }
+
+    public ColumnType getColumnType(int column)
+    {
+        return columns[column].type;
+    }
+
+    /**
+     * @param name column label
+     * @return index of column, starting from 0
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int columnIndex(String name)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equalsIgnoreCase(name))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + name + ", expected one of " + Arrays.toString(names));
+    }
+
+    /**
+     * @return bytes allocated for buffers of all columns
+     */
+    public long getMemoryUsage()
+    {
+        long bytes = 0;
+        for (Column column : columns)
+        {
+            bytes += column.memoryUsage();
+        }
+        return bytes;
+    }
+
+    public boolean isNull(int row, int column)
+    {
+        checkIndex(row, rowCount);
+        return columns[column].isNull(row);
+    }
+
+    /**
+     * @param row index of row, starting from 0
+     * @param column index of column, starting from 0
+     * @return value, 0 for NULL
+     */
+    public int getInt(int row, int column)
+    {
+        checkIndex(row, rowCount);
+        return column(column, ColumnType.INT).data.getInt(row * Integer.BYTES);
+    }
+
+    /**
+     * @see #getInt(int, int)
+     */
+    public long getLong(int row, int column)
+    {
+        checkIndex(row, rowCount);
+        Column values = columns[column];
+        if (values.type == ColumnType.INT)
+        {
+            return values.data.getInt(row * Integer.BYTES);
+        }
+        return column(column, ColumnType.LONG).data.getLong(row * Long.BYTES);
+    }
+
+    /**
+     * @see #getInt(int, int)
+     */
+    public double getDouble(int row, int column)
+    {
+        checkIndex(row, rowCount);
+        return column(column, ColumnType.DOUBLE).data.getDouble(row * Double.BYTES);
+    }
+
+    /**
+     * @param row index of row, starting from 0
+     * @param column index of column, starting from 0
+     * @return value decoded from UTF-8 or formatted number, null for NULL
+     */
+    public String getString(int row, int column)
+    {
+        checkIndex(row, rowCount);
+        Column values = columns[column];
+        if (values.isNull(row))
+        {
+            return null;
+        }
+        switch (values.type)
+        {
+            case INT:
+                return String.valueOf(values.data.getInt(row * Integer.BYTES));
+            case LONG:
+                return String.valueOf(values.data.getLong(row * Long.BYTES));
+            case DOUBLE:
+                return String.valueOf(values.data.getDouble(row * Double.BYTES));
+            default:
+                return ((TextColumn) values).getString(row);
+        }
+    }
+
+    /**
+     * @return selection of all rows, to be narrowed with filters
+     */
+    public Selection all()
+    {
+        return new Selection(null, rowCount);
+    }
+
+    /**
+     * @return cursor over all rows
+     */
+    public Cursor cursor()
+    {
+        return all().cursor();
+    }
+
+    private Column column(int column, ColumnType type)
+    {
+        Column values = columns[column];
+        if (values.type != type)
+        {
+            throw new IllegalArgumentException("Column " + names[column] + " is " + values.type + ", not " + type);
+        }
+        return values;
+    }
+
+    private static void checkIndex(int index, int size)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int needed, Memory memory)
+    {
+        if (needed <= buffer.capacity())
+        {
+            return buffer;
+        }
+        if (needed > MAX_CAPACITY || needed < 0)
+        {
+            throw new IllegalStateException("Column buffer larger than " + MAX_CAPACITY + " bytes");
+        }
+        int capacity = (int) Math.min(MAX_CAPACITY, Math.max(needed, 2L * buffer.capacity()));
+        ByteBuffer grown = memory.allocate(capacity);
+        ByteBuffer old = buffer.duplicate();
+        old.clear();
+        grown.put(old);
+        grown.clear();
+        return grown;
+    }
+
+    /**
+     * Rows of result passing filters, in ascending order.
+     */
+    public final class Selection
+    {
+
+        /**
+         * Indexes of rows, null if all rows are selected.
+         */
+        private final int[] rows;
+        private final int size;
+
+        private Selection(int[] rows, int size)
+        {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return indexes of selected rows
+         */
+        public int[] rows()
+        {
+            if (rows == null)
+            {
+                int[] all = new int[size];
+                Arrays.setAll(all, i -> i);
+                return all;
+            }
+            return Arrays.copyOf(rows, size);
+        }
+
+        /**
+         * @param column column of type {@link ColumnType#INT}
+         * @param predicate condition of value
+         * @return selected rows with value matching predicate, rows with NULL
+         * are left out
+         */
+        public Selection filterInt(int column, IntPredicate predicate)
+        {
+            Column values = column(column, ColumnType.INT);
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row) && predicate.test(values.data.getInt(row * Integer.BYTES)))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * @see #filterInt(int, IntPredicate)
+         */
+        public Selection filterLong(int column, LongPredicate predicate)
+        {
+            Column values = column(column, ColumnType.LONG);
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row) && predicate.test(values.data.getLong(row * Long.BYTES)))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * @see #filterInt(int, IntPredicate)
+         */
+        public Selection filterDouble(int column, DoublePredicate predicate)
+        {
+            Column values = column(column, ColumnType.DOUBLE);
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row) && predicate.test(values.data.getDouble(row * Double.BYTES)))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Decodes every value, prefer {@link #filterTextEquals(int, String)}
+         * for comparisons.
+         *
+         * @param column column of type {@link ColumnType#TEXT}
+         * @param predicate condition of value
+         * @return selected rows with value matching predicate, rows with NULL
+         * are left out
+         */
+        public Selection filterText(int column, Predicate<String> predicate)
+        {
+            TextColumn values = (TextColumn) column(column, ColumnType.TEXT);
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row) && predicate.test(values.getString(row)))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Compares encoded bytes, values are not decoded.
+         *
+         * @param column column of type {@link ColumnType#TEXT}
+         * @param value expected value
+         * @return selected rows with value equal to given one
+         */
+        public Selection filterTextEquals(int column, String value)
+        {
+            TextColumn values = (TextColumn) column(column, ColumnType.TEXT);
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row) && values.equalsBytes(row, expected))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * @param column any column
+         * @return selected rows, where column is not NULL
+         */
+        public Selection filterNotNull(int column)
+        {
+            Column values = columns[column];
+            int[] selected = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                int row = row(i);
+                if (!values.isNull(row))
+                {
+                    selected[count++] = row;
+                }
+            }
+            return new Selection(selected, count);
+        }
+
+        /**
+         * @return new cursor over selected rows
+         */
+        public Cursor cursor()
+        {
+            return new Cursor(this);
+        }
+
+        private int row(int index)
+        {
+            return rows == null ? index : rows[index];
+        }
+    }
+
+    /**
+     * Moves over selected rows and reads their values. Cursor is positioned
+     * before first row. It is not thread safe, every thread scanning result
+     * should use cursor of its own.
+     */
+    public final class Cursor
+    {
+
+        private final Selection selection;
+        private int index = -1;
+        private int row = -1;
+
+        private Cursor(Selection selection)
+        {
+            this.selection = selection;
+        }
+
+        /**
+         * @return true if cursor moved to next row, false if there are no
+         * more rows
+         */
+        public boolean next()
+        {
+            if (index + 1 >= selection.size)
+            {
+                index = selection.size;
+                row = -1;
+                return false;
+            }
+            index++;
+            row = selection.row(index);
+            return true;
+        }
+
+        /**
+         * @return index of current row in result
+         */
+        public int getRow()
+        {
+            return row;
+        }
+
+        public boolean isNull(int column)
+        {
+            return ColumnarResult.this.isNull(current(), column);
+        }
+
+        public int getInt(int column)
+        {
+            return ColumnarResult.this.getInt(current(), column);
+        }
+
+        public long getLong(int column)
+        {
+            return ColumnarResult.this.getLong(current(), column);
+        }
+
+        public double getDouble(int column)
+        {
+            return ColumnarResult.this.getDouble(current(), column);
+        }
+
+        public String getString(int column)
+        {
+            return ColumnarResult.this.getString(current(), column);
+        }
+
+        private int current()
+        {
+            if (row < 0)
+            {
+                throw new IllegalStateException("Cursor is not positioned on row");
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Values of single column, fixed width values in {@link #data}.
+     */
+    private static class Column
+    {
+
+        final ColumnType type;
+        final Memory memory;
+        ByteBuffer data;
+        BitSet nulls;
+
+        Column(ColumnType type, Memory memory, int capacity)
+        {
+            this.type = type;
+            this.memory = memory;
+            this.data = memory.allocate(capacity * type.width);
+        }
+
+        void read(ResultSet resultSet, int index, int row) throws SQLException
+        {
+            data = ensure(data, (row + 1) * type.width, memory);
+            switch (type)
+            {
+                case INT:
+                    data.putInt(row * Integer.BYTES, resultSet.getInt(index));
+                    break;
+                case LONG:
+                    data.putLong(row * Long.BYTES, resultSet.getLong(index));
+                    break;
+                default:
+                    data.putDouble(row * Double.BYTES, resultSet.getDouble(index));
+            }
+            if (resultSet.wasNull())
+            {
+                setNull(row);
+            }
+        }
+
+        final void setNull(int row)
+        {
+            if (nulls == null)
+            {
+                nulls = new BitSet();
+            }
+            nulls.set(row);
+        }
+
+        final boolean isNull(int row)
+        {
+            return nulls != null && nulls.get(row);
+        }
+
+        long memoryUsage()
+        {
+            return data.capacity() + (nulls == null ? 0 : nulls.size() / Byte.SIZE);
+        }
+    }
+
+    /**
+     * Text column, {@link #data} keeps offset of the end of every row in
+     * {@link #bytes}.
+     */
+    private static final class TextColumn extends Column
+    {
+
+        private final boolean rawText;
+        private ByteBuffer bytes;
+        private int length;
+
+        TextColumn(Memory memory, int capacity, int sqlType)
+        {
+            super(ColumnType.TEXT, memory, capacity);
+            this.bytes = memory.allocate(capacity * AVERAGE_TEXT_LENGTH);
+            // driver returns text of character columns as received, in UTF-8
+            this.rawText = sqlType == Types.VARCHAR || sqlType == Types.CHAR || sqlType == Types.LONGVARCHAR;
+        }
+
+        @Override
+        void read(ResultSet resultSet, int index, int row) throws SQLException
+        {
+            byte[] value;
+            if (rawText)
+            {
+                value = resultSet.getBytes(index);
+            }
+            else
+            {
+                String text = resultSet.getString(index);
+                value = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+            }
+            if (value == null)
+            {
+                setNull(row);
+            }
+            else
+            {
+                bytes = ensure(bytes, length + value.length, memory);
+                ByteBuffer target = bytes.duplicate();
+                target.position(length);
+                target.put(value);
+                length += value.length;
+            }
+            data = ensure(data, (row + 1) * Integer.BYTES, memory);
+            data.putInt(row * Integer.BYTES, length);
+        }
+
+        String getString(int row)
+        {
+            int start = start(row);
+            byte[] value = new byte[data.getInt(row * Integer.BYTES) - start];
+            ByteBuffer source = bytes.duplicate();
+            source.position(start);
+            source.get(value);
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        boolean equalsBytes(int row, byte[] expected)
+        {
+            int start = start(row);
+            if (data.getInt(row * Integer.BYTES) - start != expected.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < expected.length; i++)
+            {
+                if (bytes.get(start + i) != expected[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int start(int row)
+        {
+            return row == 0 ? 0 : data.getInt((row - 1) * Integer.BYTES);
+        }
+
+        @Override
+        long memoryUsage()
+        {
+            return super.memoryUsage() + bytes.capacity();
+        }
+    }
+
+    /**
+     * Appends rows to columns, created from metadata of the first row.
+     */
+    private static final class Loader implements RowMapper<Void>
+    {
+
+        private final Memory memory;
+        private final int capacity;
+        private String[] names = new String[0];
+        private Column[] columns = new Column[0];
+        private boolean initialized;
+        private int rowCount;
+
+        Loader(Memory memory, int capacity)
+        {
+            this.memory = memory;
+            this.capacity = Math.max(1, capacity);
+        }
+
+        void init(ResultSetMetaData metaData) throws SQLException
+        {
+            int count = metaData.getColumnCount();
+            names = new String[count];
+            columns = new Column[count];
+            for (int i = 0; i < count; i++)
+            {
+                int sqlType = metaData.getColumnType(i + 1);
+                names[i] = metaData.getColumnLabel(i + 1);
+                ColumnType type = ColumnType.of(sqlType);
+                columns[i] = type == ColumnType.TEXT
+                        ? new TextColumn(memory, capacity, sqlType)
+                        : new Column(type, memory, capacity);
+            }
+            initialized = true;
+        }
+
+        @Override
+        public Void map(ResultSet resultSet) throws SQLException
+        {
+            if (!initialized)
+            {
+                init(resultSet.getMetaData());
+            }
+            if (rowCount == MAX_CAPACITY / Long.BYTES)
+            {
+                throw new SQLException("Result has more than " + rowCount + " rows");
+            }
+            for (int i = 0; i < columns.length; i++)
+            {
+                columns[i].read(resultSet, i + 1, rowCount);
+            }
+            rowCount++;
+            return null;
+        }
+
+        ColumnarResult build()
+        {
+            return new ColumnarResult(names, columns, rowCount);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of connections, e.g. <code>DataSource::getConnection</code> of
+ * connection pool. Connections obtained from source are closed after use.
+ *
+ * @author Milosz Piglas
+ */
+@FunctionalInterface
+public interface ConnectionSource
+{
+
+    Connection getConnection() throws SQLException;
+}
@@ -0,0 +1,213 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Maps rows to plain objects with their public constructor. Columns are passed
+ * to constructor parameters by position, so <code>gen_rows</code> returning
+ * <code>(str varchar, num integer)</code> maps to class with constructor
+ * <code>(String str, int num)</code>. Mapped classes need no annotations, no
+ * default constructor and no setters, fields can be final.
+ *
+ * <pre>
+ * RowMapper&lt;StrInt&gt; mapper = ConstructorRowMapper.of(StrInt.class);
+ * </pre>
+ *
+ * Column getter is chosen once per parameter type, e.g.
+ * {@link ResultSet#getInt(int)} for <code>int</code>, instead of being
+ * looked up for every row. <code>NULL</code> passed to primitive parameter
+ * fails mapping. Mapper is stateless and can be shared between threads.
+ *
+ * @author Milosz Piglas
+ * @param <T> type of mapped row
+ */
+public final class ConstructorRowMapper<T> implements RowMapper<T>
+{
+
+    @FunctionalInterface
+    private interface ColumnReader
+    {
+
+        Object read(ResultSet resultSet, int column) throws SQLException;
+    }
+
+    private final Constructor<T> constructor;
+    private final ColumnReader[] readers;
+
+    private ConstructorRowMapper(Constructor<T> constructor)
+    {
+        this.constructor = constructor;
+        Class<?>[] types = constructor.getParameterTypes();
+        this.readers = new ColumnReader[types.length];
+        for (int i = 0; i < types.length; i++)
+        {
+            readers[i] = reader(types[i]);
+        }
+    }
+
+    /**
+     * Creates mapper with the only public constructor of class, which has
+     * parameters. Constructor without parameters is ignored.
+     *
+     * @param type mapped class
+     * @return mapper
+     * @throws IllegalArgumentException if class has no such constructor or
+     * has more of them
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ConstructorRowMapper<T> of(Class<T> type)
+    {
+        Constructor<T> found = null;
+        for (Constructor<?> candidate : type.getConstructors())
+        {
+            if (candidate.getParameterCount() == 0)
+            {
+                continue;
+            }
+            if (found != null)
+            {
+                throw new IllegalArgumentException("Constructor of " + type.getName()
+                        + " is ambiguous, pass parameter types");
+            }
+            found = (Constructor<T>) candidate;
+        }
+        if (found == null)
+        {
+            throw new IllegalArgumentException(type.getName() + " has no public constructor with parameters");
+        }
+        return of(found);
+    }
+
+    /**
+     * @param type mapped class
+     * @param parameterTypes types of constructor parameters
+     * @return mapper
+     * @throws IllegalArgumentException if class has no such public constructor
+     */
+    public static <T> ConstructorRowMapper<T> of(Class<T> type, Class<?>... parameterTypes)
+    {
+        try
+        {
+            return of(type.getConstructor(parameterTypes));
+        }
+        catch (NoSuchMethodException ex)
+        {
+            throw new IllegalArgumentException(type.getName() + " has no public constructor "
+                    + Arrays.toString(parameterTypes), ex);
+        }
+    }
+
+    private static <T> ConstructorRowMapper<T> of(Constructor<T> constructor)
+    {
+        if (Modifier.isAbstract(constructor.getDeclaringClass().getModifiers()))
+        {
+            throw new IllegalArgumentException("Cannot instantiate " + constructor.getDeclaringClass().getName());
+        }
+        return new ConstructorRowMapper<>(constructor);
+    }
+
+    public Class<T> getType()
+    {
+        return constructor.getDeclaringClass();
+    }
+
+    public int getParameterCount()
+    {
+        return readers.length;
+    }
+
+    @Override
+    public T map(ResultSet resultSet) throws SQLException
+    {
+        Object[] values = new Object[readers.length];
+        for (int i = 0; i < readers.length; i++)
+        {
+            values[i] = readers[i].read(resultSet, i + 1);
+        }
+        try
+        {
+            return constructor.newInstance(values);
+        }
+        catch (InvocationTargetException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new SQLException("Constructor of " + getType().getName() + " failed", ex.getCause());
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new SQLException("Cannot create " + getType().getName(), ex);
+        }
+    }
+
+    private static ColumnReader reader(Class<?> type)
+    {
+        if (type == String.class)
+        {
+            return ResultSet::getString;
+        }
+        if (type == int.class || type == Integer.class)
+        {
+            return nullable(type, ResultSet::getInt);
+        }
+        if (type == long.class || type == Long.class)
+        {
+            return nullable(type, ResultSet::getLong);
+        }
+        if (type == short.class || type == Short.class)
+        {
+            return nullable(type, ResultSet::getShort);
+        }
+        if (type == double.class || type == Double.class)
+        {
+            return nullable(type, ResultSet::getDouble);
+        }
+        if (type == float.class || type == Float.class)
+        {
+            return nullable(type, ResultSet::getFloat);
+        }
+        if (type == boolean.class || type == Boolean.class)
+        {
+            return nullable(type, ResultSet::getBoolean);
+        }
+        if (type == BigDecimal.class)
+        {
+            return ResultSet::getBigDecimal;
+        }
+        if (type == byte[].class)
+        {
+            return ResultSet::getBytes;
+        }
+        return (resultSet, column) ->
+        {
+            Object value = resultSet.getObject(column);
+            return value == null || type.isInstance(value) ? value : resultSet.getObject(column, type);
+        };
+    }
+
+    private static ColumnReader nullable(Class<?> type, ColumnReader getter)
+    {
+        boolean primitive = type.isPrimitive();
+        return (resultSet, column) ->
+        {
+            Object value = getter.read(resultSet, column);
+            if (!resultSet.wasNull())
+            {
+                return value;
+            }
+            if (primitive)
+            {
+                throw new SQLException("NULL in column " + column + " cannot be passed as " + type.getName());
+            }
+            return null;
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time, when procedure call has to be finished. Calls with deadline
+ * set query timeout of statement and additionally cancel running query in
+ * database with {@link java.sql.Statement#cancel()} when deadline passes, so
+ * long running procedure, like <code>gen_rows(100000000)</code>, does not hold
+ * connection and thread. Reading streamed rows stops at deadline too, even if
+ * no query is running at that moment.
+ *
+ * Deadline is absolute, so one deadline can be shared by several calls, e.g.
+ * of a single request, and time spent waiting for connection counts in.
+ *
+ * <pre>
+ * Object[] sum = caller.call(Deadline.after(200, TimeUnit.MILLISECONDS), numSum, 100, 11);
+ * </pre>
+ *
+ * Exceeded deadline is reported with {@link SQLTimeoutException} with
+ * SQLState <code>57014</code>, <code>query_canceled</code>.
+ *
+ * @author Milosz Piglas
+ */
+public final class Deadline
+{
+
+    /**
+     * Deadline, which never passes.
+     */
+    public static final Deadline NONE = new Deadline(0, 0);
+
+    public static final String QUERY_CANCELED = "57014";
+
+    private final long deadlineNanos;
+    private final long timeoutNanos;
+
+    private Deadline(long deadlineNanos, long timeoutNanos)
+    {
+        this.deadlineNanos = deadlineNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param timeout time from now
+     * @param unit unit of timeout
+     * @return deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit)
+    {
+        if (timeout <= 0)
+        {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        }
+        long nanos = unit.toNanos(timeout);
+        return new Deadline(System.nanoTime() + nanos, nanos);
+    }
+
+    /**
+     * @return false for {@link #NONE}
+     */
+    public boolean isBounded()
+    {
+        return timeoutNanos > 0;
+    }
+
+    public boolean isExpired()
+    {
+        return isBounded() && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * @param unit time unit
+     * @return time left, not negative, {@link Long#MAX_VALUE} for
+     * {@link #NONE}
+     */
+    public long remaining(TimeUnit unit)
+    {
+        if (!isBounded())
+        {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit time unit
+     * @return timeout deadline was created with
+     */
+    public long getTimeout(TimeUnit unit)
+    {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return remaining time rounded up to whole seconds, as accepted by
+     * {@link java.sql.Statement#setQueryTimeout(int)}, 0 for {@link #NONE}
+     */
+    public int getQueryTimeoutSeconds()
+    {
+        if (!isBounded())
+        {
+            return 0;
+        }
+        long seconds = (remaining(TimeUnit.NANOSECONDS) + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, seconds));
+    }
+
+    /**
+     * @param procedure name of called procedure
+     * @throws SQLTimeoutException if deadline passed
+     */
+    public void check(String procedure) throws SQLTimeoutException
+    {
+        if (isExpired())
+        {
+            throw exceeded(procedure, null);
+        }
+    }
+
+    /**
+     * @param procedure name of called procedure
+     * @param cause exception thrown by cancelled query, may be null
+     * @return exception reporting exceeded deadline
+     */
+    SQLTimeoutException exceeded(String procedure, SQLException cause)
+    {
+        return new SQLTimeoutException("Deadline of " + getTimeout(TimeUnit.MILLISECONDS) + " ms exceeded by "
+                + procedure, QUERY_CANCELED, cause);
+    }
+
+    @Override
+    public String toString()
+    {
+        return isBounded() ? "Deadline{remaining=" + remaining(TimeUnit.MILLISECONDS) + " ms}" : "Deadline{none}";
+    }
+}
@@ -0,0 +1,454 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Learns fetch size of every procedure from its calls, for
+ * {@link ProcedureStreamReader#setFetchSizeTuner(FetchSizeTuner)} and
+ * {@link PartitionedProcedureReader#setFetchSizeTuner(FetchSizeTuner)}.
+ * Fetch size is chosen so that:
+ * <ul>
+ * <li>rows of single fetch fit in memory budget of the call, e.g. fetch of
+ * 4-byte rows of <code>int_set</code> can be much larger than fetch of
+ * <code>gen_rows</code> rows,</li>
+ * <li>round trip takes at most {@link #ROUND_TRIP_SHARE} of time of fetch,
+ * larger fetches only take more memory.</li>
+ * </ul>
+ * Both come from observed calls: width of rows is sampled with
+ * {@link ResultSet#getBytes(int)}, and fetch times of batches of different
+ * sizes give round trip time and time of transferring single row. Fetch size
+ * always stays within bounds, and changes at most {@link #MAX_CHANGE} times
+ * between calls.
+ *
+ * Learned settings can be stored in properties file and loaded after restart:
+ *
+ * <pre>
+ * FetchSizeTuner tuner = new FetchSizeTuner(16 * 1024 * 1024);
+ * tuner.load(Paths.get("fetch-sizes.properties"));
+ * reader.setFetchSizeTuner(tuner);
+ * ...
+ * tuner.store(Paths.get("fetch-sizes.properties"));
+ * </pre>
+ *
+ * Tuner is thread safe and meant to be shared by all readers.
+ *
+ * @author Milosz Piglas
+ */
+public class FetchSizeTuner
+{
+
+    public static final long DEFAULT_MEMORY_BUDGET = 8L * 1024 * 1024;
+    public static final int DEFAULT_MIN_FETCH_SIZE = 100;
+    public static final int DEFAULT_MAX_FETCH_SIZE = 100000;
+
+    /**
+     * Target share of round trip in time of single fetch.
+     */
+    public static final double ROUND_TRIP_SHARE = 0.1;
+
+    /**
+     * Maximal factor of change of fetch size after single call.
+     */
+    public static final int MAX_CHANGE = 4;
+
+    /**
+     * Every n-th row is measured.
+     */
+    static final int SAMPLE_INTERVAL = 64;
+
+    /**
+     * Approximate memory taken by driver for every row and column, besides
+     * column values: arrays of row and of column bytes, with references.
+     */
+    private static final int ROW_OVERHEAD = 16;
+    private static final int COLUMN_OVERHEAD = 24;
+    private static final int MAX_FETCHES = 64;
+    private static final double BYTES_WEIGHT = 0.3;
+    private static final double FETCH_DECAY = 0.95;
+
+    private final long memoryBudget;
+    private final int minFetchSize;
+    private final int maxFetchSize;
+    private final int initialFetchSize;
+    private final LongSupplier clock;
+    private final Map<String, Stats> procedures = new ConcurrentHashMap<>();
+
+    public FetchSizeTuner()
+    {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget bytes of rows held by driver for single call
+     */
+    public FetchSizeTuner(long memoryBudget)
+    {
+        this(memoryBudget, DEFAULT_MIN_FETCH_SIZE, DEFAULT_MAX_FETCH_SIZE);
+    }
+
+    /**
+     * @param memoryBudget bytes of rows held by driver for single call
+     * @param minFetchSize minimal fetch size
+     * @param maxFetchSize maximal fetch size
+     */
+    public FetchSizeTuner(long memoryBudget, int minFetchSize, int maxFetchSize)
+    {
+        this(memoryBudget, minFetchSize, maxFetchSize, System::nanoTime);
+    }
+
+    /**
+     * @param memoryBudget bytes of rows held by driver for single call
+     * @param minFetchSize minimal fetch size
+     * @param maxFetchSize maximal fetch size
+     * @param clock source of nanoseconds timing fetches
+     */
+    FetchSizeTuner(long memoryBudget, int minFetchSize, int maxFetchSize, LongSupplier clock)
+    {
+        if (memoryBudget <= 0)
+        {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        if (minFetchSize <= 0 || maxFetchSize < minFetchSize)
+        {
+            throw new IllegalArgumentException("Fetch size bounds must be positive and ordered: " + minFetchSize
+                    + ", " + maxFetchSize);
+        }
+        this.memoryBudget = memoryBudget;
+        this.minFetchSize = minFetchSize;
+        this.maxFetchSize = maxFetchSize;
+        this.initialFetchSize = clamp(ProcedureStreamReader.DEFAULT_FETCH_SIZE);
+        this.clock = clock;
+    }
+
+    /**
+     * @param procedure procedure name
+     * @return fetch size of next call of procedure
+     */
+    public int getFetchSize(String procedure)
+    {
+        Stats stats = procedures.get(procedure);
+        return stats == null ? initialFetchSize : stats.getFetchSize();
+    }
+
+    /**
+     * @param procedure procedure name
+     * @return average bytes of row, 0 if not known yet
+     */
+    public double getBytesPerRow(String procedure)
+    {
+        Stats stats = procedures.get(procedure);
+        return stats == null ? 0.0 : stats.getBytesPerRow();
+    }
+
+    /**
+     * @param procedure procedure name
+     * @param unit time unit
+     * @return estimated round trip of fetch, 0 if not known yet
+     */
+    public long getRoundTrip(String procedure, TimeUnit unit)
+    {
+        Stats stats = procedures.get(procedure);
+        return stats == null ? 0 : unit.convert(stats.getRoundTripNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Loads settings stored with {@link #store(Path)}. Missing file is
+     * ignored. Fetch sizes are limited to bounds of this tuner.
+     *
+     * @param file properties file
+     * @throws IOException
+     */
+    public void load(Path file) throws IOException
+    {
+        if (!Files.exists(file))
+        {
+            return;
+        }
+        Properties props = PropertiesFiles.load(file);
+        for (String key : props.stringPropertyNames())
+        {
+            if (!key.endsWith(".fetchSize"))
+            {
+                continue;
+            }
+            String procedure = key.substring(0, key.length() - ".fetchSize".length());
+            try
+            {
+                stats(procedure).restore(clamp(Integer.parseInt(props.getProperty(key))),
+                        Double.parseDouble(props.getProperty(procedure + ".bytesPerRow", "0")),
+                        Double.parseDouble(props.getProperty(procedure + ".roundTripNanos", "0")),
+                        Double.parseDouble(props.getProperty(procedure + ".rowNanos", "0")));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("Invalid settings of " + procedure + " in " + file, ex);
+            }
+        }
+    }
+
+    /**
+     * Stores learned settings of all procedures. File is replaced
+     * atomically, if file system supports it.
+     *
+     * @param file properties file
+     * @throws IOException
+     */
+    public void store(Path file) throws IOException
+    {
+        Properties props = new Properties();
+        for (Map.Entry<String, Stats> entry : procedures.entrySet())
+        {
+            entry.getValue().store(entry.getKey(), props);
+        }
+        PropertiesFiles.store(file, props, "Fetch sizes learned by " + FetchSizeTuner.class.getSimpleName());
+    }
+
+    /**
+     * @param procedure procedure name
+     * @param fetchSize fetch size of the call
+     * @return observation of single call
+     */
+    Observation observe(String procedure, int fetchSize)
+    {
+        return new Observation(stats(procedure), fetchSize, clock);
+    }
+
+    private Stats stats(String procedure)
+    {
+        return procedures.computeIfAbsent(procedure, p -> new Stats(initialFetchSize));
+    }
+
+    private int clamp(long fetchSize)
+    {
+        return (int) Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize));
+    }
+
+    /**
+     * What was learned about single procedure.
+     */
+    private final class Stats
+    {
+
+        private int fetchSize;
+        private double bytesPerRow;
+        private double roundTripNanos;
+        private double rowNanos;
+        // weighted sums of fetched rows n and fetch times t, for least squares
+        // fit of t = roundTrip + n * row
+        private double weight;
+        private double sumN;
+        private double sumNN;
+        private double sumT;
+        private double sumNT;
+
+        Stats(int fetchSize)
+        {
+            this.fetchSize = fetchSize;
+        }
+
+        synchronized int getFetchSize()
+        {
+            return fetchSize;
+        }
+
+        synchronized double getBytesPerRow()
+        {
+            return bytesPerRow;
+        }
+
+        synchronized long getRoundTripNanos()
+        {
+            return (long) roundTripNanos;
+        }
+
+        synchronized void restore(int fetchSize, double bytesPerRow, double roundTripNanos, double rowNanos)
+        {
+            this.fetchSize = fetchSize;
+            this.bytesPerRow = bytesPerRow;
+            this.roundTripNanos = roundTripNanos;
+            this.rowNanos = rowNanos;
+        }
+
+        synchronized void store(String procedure, Properties props)
+        {
+            props.setProperty(procedure + ".fetchSize", String.valueOf(fetchSize));
+            props.setProperty(procedure + ".bytesPerRow", String.valueOf(bytesPerRow));
+            props.setProperty(procedure + ".roundTripNanos", String.valueOf(roundTripNanos));
+            props.setProperty(procedure + ".rowNanos", String.valueOf(rowNanos));
+        }
+
+        synchronized void update(int callFetchSize, double callBytesPerRow, long[] fetchRows, long[] fetchNanos,
+                int fetches)
+        {
+            if (callBytesPerRow > 0)
+            {
+                bytesPerRow = bytesPerRow == 0 ? callBytesPerRow
+                        : bytesPerRow + BYTES_WEIGHT * (callBytesPerRow - bytesPerRow);
+            }
+            for (int i = 0; i < fetches; i++)
+            {
+                weight = weight * FETCH_DECAY + 1;
+                sumN = sumN * FETCH_DECAY + fetchRows[i];
+                sumNN = sumNN * FETCH_DECAY + (double) fetchRows[i] * fetchRows[i];
+                sumT = sumT * FETCH_DECAY + fetchNanos[i];
+                sumNT = sumNT * FETCH_DECAY + (double) fetchRows[i] * fetchNanos[i];
+            }
+            fit();
+            if (bytesPerRow == 0)
+            {
+                return;
+            }
+            long target = (long) (memoryBudget / bytesPerRow);
+            // without measurable round trip only memory limits fetch size
+            if (rowNanos > 0 && roundTripNanos > 0)
+            {
+                double rowsPerRoundTrip = roundTripNanos / rowNanos;
+                target = Math.min(target, (long) Math.ceil(rowsPerRoundTrip * (1 - ROUND_TRIP_SHARE)
+                        / ROUND_TRIP_SHARE));
+            }
+            target = Math.max(callFetchSize / MAX_CHANGE, Math.min((long) callFetchSize * MAX_CHANGE, target));
+            fetchSize = clamp(target);
+        }
+
+        private void fit()
+        {
+            double variance = weight * sumNN - sumN * sumN;
+            double mean = sumN / weight;
+            // fetches of almost equal sizes do not tell round trip from
+            // transfer time
+            if (weight < 2 || variance <= 0.01 * mean * mean * weight * weight)
+            {
+                return;
+            }
+            double slope = (weight * sumNT - sumN * sumT) / variance;
+            if (slope <= 0)
+            {
+                return;
+            }
+            rowNanos = slope;
+            // round trip shorter than transfer of single row is error of fit
+            double intercept = (sumT - slope * sumN) / weight;
+            roundTripNanos = intercept < slope ? 0.0 : intercept;
+        }
+    }
+
+    /**
+     * Measures single call while its rows are read. Only calls of
+     * {@link ResultSet#next()}, which fetch next batch of rows, are timed.
+     */
+    static final class Observation
+    {
+
+        private final Stats stats;
+        private final int fetchSize;
+        private final LongSupplier clock;
+        private final long[] fetchRows = new long[MAX_FETCHES];
+        private final long[] fetchNanos = new long[MAX_FETCHES];
+        private int fetches;
+        private long rows;
+        private long pendingRow = -1;
+        private long pendingNanos;
+        private long sampledBytes;
+        private int sampledRows;
+        private boolean finished;
+
+        private Observation(Stats stats, int fetchSize, LongSupplier clock)
+        {
+            this.stats = stats;
+            this.fetchSize = fetchSize;
+            this.clock = clock;
+        }
+
+        int getFetchSize()
+        {
+            return fetchSize;
+        }
+
+        /**
+         * Moves result set to next row.
+         *
+         * @param resultSet result set read with fetch size of observation
+         * @return false if there are no more rows
+         * @throws SQLException
+         */
+        boolean next(ResultSet resultSet) throws SQLException
+        {
+            boolean fetch = rows > 0 && rows % fetchSize == 0;
+            long start = fetch ? clock.getAsLong() : 0;
+            boolean hasRow = resultSet.next();
+            if (fetch)
+            {
+                long nanos = clock.getAsLong() - start;
+                endFetch();
+                pendingRow = rows;
+                pendingNanos = nanos;
+            }
+            if (hasRow)
+            {
+                if (rows % SAMPLE_INTERVAL == 0)
+                {
+                    sample(resultSet);
+                }
+                rows++;
+            }
+            else
+            {
+                endFetch();
+            }
+            return hasRow;
+        }
+
+        /**
+         * Passes measurements to tuner. Fetch, which was not read to the end,
+         * is left out.
+         */
+        void finish()
+        {
+            if (finished)
+            {
+                return;
+            }
+            finished = true;
+            stats.update(fetchSize, sampledRows == 0 ? 0.0 : (double) sampledBytes / sampledRows, fetchRows,
+                    fetchNanos, fetches);
+        }
+
+        private void endFetch()
+        {
+            if (pendingRow >= 0 && fetches < MAX_FETCHES)
+            {
+                fetchRows[fetches] = rows - pendingRow;
+                fetchNanos[fetches] = pendingNanos;
+                fetches++;
+            }
+            pendingRow = -1;
+        }
+
+        private void sample(ResultSet resultSet) throws SQLException
+        {
+            int columns = resultSet.getMetaData().getColumnCount();
+            long bytes = ROW_OVERHEAD;
+            for (int i = 1; i <= columns; i++)
+            {
+                byte[] value = resultSet.getBytes(i);
+                bytes += COLUMN_OVERHEAD + (value == null ? 0 : value.length);
+            }
+            sampledBytes += bytes;
+            sampledRows++;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Builds expensive object, like <code>EntityManagerFactory</code> or Cayenne
+ * <code>ServerRuntime</code>, exactly once. Object is built on background
+ * thread after {@link #start()}, or in the first thread calling
+ * {@link #get()} if bootstrap was not started. Other threads wait for the
+ * result.
+ *
+ * Duration of named phases of bootstrap, total bootstrap time and time spent
+ * by callers waiting for result are recorded, so it can be seen how much of
+ * bootstrap was hidden behind other startup work.
+ *
+ * <pre>
+ * LazyBootstrap&lt;EntityManagerFactory&gt; jpa = new LazyBootstrap&lt;&gt;("postgresPu",
+ *         phases -&gt; phases.time("createEntityManagerFactory", () -&gt; Persistence.createEntityManagerFactory("postgresPu")))
+ *         .start();
+ * </pre>
+ *
+ * @author Milosz Piglas
+ * @param <T> type of built object
+ */
+public final class LazyBootstrap<T>
+{
+
+    /**
+     * Builds object and reports its phases.
+     *
+     * @param <T> type of built object
+     */
+    @FunctionalInterface
+    public interface Factory<T>
+    {
+
+        T create(Phases phases) throws Exception;
+    }
+
+    /**
+     * Single step of bootstrap.
+     *
+     * @param <R> type of step result
+     */
+    @FunctionalInterface
+    public interface Step<R>
+    {
+
+        R run() throws Exception;
+    }
+
+    /**
+     * Records duration of bootstrap phases in order of their completion.
+     */
+    public static final class Phases
+    {
+
+        private final Map<String, Long> nanos = new LinkedHashMap<>();
+
+        public <R> R time(String phase, Step<R> step) throws Exception
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return step.run();
+            }
+            finally
+            {
+                long elapsed = System.nanoTime() - start;
+                synchronized (nanos)
+                {
+                    nanos.merge(phase, elapsed, Long::sum);
+                }
+            }
+        }
+
+        Map<String, Long> get(TimeUnit unit)
+        {
+            Map<String, Long> result = new LinkedHashMap<>();
+            synchronized (nanos)
+            {
+                nanos.forEach((phase, elapsed) -> result.put(phase, unit.convert(elapsed, TimeUnit.NANOSECONDS)));
+            }
+            return Collections.unmodifiableMap(result);
+        }
+    }
+
+    private final String name;
+    private final FutureTask<T> task;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final Phases phases = new Phases();
+    private final LongAdder waitNanos = new LongAdder();
+    private volatile long bootstrapNanos = -1;
+    private volatile boolean background;
+
+    /**
+     * @param name name of bootstrap, used to name background thread
+     * @param factory builds object
+     */
+    public LazyBootstrap(String name, Factory<T> factory)
+    {
+        this.name = name;
+        this.task = new FutureTask<>(() ->
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return factory.create(phases);
+            }
+            finally
+            {
+                bootstrapNanos = System.nanoTime() - start;
+            }
+        });
+    }
+
+    /**
+     * Starts bootstrap on background daemon thread. Does nothing if bootstrap
+     * is already started.
+     *
+     * @return this bootstrap
+     */
+    public LazyBootstrap<T> start()
+    {
+        if (started.compareAndSet(false, true))
+        {
+            background = true;
+            Thread thread = new Thread(task, "dbproc-bootstrap-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return this;
+    }
+
+    /**
+     * Returns built object. If bootstrap was not started, object is built in
+     * calling thread, otherwise caller waits until it is built.
+     *
+     * @return built object
+     * @throws IllegalStateException if bootstrap failed or was cancelled,
+     * runtime exceptions of factory are rethrown as they are
+     */
+    public T get()
+    {
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try
+        {
+            if (started.compareAndSet(false, true))
+            {
+                task.run();
+            }
+            while (true)
+            {
+                try
+                {
+                    return task.get();
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (CancellationException ex)
+                {
+                    throw new IllegalStateException("Bootstrap " + name + " was cancelled", ex);
+                }
+                catch (ExecutionException ex)
+                {
+                    if (ex.getCause() instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    if (ex.getCause() instanceof Error)
+                    {
+                        throw (Error) ex.getCause();
+                    }
+                    throw new IllegalStateException("Bootstrap " + name + " failed", ex.getCause());
+                }
+            }
+        }
+        finally
+        {
+            waitNanos.add(System.nanoTime() - start);
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Prevents bootstrap, if it was not started, otherwise waits for it and
+     * releases built object. Failed bootstrap has nothing to release.
+     *
+     * @param closer releases built object
+     */
+    public void close(Consumer<? super T> closer)
+    {
+        if (started.compareAndSet(false, true))
+        {
+            task.cancel(false);
+            return;
+        }
+        T built;
+        try
+        {
+            built = get();
+        }
+        catch (RuntimeException | Error ex)
+        {
+            // failure was thrown to callers of get(), rethrowing the same
+            // exception from close of try-with-resources would suppress itself
+            return;
+        }
+        closer.accept(built);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public boolean isStarted()
+    {
+        return started.get();
+    }
+
+    /**
+     * @return true if bootstrap was started on background thread
+     */
+    public boolean isBackground()
+    {
+        return background;
+    }
+
+    public boolean isDone()
+    {
+        return task.isDone();
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of bootstrap, or -1 if it is not finished
+     */
+    public long getBootstrapTime(TimeUnit unit)
+    {
+        long nanos = bootstrapNanos;
+        return nanos < 0 ? -1 : unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit time unit
+     * @return total time callers of {@link #get()} waited for bootstrap,
+     * including bootstrap run in calling thread
+     */
+    public long getWaitTime(TimeUnit unit)
+    {
+        return unit.convert(waitNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of completed phases
+     */
+    public Map<String, Long> getPhases(TimeUnit unit)
+    {
+        return phases.get(unit);
+    }
+}
@@ -0,0 +1,478 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads set-returning procedure split into partitions, e.g. ranges of
+ * <code>gen_rows_range(from, to)</code>, on several connections at once, so
+ * that procedure runs in several database backends in parallel.
+ *
+ * Partitions are declared by caller as lists of procedure arguments, one
+ * list per partition. Rows of all partitions are merged into single stream,
+ * in order of partitions or in order they arrive, or reduced with
+ * {@link Collector}, each partition into its own container, which are
+ * combined in order of partitions.
+ *
+ * <pre>
+ * try (PartitionedProcedureReader reader = new PartitionedProcedureReader(dataSource::getConnection, 4);
+ *         Stream&lt;String&gt; rows = reader.stream("SELECT * FROM gen_rows_range(?, ?)",
+ *                 PartitionedProcedureReader.ranges(0, 1000000, 8), rs -&gt; rs.getString(1), true))
+ * {
+ *     rows.forEach(System.out::println);
+ * }
+ * </pre>
+ *
+ * Every worker takes connection from {@link ConnectionSource} and reads
+ * partitions one after another, in ascending order, until there are no more
+ * left. Workers read ahead only limited number of rows, so ordered stream
+ * waits for workers of later partitions, not the other way round.
+ *
+ * @author Milosz Piglas
+ */
+public class PartitionedProcedureReader implements AutoCloseable
+{
+
+    public static final int DEFAULT_FETCH_SIZE = ProcedureStreamReader.DEFAULT_FETCH_SIZE;
+
+    /**
+     * Number of fetched batches buffered for single partition.
+     */
+    public static final int DEFAULT_BUFFERED_BATCHES = 4;
+
+    private static final long POLL_MILLIS = 50;
+
+    private static final Object DONE = new Object();
+
+    private final ConnectionSource source;
+    private final int parallelism;
+    private final int fetchSize;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    private volatile FetchSizeTuner tuner;
+
+    /**
+     * Creates reader with its own executor, shut down on close.
+     *
+     * @param source source of connections
+     * @param parallelism maximal number of partitions read at once, and of
+     * connections used
+     */
+    public PartitionedProcedureReader(ConnectionSource source, int parallelism)
+    {
+        this(source, parallelism, DEFAULT_FETCH_SIZE, AsyncProcedureCaller.newExecutor(parallelism), true);
+    }
+
+    /**
+     * @param source source of connections
+     * @param parallelism maximal number of partitions read at once
+     * @param fetchSize number of rows fetched in single round trip
+     * @param executor executor of workers, left running on close; it must
+     * be able to run <code>parallelism</code> tasks at once
+     */
+    public PartitionedProcedureReader(ConnectionSource source, int parallelism, int fetchSize, Executor executor)
+    {
+        this(source, parallelism, fetchSize, executor, false);
+    }
+
+    private PartitionedProcedureReader(ConnectionSource source, int parallelism, int fetchSize, Executor executor,
+            boolean ownExecutor)
+    {
+        if (parallelism <= 0)
+        {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        if (fetchSize <= 0)
+        {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        this.source = source;
+        this.parallelism = parallelism;
+        this.fetchSize = fetchSize;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Splits range into contiguous subranges of similar size.
+     *
+     * @param from start of range, inclusive
+     * @param to end of range, exclusive
+     * @param partitions number of subranges
+     * @return arguments <code>(from, to)</code> of subranges, in ascending
+     * order, empty subranges are left out
+     */
+    public static List<Object[]> ranges(int from, int to, int partitions)
+    {
+        if (partitions <= 0)
+        {
+            throw new IllegalArgumentException("Number of partitions must be positive: " + partitions);
+        }
+        long length = Math.max(0L, (long) to - from);
+        List<Object[]> ranges = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++)
+        {
+            int start = (int) (from + length * i / partitions);
+            int end = (int) (from + length * (i + 1) / partitions);
+            if (start < end)
+            {
+                ranges.add(new Object[]
+                {
+                    start, end
+                });
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Calls procedure once for every partition and returns stream of mapped
+     * rows of all partitions. Stream must be closed, which stops workers and
+     * waits until they release connections.
+     *
+     * @param sql procedure call, e.g.
+     * <code>SELECT * FROM gen_rows_range(?, ?)</code>
+     * @param partitions arguments of procedure, one array per partition
+     * @param mapper maps single row, called on worker threads
+     * @param ordered if rows of partition are returned after all rows of
+     * previous partitions, otherwise in order they are read
+     * @return stream of rows, which throws {@link UncheckedSQLException} when
+     * procedure fails
+     */
+    public <T> Stream<T> stream(String sql, List<Object[]> partitions, RowMapper<T> mapper, boolean ordered)
+    {
+        MergedIterator<T> iterator = new MergedIterator<>(sql, partitions, mapper, ordered);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+                ordered ? Spliterator.ORDERED : 0);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * Calls procedure once for every partition and reduces rows of every
+     * partition into container of its own, on worker thread. Containers are
+     * combined in order of partitions.
+     *
+     * <pre>
+     * long sum = reader.collect("SELECT * FROM gen_rows_range(?, ?)", ranges, rs -&gt; rs.getInt(2),
+     *         Collectors.summingLong(Integer::longValue));
+     * </pre>
+     *
+     * @param sql procedure call
+     * @param partitions arguments of procedure, one array per partition
+     * @param mapper maps single row
+     * @param collector reduces rows
+     * @return result of reduction
+     * @throws SQLException if any partition failed, other partitions are
+     * stopped; failure of mapper or collector is its cause
+     */
+    public <T, A, R> R collect(String sql, List<Object[]> partitions, RowMapper<T> mapper,
+            Collector<? super T, A, R> collector) throws SQLException
+    {
+        List<A> containers = new ArrayList<>(Collections.nCopies(partitions.size(), (A) null));
+        BiConsumer<A, ? super T> accumulator = collector.accumulator();
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        List<CompletableFuture<Void>> workers = start(partitions.size(), () ->
+        {
+            try (Connection connection = source.getConnection())
+            {
+                ProcedureStreamReader reader = reader(connection);
+                int partition;
+                while (failure.get() == null && (partition = next.getAndIncrement()) < partitions.size())
+                {
+                    A container = collector.supplier().get();
+                    try (ProcedureResultIterator<T> rows = reader.iterator(sql, mapper, partitions.get(partition)))
+                    {
+                        while (failure.get() == null && rows.hasNext())
+                        {
+                            accumulator.accept(container, rows.next());
+                        }
+                    }
+                    containers.set(partition, container);
+                }
+            }
+            catch (SQLException ex)
+            {
+                failure.compareAndSet(null, ex);
+            }
+            catch (UncheckedSQLException ex)
+            {
+                failure.compareAndSet(null, ex.getCause());
+            }
+            catch (RuntimeException ex)
+            {
+                failure.compareAndSet(null, new SQLException("Reading partition failed", ex));
+            }
+        });
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[workers.size()])).join();
+        if (failure.get() != null)
+        {
+            throw failure.get();
+        }
+        A result = collector.supplier().get();
+        for (A container : containers)
+        {
+            result = collector.combiner().apply(result, container);
+        }
+        return collector.finisher().apply(result);
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets tuner choosing fetch size of every partition, instead of fixed
+     * fetch size of reader. Fetch size of partition is learned from earlier
+     * partitions of the same procedure.
+     *
+     * @param tuner tuner shared by workers, null restores fixed fetch size
+     */
+    public void setFetchSizeTuner(FetchSizeTuner tuner)
+    {
+        this.tuner = tuner;
+    }
+
+    /**
+     * @return fixed fetch size, used when reader has no
+     * {@link FetchSizeTuner}, and number of rows passed from worker to stream
+     * at once
+     */
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    private ProcedureStreamReader reader(Connection connection)
+    {
+        ProcedureStreamReader reader = new ProcedureStreamReader(connection, fetchSize);
+        reader.setFetchSizeTuner(tuner);
+        return reader;
+    }
+
+    /**
+     * Shuts down executor created by reader.
+     */
+    @Override
+    public void close()
+    {
+        if (ownExecutor)
+        {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private List<CompletableFuture<Void>> start(int partitions, Runnable worker)
+    {
+        int count = Math.min(parallelism, partitions);
+        List<CompletableFuture<Void>> workers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            workers.add(CompletableFuture.runAsync(worker, executor));
+        }
+        return workers;
+    }
+
+    /**
+     * Iterator over rows of all partitions, fed by workers through bounded
+     * queues: one queue per partition if rows are ordered, single shared
+     * queue otherwise. Workers put lists of rows, one per fetch, and
+     * {@link #DONE} after last row of partition.
+     */
+    private final class MergedIterator<T> implements Iterator<T>, AutoCloseable
+    {
+
+        private final String sql;
+        private final List<Object[]> partitions;
+        private final RowMapper<T> mapper;
+        private final List<BlockingQueue<Object>> queues;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicReference<SQLException> failure = new AtomicReference<>();
+        private final List<CompletableFuture<Void>> workers;
+        private volatile boolean closed;
+        private int current;
+        private int done;
+        private List<T> batch = Collections.emptyList();
+        private int index;
+
+        MergedIterator(String sql, List<Object[]> partitions, RowMapper<T> mapper, boolean ordered)
+        {
+            this.sql = sql;
+            this.partitions = partitions;
+            this.mapper = mapper;
+            int queueCount = ordered ? partitions.size() : Math.min(1, partitions.size());
+            int capacity = ordered ? DEFAULT_BUFFERED_BATCHES : DEFAULT_BUFFERED_BATCHES * parallelism;
+            this.queues = new ArrayList<>(queueCount);
+            for (int i = 0; i < queueCount; i++)
+            {
+                queues.add(new ArrayBlockingQueue<>(capacity));
+            }
+            this.workers = start(partitions.size(), this::work);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (index >= batch.size())
+            {
+                if (done == partitions.size())
+                {
+                    return false;
+                }
+                Object message = take();
+                if (message == DONE)
+                {
+                    done++;
+                    if (queues.size() > 1)
+                    {
+                        current++;
+                    }
+                }
+                else
+                {
+                    @SuppressWarnings("unchecked")
+                    List<T> rows = (List<T>) message;
+                    batch = rows;
+                    index = 0;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            return batch.get(index++);
+        }
+
+        /**
+         * Stops workers and waits until they release connections.
+         */
+        @Override
+        public void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            for (CompletableFuture<Void> worker : workers)
+            {
+                worker.exceptionally(ex -> null).join();
+            }
+        }
+
+        private Object take()
+        {
+            BlockingQueue<Object> queue = queues.get(current);
+            try
+            {
+                Object message;
+                while ((message = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null)
+                {
+                    SQLException ex = failure.get();
+                    if (ex != null)
+                    {
+                        close();
+                        throw new UncheckedSQLException(ex);
+                    }
+                }
+                return message;
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                close();
+                throw new UncheckedSQLException(new SQLException("Interrupted while waiting for rows", ex));
+            }
+        }
+
+        private void work()
+        {
+            try (Connection connection = source.getConnection())
+            {
+                ProcedureStreamReader reader = reader(connection);
+                int partition;
+                while (!closed && (partition = next.getAndIncrement()) < partitions.size())
+                {
+                    read(reader, partition);
+                }
+            }
+            catch (SQLException ex)
+            {
+                failure.compareAndSet(null, ex);
+            }
+            catch (UncheckedSQLException ex)
+            {
+                failure.compareAndSet(null, ex.getCause());
+            }
+            catch (RuntimeException ex)
+            {
+                failure.compareAndSet(null, new SQLException("Reading partition failed", ex));
+            }
+        }
+
+        private void read(ProcedureStreamReader reader, int partition) throws SQLException
+        {
+            BlockingQueue<Object> queue = queues.get(queues.size() > 1 ? partition : 0);
+            try (ProcedureResultIterator<T> rows = reader.iterator(sql, mapper, partitions.get(partition)))
+            {
+                List<T> rowBatch = new ArrayList<>(fetchSize);
+                while (!closed && rows.hasNext())
+                {
+                    rowBatch.add(rows.next());
+                    if (rowBatch.size() == fetchSize)
+                    {
+                        put(queue, rowBatch);
+                        rowBatch = new ArrayList<>(fetchSize);
+                    }
+                }
+                if (!rowBatch.isEmpty())
+                {
+                    put(queue, rowBatch);
+                }
+            }
+            put(queue, DONE);
+        }
+
+        private void put(BlockingQueue<Object> queue, Object message) throws SQLException
+        {
+            try
+            {
+                while (!closed && !queue.offer(message, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                {
+                    // consumer is slower, wait until it takes earlier rows
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while passing rows", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads first column of procedures returning sets of numbers, like
+ * <code>int_set</code>, as primitive values. Values are never boxed: they are
+ * passed to primitive consumers, collected in growable arrays or exposed as
+ * primitive streams. Rows are read with database cursor, just like in
+ * {@link ProcedureStreamReader}.
+ *
+ * Buffers can be cleared and reused between calls, so reading large sets does
+ * not allocate anything per row above what the driver allocates itself.
+ *
+ * Primitive values cannot represent NULL, so NULL in first column fails the
+ * call with {@link SQLException} naming the row, instead of reading it as 0.
+ *
+ * <pre>
+ * PrimitiveResultReader.IntArray ids = new PrimitiveResultReader.IntArray();
+ * reader.forEachInt("SELECT * FROM int_set(?)", ids, 50000000);
+ * </pre>
+ *
+ * Every method has overload taking {@link Deadline}, which cancels the call
+ * and stops reading when deadline passes, just like
+ * {@link ProcedureStreamReader#iterator(Deadline, String, RowMapper, Object...)}.
+ *
+ * @author Milosz Piglas
+ */
+public class PrimitiveResultReader
+{
+
+    private static final int STREAM_CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL;
+
+    private static final String NULL_VALUE_NOT_ALLOWED = "22004";
+
+    private final ProcedureStreamReader reader;
+
+    public PrimitiveResultReader(Connection connection)
+    {
+        this(connection, ProcedureStreamReader.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param connection connection used to call procedures
+     * @param fetchSize number of rows fetched from database in single round
+     * trip
+     */
+    public PrimitiveResultReader(Connection connection, int fetchSize)
+    {
+        this.reader = new ProcedureStreamReader(connection, fetchSize);
+    }
+
+    /**
+     * Calls procedure and passes value of first column of every row to
+     * consumer.
+     *
+     * @param sql procedure call, e.g. <code>SELECT * FROM int_set(?)</code>
+     * @param consumer consumer of values
+     * @param args procedure arguments
+     * @return number of rows read
+     * @throws SQLException
+     */
+    public long forEachInt(String sql, IntConsumer consumer, Object... args) throws SQLException
+    {
+        return forEachInt(Deadline.NONE, sql, consumer, args);
+    }
+
+    /**
+     * @see #forEachInt(String, IntConsumer, Object...)
+     */
+    public long forEachInt(Deadline deadline, String sql, IntConsumer consumer, Object... args) throws SQLException
+    {
+        IntColumn column = new IntColumn();
+        try (ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args))
+        {
+            long count = 0;
+            while (rows.hasNext())
+            {
+                rows.next();
+                consumer.accept(column.value);
+                count++;
+            }
+            return count;
+        }
+        catch (UncheckedSQLException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * @see #forEachInt(String, IntConsumer, Object...)
+     */
+    public long forEachLong(String sql, LongConsumer consumer, Object... args) throws SQLException
+    {
+        return forEachLong(Deadline.NONE, sql, consumer, args);
+    }
+
+    /**
+     * @see #forEachLong(String, LongConsumer, Object...)
+     */
+    public long forEachLong(Deadline deadline, String sql, LongConsumer consumer, Object... args) throws SQLException
+    {
+        LongColumn column = new LongColumn();
+        try (ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args))
+        {
+            long count = 0;
+            while (rows.hasNext())
+            {
+                rows.next();
+                consumer.accept(column.value);
+                count++;
+            }
+            return count;
+        }
+        catch (UncheckedSQLException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * @see #forEachInt(String, IntConsumer, Object...)
+     */
+    public long forEachDouble(String sql, DoubleConsumer consumer, Object... args) throws SQLException
+    {
+        return forEachDouble(Deadline.NONE, sql, consumer, args);
+    }
+
+    /**
+     * @see #forEachDouble(String, DoubleConsumer, Object...)
+     */
+    public long forEachDouble(Deadline deadline, String sql, DoubleConsumer consumer, Object... args)
+            throws SQLException
+    {
+        DoubleColumn column = new DoubleColumn();
+        try (ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args))
+        {
+            long count = 0;
+            while (rows.hasNext())
+            {
+                rows.next();
+                consumer.accept(column.value);
+                count++;
+            }
+            return count;
+        }
+        catch (UncheckedSQLException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Calls procedure and returns values of first column.
+     *
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return values in order of rows
+     * @throws SQLException
+     */
+    public int[] readInts(String sql, Object... args) throws SQLException
+    {
+        return readInts(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #readInts(String, Object...)
+     */
+    public int[] readInts(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        IntArray values = new IntArray();
+        forEachInt(deadline, sql, values, args);
+        return values.toArray();
+    }
+
+    /**
+     * @see #readInts(String, Object...)
+     */
+    public long[] readLongs(String sql, Object... args) throws SQLException
+    {
+        return readLongs(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #readInts(String, Object...)
+     */
+    public long[] readLongs(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        LongArray values = new LongArray();
+        forEachLong(deadline, sql, values, args);
+        return values.toArray();
+    }
+
+    /**
+     * @see #readInts(String, Object...)
+     */
+    public double[] readDoubles(String sql, Object... args) throws SQLException
+    {
+        return readDoubles(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #readInts(String, Object...)
+     */
+    public double[] readDoubles(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        DoubleArray values = new DoubleArray();
+        forEachDouble(deadline, sql, values, args);
+        return values.toArray();
+    }
+
+    /**
+     * Calls procedure and returns stream of values of first column. Stream must
+     * be closed to release database cursor.
+     *
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return stream of values
+     * @throws SQLException
+     */
+    public IntStream intStream(String sql, Object... args) throws SQLException
+    {
+        return intStream(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #intStream(String, Object...)
+     */
+    public IntStream intStream(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        IntColumn column = new IntColumn();
+        ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args);
+        Spliterator.OfInt spliterator = new Spliterators.AbstractIntSpliterator(Long.MAX_VALUE, STREAM_CHARACTERISTICS)
+        {
+            @Override
+            public boolean tryAdvance(IntConsumer action)
+            {
+                if (!rows.hasNext())
+                {
+                    return false;
+                }
+                rows.next();
+                action.accept(column.value);
+                return true;
+            }
+        };
+        return StreamSupport.intStream(spliterator, false).onClose(rows::close);
+    }
+
+    /**
+     * @see #intStream(String, Object...)
+     */
+    public LongStream longStream(String sql, Object... args) throws SQLException
+    {
+        return longStream(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #intStream(String, Object...)
+     */
+    public LongStream longStream(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        LongColumn column = new LongColumn();
+        ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args);
+        Spliterator.OfLong spliterator = new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE, STREAM_CHARACTERISTICS)
+        {
+            @Override
+            public boolean tryAdvance(LongConsumer action)
+            {
+                if (!rows.hasNext())
+                {
+                    return false;
+                }
+                rows.next();
+                action.accept(column.value);
+                return true;
+            }
+        };
+        return StreamSupport.longStream(spliterator, false).onClose(rows::close);
+    }
+
+    /**
+     * @see #intStream(String, Object...)
+     */
+    public DoubleStream doubleStream(String sql, Object... args) throws SQLException
+    {
+        return doubleStream(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * @see #intStream(String, Object...)
+     */
+    public DoubleStream doubleStream(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        DoubleColumn column = new DoubleColumn();
+        ProcedureResultIterator<Void> rows = reader.iterator(deadline, sql, column, args);
+        Spliterator.OfDouble spliterator = new Spliterators.AbstractDoubleSpliterator(Long.MAX_VALUE,
+                STREAM_CHARACTERISTICS)
+        {
+            @Override
+            public boolean tryAdvance(DoubleConsumer action)
+            {
+                if (!rows.hasNext())
+                {
+                    return false;
+                }
+                rows.next();
+                action.accept(column.value);
+                return true;
+            }
+        };
+        return StreamSupport.doubleStream(spliterator, false).onClose(rows::close);
+    }
+
+    public int getFetchSize()
+    {
+        return reader.getFetchSize();
+    }
+
+    /**
+     * Row mappers storing value of first column in field instead of returning
+     * it, so iterating rows does not box values.
+     */
+    private abstract static class Column implements RowMapper<Void>
+    {
+
+        private long row;
+
+        /**
+         * Counts row and rejects NULL read by the last getter.
+         */
+        final void checkNull(ResultSet resultSet) throws SQLException
+        {
+            row++;
+            if (resultSet.wasNull())
+            {
+                throw new SQLException("Row " + row + " has NULL in first column, which cannot be read as primitive",
+                        NULL_VALUE_NOT_ALLOWED);
+            }
+        }
+    }
+
+    private static final class IntColumn extends Column
+    {
+
+        private int value;
+
+        @Override
+        public Void map(ResultSet resultSet) throws SQLException
+        {
+            value = resultSet.getInt(1);
+            checkNull(resultSet);
+            return null;
+        }
+    }
+
+    private static final class LongColumn extends Column
+    {
+
+        private long value;
+
+        @Override
+        public Void map(ResultSet resultSet) throws SQLException
+        {
+            value = resultSet.getLong(1);
+            checkNull(resultSet);
+            return null;
+        }
+    }
+
+    private static final class DoubleColumn extends Column
+    {
+
+        private double value;
+
+        @Override
+        public Void map(ResultSet resultSet) throws SQLException
+        {
+            value = resultSet.getDouble(1);
+            checkNull(resultSet);
+            return null;
+        }
+    }
+
+    /**
+     * Growable array of <code>int</code> values. Capacity is doubled when
+     * array is full and kept after {@link #clear()}.
+     */
+    public static final class IntArray implements IntConsumer
+    {
+
+        private int[] values;
+        private int size;
+
+        public IntArray()
+        {
+            this(16);
+        }
+
+        public IntArray(int capacity)
+        {
+            values = new int[Math.max(1, capacity)];
+        }
+
+        @Override
+        public void accept(int value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public int get(int index)
+        {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public void clear()
+        {
+            size = 0;
+        }
+
+        /**
+         * @return copy of values
+         */
+        public int[] toArray()
+        {
+            return Arrays.copyOf(values, size);
+        }
+
+        public IntStream stream()
+        {
+            return Arrays.stream(values, 0, size);
+        }
+    }
+
+    /**
+     * Growable array of <code>long</code> values.
+     *
+     * @see IntArray
+     */
+    public static final class LongArray implements LongConsumer
+    {
+
+        private long[] values;
+        private int size;
+
+        public LongArray()
+        {
+            this(16);
+        }
+
+        public LongArray(int capacity)
+        {
+            values = new long[Math.max(1, capacity)];
+        }
+
+        @Override
+        public void accept(long value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public long get(int index)
+        {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public void clear()
+        {
+            size = 0;
+        }
+
+        public long[] toArray()
+        {
+            return Arrays.copyOf(values, size);
+        }
+
+        public LongStream stream()
+        {
+            return Arrays.stream(values, 0, size);
+        }
+    }
+
+    /**
+     * Growable array of <code>double</code> values.
+     *
+     * @see IntArray
+     */
+    public static final class DoubleArray implements DoubleConsumer
+    {
+
+        private double[] values;
+        private int size;
+
+        public DoubleArray()
+        {
+            this(16);
+        }
+
+        public DoubleArray(int capacity)
+        {
+            values = new double[Math.max(1, capacity)];
+        }
+
+        @Override
+        public void accept(double value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = value;
+        }
+
+        public double get(int index)
+        {
+            checkIndex(index, size);
+            return values[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public void clear()
+        {
+            size = 0;
+        }
+
+        public double[] toArray()
+        {
+            return Arrays.copyOf(values, size);
+        }
+
+        public DoubleStream stream()
+        {
+            return Arrays.stream(values, 0, size);
+        }
+    }
+
+    private static int grow(int size)
+    {
+        if (size == Integer.MAX_VALUE - 8)
+        {
+            throw new OutOfMemoryError("Array size limit exceeded");
+        }
+        return (int) Math.min((long) size * 2, Integer.MAX_VALUE - 8);
+    }
+
+    private static void checkIndex(int index, int size)
+    {
+        if (index < 0 || index >= size)
+        {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter;
+
+/**
+ * Calls procedure returning single row for many argument tuples in one round
+ * trip. Arguments are passed as arrays, one per parameter, and unnested on the
+ * server:
+ *
+ * <pre>
+ * SELECT f.* FROM unnest(?::int4[], ?::int4[]) WITH ORDINALITY AS a(p1, p2, ord),
+ *     LATERAL modmul(a.p1, a.p2) f ORDER BY a.ord
+ * </pre>
+ *
+ * Results are returned in order of input tuples. Large inputs are split into
+ * chunks, each sent in a single statement.
+ *
+ * PostgreSQL driver rewrites <code>{call ...}</code> to <code>SELECT</code>
+ * and does not allow rows in results of
+ * {@link java.sql.Statement#executeBatch()}, so JDBC batches cannot be used for
+ * functions.
+ *
+ * {@link Deadline} of batch is shared by all its chunks.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureBatch
+{
+
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private final ProcedureCaller caller;
+    private final int chunkSize;
+
+    public ProcedureBatch(ProcedureCaller caller)
+    {
+        this(caller, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param caller caller, which statements are reused
+     * @param chunkSize maximal number of argument tuples sent in single
+     * statement
+     */
+    public ProcedureBatch(ProcedureCaller caller, int chunkSize)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.caller = caller;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Calls procedure for every argument tuple and returns output values of
+     * each call.
+     *
+     * @param procedure procedure metadata
+     * @param args argument tuples
+     * @return output values of each call, in order of argument tuples
+     * @throws SQLException
+     */
+    public List<Object[]> call(ProcedureMetadata procedure, List<Object[]> args) throws SQLException
+    {
+        return call(Deadline.NONE, procedure, args, ProcedureCaller::readRow);
+    }
+
+    /**
+     * Calls procedure for every argument tuple, all calls have to finish
+     * before deadline.
+     *
+     * @param deadline deadline of the whole batch
+     * @param procedure procedure metadata
+     * @param args argument tuples
+     * @return output values of each call, in order of argument tuples
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public List<Object[]> call(Deadline deadline, ProcedureMetadata procedure, List<Object[]> args)
+            throws SQLException
+    {
+        return call(deadline, procedure, args, ProcedureCaller::readRow);
+    }
+
+    /**
+     * Calls procedure for every argument tuple and maps output of each call.
+     *
+     * @param procedure procedure metadata
+     * @param args argument tuples
+     * @param mapper maps output row of single call
+     * @return mapped outputs, in order of argument tuples
+     * @throws SQLException
+     */
+    public <T> List<T> call(ProcedureMetadata procedure, List<Object[]> args, RowMapper<T> mapper) throws SQLException
+    {
+        return call(Deadline.NONE, procedure, args, mapper);
+    }
+
+    /**
+     * Calls procedure for every argument tuple and maps output of each call,
+     * all calls have to finish before deadline.
+     *
+     * @param deadline deadline of the whole batch
+     * @param procedure procedure metadata
+     * @param args argument tuples
+     * @param mapper maps output row of single call
+     * @return mapped outputs, in order of argument tuples
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public <T> List<T> call(Deadline deadline, ProcedureMetadata procedure, List<Object[]> args, RowMapper<T> mapper)
+            throws SQLException
+    {
+        if (procedure.isSetReturning())
+        {
+            throw new IllegalArgumentException("Set-returning procedure " + procedure.getName() + " cannot be batched");
+        }
+        List<ProcedureParameter> inputs = procedure.getInParameters();
+        if (inputs.isEmpty())
+        {
+            throw new IllegalArgumentException("Procedure " + procedure.getName() + " has no input parameters");
+        }
+        ProcedureSignature signature = ProcedureSignature.of(procedure.getName(), unnestSql(procedure.getName(), inputs));
+        List<T> results = new ArrayList<>(args.size());
+        for (int from = 0; from < args.size(); from += chunkSize)
+        {
+            List<Object[]> chunk = args.subList(from, Math.min(args.size(), from + chunkSize));
+            callChunk(deadline, signature, inputs, chunk, mapper, results);
+        }
+        return results;
+    }
+
+    private <T> void callChunk(Deadline deadline, ProcedureSignature signature, List<ProcedureParameter> inputs,
+            List<Object[]> chunk, RowMapper<T> mapper, List<T> results) throws SQLException
+    {
+        StatementCache cache = caller.getStatementCache();
+        PreparedStatement statement = cache.prepare(signature);
+        Cancellation cancellation = Cancellation.of(statement, deadline);
+        List<Array> arrays = new ArrayList<>(inputs.size());
+        try
+        {
+            for (int p = 0; p < inputs.size(); p++)
+            {
+                Object[] column = new Object[chunk.size()];
+                for (int row = 0; row < chunk.size(); row++)
+                {
+                    Object[] tuple = chunk.get(row);
+                    if (tuple.length != inputs.size())
+                    {
+                        throw new IllegalArgumentException(signature.getName() + " expects "
+                                + inputs.size() + " arguments, got " + tuple.length);
+                    }
+                    column[row] = tuple[p];
+                }
+                Array array = cache.getConnection().createArrayOf(inputs.get(p).getTypeName(), column);
+                arrays.add(array);
+                statement.setArray(p + 1, array);
+            }
+            int before = results.size();
+            cancellation.arm(signature.getName());
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    results.add(mapper.map(resultSet));
+                }
+            }
+            if (results.size() - before != chunk.size())
+            {
+                throw new SQLException("Procedure " + signature.getName() + " returned "
+                        + (results.size() - before) + " rows for " + chunk.size() + " calls");
+            }
+        }
+        catch (SQLException ex)
+        {
+            SQLException failure = cancellation.translate(signature.getName(), ex);
+            try
+            {
+                cache.invalidate(signature);
+            }
+            catch (SQLException invalidation)
+            {
+                failure.addSuppressed(invalidation);
+            }
+            throw failure;
+        }
+        finally
+        {
+            cancellation.close();
+            for (Array array : arrays)
+            {
+                array.free();
+            }
+        }
+    }
+
+    static String unnestSql(String name, List<ProcedureParameter> inputs)
+    {
+        StringBuilder arrays = new StringBuilder();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder args = new StringBuilder();
+        for (int p = 1; p <= inputs.size(); p++)
+        {
+            String separator = p > 1 ? ", " : "";
+            arrays.append(separator).append("?::").append(inputs.get(p - 1).getTypeName()).append("[]");
+            columns.append(separator).append('p').append(p);
+            args.append(separator).append("a.p").append(p);
+        }
+        return "SELECT f.* FROM unnest(" + arrays + ") WITH ORDINALITY AS a(" + columns + ", ord), LATERAL "
+                + name + "(" + args + ") f ORDER BY a.ord";
+    }
+}
@@ -0,0 +1,314 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter;
+
+/**
+ * Calls several independent procedures returning single row in one round
+ * trip. Calls are merged into single statement, one function per
+ * <code>FROM</code> item:
+ *
+ * <pre>
+ * SELECT * FROM num_sum(?::int4, ?::int4) c1, out_text() c2, modmul(?::int4, ?::int4) c3
+ * </pre>
+ *
+ * and the only result row is split back into outputs of each call. Functions
+ * are placed in <code>FROM</code> rather than expanded with
+ * <code>(modmul(?, ?)).*</code>, which evaluates function once per output
+ * column.
+ *
+ * Merged calls run in unspecified order within single statement. Procedures
+ * with side effects, which depend on each other, should be executed with
+ * {@link #executePipelined()} instead: each call is a separate statement, but
+ * all of them are sent together and answered in one round trip.
+ *
+ * <pre>
+ * ProcedureCallGroup group = new ProcedureCallGroup(caller);
+ * int sum = group.add(registry.get("num_sum"), 100, 11);
+ * int mod = group.add(registry.get("modmul"), 10, 3);
+ * List&lt;Object[]&gt; out = group.execute();
+ * </pre>
+ *
+ * Group is not thread safe, just like caller it uses. Group executed with
+ * {@link Deadline} is cancelled as a whole.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureCallGroup
+{
+
+    private final ProcedureCaller caller;
+    private final List<ProcedureMetadata> procedures = new ArrayList<>();
+    private final List<Object[]> args = new ArrayList<>();
+
+    /**
+     * @param caller caller, which statements are reused
+     */
+    public ProcedureCallGroup(ProcedureCaller caller)
+    {
+        this.caller = caller;
+    }
+
+    /**
+     * Adds call to group.
+     *
+     * @param procedure procedure metadata
+     * @param values values of input parameters
+     * @return index of call output in executed results
+     */
+    public int add(ProcedureMetadata procedure, Object... values)
+    {
+        if (procedure.isSetReturning())
+        {
+            throw new IllegalArgumentException("Set-returning procedure " + procedure.getName() + " cannot be grouped");
+        }
+        if (values.length != procedure.getInParameters().size())
+        {
+            throw new IllegalArgumentException(procedure.getName() + " expects "
+                    + procedure.getInParameters().size() + " arguments, got " + values.length);
+        }
+        procedures.add(procedure);
+        args.add(values.clone());
+        return procedures.size() - 1;
+    }
+
+    public int size()
+    {
+        return procedures.size();
+    }
+
+    public void clear()
+    {
+        procedures.clear();
+        args.clear();
+    }
+
+    /**
+     * Executes all calls in single statement and clears group.
+     *
+     * @return outputs of calls, in order of adding, empty array for
+     * procedures returning nothing
+     * @throws SQLException
+     */
+    public List<Object[]> execute() throws SQLException
+    {
+        return execute(Deadline.NONE);
+    }
+
+    /**
+     * Executes all calls in single statement and clears group. Group is kept
+     * if deadline passes.
+     *
+     * @param deadline deadline of all calls
+     * @return outputs of calls, in order of adding, empty array for
+     * procedures returning nothing
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public List<Object[]> execute(Deadline deadline) throws SQLException
+    {
+        if (procedures.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        ProcedureSignature signature = ProcedureSignature.of(groupName(), mergedSql(procedures));
+        StatementCache cache = caller.getStatementCache();
+        Cancellation cancellation = Cancellation.NONE;
+        try
+        {
+            PreparedStatement statement = bind(cache.prepare(signature));
+            cancellation = Cancellation.of(statement, deadline);
+            cancellation.arm(signature.getName());
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                if (!resultSet.next())
+                {
+                    throw new SQLException("Merged call of " + signature.getName() + " returned no rows");
+                }
+                List<Object[]> results = new ArrayList<>(procedures.size());
+                int column = 1;
+                for (ProcedureMetadata procedure : procedures)
+                {
+                    int width = procedure.getOutputs().size();
+                    results.add(readColumns(resultSet, column, width));
+                    column += Math.max(1, width);
+                }
+                clear();
+                return results;
+            }
+        }
+        catch (SQLException ex)
+        {
+            SQLException failure = cancellation.translate(signature.getName(), ex);
+            try
+            {
+                cache.invalidate(signature);
+            }
+            catch (SQLException invalidation)
+            {
+                failure.addSuppressed(invalidation);
+            }
+            throw failure;
+        }
+        finally
+        {
+            cancellation.close();
+        }
+    }
+
+    /**
+     * Executes calls as separate statements sent in one round trip and
+     * clears group. Calls run in order of adding. Without explicit
+     * transaction, all calls run in single implicit transaction, so failure
+     * of any call rolls back all of them.
+     *
+     * @return outputs of calls, in order of adding, empty array for
+     * procedures returning nothing
+     * @throws SQLException
+     */
+    public List<Object[]> executePipelined() throws SQLException
+    {
+        return executePipelined(Deadline.NONE);
+    }
+
+    /**
+     * Executes calls as separate statements sent in one round trip and
+     * clears group. Group is kept if deadline passes.
+     *
+     * @param deadline deadline of all calls
+     * @return outputs of calls, in order of adding, empty array for
+     * procedures returning nothing
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public List<Object[]> executePipelined(Deadline deadline) throws SQLException
+    {
+        if (procedures.isEmpty())
+        {
+            return new ArrayList<>();
+        }
+        ProcedureSignature signature = ProcedureSignature.of(groupName(), pipelinedSql(procedures));
+        StatementCache cache = caller.getStatementCache();
+        Cancellation cancellation = Cancellation.NONE;
+        try
+        {
+            PreparedStatement statement = bind(cache.prepare(signature));
+            cancellation = Cancellation.of(statement, deadline);
+            cancellation.arm(signature.getName());
+            boolean hasResultSet = statement.execute();
+            List<Object[]> results = new ArrayList<>(procedures.size());
+            for (ProcedureMetadata procedure : procedures)
+            {
+                if (!hasResultSet)
+                {
+                    throw new SQLException("Pipelined call of " + procedure.getName() + " returned no result");
+                }
+                try (ResultSet resultSet = statement.getResultSet())
+                {
+                    if (!resultSet.next())
+                    {
+                        throw new SQLException("Pipelined call of " + procedure.getName() + " returned no rows");
+                    }
+                    results.add(readColumns(resultSet, 1, procedure.getOutputs().size()));
+                }
+                hasResultSet = statement.getMoreResults();
+            }
+            clear();
+            return results;
+        }
+        catch (SQLException ex)
+        {
+            SQLException failure = cancellation.translate(signature.getName(), ex);
+            try
+            {
+                cache.invalidate(signature);
+            }
+            catch (SQLException invalidation)
+            {
+                failure.addSuppressed(invalidation);
+            }
+            throw failure;
+        }
+        finally
+        {
+            cancellation.close();
+        }
+    }
+
+    private PreparedStatement bind(PreparedStatement statement) throws SQLException
+    {
+        int index = 1;
+        for (Object[] values : args)
+        {
+            for (Object value : values)
+            {
+                statement.setObject(index++, value);
+            }
+        }
+        return statement;
+    }
+
+    private String groupName()
+    {
+        StringBuilder name = new StringBuilder("group");
+        for (ProcedureMetadata procedure : procedures)
+        {
+            name.append(':').append(procedure.getName());
+        }
+        return name.toString();
+    }
+
+    private static Object[] readColumns(ResultSet resultSet, int from, int width) throws SQLException
+    {
+        Object[] row = new Object[width];
+        for (int i = 0; i < width; i++)
+        {
+            row[i] = resultSet.getObject(from + i);
+        }
+        return row;
+    }
+
+    static String mergedSql(List<ProcedureMetadata> procedures)
+    {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ");
+        for (int i = 0; i < procedures.size(); i++)
+        {
+            if (i > 0)
+            {
+                sql.append(", ");
+            }
+            appendCall(sql, procedures.get(i)).append(" c").append(i + 1);
+        }
+        return sql.toString();
+    }
+
+    static String pipelinedSql(List<ProcedureMetadata> procedures)
+    {
+        StringBuilder sql = new StringBuilder();
+        for (ProcedureMetadata procedure : procedures)
+        {
+            if (sql.length() > 0)
+            {
+                sql.append("; ");
+            }
+            appendCall(sql.append("SELECT * FROM "), procedure);
+        }
+        return sql.toString();
+    }
+
+    private static StringBuilder appendCall(StringBuilder sql, ProcedureMetadata procedure)
+    {
+        sql.append(procedure.getName()).append('(');
+        List<ProcedureParameter> inputs = procedure.getInParameters();
+        for (int p = 0; p < inputs.size(); p++)
+        {
+            sql.append(p > 0 ? ", " : "").append("?::").append(inputs.get(p).getTypeName());
+        }
+        return sql.append(')');
+    }
+}
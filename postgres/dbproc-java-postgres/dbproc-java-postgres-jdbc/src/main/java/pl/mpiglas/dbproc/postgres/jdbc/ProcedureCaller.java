@@ -0,0 +1,322 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureListener;
+
+/**
+ * Calls procedures on single connection, reusing prepared statements from
+ * {@link StatementCache}.
+ *
+ * <pre>
+ * ProcedureSignature modmul = ProcedureSignature.of("modmul", "{call modmul(?, ?, ?, ?)}")
+ *         .withOutParameter(3, Types.INTEGER)
+ *         .withOutParameter(4, Types.INTEGER);
+ * try (ProcedureCaller caller = new ProcedureCaller(connection))
+ * {
+ *     Object[] out = caller.call(modmul, 10, 3);
+ * }
+ * </pre>
+ *
+ * Caller is not thread safe, just like connection it uses.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureCaller implements AutoCloseable
+{
+
+    private final StatementCache cache;
+    private final ProcedureResultCache results;
+    private ProcedureListener listener = ProcedureListener.NONE;
+
+    public ProcedureCaller(Connection connection)
+    {
+        this(connection, StatementCache.DEFAULT_CAPACITY);
+    }
+
+    public ProcedureCaller(Connection connection, int cacheCapacity)
+    {
+        this(new StatementCache(connection, cacheCapacity));
+    }
+
+    public ProcedureCaller(StatementCache cache)
+    {
+        this(cache, null);
+    }
+
+    /**
+     * @param cache cache of statements
+     * @param results cache of results of procedures enabled in it, may be
+     * null
+     */
+    public ProcedureCaller(StatementCache cache, ProcedureResultCache results)
+    {
+        this.cache = cache;
+        this.results = results;
+    }
+
+    /**
+     * Calls procedure and returns its output. If signature has output
+     * parameters, their values are returned in order of parameter indexes.
+     * Otherwise values of the first row of returned result set are returned.
+     * Outputs of procedures enabled in result cache are served from it.
+     *
+     * @param signature procedure signature
+     * @param args values of input parameters
+     * @return output values, empty array if procedure returned nothing
+     * @throws SQLException
+     */
+    public Object[] call(ProcedureSignature signature, Object... args) throws SQLException
+    {
+        return call(Deadline.NONE, signature, args);
+    }
+
+    /**
+     * Calls procedure, which has to finish before deadline, see
+     * {@link #call(ProcedureSignature, Object...)}.
+     *
+     * @param deadline deadline of call
+     * @param signature procedure signature
+     * @param args values of input parameters
+     * @return output values
+     * @throws java.sql.SQLTimeoutException if deadline passed, query is
+     * cancelled in database
+     * @throws SQLException
+     */
+    public Object[] call(Deadline deadline, ProcedureSignature signature, Object... args) throws SQLException
+    {
+        if (results != null && results.isEnabled(signature.getName()))
+        {
+            return results.get(signature, args, () -> execute(deadline, signature, args));
+        }
+        return execute(deadline, signature, args);
+    }
+
+    private Object[] execute(Deadline deadline, ProcedureSignature signature, Object[] args) throws SQLException
+    {
+        PreparedStatement statement = prepare(signature, args);
+        ProcedureCall call = ProcedureCall.start(listener, signature.getName(), args);
+        Cancellation cancellation = Cancellation.of(statement, deadline);
+        try
+        {
+            cancellation.arm(signature.getName());
+            boolean hasResultSet = statement.execute();
+            Object[] out;
+            if (signature.hasOutParameters())
+            {
+                out = readOutParameters((CallableStatement) statement, signature);
+            }
+            else if (!hasResultSet)
+            {
+                out = new Object[0];
+            }
+            else
+            {
+                try (ResultSet resultSet = statement.getResultSet())
+                {
+                    out = new Object[0];
+                    if (resultSet.next())
+                    {
+                        call.rowRead();
+                        out = readRow(resultSet);
+                    }
+                }
+            }
+            call.finish();
+            return out;
+        }
+        catch (SQLException ex)
+        {
+            throw fail(signature, call, cancellation.translate(signature.getName(), ex));
+        }
+        catch (RuntimeException ex)
+        {
+            call.fail(ex);
+            throw ex;
+        }
+        finally
+        {
+            cancellation.close();
+        }
+    }
+
+    /**
+     * Calls procedure and maps all rows of returned result set.
+     *
+     * @param signature procedure signature
+     * @param mapper maps single row
+     * @param args values of input parameters
+     * @return mapped rows
+     * @throws SQLException
+     */
+    public <T> List<T> query(ProcedureSignature signature, RowMapper<T> mapper, Object... args) throws SQLException
+    {
+        return query(Deadline.NONE, signature, mapper, args);
+    }
+
+    /**
+     * Calls procedure, which has to finish before deadline, and maps all rows
+     * of returned result set.
+     *
+     * @param deadline deadline of call, including reading rows
+     * @param signature procedure signature
+     * @param mapper maps single row
+     * @param args values of input parameters
+     * @return mapped rows
+     * @throws java.sql.SQLTimeoutException if deadline passed, query is
+     * cancelled in database
+     * @throws SQLException
+     */
+    public <T> List<T> query(Deadline deadline, ProcedureSignature signature, RowMapper<T> mapper, Object... args)
+            throws SQLException
+    {
+        PreparedStatement statement = prepare(signature, args);
+        ProcedureCall call = ProcedureCall.start(listener, signature.getName(), args);
+        Cancellation cancellation = Cancellation.of(statement, deadline);
+        try
+        {
+            cancellation.arm(signature.getName());
+        }
+        catch (SQLException ex)
+        {
+            throw fail(signature, call, ex);
+        }
+        try (ResultSet resultSet = statement.executeQuery())
+        {
+            List<T> rows = new ArrayList<>();
+            while (resultSet.next())
+            {
+                call.rowRead();
+                rows.add(mapper.map(resultSet));
+            }
+            call.finish();
+            return rows;
+        }
+        catch (SQLException ex)
+        {
+            throw fail(signature, call, cancellation.translate(signature.getName(), ex));
+        }
+        catch (RuntimeException ex)
+        {
+            call.fail(ex);
+            throw ex;
+        }
+        finally
+        {
+            cancellation.close();
+        }
+    }
+
+    /**
+     * Sets listener notified about calls executed in database. Calls served
+     * from result cache are not reported.
+     *
+     * @param listener listener of calls, e.g.
+     * {@link pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureMetrics}
+     */
+    public void setListener(ProcedureListener listener)
+    {
+        this.listener = listener == null ? ProcedureListener.NONE : listener;
+    }
+
+    public ProcedureListener getListener()
+    {
+        return listener;
+    }
+
+    public StatementCache getStatementCache()
+    {
+        return cache;
+    }
+
+    /**
+     * @return cache of results or null if results are not cached
+     */
+    public ProcedureResultCache getResultCache()
+    {
+        return results;
+    }
+
+    public Connection getConnection()
+    {
+        return cache.getConnection();
+    }
+
+    /**
+     * Closes cached statements. Connection is left open.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        cache.close();
+    }
+
+    private PreparedStatement prepare(ProcedureSignature signature, Object[] args) throws SQLException
+    {
+        if (args.length != signature.getInParameterCount())
+        {
+            throw new IllegalArgumentException(signature.getName() + " expects "
+                    + signature.getInParameterCount() + " arguments, got " + args.length);
+        }
+        PreparedStatement statement = cache.prepare(signature);
+        int arg = 0;
+        for (int index = 1; index <= signature.getParameterCount(); index++)
+        {
+            if (!signature.isOutParameter(index))
+            {
+                statement.setObject(index, args[arg++]);
+            }
+        }
+        return statement;
+    }
+
+    private SQLException fail(ProcedureSignature signature, ProcedureCall call, SQLException ex)
+    {
+        call.fail(ex);
+        invalidate(signature, ex);
+        return ex;
+    }
+
+    private void invalidate(ProcedureSignature signature, SQLException cause)
+    {
+        try
+        {
+            cache.invalidate(signature);
+        }
+        catch (SQLException ex)
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    private static Object[] readOutParameters(CallableStatement statement, ProcedureSignature signature)
+            throws SQLException
+    {
+        Object[] out = new Object[signature.getOutParameters().size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> param : signature.getOutParameters().entrySet())
+        {
+            out[i++] = statement.getObject(param.getKey());
+        }
+        return out;
+    }
+
+    static Object[] readRow(ResultSet resultSet) throws SQLException
+    {
+        Object[] row = new Object[resultSet.getMetaData().getColumnCount()];
+        for (int i = 0; i < row.length; i++)
+        {
+            row[i] = resultSet.getObject(i + 1);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,393 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of outputs of procedures, which return the same result for the same
+ * arguments, like <code>num_sum</code> or <code>modmul</code>. Entries are
+ * keyed with procedure signature and arguments, expire after time to live and the
+ * least recently used entries are evicted when cache is full.
+ *
+ * Caching is enabled per procedure, either explicitly or from volatility
+ * declared in <code>pg_proc</code>. Concurrent calls with the same arguments
+ * are coalesced: only the first one goes to database, others wait for its
+ * result. Cache can be shared by callers of many connections.
+ *
+ * <pre>
+ * ProcedureResultCache results = new ProcedureResultCache(10000, 5, TimeUnit.MINUTES);
+ * results.enableFromCatalog(connection, "public", false);
+ * ProcedureCaller caller = new ProcedureCaller(new StatementCache(connection), results);
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureResultCache
+{
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL_SECONDS = 60;
+
+    private static final String VOLATILITY_SQL = "SELECT p.proname, p.provolatile FROM pg_proc p "
+            + "JOIN pg_namespace n ON n.oid = p.pronamespace WHERE n.nspname = ?";
+
+    /**
+     * Loads value on cache miss.
+     */
+    @FunctionalInterface
+    public interface Loader
+    {
+
+        Object[] load() throws SQLException;
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Set<String> enabled = ConcurrentHashMap.newKeySet();
+    private final LinkedHashMap<Key, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public ProcedureResultCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxSize maximal number of cached results
+     * @param ttl time to live of cached result
+     * @param unit unit of time to live
+     */
+    public ProcedureResultCache(int maxSize, long ttl, TimeUnit unit)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        if (ttl <= 0)
+        {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttl);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+            {
+                if (size() > ProcedureResultCache.this.maxSize)
+                {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void enable(String procedure)
+    {
+        enabled.add(procedure);
+    }
+
+    /**
+     * Disables caching of procedure and drops its cached results.
+     */
+    public void disable(String procedure)
+    {
+        enabled.remove(procedure);
+        invalidate(procedure);
+    }
+
+    public boolean isEnabled(String procedure)
+    {
+        return enabled.contains(procedure);
+    }
+
+    public Set<String> getEnabled()
+    {
+        return Collections.unmodifiableSet(enabled);
+    }
+
+    /**
+     * Enables caching of procedures declared <code>IMMUTABLE</code> and
+     * optionally <code>STABLE</code>. Overloaded procedure is enabled only if
+     * all its variants qualify. Results of <code>STABLE</code> procedures may
+     * change between statements, so time to live has to be chosen accordingly.
+     *
+     * @param connection connection used to read catalog
+     * @param schema schema of procedures
+     * @param includeStable true to enable <code>STABLE</code> procedures
+     * @return names of enabled procedures
+     * @throws SQLException
+     */
+    public Set<String> enableFromCatalog(Connection connection, String schema, boolean includeStable)
+            throws SQLException
+    {
+        Map<String, Boolean> cacheable = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(VOLATILITY_SQL))
+        {
+            statement.setString(1, schema);
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    String volatility = resultSet.getString(2);
+                    boolean pure = "i".equals(volatility) || (includeStable && "s".equals(volatility));
+                    cacheable.merge(resultSet.getString(1), pure, Boolean::logicalAnd);
+                }
+            }
+        }
+        Set<String> detected = ConcurrentHashMap.newKeySet();
+        for (Map.Entry<String, Boolean> procedure : cacheable.entrySet())
+        {
+            if (procedure.getValue())
+            {
+                detected.add(procedure.getKey());
+            }
+        }
+        enabled.addAll(detected);
+        return Collections.unmodifiableSet(detected);
+    }
+
+    /**
+     * Returns cached result or loads it. If another thread is loading result
+     * for the same arguments, waits for it instead of calling loader.
+     *
+     * @param signature called procedure
+     * @param args procedure arguments
+     * @param loader calls procedure
+     * @return copy of result
+     * @throws SQLException if loading failed, failures are not cached
+     */
+    public Object[] get(ProcedureSignature signature, Object[] args, Loader loader) throws SQLException
+    {
+        Key key = new Key(signature, args);
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+            if (entry != null && entry.isExpired(System.nanoTime()))
+            {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null)
+            {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (owner)
+        {
+            misses.increment();
+            return load(key, entry, loader).clone();
+        }
+        if (entry.result.isDone())
+        {
+            hits.increment();
+        }
+        else
+        {
+            coalesced.increment();
+        }
+        return await(entry).clone();
+    }
+
+    /**
+     * Drops cached results of procedure.
+     */
+    public void invalidate(String procedure)
+    {
+        synchronized (entries)
+        {
+            Iterator<Key> keys = entries.keySet().iterator();
+            while (keys.hasNext())
+            {
+                if (keys.next().signature.getName().equals(procedure))
+                {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public long getTtl(TimeUnit unit)
+    {
+        return unit.convert(ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of calls, which waited for result loaded by concurrent
+     * call
+     */
+    public long getCoalesced()
+    {
+        return coalesced.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    public long getExpirations()
+    {
+        return expirations.sum();
+    }
+
+    /**
+     * @return fraction of calls served without going to database, coalesced
+     * calls included
+     */
+    public double getHitRatio()
+    {
+        long served = hits.sum() + coalesced.sum();
+        long total = served + misses.sum();
+        return total == 0 ? 0.0 : (double) served / total;
+    }
+
+    private Object[] load(Key key, Entry entry, Loader loader) throws SQLException
+    {
+        try
+        {
+            Object[] result = loader.load();
+            entry.expiresAt = System.nanoTime() + ttlNanos;
+            entry.result.complete(result);
+            return result;
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            synchronized (entries)
+            {
+                entries.remove(key, entry);
+            }
+            entry.result.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    private static Object[] await(Entry entry) throws SQLException
+    {
+        try
+        {
+            return entry.result.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for coalesced call", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException)
+            {
+                SQLException sqlCause = (SQLException) cause;
+                throw new SQLException(sqlCause.getMessage(), sqlCause.getSQLState(), sqlCause.getErrorCode(), sqlCause);
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private static final class Entry
+    {
+
+        private final CompletableFuture<Object[]> result = new CompletableFuture<>();
+        private volatile long expiresAt;
+
+        boolean isExpired(long now)
+        {
+            return result.isDone() && now - expiresAt >= 0;
+        }
+    }
+
+    private static final class Key
+    {
+
+        private final ProcedureSignature signature;
+        private final Object[] args;
+        private final int hash;
+
+        Key(ProcedureSignature signature, Object[] args)
+        {
+            this.signature = signature;
+            this.args = args.clone();
+            this.hash = 31 * signature.hashCode() + Arrays.deepHashCode(this.args);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && signature.equals(other.signature) && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
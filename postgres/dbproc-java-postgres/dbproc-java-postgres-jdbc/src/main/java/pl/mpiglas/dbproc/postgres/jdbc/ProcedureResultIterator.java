@@ -0,0 +1,191 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+
+/**
+ * Iterates over rows of result set returned from procedure, mapping one row at
+ * a time. Iterator owns statement and result set and closes them when the last
+ * row was read or when {@link #close()} is called.
+ *
+ * If the iterator was created in transaction started only for reading
+ * results, closing it also ends the transaction and switches connection back
+ * to auto-commit mode.
+ *
+ * If the call has {@link Deadline}, reading stops when it passes, with
+ * {@link UncheckedSQLException} caused by {@link java.sql.SQLTimeoutException}.
+ *
+ * @author Milosz Piglas
+ * @param <T> type of mapped row
+ */
+public class ProcedureResultIterator<T> implements Iterator<T>, AutoCloseable
+{
+
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final RowMapper<T> mapper;
+    private final boolean ownTransaction;
+    private final ProcedureCall call;
+    private final Cancellation cancellation;
+    private final String procedure;
+    private final FetchSizeTuner.Observation observation;
+    private boolean advanced;
+    private boolean hasRow;
+    private boolean closed;
+
+    ProcedureResultIterator(Statement statement, ResultSet resultSet, RowMapper<T> mapper, boolean ownTransaction,
+            ProcedureCall call, Cancellation cancellation, String procedure,
+            FetchSizeTuner.Observation observation)
+    {
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+        this.ownTransaction = ownTransaction;
+        this.call = call;
+        this.cancellation = cancellation;
+        this.procedure = procedure;
+        this.observation = observation;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (!advanced)
+        {
+            try
+            {
+                cancellation.check(procedure);
+                hasRow = observation == null ? resultSet.next() : observation.next(resultSet);
+                advanced = true;
+            }
+            catch (SQLException ex)
+            {
+                throw fail(ex);
+            }
+            if (!hasRow)
+            {
+                close();
+            }
+        }
+        return hasRow;
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        call.rowRead();
+        try
+        {
+            return mapper.map(resultSet);
+        }
+        catch (SQLException ex)
+        {
+            throw fail(ex);
+        }
+        catch (RuntimeException ex)
+        {
+            closeQuietly(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes result set and statement. Commits transaction opened for reading
+     * results.
+     *
+     * @throws UncheckedSQLException if resources could not be released
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            release(true);
+            call.finish();
+            if (observation != null)
+            {
+                observation.finish();
+            }
+        }
+        catch (SQLException ex)
+        {
+            call.fail(ex);
+            throw new UncheckedSQLException(ex);
+        }
+    }
+
+    private UncheckedSQLException fail(SQLException ex)
+    {
+        SQLException failure = cancellation.translate(procedure, ex);
+        closeQuietly(failure);
+        return new UncheckedSQLException(failure);
+    }
+
+    private void closeQuietly(Exception cause)
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        call.fail(cause);
+        try
+        {
+            release(false);
+        }
+        catch (SQLException ex)
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    private void release(boolean commit) throws SQLException
+    {
+        cancellation.close();
+        Connection connection = statement.getConnection();
+        try (Statement owned = statement)
+        {
+            resultSet.close();
+        }
+        finally
+        {
+            if (ownTransaction)
+            {
+                try
+                {
+                    if (commit)
+                    {
+                        connection.commit();
+                    }
+                    else
+                    {
+                        connection.rollback();
+                    }
+                }
+                finally
+                {
+                    connection.setAutoCommit(true);
+                }
+            }
+        }
+    }
+}
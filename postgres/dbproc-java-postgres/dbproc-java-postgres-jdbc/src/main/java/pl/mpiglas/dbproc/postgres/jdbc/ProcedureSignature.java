@@ -0,0 +1,183 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Describes how procedure is called: SQL of the call and types of output
+ * parameters, which have to be registered before execution. Signature is
+ * immutable and is used as a key of prepared statement caches.
+ *
+ * <pre>
+ * ProcedureSignature numSum = ProcedureSignature.of("num_sum", "{? = call num_sum(?, ?)}")
+ *         .withOutParameter(1, Types.INTEGER);
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureSignature
+{
+
+    private final String name;
+    private final String sql;
+    private final SortedMap<Integer, Integer> outParameters;
+    private final int parameterCount;
+
+    private ProcedureSignature(String name, String sql, SortedMap<Integer, Integer> outParameters)
+    {
+        this.name = Objects.requireNonNull(name, "name");
+        this.sql = Objects.requireNonNull(sql, "sql");
+        this.outParameters = outParameters;
+        this.parameterCount = countPlaceholders(sql);
+    }
+
+    /**
+     * Creates signature without output parameters.
+     *
+     * @param name procedure name
+     * @param sql call statement, e.g. <code>{call gen_rows(?)}</code> or
+     * <code>SELECT * FROM gen_rows(?)</code>
+     * @return signature
+     */
+    public static ProcedureSignature of(String name, String sql)
+    {
+        return new ProcedureSignature(name, sql, Collections.unmodifiableSortedMap(new TreeMap<>()));
+    }
+
+    /**
+     * Returns copy of this signature with additional output parameter.
+     *
+     * @param index index of parameter, starting from 1
+     * @param sqlType type from {@link java.sql.Types}
+     * @return new signature
+     */
+    public ProcedureSignature withOutParameter(int index, int sqlType)
+    {
+        if (index < 1 || index > parameterCount)
+        {
+            throw new IllegalArgumentException("No parameter " + index + " in " + sql);
+        }
+        if (!Statements.isCallEscape(sql))
+        {
+            throw new IllegalArgumentException("Output parameters require call escape syntax: " + sql);
+        }
+        SortedMap<Integer, Integer> out = new TreeMap<>(outParameters);
+        out.put(index, sqlType);
+        return new ProcedureSignature(name, sql, Collections.unmodifiableSortedMap(out));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /**
+     * @return types of output parameters by their indexes
+     */
+    public SortedMap<Integer, Integer> getOutParameters()
+    {
+        return outParameters;
+    }
+
+    public boolean hasOutParameters()
+    {
+        return !outParameters.isEmpty();
+    }
+
+    /**
+     * @return number of all parameter placeholders in call statement
+     */
+    public int getParameterCount()
+    {
+        return parameterCount;
+    }
+
+    /**
+     * @return number of input parameters, which must be bound before call
+     */
+    public int getInParameterCount()
+    {
+        return parameterCount - outParameters.size();
+    }
+
+    /**
+     * Tells if parameter is registered as output.
+     */
+    public boolean isOutParameter(int index)
+    {
+        return outParameters.containsKey(index);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = 7;
+        hash = 31 * hash + sql.hashCode();
+        hash = 31 * hash + outParameters.hashCode();
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass())
+        {
+            return false;
+        }
+        final ProcedureSignature other = (ProcedureSignature) obj;
+        return name.equals(other.name) && sql.equals(other.sql) && outParameters.equals(other.outParameters);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("ProcedureSignature{name=").append(name).append(", sql=").append(sql);
+        for (Map.Entry<Integer, Integer> out : outParameters.entrySet())
+        {
+            builder.append(", out").append(out.getKey()).append('=').append(out.getValue());
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Counts <code>?</code> placeholders outside of quoted literals and
+     * identifiers.
+     */
+    static int countPlaceholders(String sql)
+    {
+        int count = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++)
+        {
+            char c = sql.charAt(i);
+            if (quote != 0)
+            {
+                if (c == quote)
+                {
+                    quote = 0;
+                }
+            }
+            else if (c == '\'' || c == '"')
+            {
+                quote = c;
+            }
+            else if (c == '?')
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,216 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureListener;
+
+/**
+ * Reads results of set-returning procedures, like <code>gen_rows</code>,
+ * without loading all rows into memory.
+ *
+ * PostgreSQL driver reads rows in batches with a portal cursor only when
+ * connection is not in auto-commit mode and fetch size is set. If connection
+ * is in auto-commit mode, reader switches it off for the time of reading and
+ * commits when returned stream or iterator is closed.
+ *
+ * Fetch size is fixed, or chosen for every procedure by shared
+ * {@link FetchSizeTuner} from width of rows and round trip times of earlier
+ * calls.
+ *
+ * <pre>
+ * try (Stream&lt;String&gt; rows = reader.stream("SELECT * FROM gen_rows(?)", rs -&gt; rs.getString(1), 1000000))
+ * {
+ *     rows.forEach(System.out::println);
+ * }
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureStreamReader
+{
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final int fetchSize;
+    private ProcedureListener listener = ProcedureListener.NONE;
+    private FetchSizeTuner tuner;
+
+    public ProcedureStreamReader(Connection connection)
+    {
+        this(connection, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param connection connection used to call procedures
+     * @param fetchSize number of rows fetched from database in single round
+     * trip
+     */
+    public ProcedureStreamReader(Connection connection, int fetchSize)
+    {
+        if (fetchSize <= 0)
+        {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        this.connection = connection;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Calls procedure and returns iterator over mapped rows. Iterator must be
+     * closed if it is not read to the end.
+     *
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * or <code>{call gen_rows(?)}</code>
+     * @param mapper maps single row
+     * @param args procedure arguments
+     * @return iterator over rows
+     * @throws SQLException
+     */
+    public <T> ProcedureResultIterator<T> iterator(String sql, RowMapper<T> mapper, Object... args) throws SQLException
+    {
+        return iterator(Deadline.NONE, sql, mapper, args);
+    }
+
+    /**
+     * Calls procedure and returns iterator over mapped rows, which have to be
+     * read before deadline. When deadline passes, running query is cancelled
+     * and iterator throws {@link UncheckedSQLException} caused by
+     * {@link java.sql.SQLTimeoutException}.
+     *
+     * @param deadline deadline of call, including reading rows
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param mapper maps single row
+     * @param args procedure arguments
+     * @return iterator over rows
+     * @throws java.sql.SQLTimeoutException if deadline passed before first
+     * rows were fetched
+     * @throws SQLException
+     */
+    public <T> ProcedureResultIterator<T> iterator(Deadline deadline, String sql, RowMapper<T> mapper, Object... args)
+            throws SQLException
+    {
+        String procedure = ProcedureCall.procedureName(sql);
+        boolean ownTransaction = connection.getAutoCommit();
+        if (ownTransaction)
+        {
+            connection.setAutoCommit(false);
+        }
+        PreparedStatement statement = null;
+        Cancellation cancellation = Cancellation.NONE;
+        FetchSizeTuner.Observation observation = tuner == null ? null
+                : tuner.observe(procedure, tuner.getFetchSize(procedure));
+        int callFetchSize = observation == null ? fetchSize : observation.getFetchSize();
+        ProcedureCall call = ProcedureCall.start(listener, procedure, args, callFetchSize);
+        try
+        {
+            statement = Statements.prepare(connection, sql);
+            statement.setFetchSize(callFetchSize);
+            Statements.bind(statement, args);
+            cancellation = Cancellation.of(statement, deadline);
+            cancellation.arm(procedure);
+            ResultSet resultSet = statement.executeQuery();
+            return new ProcedureResultIterator<>(statement, resultSet, mapper, ownTransaction, call, cancellation,
+                    procedure, observation);
+        }
+        catch (SQLException ex)
+        {
+            SQLException failure = cancellation.translate(procedure, ex);
+            call.fail(failure);
+            cancellation.close();
+            abort(statement, ownTransaction, failure);
+            throw failure;
+        }
+    }
+
+    /**
+     * Calls procedure and returns stream of mapped rows. Stream must be closed
+     * to release database cursor, preferably with try-with-resources.
+     *
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param mapper maps single row
+     * @param args procedure arguments
+     * @return stream of rows
+     * @throws SQLException
+     */
+    public <T> Stream<T> stream(String sql, RowMapper<T> mapper, Object... args) throws SQLException
+    {
+        return stream(Deadline.NONE, sql, mapper, args);
+    }
+
+    /**
+     * Calls procedure and returns stream of mapped rows, which have to be read
+     * before deadline, see {@link #iterator(Deadline, String, RowMapper, Object...)}.
+     *
+     * @param deadline deadline of call, including reading rows
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param mapper maps single row
+     * @param args procedure arguments
+     * @return stream of rows
+     * @throws SQLException
+     */
+    public <T> Stream<T> stream(Deadline deadline, String sql, RowMapper<T> mapper, Object... args) throws SQLException
+    {
+        ProcedureResultIterator<T> iterator = iterator(deadline, sql, mapper, args);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * Sets listener notified about calls. Call is finished when iterator or
+     * stream is closed, so its duration includes time of processing rows.
+     *
+     * @param listener listener of calls
+     */
+    public void setListener(ProcedureListener listener)
+    {
+        this.listener = listener == null ? ProcedureListener.NONE : listener;
+    }
+
+    /**
+     * Sets tuner choosing fetch size of every call, instead of fixed fetch
+     * size of reader.
+     *
+     * @param tuner tuner shared by readers, null restores fixed fetch size
+     */
+    public void setFetchSizeTuner(FetchSizeTuner tuner)
+    {
+        this.tuner = tuner;
+    }
+
+    /**
+     * @return fixed fetch size, used when reader has no
+     * {@link FetchSizeTuner}
+     */
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    private void abort(PreparedStatement statement, boolean ownTransaction, SQLException cause)
+    {
+        try
+        {
+            if (statement != null)
+            {
+                statement.close();
+            }
+            if (ownTransaction)
+            {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+        catch (SQLException ex)
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+}
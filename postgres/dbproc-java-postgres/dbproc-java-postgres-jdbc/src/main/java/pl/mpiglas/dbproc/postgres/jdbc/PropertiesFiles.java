@@ -0,0 +1,75 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Reads and writes settings learned at runtime, like fetch sizes of
+ * {@link FetchSizeTuner}, as UTF-8 properties files.
+ *
+ * @author Milosz Piglas
+ */
+public final class PropertiesFiles
+{
+
+    private PropertiesFiles()
+    {
+    }
+
+    /**
+     * @param file properties file
+     * @return properties read from file
+     * @throws IOException
+     */
+    public static Properties load(Path file) throws IOException
+    {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            props.load(reader);
+        }
+        return props;
+    }
+
+    /**
+     * Writes properties to temporary file in the same directory and moves it
+     * over file, atomically if file system supports it, so readers never see
+     * partially written file.
+     *
+     * @param file properties file
+     * @param props properties to store
+     * @param comment comment in the first line of file
+     * @throws IOException
+     */
+    public static void store(Path file, Properties props, String comment) throws IOException
+    {
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try
+        {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+            {
+                props.store(writer, comment);
+            }
+            try
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+
+/**
+ * Calls procedures returning <code>refcursor</code>s, like
+ * <code>gen_rows_cursor</code> or <code>rows_and_ints</code>, and reads
+ * returned cursors lazily with <code>FETCH</code>.
+ *
+ * PostgreSQL driver reads whole cursor into memory when
+ * <code>refcursor</code> is read with {@link ResultSet#getObject(int)}.
+ * Reader takes only cursor names from result and fetches rows in batches, so
+ * each cursor can be read as independent stream, in any order or
+ * interleaved.
+ *
+ * <pre>
+ * try (RefCursors cursors = reader.call("SELECT * FROM rows_and_ints(?, ?)", 1000000, 10);
+ *         Stream&lt;String&gt; rows = cursors.stream(0, rs -&gt; rs.getString(1));
+ *         Stream&lt;Integer&gt; ints = cursors.stream(1, rs -&gt; rs.getInt(1)))
+ * {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Cursors live until the end of transaction. If connection is in auto-commit
+ * mode, reader switches it off for the time of reading and commits when
+ * returned {@link RefCursors} is closed.
+ *
+ * Cursors returned from call with {@link Deadline} have to be read before
+ * it passes.
+ *
+ * @author Milosz Piglas
+ */
+public class RefCursorReader
+{
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final Connection connection;
+    private final int fetchSize;
+
+    public RefCursorReader(Connection connection)
+    {
+        this(connection, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * @param connection connection used to call procedures
+     * @param fetchSize number of rows fetched from cursor in single round trip
+     */
+    public RefCursorReader(Connection connection, int fetchSize)
+    {
+        if (fetchSize <= 0)
+        {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        this.connection = connection;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Calls procedure and collects names of returned cursors. All
+     * <code>refcursor</code> columns of all returned rows are collected, in
+     * order of rows and columns, so both <code>returns setof refcursor</code>
+     * and several <code>OUT</code> cursors are supported.
+     *
+     * @param sql procedure call, e.g. <code>SELECT * FROM rows_and_ints(?, ?)</code>
+     * @param args procedure arguments
+     * @return returned cursors, must be closed
+     * @throws SQLException
+     */
+    public RefCursors call(String sql, Object... args) throws SQLException
+    {
+        return call(Deadline.NONE, sql, args);
+    }
+
+    /**
+     * Calls procedure and collects names of returned cursors, see
+     * {@link #call(String, Object...)}. Both the call and reading of cursors
+     * have to finish before deadline.
+     *
+     * @param deadline deadline of call and reading of cursors
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return returned cursors, must be closed
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public RefCursors call(Deadline deadline, String sql, Object... args) throws SQLException
+    {
+        String procedure = ProcedureCall.procedureName(sql);
+        boolean ownTransaction = connection.getAutoCommit();
+        if (ownTransaction)
+        {
+            connection.setAutoCommit(false);
+        }
+        try
+        {
+            List<String> names = new ArrayList<>();
+            try (PreparedStatement statement = Statements.prepare(connection, sql))
+            {
+                Statements.bind(statement, args);
+                Cancellation cancellation = Cancellation.of(statement, deadline);
+                try
+                {
+                    cancellation.arm(procedure);
+                    try (ResultSet resultSet = statement.executeQuery())
+                    {
+                        ResultSetMetaData meta = resultSet.getMetaData();
+                        while (resultSet.next())
+                        {
+                            for (int i = 1; i <= meta.getColumnCount(); i++)
+                            {
+                                if ("refcursor".equals(meta.getColumnTypeName(i)) && resultSet.getString(i) != null)
+                                {
+                                    names.add(resultSet.getString(i));
+                                }
+                            }
+                        }
+                    }
+                }
+                catch (SQLException ex)
+                {
+                    throw cancellation.translate(procedure, ex);
+                }
+                finally
+                {
+                    cancellation.close();
+                }
+            }
+            return new RefCursors(connection, names, fetchSize, ownTransaction, deadline);
+        }
+        catch (SQLException ex)
+        {
+            if (ownTransaction)
+            {
+                try
+                {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                catch (SQLException rollbackEx)
+                {
+                    ex.addSuppressed(rollbackEx);
+                }
+            }
+            throw ex;
+        }
+    }
+
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+}
@@ -0,0 +1,308 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Cursors returned from single procedure call, see {@link RefCursorReader}.
+ * Each cursor can be read once, as iterator or stream. Closing
+ * <code>RefCursors</code> closes all cursors and commits transaction opened for
+ * reading them.
+ *
+ * Cursors share connection, so they cannot be read from different threads
+ * at the same time. {@link Deadline} of call also bounds reading of cursors,
+ * each <code>FETCH</code> is cancelled when it passes.
+ *
+ * @author Milosz Piglas
+ */
+public class RefCursors implements AutoCloseable
+{
+
+    private final Connection connection;
+    private final List<String> names;
+    private final int fetchSize;
+    private final boolean ownTransaction;
+    private final Deadline deadline;
+    private final List<Cursor<?>> opened = new ArrayList<>();
+    private final boolean[] taken;
+    private boolean closed;
+
+    RefCursors(Connection connection, List<String> names, int fetchSize, boolean ownTransaction, Deadline deadline)
+    {
+        this.connection = connection;
+        this.names = Collections.unmodifiableList(names);
+        this.fetchSize = fetchSize;
+        this.ownTransaction = ownTransaction;
+        this.deadline = deadline;
+        this.taken = new boolean[names.size()];
+    }
+
+    /**
+     * @return names of cursors, in order of procedure result
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+    public int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * Returns iterator over rows of cursor. Rows are fetched in batches when
+     * iterator advances.
+     *
+     * @param index index of cursor, starting from 0
+     * @param mapper maps single row
+     * @return iterator, closed when the last row was read
+     * @throws IllegalStateException if cursor was already taken
+     */
+    public <T> Cursor<T> iterator(int index, RowMapper<T> mapper)
+    {
+        return cursor(index, mapper);
+    }
+
+    /**
+     * Returns stream of rows of cursor. Rows are fetched in batches when
+     * stream is consumed. Closing stream closes cursor.
+     *
+     * @param index index of cursor, starting from 0
+     * @param mapper maps single row
+     * @return stream of rows
+     */
+    public <T> Stream<T> stream(int index, RowMapper<T> mapper)
+    {
+        Cursor<T> iterator = cursor(index, mapper);
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * Closes cursors and commits transaction opened for reading them.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        SQLException failure = null;
+        for (Cursor<?> cursor : opened)
+        {
+            try
+            {
+                cursor.release();
+            }
+            catch (SQLException ex)
+            {
+                failure = ex;
+            }
+        }
+        if (ownTransaction)
+        {
+            try
+            {
+                if (failure == null)
+                {
+                    connection.commit();
+                }
+                else
+                {
+                    connection.rollback();
+                }
+            }
+            finally
+            {
+                connection.setAutoCommit(true);
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    private <T> Cursor<T> cursor(int index, RowMapper<T> mapper)
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("Cursors are closed");
+        }
+        if (taken[index])
+        {
+            throw new IllegalStateException("Cursor " + names.get(index) + " is already read");
+        }
+        taken[index] = true;
+        Cursor<T> cursor = new Cursor<>(quote(names.get(index)), mapper);
+        opened.add(cursor);
+        return cursor;
+    }
+
+    static String quote(String name)
+    {
+        return '"' + name.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Iterates over cursor fetching rows in batches.
+     *
+     * @param <T> type of mapped row
+     */
+    public final class Cursor<T> implements Iterator<T>, AutoCloseable
+    {
+
+        private final String cursor;
+        private final RowMapper<T> mapper;
+        private PreparedStatement fetch;
+        private ResultSet batch;
+        private int batchRows;
+        private boolean exhausted;
+        private boolean advanced;
+        private boolean hasRow;
+        private boolean released;
+
+        private Cursor(String cursor, RowMapper<T> mapper)
+        {
+            this.cursor = cursor;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (released)
+            {
+                return false;
+            }
+            if (!advanced)
+            {
+                try
+                {
+                    deadline.check(cursor);
+                    hasRow = advance();
+                    advanced = true;
+                }
+                catch (SQLException ex)
+                {
+                    throw new UncheckedSQLException(ex);
+                }
+            }
+            return hasRow;
+        }
+
+        @Override
+        public T next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            advanced = false;
+            try
+            {
+                return mapper.map(batch);
+            }
+            catch (SQLException ex)
+            {
+                throw new UncheckedSQLException(ex);
+            }
+        }
+
+        /**
+         * Closes cursor. Other cursors can still be read.
+         */
+        @Override
+        public void close()
+        {
+            try
+            {
+                release();
+            }
+            catch (SQLException ex)
+            {
+                throw new UncheckedSQLException(ex);
+            }
+        }
+
+        private boolean advance() throws SQLException
+        {
+            while (true)
+            {
+                if (batch != null && batch.next())
+                {
+                    batchRows++;
+                    return true;
+                }
+                if (exhausted || (batch != null && batchRows < fetchSize))
+                {
+                    exhausted = true;
+                    release();
+                    return false;
+                }
+                if (batch != null)
+                {
+                    batch.close();
+                }
+                if (fetch == null)
+                {
+                    fetch = connection.prepareStatement("FETCH FORWARD " + fetchSize + " FROM " + cursor);
+                }
+                batch = fetchBatch();
+                batchRows = 0;
+            }
+        }
+
+        private ResultSet fetchBatch() throws SQLException
+        {
+            Cancellation cancellation = Cancellation.of(fetch, deadline);
+            try
+            {
+                cancellation.arm(cursor);
+                return fetch.executeQuery();
+            }
+            catch (SQLException ex)
+            {
+                throw cancellation.translate(cursor, ex);
+            }
+            finally
+            {
+                cancellation.close();
+            }
+        }
+
+        private void release() throws SQLException
+        {
+            if (released)
+            {
+                return;
+            }
+            released = true;
+            try (Statement closeCursor = connection.createStatement())
+            {
+                if (fetch != null)
+                {
+                    fetch.close();
+                }
+                closeCursor.execute("CLOSE " + cursor);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps current row of result set returned from procedure.
+ *
+ * @author Milosz Piglas
+ * @param <T> type of mapped row
+ */
+@FunctionalInterface
+public interface RowMapper<T>
+{
+
+    /**
+     * Maps current row. Implementation must not move cursor of result set.
+     *
+     * @param resultSet result set positioned on row to map
+     * @return mapped row
+     * @throws SQLException
+     */
+    T map(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,209 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of prepared procedure statements of single connection. Statements are
+ * kept open between calls, so driver does not parse call escapes again and
+ * server-side prepared statements survive. When cache is full, least recently
+ * used statement is closed.
+ *
+ * Output parameters of {@link ProcedureSignature} are registered once, when
+ * statement is prepared. Cache is not thread safe, just like connection it
+ * belongs to.
+ *
+ * @author Milosz Piglas
+ */
+public class StatementCache implements AutoCloseable
+{
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<ProcedureSignature, PreparedStatement> statements;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public StatementCache(Connection connection)
+    {
+        this(connection, DEFAULT_CAPACITY);
+    }
+
+    public StatementCache(Connection connection, int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns cached statement for signature or prepares new one. Output
+     * parameters of newly prepared statement are registered.
+     *
+     * @param signature procedure signature
+     * @return prepared statement, {@link CallableStatement} for call escape
+     * syntax
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(ProcedureSignature signature) throws SQLException
+    {
+        PreparedStatement statement = statements.get(signature);
+        if (statement != null)
+        {
+            hits.incrementAndGet();
+            return statement;
+        }
+        misses.incrementAndGet();
+        statement = Statements.prepare(connection, signature.getSql());
+        try
+        {
+            if (signature.hasOutParameters())
+            {
+                CallableStatement call = (CallableStatement) statement;
+                for (Map.Entry<Integer, Integer> out : signature.getOutParameters().entrySet())
+                {
+                    call.registerOutParameter(out.getKey(), out.getValue());
+                }
+            }
+        }
+        catch (SQLException ex)
+        {
+            closeQuietly(statement, ex);
+            throw ex;
+        }
+        statements.put(signature, statement);
+        evictOverCapacity();
+        return statement;
+    }
+
+    /**
+     * Closes and removes statement from cache, e.g. after it failed.
+     *
+     * @param signature procedure signature
+     * @throws SQLException
+     */
+    public void invalidate(ProcedureSignature signature) throws SQLException
+    {
+        PreparedStatement statement = statements.remove(signature);
+        if (statement != null)
+        {
+            statement.close();
+        }
+    }
+
+    public boolean contains(ProcedureSignature signature)
+    {
+        return statements.containsKey(signature);
+    }
+
+    public int size()
+    {
+        return statements.size();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return ratio of hits to all lookups, 0 if there were no lookups
+     */
+    public double getHitRatio()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+    /**
+     * Closes all cached statements. Connection is left open.
+     *
+     * @throws SQLException first exception thrown while closing statements
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        SQLException failure = null;
+        for (PreparedStatement statement : statements.values())
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException ex)
+            {
+                if (failure == null)
+                {
+                    failure = ex;
+                }
+                else
+                {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        statements.clear();
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    private void evictOverCapacity() throws SQLException
+    {
+        Iterator<PreparedStatement> eldest = statements.values().iterator();
+        while (statements.size() > capacity)
+        {
+            PreparedStatement statement = eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+            statement.close();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement, SQLException cause)
+    {
+        try
+        {
+            statement.close();
+        }
+        catch (SQLException ex)
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+}
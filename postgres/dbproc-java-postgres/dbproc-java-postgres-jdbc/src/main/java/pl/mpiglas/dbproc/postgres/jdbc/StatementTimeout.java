@@ -0,0 +1,112 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session <code>statement_timeout</code> limited to remaining time of
+ * {@link Deadline} and restored on close. Used where statements are executed
+ * by code, which does not expose them, like <code>COPY</code> API of the
+ * driver, JPA provider or Cayenne, so {@link java.sql.Statement#cancel()}
+ * cannot be scheduled. Server cancels statement when timeout passes.
+ *
+ * <pre>
+ * try (StatementTimeout timeout = StatementTimeout.set(connection, deadline, "gen_rows"))
+ * {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Setting and restoring timeout costs two additional round trips. Timeout
+ * set in transaction, which is rolled back, is restored by rollback, and
+ * restoring it again fails, so {@link #close()} should be skipped or its
+ * failure ignored in that case.
+ *
+ * @author Milosz Piglas
+ */
+public final class StatementTimeout implements AutoCloseable
+{
+
+    private static final StatementTimeout NONE = new StatementTimeout(null, null);
+
+    private final Connection connection;
+    private final String previous;
+
+    private StatementTimeout(Connection connection, String previous)
+    {
+        this.connection = connection;
+        this.previous = previous;
+    }
+
+    /**
+     * Limits timeout of statements of connection to remaining time of
+     * deadline. Does nothing for {@link Deadline#NONE}.
+     *
+     * @param connection PostgreSQL connection
+     * @param deadline deadline of call
+     * @param procedure name of called procedure
+     * @return timeout, which restores previous one on close
+     * @throws SQLTimeoutException if deadline already passed
+     * @throws SQLException
+     */
+    public static StatementTimeout set(Connection connection, Deadline deadline, String procedure)
+            throws SQLException
+    {
+        if (!deadline.isBounded())
+        {
+            return NONE;
+        }
+        deadline.check(procedure);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT current_setting('statement_timeout'), set_config('statement_timeout', ?, false)"))
+        {
+            statement.setString(1, Math.max(1, deadline.remaining(TimeUnit.MILLISECONDS)) + "ms");
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                resultSet.next();
+                return new StatementTimeout(connection, resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * @param deadline deadline of call
+     * @param procedure name of called procedure
+     * @param ex exception thrown by call
+     * @return {@link SQLTimeoutException} if statement was cancelled after
+     * deadline passed, otherwise the same exception
+     */
+    public static SQLException translate(Deadline deadline, String procedure, SQLException ex)
+    {
+        if (!(ex instanceof SQLTimeoutException) && deadline.isExpired()
+                && Deadline.QUERY_CANCELED.equals(ex.getSQLState()))
+        {
+            return deadline.exceeded(procedure, ex);
+        }
+        return ex;
+    }
+
+    /**
+     * Restores timeout, which was set before.
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException
+    {
+        if (connection == null)
+        {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT set_config('statement_timeout', ?, false)"))
+        {
+            statement.setString(1, previous);
+            statement.executeQuery().close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Helpers for preparing procedure statements.
+ *
+ * @author Milosz Piglas
+ */
+final class Statements
+{
+
+    private Statements()
+    {
+    }
+
+    /**
+     * Tells if statement uses JDBC escape syntax, e.g.
+     * <code>{call gen_rows(?)}</code>.
+     */
+    static boolean isCallEscape(String sql)
+    {
+        return sql.trim().startsWith("{");
+    }
+
+    /**
+     * Prepares {@link java.sql.CallableStatement} for escape syntax or
+     * {@link PreparedStatement} for plain SQL, e.g.
+     * <code>SELECT * FROM gen_rows(?)</code>.
+     */
+    static PreparedStatement prepare(Connection connection, String sql) throws SQLException
+    {
+        return isCallEscape(sql) ? connection.prepareCall(sql) : connection.prepareStatement(sql);
+    }
+
+    /**
+     * Binds arguments to consecutive parameters starting from first.
+     */
+    static void bind(PreparedStatement statement, Object[] args) throws SQLException
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            statement.setObject(i + 1, args[i]);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps {@link SQLException} thrown where checked exceptions are not allowed,
+ * e.g. while consuming stream of procedure results.
+ *
+ * @author Milosz Piglas
+ */
+public class UncheckedSQLException extends RuntimeException
+{
+
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedSQLException(SQLException cause)
+    {
+        super(cause);
+    }
+
+    public UncheckedSQLException(String message, SQLException cause)
+    {
+        super(message, cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause()
+    {
+        return (SQLException) super.getCause();
+    }
+}
@@ -0,0 +1,36 @@
+package pl.mpiglas.dbproc.postgres.jdbc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds method of {@link Procedures} interface to database procedure.
+ * Method parameters are passed to procedure in declaration order.
+ *
+ * <pre>
+ * &#64;Procedure("modmul")
+ * ModMul modmul(int anum, int bnum);
+ * </pre>
+ *
+ * Supported return types are: <code>void</code>, primitives and their
+ * wrappers, {@link String}, {@link java.math.BigDecimal}, classes with public
+ * constructor accepting all result columns, {@link java.util.List} of any of
+ * these for set-returning procedures and primitive arrays of
+ * <code>int</code>, <code>long</code> and <code>double</code>.
+ *
+ * @author Milosz Piglas
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface Procedure
+{
+
+    /**
+     * @return procedure name
+     */
+    String value();
+}
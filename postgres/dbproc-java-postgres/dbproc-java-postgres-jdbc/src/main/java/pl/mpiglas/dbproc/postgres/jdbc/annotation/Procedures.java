@@ -0,0 +1,60 @@
+package pl.mpiglas.dbproc.postgres.jdbc.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks interface, which implementations calling database procedures are
+ * generated at compile time by <code>dbproc-java-postgres-processor</code>.
+ * Every method of interface must be annotated with {@link Procedure}.
+ *
+ * For interface <code>Arithmetic</code> processor generates
+ * <code>ArithmeticJdbc</code>, <code>ArithmeticJpa</code> and
+ * <code>ArithmeticCayenne</code>, depending on requested backends.
+ *
+ * @author Milosz Piglas
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Procedures
+{
+
+    /**
+     * @return backends, which implementations are generated
+     */
+    Backend[] backends() default
+    {
+        Backend.JDBC
+    };
+
+    /**
+     * Kind of generated implementation.
+     */
+    enum Backend
+    {
+        /**
+         * Calls procedures on {@link java.sql.Connection} with statements
+         * reused from {@link pl.mpiglas.dbproc.postgres.jdbc.StatementCache}.
+         */
+        JDBC,
+        /**
+         * Calls procedures with plain JDBC on connection of Hibernate session
+         * of <code>EntityManager</code>, so they take part in its
+         * transaction. JPA queries and persistence context are not used.
+         */
+        JPA,
+        /**
+         * Calls procedures with plain JDBC on connection from data source of
+         * Cayenne <code>ServerRuntime</code>. Data source hands out
+         * connection of Cayenne transaction bound to thread, e.g. by
+         * <code>ServerRuntime.performInTransaction</code>, so calls take part
+         * in it; without transaction every call runs on its own connection in
+         * auto-commit mode. Cayenne queries and object context are not used.
+         */
+        CAYENNE
+    }
+}
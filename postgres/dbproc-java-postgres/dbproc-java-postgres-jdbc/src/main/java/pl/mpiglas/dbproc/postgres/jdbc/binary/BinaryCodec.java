@@ -0,0 +1,390 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.postgresql.core.Oid;
+
+/**
+ * Reads and writes values in PostgreSQL binary wire format, the format of
+ * <code>record_send</code>, <code>array_send</code> and of binary
+ * <code>COPY</code>. All numbers are big-endian. Text is expected in UTF-8
+ * client encoding, which is what the driver always uses.
+ *
+ * @author Milosz Piglas
+ */
+final class BinaryCodec
+{
+
+    private static final int NUMERIC_POSITIVE = 0x0000;
+    private static final int NUMERIC_NEGATIVE = 0x4000;
+    private static final int NUMERIC_NAN = 0xC000;
+    private static final BigInteger NBASE = BigInteger.valueOf(10000);
+    private static final int RECORD_OID = 2249;
+
+    private BinaryCodec()
+    {
+    }
+
+    /**
+     * Decodes single value of given type. Composite values of registered types
+     * are mapped to records, other composites are returned as
+     * <code>Object[]</code> of field values. Arrays are returned as
+     * {@link List}. Values of types without binary decoder are returned as
+     * raw <code>byte[]</code>.
+     *
+     * @param buffer buffer positioned at the first byte of value
+     * @param oid type of value
+     * @param length length of value in bytes
+     * @param types registered composite types, may be null
+     * @return decoded value
+     * @throws SQLException if value is malformed
+     */
+    static Object decode(ByteBuffer buffer, int oid, int length, CompositeTypeRegistry types) throws SQLException
+    {
+        int end = buffer.position() + length;
+        Object value;
+        switch (oid)
+        {
+            case Oid.INT2:
+                value = buffer.getShort();
+                break;
+            case Oid.INT4:
+                value = buffer.getInt();
+                break;
+            case Oid.OID:
+                value = buffer.getInt() & 0xFFFFFFFFL;
+                break;
+            case Oid.INT8:
+                value = buffer.getLong();
+                break;
+            case Oid.FLOAT4:
+                value = buffer.getFloat();
+                break;
+            case Oid.FLOAT8:
+                value = buffer.getDouble();
+                break;
+            case Oid.BOOL:
+                value = buffer.get() != 0;
+                break;
+            case Oid.TEXT:
+            case Oid.VARCHAR:
+            case Oid.BPCHAR:
+            case Oid.NAME:
+            case Oid.JSON:
+                value = text(buffer, length);
+                break;
+            case Oid.NUMERIC:
+                value = numeric(buffer);
+                break;
+            case Oid.UUID:
+                value = new UUID(buffer.getLong(), buffer.getLong());
+                break;
+            default:
+                value = decodeOther(buffer, oid, length, types);
+                break;
+        }
+        if (buffer.position() != end)
+        {
+            throw new SQLException("Malformed binary value of type " + oid + ": read "
+                    + (length - end + buffer.position()) + " of " + length + " bytes");
+        }
+        return value;
+    }
+
+    private static Object decodeOther(ByteBuffer buffer, int oid, int length, CompositeTypeRegistry types)
+            throws SQLException
+    {
+        CompositeType<?> composite = types == null ? null : types.find(oid);
+        if (composite != null)
+        {
+            return composite.map(record(buffer, types));
+        }
+        if (oid == RECORD_OID)
+        {
+            return record(buffer, types);
+        }
+        if (isBuiltinArray(oid) || (types != null && types.isArray(oid)))
+        {
+            return array(buffer, types);
+        }
+        byte[] raw = new byte[length];
+        buffer.get(raw);
+        return raw;
+    }
+
+    private static boolean isBuiltinArray(int oid)
+    {
+        switch (oid)
+        {
+            case Oid.INT2_ARRAY:
+            case Oid.INT4_ARRAY:
+            case Oid.INT8_ARRAY:
+            case Oid.FLOAT4_ARRAY:
+            case Oid.FLOAT8_ARRAY:
+            case Oid.BOOL_ARRAY:
+            case Oid.TEXT_ARRAY:
+            case Oid.VARCHAR_ARRAY:
+            case Oid.BPCHAR_ARRAY:
+            case Oid.NUMERIC_ARRAY:
+            case Oid.UUID_ARRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decodes composite value in <code>record_send</code> format: number of
+     * fields followed by type, length and value of each field.
+     *
+     * @return field values
+     */
+    static Object[] record(ByteBuffer buffer, CompositeTypeRegistry types) throws SQLException
+    {
+        int count = buffer.getInt();
+        Object[] fields = new Object[count];
+        for (int i = 0; i < count; i++)
+        {
+            int oid = buffer.getInt();
+            int length = buffer.getInt();
+            fields[i] = length < 0 ? null : decode(buffer, oid, length, types);
+        }
+        return fields;
+    }
+
+    /**
+     * Decodes one-dimensional array in <code>array_send</code> format.
+     * Multidimensional arrays are flattened.
+     *
+     * @return elements
+     */
+    static List<Object> array(ByteBuffer buffer, CompositeTypeRegistry types) throws SQLException
+    {
+        int dimensions = buffer.getInt();
+        buffer.getInt(); // has nulls flag
+        int elementOid = buffer.getInt();
+        int count = dimensions == 0 ? 0 : 1;
+        for (int d = 0; d < dimensions; d++)
+        {
+            count *= buffer.getInt();
+            buffer.getInt(); // lower bound
+        }
+        List<Object> elements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            int length = buffer.getInt();
+            elements.add(length < 0 ? null : decode(buffer, elementOid, length, types));
+        }
+        return elements;
+    }
+
+    private static String text(ByteBuffer buffer, int length)
+    {
+        String value;
+        if (buffer.hasArray())
+        {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        else
+        {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static Object numeric(ByteBuffer buffer) throws SQLException
+    {
+        int digits = buffer.getShort();
+        int weight = buffer.getShort();
+        int sign = buffer.getShort() & 0xFFFF;
+        int scale = buffer.getShort();
+        if (sign == NUMERIC_NAN)
+        {
+            return Double.NaN;
+        }
+        BigInteger unscaled = BigInteger.ZERO;
+        for (int i = 0; i < digits; i++)
+        {
+            unscaled = unscaled.multiply(NBASE).add(BigInteger.valueOf(buffer.getShort()));
+        }
+        BigDecimal value = new BigDecimal(unscaled).scaleByPowerOfTen(4 * (weight - digits + 1));
+        if (sign == NUMERIC_NEGATIVE)
+        {
+            value = value.negate();
+        }
+        else if (sign != NUMERIC_POSITIVE)
+        {
+            throw new SQLException("Malformed numeric sign " + Integer.toHexString(sign));
+        }
+        return value.setScale(scale, RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * Encodes value of given type, without length prefix.
+     *
+     * @throws SQLException if value cannot be encoded as type
+     */
+    static void encode(DataOutputStream out, int oid, Object value, CompositeTypeRegistry types)
+            throws IOException, SQLException
+    {
+        switch (oid)
+        {
+            case Oid.INT2:
+                out.writeShort(((Number) value).shortValue());
+                return;
+            case Oid.INT4:
+                out.writeInt(((Number) value).intValue());
+                return;
+            case Oid.INT8:
+                out.writeLong(((Number) value).longValue());
+                return;
+            case Oid.FLOAT4:
+                out.writeFloat(((Number) value).floatValue());
+                return;
+            case Oid.FLOAT8:
+                out.writeDouble(((Number) value).doubleValue());
+                return;
+            case Oid.BOOL:
+                out.writeByte((Boolean) value ? 1 : 0);
+                return;
+            case Oid.TEXT:
+            case Oid.VARCHAR:
+            case Oid.BPCHAR:
+            case Oid.NAME:
+                out.write(value.toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            case Oid.NUMERIC:
+                numeric(out, value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString()));
+                return;
+            case Oid.BYTEA:
+                out.write((byte[]) value);
+                return;
+            default:
+                CompositeType<?> composite = types == null ? null : types.find(oid);
+                if (composite == null)
+                {
+                    throw new SQLException("No binary encoder for type " + oid);
+                }
+                composite.write(out, value);
+        }
+    }
+
+    /**
+     * Encodes value preceded by its length, or -1 for null.
+     */
+    static void encodeField(DataOutputStream out, int oid, Object value, CompositeTypeRegistry types)
+            throws IOException, SQLException
+    {
+        if (value == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        encode(new DataOutputStream(field), oid, value, types);
+        out.writeInt(field.size());
+        field.writeTo(out);
+    }
+
+    private static void numeric(DataOutputStream out, BigDecimal value) throws IOException
+    {
+        int scale = Math.max(0, value.scale());
+        int groupedScale = (scale + 3) / 4 * 4;
+        BigInteger unscaled = value.abs().setScale(groupedScale).unscaledValue();
+        List<Short> groups = new ArrayList<>();
+        while (unscaled.signum() > 0)
+        {
+            BigInteger[] division = unscaled.divideAndRemainder(NBASE);
+            groups.add(0, division[1].shortValue());
+            unscaled = division[0];
+        }
+        int weight = groups.size() - groupedScale / 4 - 1;
+        while (!groups.isEmpty() && groups.get(groups.size() - 1) == 0)
+        {
+            groups.remove(groups.size() - 1);
+        }
+        out.writeShort(groups.size());
+        out.writeShort(groups.isEmpty() ? 0 : weight);
+        out.writeShort(value.signum() < 0 ? NUMERIC_NEGATIVE : NUMERIC_POSITIVE);
+        out.writeShort(scale);
+        for (short group : groups)
+        {
+            out.writeShort(group);
+        }
+    }
+
+    /**
+     * Formats value as element of composite or array literal in text format.
+     * Used when driver sends parameter as text.
+     */
+    static String literal(Object value, CompositeTypeRegistry types, boolean arrayElement)
+    {
+        if (value == null)
+        {
+            return arrayElement ? "NULL" : "";
+        }
+        String text;
+        if (value instanceof Boolean)
+        {
+            text = (Boolean) value ? "t" : "f";
+        }
+        else if (value instanceof byte[])
+        {
+            StringBuilder hex = new StringBuilder("\\x");
+            for (byte b : (byte[]) value)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            text = hex.toString();
+        }
+        else if (value instanceof BigDecimal)
+        {
+            text = ((BigDecimal) value).toPlainString();
+        }
+        else
+        {
+            CompositeType<?> composite = types == null ? null : types.findByValue(value);
+            text = composite == null ? value.toString() : composite.literal(value);
+        }
+        return quote(text, arrayElement);
+    }
+
+    private static String quote(String text, boolean arrayElement)
+    {
+        boolean quoted = text.isEmpty() || (arrayElement && "NULL".equalsIgnoreCase(text));
+        for (int i = 0; i < text.length() && !quoted; i++)
+        {
+            char c = text.charAt(i);
+            quoted = c == '"' || c == '\\' || c == '(' || c == ')' || c == ',' || c == '{' || c == '}'
+                    || Character.isWhitespace(c);
+        }
+        if (!quoted)
+        {
+            return text;
+        }
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                builder.append(arrayElement || c == '\\' ? '\\' : '"');
+            }
+            builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,211 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Decodes rows of binary <code>COPY</code> output. Data may be fed in chunks
+ * of any size, rows split between chunks are decoded when the rest arrives.
+ *
+ * Binary format does not carry column types, so decoder has to be created
+ * with OIDs of columns, see {@link CopyExporter#columnTypes(String, Object...)}.
+ *
+ * @author Milosz Piglas
+ */
+public class BinaryCopyDecoder
+{
+
+    private static final byte[] SIGNATURE =
+    {
+        'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+    };
+    private static final int INITIAL_PENDING = 8192;
+
+    private final int[] columnTypes;
+    private final CompositeTypeRegistry types;
+    private ByteBuffer pending;
+    private boolean headerRead;
+    private boolean finished;
+    private long rows;
+
+    /**
+     * @param columnTypes OIDs of columns
+     * @param types composite types, may be null
+     */
+    public BinaryCopyDecoder(int[] columnTypes, CompositeTypeRegistry types)
+    {
+        this.columnTypes = columnTypes.clone();
+        this.types = types;
+    }
+
+    /**
+     * Decodes complete <code>COPY</code> output, e.g. memory mapped file
+     * written by {@link CopyExporter}.
+     *
+     * @param data binary output
+     * @param mapper creates row from column values
+     * @param consumer consumer of rows
+     * @return number of rows
+     * @throws SQLException if data is malformed or incomplete
+     */
+    public <T> long decode(ByteBuffer data, Function<Object[], T> mapper, Consumer<? super T> consumer)
+            throws SQLException
+    {
+        feed(data, mapper, consumer);
+        if (!finished)
+        {
+            throw new SQLException("COPY output is incomplete");
+        }
+        return rows;
+    }
+
+    /**
+     * Decodes all complete rows of chunk. Remaining bytes are kept until next
+     * chunk.
+     *
+     * @return false if end of output was reached
+     * @throws SQLException if data is malformed
+     */
+    <T> boolean feed(ByteBuffer chunk, Function<Object[], T> mapper, Consumer<? super T> consumer)
+            throws SQLException
+    {
+        ByteBuffer data = chunk;
+        if (pending != null && pending.position() > 0)
+        {
+            append(chunk);
+            pending.flip();
+            data = pending;
+        }
+        try
+        {
+            while (!finished && data.hasRemaining())
+            {
+                int start = data.position();
+                if (!(headerRead ? readRow(data, mapper, consumer) : readHeader(data)))
+                {
+                    data.position(start);
+                    break;
+                }
+            }
+        }
+        catch (BufferUnderflowException ex)
+        {
+            throw new SQLException("Malformed COPY output", ex);
+        }
+        if (data == pending)
+        {
+            pending.compact();
+        }
+        else if (data.hasRemaining() && !finished)
+        {
+            append(data);
+        }
+        return !finished;
+    }
+
+    public long getRowCount()
+    {
+        return rows;
+    }
+
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    private boolean readHeader(ByteBuffer data) throws SQLException
+    {
+        if (data.remaining() < SIGNATURE.length + 8)
+        {
+            return false;
+        }
+        for (byte expected : SIGNATURE)
+        {
+            if (data.get() != expected)
+            {
+                throw new SQLException("Not a binary COPY output");
+            }
+        }
+        data.getInt(); // flags
+        int extension = data.getInt();
+        if (data.remaining() < extension)
+        {
+            return false;
+        }
+        data.position(data.position() + extension);
+        headerRead = true;
+        return true;
+    }
+
+    private <T> boolean readRow(ByteBuffer data, Function<Object[], T> mapper, Consumer<? super T> consumer)
+            throws SQLException
+    {
+        if (!isRowComplete(data))
+        {
+            return false;
+        }
+        int fields = data.getShort();
+        if (fields == -1)
+        {
+            finished = true;
+            return true;
+        }
+        if (fields != columnTypes.length)
+        {
+            throw new SQLException("Expected " + columnTypes.length + " columns, got " + fields);
+        }
+        Object[] values = new Object[fields];
+        for (int i = 0; i < fields; i++)
+        {
+            int length = data.getInt();
+            values[i] = length < 0 ? null : BinaryCodec.decode(data, columnTypes[i], length, types);
+        }
+        consumer.accept(mapper.apply(values));
+        rows++;
+        return true;
+    }
+
+    private static boolean isRowComplete(ByteBuffer data)
+    {
+        int position = data.position();
+        if (data.limit() - position < 2)
+        {
+            return false;
+        }
+        int fields = data.getShort(position);
+        position += 2;
+        for (int i = 0; i < fields; i++)
+        {
+            if (data.limit() - position < 4)
+            {
+                return false;
+            }
+            int length = data.getInt(position);
+            position += 4 + Math.max(0, length);
+            if (position > data.limit())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(ByteBuffer data)
+    {
+        if (pending == null)
+        {
+            pending = ByteBuffer.allocate(Math.max(INITIAL_PENDING, data.remaining()));
+        }
+        if (pending.remaining() < data.remaining())
+        {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + data.remaining()));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(data);
+    }
+}
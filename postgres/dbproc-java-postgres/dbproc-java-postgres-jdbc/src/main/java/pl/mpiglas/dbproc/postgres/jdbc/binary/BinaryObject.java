@@ -0,0 +1,65 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.sql.SQLException;
+import java.util.function.Supplier;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * Parameter value encoded in binary format. Driver sends it as binary if
+ * binary transfer of its type is enabled, otherwise text value is formatted
+ * when driver asks for it.
+ *
+ * @author Milosz Piglas
+ */
+final class BinaryObject extends PGobject implements PGBinaryObject
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private byte[] bytes;
+    private transient Supplier<String> text;
+
+    BinaryObject(String type, byte[] bytes, Supplier<String> text)
+    {
+        setType(type);
+        this.bytes = bytes;
+        this.text = text;
+    }
+
+    @Override
+    public String getValue()
+    {
+        if (value == null && text != null)
+        {
+            value = text.get();
+        }
+        return value;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException
+    {
+        super.setValue(value);
+        this.bytes = null;
+        this.text = null;
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException
+    {
+        throw new SQLException("Binary value of " + getType() + " is read with CompositeType");
+    }
+
+    @Override
+    public int lengthInBytes()
+    {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    @Override
+    public void toBytes(byte[] target, int offset)
+    {
+        System.arraycopy(bytes, 0, target, offset, bytes.length);
+    }
+}
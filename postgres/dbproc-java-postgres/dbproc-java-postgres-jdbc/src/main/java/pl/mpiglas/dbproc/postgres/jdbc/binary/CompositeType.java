@@ -0,0 +1,292 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import org.postgresql.PGResultSetMetaData;
+import org.postgresql.util.PGobject;
+
+/**
+ * Codec of single composite type, like <code>ctype</code>, reading and
+ * writing values in binary wire format. Composite values are mapped to records
+ * of type <code>T</code> from array of field values and back.
+ *
+ * Driver returns composite columns in text format unless binary transfer of
+ * the type is enabled, so select them with <code>record_send</code> and
+ * <code>array_send</code>, which return binary representation as
+ * <code>bytea</code>:
+ *
+ * <pre>
+ * SELECT record_send(r) FROM gen_rows(?) r
+ * SELECT array_send(array_agg(r)) FROM gen_rows(?) r
+ * </pre>
+ *
+ * Encoded parameters are sent in binary format if connection was opened with
+ * <code>binaryTransferEnable</code> property listing type OID, see
+ * {@link CompositeTypeRegistry#getBinaryTransferOids()}, and in text format
+ * otherwise.
+ *
+ * @author Milosz Piglas
+ * @param <T> type of record
+ */
+public final class CompositeType<T>
+{
+
+    private final CompositeTypeRegistry registry;
+    private final String name;
+    private final int oid;
+    private final String arrayName;
+    private final int arrayOid;
+    private final List<String> attributeNames;
+    private final int[] attributeOids;
+    private final Class<T> recordType;
+    private final Function<Object[], T> reader;
+    private final Function<T, Object[]> writer;
+
+    CompositeType(CompositeTypeRegistry registry, String name, int oid, String arrayName, int arrayOid,
+            List<String> attributeNames, int[] attributeOids, Class<T> recordType,
+            Function<Object[], T> reader, Function<T, Object[]> writer)
+    {
+        this.registry = registry;
+        this.name = name;
+        this.oid = oid;
+        this.arrayName = arrayName;
+        this.arrayOid = arrayOid;
+        this.attributeNames = Collections.unmodifiableList(new ArrayList<>(attributeNames));
+        this.attributeOids = attributeOids.clone();
+        this.recordType = recordType;
+        this.reader = reader;
+        this.writer = writer;
+    }
+
+    /**
+     * Decodes value in <code>record_send</code> format.
+     *
+     * @param data binary value
+     * @return record
+     * @throws SQLException if value is malformed
+     */
+    public T decode(byte[] data) throws SQLException
+    {
+        return map(BinaryCodec.record(ByteBuffer.wrap(data), registry));
+    }
+
+    /**
+     * Decodes array in <code>array_send</code> format.
+     *
+     * @param data binary array
+     * @return records, null elements are kept
+     * @throws SQLException if array is malformed or contains other type
+     */
+    public List<T> decodeArray(byte[] data) throws SQLException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length >= 12 && buffer.getInt(8) != oid)
+        {
+            throw new SQLException("Array of type " + buffer.getInt(8) + " is not array of " + name);
+        }
+        List<Object> elements = BinaryCodec.array(buffer, registry);
+        List<T> records = new ArrayList<>(elements.size());
+        for (Object element : elements)
+        {
+            records.add(recordType.cast(element));
+        }
+        return records;
+    }
+
+    /**
+     * Reads record from column returned in binary format.
+     *
+     * @param resultSet result set
+     * @param column column index
+     * @return record or null
+     * @throws SQLException if column was returned as text
+     */
+    public T read(ResultSet resultSet, int column) throws SQLException
+    {
+        byte[] data = binaryColumn(resultSet, column);
+        return data == null ? null : decode(data);
+    }
+
+    /**
+     * Reads array of records from column returned in binary format.
+     *
+     * @param resultSet result set
+     * @param column column index
+     * @return records or null
+     * @throws SQLException if column was returned as text
+     */
+    public List<T> readArray(ResultSet resultSet, int column) throws SQLException
+    {
+        byte[] data = binaryColumn(resultSet, column);
+        return data == null ? null : decodeArray(data);
+    }
+
+    /**
+     * Encodes record as parameter of this type.
+     *
+     * @param value record
+     * @return parameter value for {@link java.sql.PreparedStatement#setObject(int, Object)}
+     * @throws SQLException if field cannot be encoded
+     */
+    public PGobject encode(T value) throws SQLException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            write(new DataOutputStream(bytes), value);
+        }
+        catch (IOException ex)
+        {
+            throw new SQLException("Cannot encode " + name, ex);
+        }
+        return new BinaryObject(name, bytes.toByteArray(), () -> literal(value));
+    }
+
+    /**
+     * Encodes records as array parameter.
+     *
+     * @param values records
+     * @return parameter value for {@link java.sql.PreparedStatement#setObject(int, Object)}
+     * @throws SQLException if field cannot be encoded
+     */
+    public PGobject encodeArray(Collection<? extends T> values) throws SQLException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        boolean hasNulls = values.contains(null);
+        try
+        {
+            out.writeInt(values.isEmpty() ? 0 : 1);
+            out.writeInt(hasNulls ? 1 : 0);
+            out.writeInt(oid);
+            if (!values.isEmpty())
+            {
+                out.writeInt(values.size());
+                out.writeInt(1);
+            }
+            for (T value : values)
+            {
+                BinaryCodec.encodeField(out, oid, value, registry);
+            }
+        }
+        catch (IOException ex)
+        {
+            throw new SQLException("Cannot encode " + arrayName, ex);
+        }
+        List<T> copy = new ArrayList<>(values);
+        return new BinaryObject(arrayName, bytes.toByteArray(), () -> arrayLiteral(copy));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getOid()
+    {
+        return oid;
+    }
+
+    public String getArrayName()
+    {
+        return arrayName;
+    }
+
+    public int getArrayOid()
+    {
+        return arrayOid;
+    }
+
+    public List<String> getAttributeNames()
+    {
+        return attributeNames;
+    }
+
+    public Class<T> getRecordType()
+    {
+        return recordType;
+    }
+
+    T map(Object[] fields) throws SQLException
+    {
+        if (fields.length != attributeOids.length)
+        {
+            throw new SQLException(name + " has " + attributeOids.length + " attributes, got " + fields.length);
+        }
+        return reader.apply(fields);
+    }
+
+    void write(DataOutputStream out, Object value) throws IOException, SQLException
+    {
+        Object[] fields = writer.apply(recordType.cast(value));
+        if (fields.length != attributeOids.length)
+        {
+            throw new SQLException(name + " has " + attributeOids.length + " attributes, got " + fields.length);
+        }
+        out.writeInt(fields.length);
+        for (int i = 0; i < fields.length; i++)
+        {
+            out.writeInt(attributeOids[i]);
+            BinaryCodec.encodeField(out, attributeOids[i], fields[i], registry);
+        }
+    }
+
+    String literal(Object value)
+    {
+        Object[] fields = writer.apply(recordType.cast(value));
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(BinaryCodec.literal(fields[i], registry, false));
+        }
+        return builder.append(')').toString();
+    }
+
+    private String arrayLiteral(List<T> values)
+    {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < values.size(); i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(BinaryCodec.literal(values.get(i), registry, true));
+        }
+        return builder.append('}').toString();
+    }
+
+    private byte[] binaryColumn(ResultSet resultSet, int column) throws SQLException
+    {
+        byte[] data = resultSet.getBytes(column);
+        if (data == null)
+        {
+            return null;
+        }
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        boolean binary = metaData.getColumnType(column) == Types.BINARY
+                || (metaData.isWrapperFor(PGResultSetMetaData.class)
+                && metaData.unwrap(PGResultSetMetaData.class).getFormat(column) == 1);
+        if (!binary)
+        {
+            throw new SQLException("Column " + column + " of type " + metaData.getColumnTypeName(column)
+                    + " was returned as text, select it with record_send or array_send");
+        }
+        return data;
+    }
+}
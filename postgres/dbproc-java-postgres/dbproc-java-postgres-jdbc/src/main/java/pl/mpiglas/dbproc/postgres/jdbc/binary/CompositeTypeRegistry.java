@@ -0,0 +1,162 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Composite types of single database. Type OIDs and attributes are read from
+ * catalog once, when type is registered, and shared by all connections to the
+ * database.
+ *
+ * <pre>
+ * CompositeTypeRegistry types = new CompositeTypeRegistry();
+ * CompositeType&lt;CType&gt; ctype = types.register(connection, "ctype", CType.class,
+ *         fields -&gt; new CType((String) fields[0], (Integer) fields[1]),
+ *         c -&gt; new Object[] { c.getStr(), c.getNum() });
+ * </pre>
+ *
+ * Composite fields of other registered types are mapped to their records,
+ * fields of types not registered are decoded to <code>Object[]</code>.
+ *
+ * @author Milosz Piglas
+ */
+public class CompositeTypeRegistry
+{
+
+    private static final String TYPE_SQL = "SELECT t.oid, t.typname, a.oid, a.typname FROM pg_type t "
+            + "JOIN pg_type a ON a.oid = t.typarray WHERE t.oid = ?::regtype AND t.typtype = 'c'";
+    private static final String ATTRIBUTES_SQL = "SELECT a.attname, a.atttypid FROM pg_attribute a "
+            + "JOIN pg_type t ON t.typrelid = a.attrelid WHERE t.oid = ?::oid AND a.attnum > 0 "
+            + "AND NOT a.attisdropped ORDER BY a.attnum";
+
+    private final Map<String, CompositeType<?>> byName = new ConcurrentHashMap<>();
+    private final Map<Integer, CompositeType<?>> byOid = new ConcurrentHashMap<>();
+    private final Map<Integer, CompositeType<?>> byArrayOid = new ConcurrentHashMap<>();
+    private final Map<Class<?>, CompositeType<?>> byRecordType = new ConcurrentHashMap<>();
+
+    /**
+     * Reads type from catalog and registers its codec. Registering type
+     * again replaces previous codec.
+     *
+     * @param connection connection used to read catalog
+     * @param typeName name of composite type, optionally schema qualified
+     * @param recordType class of records
+     * @param reader creates record from field values
+     * @param writer returns field values of record
+     * @return codec of type
+     * @throws SQLException if type does not exist or is not composite
+     */
+    public <T> CompositeType<T> register(Connection connection, String typeName, Class<T> recordType,
+            Function<Object[], T> reader, Function<T, Object[]> writer) throws SQLException
+    {
+        int oid;
+        String name;
+        int arrayOid;
+        String arrayName;
+        try (PreparedStatement statement = connection.prepareStatement(TYPE_SQL))
+        {
+            statement.setString(1, typeName);
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                if (!resultSet.next())
+                {
+                    throw new SQLException(typeName + " is not composite type");
+                }
+                oid = (int) resultSet.getLong(1);
+                name = resultSet.getString(2);
+                arrayOid = (int) resultSet.getLong(3);
+                arrayName = resultSet.getString(4);
+            }
+        }
+        List<String> attributeNames = new ArrayList<>();
+        List<Integer> attributeOids = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(ATTRIBUTES_SQL))
+        {
+            statement.setLong(1, oid & 0xFFFFFFFFL);
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    attributeNames.add(resultSet.getString(1));
+                    attributeOids.add((int) resultSet.getLong(2));
+                }
+            }
+        }
+        int[] oids = new int[attributeOids.size()];
+        for (int i = 0; i < oids.length; i++)
+        {
+            oids[i] = attributeOids.get(i);
+        }
+        CompositeType<T> type = new CompositeType<>(this, name, oid, arrayName, arrayOid, attributeNames, oids,
+                recordType, reader, writer);
+        add(type);
+        return type;
+    }
+
+    void add(CompositeType<?> type)
+    {
+        byName.put(type.getName(), type);
+        byOid.put(type.getOid(), type);
+        byArrayOid.put(type.getArrayOid(), type);
+        byRecordType.put(type.getRecordType(), type);
+    }
+
+    /**
+     * @param name type name, as stored in catalog
+     * @return codec or null if type is not registered
+     */
+    public CompositeType<?> get(String name)
+    {
+        return byName.get(name);
+    }
+
+    /**
+     * Returns OIDs of registered types and their arrays, as value of
+     * <code>binaryTransferEnable</code> connection property. Connections
+     * opened with it send and receive registered types in binary format.
+     *
+     * @return comma separated OIDs
+     */
+    public String getBinaryTransferOids()
+    {
+        Set<Long> oids = new TreeSet<>();
+        for (int oid : byOid.keySet())
+        {
+            oids.add(oid & 0xFFFFFFFFL);
+        }
+        for (int oid : byArrayOid.keySet())
+        {
+            oids.add(oid & 0xFFFFFFFFL);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Long oid : oids)
+        {
+            builder.append(builder.length() > 0 ? "," : "").append(oid);
+        }
+        return builder.toString();
+    }
+
+    CompositeType<?> find(int oid)
+    {
+        return byOid.get(oid);
+    }
+
+    boolean isArray(int oid)
+    {
+        return byArrayOid.containsKey(oid);
+    }
+
+    CompositeType<?> findByValue(Object value)
+    {
+        return byRecordType.get(value.getClass());
+    }
+}
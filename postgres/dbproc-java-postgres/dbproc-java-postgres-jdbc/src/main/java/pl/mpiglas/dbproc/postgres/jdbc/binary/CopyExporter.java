@@ -0,0 +1,416 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyOut;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.NativeQuery;
+import org.postgresql.core.Parser;
+import org.postgresql.jdbc.PgResultSet;
+import pl.mpiglas.dbproc.postgres.jdbc.Deadline;
+import pl.mpiglas.dbproc.postgres.jdbc.StatementTimeout;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+
+/**
+ * Exports output of set-returning procedures with
+ * <code>COPY (query) TO STDOUT (FORMAT binary)</code>. Output is written to
+ * channel, buffer or file as it arrives from server, without creating JDBC
+ * rows, or decoded to typed rows with {@link BinaryCopyDecoder}.
+ *
+ * <pre>
+ * CopyExporter exporter = new CopyExporter(connection);
+ * exporter.export("SELECT * FROM gen_rows(?)", channel, 10000000);
+ * </pre>
+ *
+ * <code>COPY</code> does not accept statement parameters, so arguments are
+ * inlined into query as literals. Only numbers, booleans and strings are
+ * accepted.
+ *
+ * Driver does not expose statement of <code>COPY</code>, so export with
+ * {@link Deadline} limits {@link StatementTimeout} of session instead of
+ * cancelling statement.
+ *
+ * @author Milosz Piglas
+ */
+public class CopyExporter
+{
+
+    private final Connection connection;
+    private final CompositeTypeRegistry types;
+
+    public CopyExporter(Connection connection)
+    {
+        this(connection, null);
+    }
+
+    /**
+     * @param connection PostgreSQL connection
+     * @param types composite types used to decode rows, may be null
+     */
+    public CopyExporter(Connection connection, CompositeTypeRegistry types)
+    {
+        this.connection = connection;
+        this.types = types;
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to channel.
+     *
+     * @param query query, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param target channel
+     * @param args query arguments
+     * @return number of bytes written
+     * @throws SQLException
+     * @throws IOException if writing to channel failed, copy is cancelled
+     */
+    public long export(String query, WritableByteChannel target, Object... args) throws SQLException, IOException
+    {
+        return export(Deadline.NONE, query, target, args);
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to channel, export has
+     * to finish before deadline.
+     *
+     * @param deadline deadline of export
+     * @param query query
+     * @param target channel
+     * @param args query arguments
+     * @return number of bytes written
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     * @throws IOException if writing to channel failed, copy is cancelled
+     */
+    public long export(Deadline deadline, String query, WritableByteChannel target, Object... args)
+            throws SQLException, IOException
+    {
+        String procedure = ProcedureCall.procedureName(query);
+        try (StatementTimeout timeout = StatementTimeout.set(connection, deadline, procedure))
+        {
+            CopyOut copy = start(query, args);
+            long written = 0;
+            try
+            {
+                byte[] chunk;
+                while ((chunk = copy.readFromCopy()) != null)
+                {
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                    while (buffer.hasRemaining())
+                    {
+                        written += target.write(buffer);
+                    }
+                }
+                return written;
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                cancel(copy, ex);
+                throw ex;
+            }
+        }
+        catch (SQLException ex)
+        {
+            throw StatementTimeout.translate(deadline, procedure, ex);
+        }
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to buffer.
+     *
+     * @param query query
+     * @param target buffer, its position is advanced
+     * @param args query arguments
+     * @return number of bytes written
+     * @throws SQLException
+     * @throws BufferOverflowException if buffer is too small, copy is
+     * cancelled
+     */
+    public long export(String query, ByteBuffer target, Object... args) throws SQLException
+    {
+        return export(Deadline.NONE, query, target, args);
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to buffer, export has
+     * to finish before deadline.
+     *
+     * @param deadline deadline of export
+     * @param query query
+     * @param target buffer, its position is advanced
+     * @param args query arguments
+     * @return number of bytes written
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public long export(Deadline deadline, String query, ByteBuffer target, Object... args) throws SQLException
+    {
+        String procedure = ProcedureCall.procedureName(query);
+        try (StatementTimeout timeout = StatementTimeout.set(connection, deadline, procedure))
+        {
+            CopyOut copy = start(query, args);
+            long written = 0;
+            try
+            {
+                byte[] chunk;
+                while ((chunk = copy.readFromCopy()) != null)
+                {
+                    target.put(chunk);
+                    written += chunk.length;
+                }
+                return written;
+            }
+            catch (RuntimeException ex)
+            {
+                cancel(copy, ex);
+                throw ex;
+            }
+        }
+        catch (SQLException ex)
+        {
+            throw StatementTimeout.translate(deadline, procedure, ex);
+        }
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to file and maps it into
+     * memory, e.g. for {@link BinaryCopyDecoder#decode(ByteBuffer, Function, Consumer)}.
+     *
+     * @param query query
+     * @param file file, created or truncated
+     * @param args query arguments
+     * @return read-only mapping of file
+     * @throws SQLException
+     * @throws IOException
+     */
+    public MappedByteBuffer exportMapped(String query, Path file, Object... args) throws SQLException, IOException
+    {
+        return exportMapped(Deadline.NONE, query, file, args);
+    }
+
+    /**
+     * Writes binary <code>COPY</code> output of query to file before deadline
+     * and maps it into memory.
+     *
+     * @param deadline deadline of export
+     * @param query query
+     * @param file file, created or truncated
+     * @param args query arguments
+     * @return read-only mapping of file
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     * @throws IOException
+     */
+    public MappedByteBuffer exportMapped(Deadline deadline, String query, Path file, Object... args)
+            throws SQLException, IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long size = export(deadline, query, channel, args);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Decodes rows while they arrive from server.
+     *
+     * @param query query
+     * @param mapper creates row from column values
+     * @param consumer consumer of rows
+     * @param args query arguments
+     * @return number of rows
+     * @throws SQLException
+     */
+    public <T> long decode(String query, Function<Object[], T> mapper, Consumer<? super T> consumer, Object... args)
+            throws SQLException
+    {
+        return decode(Deadline.NONE, query, mapper, consumer, args);
+    }
+
+    /**
+     * Decodes rows while they arrive from server, all rows have to be decoded
+     * before deadline.
+     *
+     * @param deadline deadline of export
+     * @param query query
+     * @param mapper creates row from column values
+     * @param consumer consumer of rows
+     * @param args query arguments
+     * @return number of rows
+     * @throws java.sql.SQLTimeoutException if deadline passed
+     * @throws SQLException
+     */
+    public <T> long decode(Deadline deadline, String query, Function<Object[], T> mapper,
+            Consumer<? super T> consumer, Object... args) throws SQLException
+    {
+        String procedure = ProcedureCall.procedureName(query);
+        try (StatementTimeout timeout = StatementTimeout.set(connection, deadline, procedure))
+        {
+            BinaryCopyDecoder decoder = new BinaryCopyDecoder(columnTypes(query, args), types);
+            CopyOut copy = start(query, args);
+            try
+            {
+                byte[] chunk;
+                while ((chunk = copy.readFromCopy()) != null)
+                {
+                    decoder.feed(ByteBuffer.wrap(chunk), mapper, consumer);
+                }
+            }
+            catch (SQLException | RuntimeException ex)
+            {
+                cancel(copy, ex);
+                throw ex;
+            }
+            if (!decoder.isFinished())
+            {
+                throw new SQLException("COPY output is incomplete");
+            }
+            return decoder.getRowCount();
+        }
+        catch (SQLException ex)
+        {
+            throw StatementTimeout.translate(deadline, procedure, ex);
+        }
+    }
+
+    /**
+     * Describes query without running it.
+     *
+     * @param query query
+     * @param args query arguments
+     * @return OIDs of result columns
+     * @throws SQLException
+     */
+    public int[] columnTypes(String query, Object... args) throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM (" + query + ") q LIMIT 0"))
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                statement.setObject(i + 1, args[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery())
+            {
+                PgResultSet pgResultSet = resultSet.unwrap(PgResultSet.class);
+                int[] oids = new int[resultSet.getMetaData().getColumnCount()];
+                for (int i = 0; i < oids.length; i++)
+                {
+                    oids[i] = pgResultSet.getColumnOID(i + 1);
+                }
+                return oids;
+            }
+        }
+    }
+
+    private CopyOut start(String query, Object[] args) throws SQLException
+    {
+        String sql = "COPY (" + inline(query, args,
+                connection.unwrap(BaseConnection.class).getStandardConformingStrings()) + ") TO STDOUT (FORMAT binary)";
+        return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql);
+    }
+
+    private static void cancel(CopyOut copy, Exception cause)
+    {
+        try
+        {
+            if (copy.isActive())
+            {
+                copy.cancelCopy();
+            }
+        }
+        catch (SQLException ex)
+        {
+            cause.addSuppressed(ex);
+        }
+    }
+
+    /**
+     * Replaces <code>?</code> placeholders with literals of arguments.
+     * Placeholders are found by driver parser, which skips quoted strings and
+     * identifiers, dollar quoted bodies and comments.
+     *
+     * @param standardConformingStrings if backslash in plain string literal
+     * is ordinary character, see
+     * {@link BaseConnection#getStandardConformingStrings()}
+     */
+    static String inline(String query, Object[] args, boolean standardConformingStrings) throws SQLException
+    {
+        List<NativeQuery> queries = Parser.parseJdbcSql(query, standardConformingStrings, true, true, false);
+        if (queries.size() != 1)
+        {
+            throw new IllegalArgumentException("COPY accepts single query, got " + queries.size() + ": " + query);
+        }
+        NativeQuery parsed = queries.get(0);
+        if (parsed.bindPositions.length != args.length)
+        {
+            throw new IllegalArgumentException("Query has " + parsed.bindPositions.length + " placeholders, got "
+                    + args.length + " arguments");
+        }
+        String sql = parsed.nativeSql;
+        StringBuilder inlined = new StringBuilder(sql.length() + args.length * 8);
+        int from = 0;
+        for (int i = 0; i < args.length; i++)
+        {
+            int position = parsed.bindPositions[i];
+            inlined.append(sql, from, position).append(literal(args[i]));
+            from = position + NativeQuery.bindName(i + 1).length();
+        }
+        return inlined.append(sql, from, sql.length()).toString();
+    }
+
+    private static String literal(Object value)
+    {
+        if (value == null)
+        {
+            return "NULL";
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof BigInteger)
+        {
+            return numeric(value.toString());
+        }
+        if (value instanceof BigDecimal)
+        {
+            return numeric(((BigDecimal) value).toPlainString());
+        }
+        if ((value instanceof Double || value instanceof Float) && !Double.isInfinite(((Number) value).doubleValue())
+                && !Double.isNaN(((Number) value).doubleValue()))
+        {
+            return numeric(value.toString());
+        }
+        if (value instanceof Boolean)
+        {
+            return (Boolean) value ? "TRUE" : "FALSE";
+        }
+        if (value instanceof String && ((String) value).indexOf('\0') < 0)
+        {
+            return "E'" + ((String) value).replace("\\", "\\\\").replace("'", "''") + "'";
+        }
+        throw new IllegalArgumentException("Cannot inline argument of " + value.getClass() + " into COPY");
+    }
+
+    /**
+     * Negative numbers are parenthesized, so that minus sign does not merge
+     * with preceding operator into comment, e.g. <code>x-?</code>.
+     */
+    private static String numeric(String literal)
+    {
+        return literal.startsWith("-") ? "(" + literal + ")" : literal;
+    }
+}
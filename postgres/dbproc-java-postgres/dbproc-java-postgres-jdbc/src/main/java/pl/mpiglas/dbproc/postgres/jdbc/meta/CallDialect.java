@@ -0,0 +1,322 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureCaller;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+import pl.mpiglas.dbproc.postgres.jdbc.PropertiesFiles;
+import pl.mpiglas.dbproc.postgres.jdbc.RowMapper;
+
+/**
+ * Chooses the cheapest {@link CallForm} of every procedure for given driver
+ * and routes calls to it, so code calling procedures by name does not depend
+ * on call syntax.
+ *
+ * <pre>
+ * CallDialect dialect = CallDialect.of(registry, connection);
+ * if (!dialect.load(Paths.get("call-profile.properties")))
+ * {
+ *     dialect.probe(connection, "num_sum", 1, 2);
+ *     dialect.probe(connection, "modmul", 10, 3);
+ *     dialect.save(Paths.get("call-profile.properties"));
+ * }
+ * Object[] sum = caller.call(dialect.signature("num_sum"), 100, 11);
+ * </pre>
+ *
+ * Forms are probed by calling procedure in every supported form with sample
+ * arguments, so only procedures without side effects should be probed. Forms,
+ * which fail or give different output than the default form of
+ * {@link ProcedureMetadata#toSignature()}, are never chosen. Instead of
+ * probing, forms can be loaded from profile, e.g. written from benchmark
+ * results:
+ *
+ * <pre>
+ * driver=PostgreSQL JDBC Driver 9.4.1211
+ * num_sum=SELECT_VALUE
+ * modmul=CALL_OUT_PARAMETERS
+ * </pre>
+ *
+ * Profile of other driver is ignored. Procedures without chosen form are
+ * called in their default form.
+ *
+ * @author Milosz Piglas
+ */
+public final class CallDialect
+{
+
+    public static final int DEFAULT_WARM_UP_CALLS = 20;
+    public static final int DEFAULT_MEASURED_CALLS = 100;
+
+    private static final RowMapper<Object[]> COLUMNS = resultSet ->
+    {
+        Object[] columns = new Object[resultSet.getMetaData().getColumnCount()];
+        for (int i = 0; i < columns.length; i++)
+        {
+            columns[i] = resultSet.getObject(i + 1);
+        }
+        return columns;
+    };
+
+    private final ProcedureRegistry registry;
+    private final String driver;
+    private final Map<String, CallForm> forms = new ConcurrentHashMap<>();
+    private final Map<String, ProcedureSignature> signatures = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry procedures
+     * @param driver name and version of driver, see
+     * {@link #driver(Connection)}
+     */
+    public CallDialect(ProcedureRegistry registry, String driver)
+    {
+        this.registry = Objects.requireNonNull(registry, "registry");
+        this.driver = Objects.requireNonNull(driver, "driver");
+    }
+
+    /**
+     * @param registry procedures
+     * @param connection connection of driver, which calls procedures
+     * @return dialect of the driver, calling procedures in default forms
+     * @throws SQLException
+     */
+    public static CallDialect of(ProcedureRegistry registry, Connection connection) throws SQLException
+    {
+        return new CallDialect(registry, driver(connection));
+    }
+
+    /**
+     * @param connection connection
+     * @return name and version of its driver
+     * @throws SQLException
+     */
+    public static String driver(Connection connection) throws SQLException
+    {
+        DatabaseMetaData metaData = connection.getMetaData();
+        return metaData.getDriverName() + " " + metaData.getDriverVersion();
+    }
+
+    /**
+     * @param name procedure name
+     * @return signature of chosen form of procedure
+     * @throws IllegalArgumentException if procedure is unknown or overloaded
+     */
+    public ProcedureSignature signature(String name)
+    {
+        ProcedureSignature signature = signatures.get(name);
+        if (signature == null)
+        {
+            signature = getForm(name).signature(registry.get(name));
+            signatures.put(name, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * @param name procedure name
+     * @return chosen form of procedure, or its default form
+     */
+    public CallForm getForm(String name)
+    {
+        CallForm form = forms.get(name);
+        return form == null ? CallForm.defaultOf(registry.get(name)) : form;
+    }
+
+    /**
+     * Routes procedure to given form.
+     *
+     * @param name procedure name
+     * @param form call form
+     * @throws IllegalArgumentException if form does not support procedure
+     */
+    public void setForm(String name, CallForm form)
+    {
+        ProcedureMetadata procedure = registry.get(name);
+        if (!form.supports(procedure))
+        {
+            throw new IllegalArgumentException(form + " does not support " + procedure);
+        }
+        forms.put(name, form);
+        signatures.remove(name);
+    }
+
+    public String getDriver()
+    {
+        return driver;
+    }
+
+    /**
+     * Calls procedure in every supported form, in turns, and routes it to the
+     * form with the lowest median time. Procedure is called
+     * {@link #DEFAULT_WARM_UP_CALLS} times before measurement, so that
+     * statements are prepared on server. Connection should be in auto-commit
+     * mode, failed forms would abort transaction.
+     *
+     * @param connection connection of dialect driver
+     * @param name procedure name
+     * @param args sample arguments
+     * @return median time of call in nanoseconds of every form giving correct
+     * output
+     * @throws SQLException if procedure fails in default form
+     */
+    public Map<CallForm, Long> probe(Connection connection, String name, Object... args) throws SQLException
+    {
+        return probe(connection, DEFAULT_WARM_UP_CALLS, DEFAULT_MEASURED_CALLS, name, args);
+    }
+
+    /**
+     * @param connection connection of dialect driver
+     * @param warmUpCalls calls of every form before measurement
+     * @param measuredCalls measured calls of every form
+     * @param name procedure name
+     * @param args sample arguments
+     * @return median time of call in nanoseconds of every form giving correct
+     * output
+     * @throws SQLException if procedure fails in default form
+     * @see #probe(Connection, String, Object...)
+     */
+    public Map<CallForm, Long> probe(Connection connection, int warmUpCalls, int measuredCalls, String name,
+            Object... args) throws SQLException
+    {
+        if (measuredCalls <= 0)
+        {
+            throw new IllegalArgumentException("Number of measured calls must be positive: " + measuredCalls);
+        }
+        ProcedureMetadata procedure = registry.get(name);
+        Map<CallForm, ProcedureSignature> candidates = new EnumMap<>(CallForm.class);
+        Map<CallForm, long[]> times = new EnumMap<>(CallForm.class);
+        try (ProcedureCaller caller = new ProcedureCaller(connection))
+        {
+            CallForm defaultForm = CallForm.defaultOf(procedure);
+            Object expected = call(caller, procedure, defaultForm.signature(procedure), args);
+            for (CallForm form : CallForm.supported(procedure))
+            {
+                ProcedureSignature signature = form.signature(procedure);
+                try
+                {
+                    if (!Objects.deepEquals(expected, call(caller, procedure, signature, args)))
+                    {
+                        continue;
+                    }
+                }
+                catch (SQLException ex)
+                {
+                    // form not accepted by driver or database
+                    continue;
+                }
+                candidates.put(form, signature);
+                times.put(form, new long[measuredCalls]);
+            }
+            for (int i = 0; i < warmUpCalls + measuredCalls; i++)
+            {
+                for (Map.Entry<CallForm, ProcedureSignature> candidate : candidates.entrySet())
+                {
+                    long start = System.nanoTime();
+                    call(caller, procedure, candidate.getValue(), args);
+                    long nanos = System.nanoTime() - start;
+                    if (i >= warmUpCalls)
+                    {
+                        times.get(candidate.getKey())[i - warmUpCalls] = nanos;
+                    }
+                }
+            }
+        }
+        Map<CallForm, Long> medians = new EnumMap<>(CallForm.class);
+        CallForm fastest = null;
+        for (Map.Entry<CallForm, long[]> time : times.entrySet())
+        {
+            long[] sorted = time.getValue();
+            Arrays.sort(sorted);
+            medians.put(time.getKey(), sorted[sorted.length / 2]);
+            if (fastest == null || sorted[sorted.length / 2] < medians.get(fastest))
+            {
+                fastest = time.getKey();
+            }
+        }
+        if (fastest != null)
+        {
+            setForm(name, fastest);
+        }
+        return Collections.unmodifiableMap(medians);
+    }
+
+    /**
+     * Loads forms from profile saved with {@link #save(Path)} or written by
+     * hand. Profile of other driver and unknown procedures are ignored.
+     *
+     * @param profile profile file
+     * @return false if profile does not exist or belongs to other driver
+     * @throws IOException
+     */
+    public boolean load(Path profile) throws IOException
+    {
+        if (!Files.exists(profile))
+        {
+            return false;
+        }
+        Properties props = PropertiesFiles.load(profile);
+        if (!driver.equals(props.getProperty("driver")))
+        {
+            return false;
+        }
+        for (String name : props.stringPropertyNames())
+        {
+            if (name.equals("driver") || !registry.find(name).isPresent())
+            {
+                continue;
+            }
+            try
+            {
+                setForm(name, CallForm.valueOf(props.getProperty(name).trim()));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                throw new IOException("Invalid form of " + name + " in " + profile, ex);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves chosen forms together with driver name. File is replaced
+     * atomically, if file system supports it.
+     *
+     * @param profile profile file
+     * @throws IOException
+     */
+    public void save(Path profile) throws IOException
+    {
+        Properties props = new Properties();
+        props.setProperty("driver", driver);
+        for (Map.Entry<String, CallForm> form : forms.entrySet())
+        {
+            props.setProperty(form.getKey(), form.getValue().name());
+        }
+        PropertiesFiles.store(profile, props, "fastest call forms of procedures");
+    }
+
+    /**
+     * @return output of single call, list of rows of set-returning procedure
+     */
+    private static Object call(ProcedureCaller caller, ProcedureMetadata procedure, ProcedureSignature signature,
+            Object[] args) throws SQLException
+    {
+        if (procedure.isSetReturning())
+        {
+            List<Object[]> rows = caller.query(signature, COLUMNS, args);
+            return rows.toArray(new Object[rows.size()][]);
+        }
+        return caller.call(signature, args);
+    }
+}
@@ -0,0 +1,181 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+
+/**
+ * Equivalent ways of calling procedure. Every form, which supports procedure
+ * shape, gives the same output from
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.ProcedureCaller}: output values in
+ * the same order, or the same rows of set-returning procedure, but they
+ * differ in cost, depending on driver and database.
+ *
+ * @author Milosz Piglas
+ */
+public enum CallForm
+{
+
+    /**
+     * <code>SELECT * FROM name(?, ...)</code>, outputs are columns of
+     * result rows.
+     */
+    SELECT_FROM
+    {
+        @Override
+        public boolean supports(ProcedureMetadata procedure)
+        {
+            return !procedure.getOutputs().isEmpty();
+        }
+
+        @Override
+        public ProcedureSignature signature(ProcedureMetadata procedure)
+        {
+            return ProcedureSignature.of(procedure.getName(), "SELECT * FROM " + procedure.getName() + "("
+                    + ProcedureMetadata.placeholders(procedure.getInParameters().size()) + ")");
+        }
+    },
+    /**
+     * <code>SELECT name(?, ...)</code>, single output is the only column.
+     */
+    SELECT_VALUE
+    {
+        @Override
+        public boolean supports(ProcedureMetadata procedure)
+        {
+            return procedure.isScalar();
+        }
+
+        @Override
+        public ProcedureSignature signature(ProcedureMetadata procedure)
+        {
+            return ProcedureSignature.of(procedure.getName(), "SELECT " + procedure.getName() + "("
+                    + ProcedureMetadata.placeholders(procedure.getInParameters().size()) + ")");
+        }
+    },
+    /**
+     * <code>{call name(?, ...)}</code>, outputs are read from returned result
+     * set.
+     */
+    CALL_RESULT_SET
+    {
+        @Override
+        public boolean supports(ProcedureMetadata procedure)
+        {
+            return true;
+        }
+
+        @Override
+        public ProcedureSignature signature(ProcedureMetadata procedure)
+        {
+            return ProcedureSignature.of(procedure.getName(), "{call " + procedure.getName() + "("
+                    + ProcedureMetadata.placeholders(procedure.getInParameters().size()) + ")}");
+        }
+    },
+    /**
+     * <code>{? = call name(?, ...)}</code> with registered return value.
+     */
+    CALL_RETURN
+    {
+        @Override
+        public boolean supports(ProcedureMetadata procedure)
+        {
+            return procedure.isScalar();
+        }
+
+        @Override
+        public ProcedureSignature signature(ProcedureMetadata procedure)
+        {
+            return ProcedureSignature.of(procedure.getName(), "{? = call " + procedure.getName() + "("
+                    + ProcedureMetadata.placeholders(procedure.getInParameters().size()) + ")}")
+                    .withOutParameter(1, procedure.getOutputs().get(0).getSqlType());
+        }
+    },
+    /**
+     * <code>{call name(?, ..., ?)}</code> with placeholders of all parameters
+     * and registered OUT parameters, like <code>modmul</code>. INOUT
+     * parameters are not supported.
+     */
+    CALL_OUT_PARAMETERS
+    {
+        @Override
+        public boolean supports(ProcedureMetadata procedure)
+        {
+            boolean out = false;
+            for (ProcedureParameter param : procedure.getParameters())
+            {
+                if (param.getMode() == ProcedureParameter.Mode.INOUT)
+                {
+                    return false;
+                }
+                out |= param.getMode() == ProcedureParameter.Mode.OUT;
+            }
+            return out && !procedure.isSetReturning();
+        }
+
+        @Override
+        public ProcedureSignature signature(ProcedureMetadata procedure)
+        {
+            List<ProcedureParameter> params = new ArrayList<>();
+            for (ProcedureParameter param : procedure.getParameters())
+            {
+                if (param.getMode() == ProcedureParameter.Mode.IN || param.getMode() == ProcedureParameter.Mode.OUT)
+                {
+                    params.add(param);
+                }
+            }
+            ProcedureSignature signature = ProcedureSignature.of(procedure.getName(), "{call " + procedure.getName()
+                    + "(" + ProcedureMetadata.placeholders(params.size()) + ")}");
+            for (int i = 0; i < params.size(); i++)
+            {
+                if (params.get(i).getMode() == ProcedureParameter.Mode.OUT)
+                {
+                    signature = signature.withOutParameter(i + 1, params.get(i).getSqlType());
+                }
+            }
+            return signature;
+        }
+    };
+
+    /**
+     * @param procedure procedure metadata
+     * @return true if procedure can be called in this form
+     */
+    public abstract boolean supports(ProcedureMetadata procedure);
+
+    /**
+     * @param procedure procedure metadata, supported by this form
+     * @return call signature
+     */
+    public abstract ProcedureSignature signature(ProcedureMetadata procedure);
+
+    /**
+     * @param procedure procedure metadata
+     * @return form of {@link ProcedureMetadata#toSignature()}
+     */
+    public static CallForm defaultOf(ProcedureMetadata procedure)
+    {
+        if (procedure.isScalar())
+        {
+            return CALL_RETURN;
+        }
+        return procedure.getOutputs().isEmpty() ? CALL_RESULT_SET : SELECT_FROM;
+    }
+
+    /**
+     * @param procedure procedure metadata
+     * @return forms supporting procedure
+     */
+    public static List<CallForm> supported(ProcedureMetadata procedure)
+    {
+        List<CallForm> forms = new ArrayList<>();
+        for (CallForm form : values())
+        {
+            if (form.supports(procedure))
+            {
+                forms.add(form);
+            }
+        }
+        return forms;
+    }
+}
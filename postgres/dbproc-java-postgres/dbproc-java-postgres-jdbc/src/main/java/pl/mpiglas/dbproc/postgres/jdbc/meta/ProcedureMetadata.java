@@ -0,0 +1,148 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+
+/**
+ * Parameters and result shape of single database procedure.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureMetadata
+{
+
+    private final String name;
+    private final List<ProcedureParameter> parameters;
+    private final boolean setReturning;
+
+    public ProcedureMetadata(String name, List<ProcedureParameter> parameters, boolean setReturning)
+    {
+        this.name = Objects.requireNonNull(name, "name");
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        this.setReturning = setReturning;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return all parameters and result columns in order reported by database
+     */
+    public List<ProcedureParameter> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * @return parameters, which have to be bound before call
+     */
+    public List<ProcedureParameter> getInParameters()
+    {
+        return parameters.stream().filter(p -> p.getMode().isInput()).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns values produced by procedure: OUT parameters if procedure has
+     * any, columns of returned composite type or single return value.
+     *
+     * @return output columns, empty for procedures returning nothing
+     */
+    public List<ProcedureParameter> getOutputs()
+    {
+        List<ProcedureParameter> outs = parameters.stream()
+                .filter(p -> p.getMode() == ProcedureParameter.Mode.OUT || p.getMode() == ProcedureParameter.Mode.INOUT)
+                .collect(Collectors.toList());
+        if (outs.isEmpty())
+        {
+            outs = parameters.stream()
+                    .filter(p -> p.getMode() == ProcedureParameter.Mode.RESULT)
+                    .collect(Collectors.toList());
+        }
+        if (outs.isEmpty())
+        {
+            outs = parameters.stream()
+                    .filter(p -> p.getMode() == ProcedureParameter.Mode.RETURN)
+                    .collect(Collectors.toList());
+        }
+        return outs;
+    }
+
+    /**
+     * @return true if procedure returns set of rows, like <code>gen_rows</code>
+     */
+    public boolean isSetReturning()
+    {
+        return setReturning;
+    }
+
+    /**
+     * @return true if procedure returns single non-set value, either as return
+     * value or single OUT parameter
+     */
+    public boolean isScalar()
+    {
+        return !setReturning && getOutputs().size() == 1;
+    }
+
+    /**
+     * Builds call signature suited to procedure shape. Scalar procedures are
+     * called with <code>{? = call name(?, ...)}</code> and registered return
+     * value, procedures returning rows or several OUT values with
+     * <code>SELECT * FROM name(?, ...)</code>, so all outputs are read from
+     * single result row.
+     *
+     * @return call signature
+     */
+    public ProcedureSignature toSignature()
+    {
+        String args = placeholders(getInParameters().size());
+        if (isScalar())
+        {
+            return ProcedureSignature.of(name, "{? = call " + name + "(" + args + ")}")
+                    .withOutParameter(1, getOutputs().get(0).getSqlType());
+        }
+        if (getOutputs().isEmpty())
+        {
+            return ProcedureSignature.of(name, "{call " + name + "(" + args + ")}");
+        }
+        return ProcedureSignature.of(name, "SELECT * FROM " + name + "(" + args + ")");
+    }
+
+    static String placeholders(int count)
+    {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(name, parameters, setReturning);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass())
+        {
+            return false;
+        }
+        final ProcedureMetadata other = (ProcedureMetadata) obj;
+        return setReturning == other.setReturning && name.equals(other.name) && parameters.equals(other.parameters);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ProcedureMetadata{" + "name=" + name + ", parameters=" + parameters + ", setReturning=" + setReturning + '}';
+    }
+}
@@ -0,0 +1,158 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.math.BigDecimal;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Objects;
+
+/**
+ * Parameter or result column of procedure, as reported by
+ * {@link DatabaseMetaData#getProcedureColumns}.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureParameter
+{
+
+    /**
+     * Role of parameter in procedure call.
+     */
+    public enum Mode
+    {
+        IN, INOUT, OUT, RETURN, RESULT;
+
+        static Mode fromColumnType(short columnType)
+        {
+            switch (columnType)
+            {
+                case DatabaseMetaData.procedureColumnIn:
+                    return IN;
+                case DatabaseMetaData.procedureColumnInOut:
+                    return INOUT;
+                case DatabaseMetaData.procedureColumnOut:
+                    return OUT;
+                case DatabaseMetaData.procedureColumnReturn:
+                    return RETURN;
+                case DatabaseMetaData.procedureColumnResult:
+                    return RESULT;
+                default:
+                    throw new IllegalArgumentException("Unknown procedure column type " + columnType);
+            }
+        }
+
+        public boolean isInput()
+        {
+            return this == IN || this == INOUT;
+        }
+    }
+
+    private final String name;
+    private final Mode mode;
+    private final int sqlType;
+    private final String typeName;
+
+    /**
+     * @param name parameter name
+     * @param mode parameter mode
+     * @param sqlType type from {@link java.sql.Types}
+     * @param typeName database type name, e.g. <code>int4</code>
+     */
+    public ProcedureParameter(String name, Mode mode, int sqlType, String typeName)
+    {
+        this.name = Objects.requireNonNull(name, "name");
+        this.mode = Objects.requireNonNull(mode, "mode");
+        this.sqlType = sqlType;
+        this.typeName = Objects.requireNonNull(typeName, "typeName");
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    public int getSqlType()
+    {
+        return sqlType;
+    }
+
+    public String getTypeName()
+    {
+        return typeName;
+    }
+
+    /**
+     * @return Java class of parameter values, {@link Object} for types without
+     * standard mapping
+     */
+    public Class<?> getJavaType()
+    {
+        switch (sqlType)
+        {
+            case Types.INTEGER:
+                return Integer.class;
+            case Types.BIGINT:
+                return Long.class;
+            case Types.SMALLINT:
+                return Short.class;
+            case Types.REAL:
+                return Float.class;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+                return Double.class;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return BigDecimal.class;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return Boolean.class;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return String.class;
+            case Types.DATE:
+                return Date.class;
+            case Types.TIME:
+                return Time.class;
+            case Types.TIMESTAMP:
+                return Timestamp.class;
+            default:
+                return Object.class;
+        }
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(name, mode, sqlType, typeName);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass())
+        {
+            return false;
+        }
+        final ProcedureParameter other = (ProcedureParameter) obj;
+        return sqlType == other.sqlType && mode == other.mode
+                && name.equals(other.name) && typeName.equals(other.typeName);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ProcedureParameter{" + "name=" + name + ", mode=" + mode + ", sqlType=" + sqlType + ", typeName=" + typeName + '}';
+    }
+}
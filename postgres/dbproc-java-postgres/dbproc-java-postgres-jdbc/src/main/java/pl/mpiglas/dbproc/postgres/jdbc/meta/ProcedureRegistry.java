@@ -0,0 +1,280 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+
+/**
+ * Metadata of procedures read once from {@link DatabaseMetaData} or from
+ * snapshot file. Registry is immutable and can be shared between threads.
+ *
+ * <pre>
+ * ProcedureRegistry registry = ProcedureRegistry.introspect(connection, "public");
+ * registry.save(Paths.get("procedures.properties"));
+ * ProcedureSignature numSum = registry.signature("num_sum");
+ * </pre>
+ *
+ * Overloaded procedures are not supported; their names are reported as
+ * ambiguous.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureRegistry
+{
+
+    private static final String SET_RETURNING_SQL = "SELECT p.proname FROM pg_catalog.pg_proc p "
+            + "JOIN pg_catalog.pg_namespace n ON n.oid = p.pronamespace WHERE n.nspname = ? AND p.proretset";
+
+    private final Map<String, ProcedureMetadata> procedures;
+    private final Map<String, ProcedureSignature> signatures;
+    private final Set<String> ambiguous;
+
+    public ProcedureRegistry(Collection<ProcedureMetadata> procedures)
+    {
+        this(procedures, Collections.emptySet());
+    }
+
+    private ProcedureRegistry(Collection<ProcedureMetadata> procedures, Set<String> ambiguous)
+    {
+        Map<String, ProcedureMetadata> byName = new TreeMap<>();
+        Map<String, ProcedureSignature> calls = new TreeMap<>();
+        for (ProcedureMetadata procedure : procedures)
+        {
+            byName.put(procedure.getName(), procedure);
+            calls.put(procedure.getName(), procedure.toSignature());
+        }
+        this.procedures = Collections.unmodifiableMap(byName);
+        this.signatures = Collections.unmodifiableMap(calls);
+        this.ambiguous = Collections.unmodifiableSet(ambiguous);
+    }
+
+    /**
+     * Reads metadata of all procedures in schema. Needs two round trips
+     * regardless of number of procedures.
+     *
+     * @param connection database connection
+     * @param schema schema name, e.g. <code>public</code>
+     * @return registry
+     * @throws SQLException
+     */
+    public static ProcedureRegistry introspect(Connection connection, String schema) throws SQLException
+    {
+        Set<String> setReturning = new HashSet<>();
+        try (PreparedStatement ps = connection.prepareStatement(SET_RETURNING_SQL))
+        {
+            ps.setString(1, schema);
+            try (ResultSet resultSet = ps.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    setReturning.add(resultSet.getString(1));
+                }
+            }
+        }
+
+        Map<String, String> specificNames = new LinkedHashMap<>();
+        Map<String, List<ProcedureParameter>> parameters = new LinkedHashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        try (ResultSet columns = connection.getMetaData().getProcedureColumns(null, schema, "%", "%"))
+        {
+            while (columns.next())
+            {
+                String name = columns.getString("PROCEDURE_NAME");
+                String specificName = columns.getString("SPECIFIC_NAME");
+                String known = specificNames.putIfAbsent(name, specificName);
+                if (known != null && !known.equals(specificName))
+                {
+                    ambiguous.add(name);
+                    continue;
+                }
+                parameters.computeIfAbsent(name, n -> new ArrayList<>()).add(new ProcedureParameter(
+                        columns.getString("COLUMN_NAME"),
+                        ProcedureParameter.Mode.fromColumnType(columns.getShort("COLUMN_TYPE")),
+                        columns.getInt("DATA_TYPE"),
+                        columns.getString("TYPE_NAME")));
+            }
+        }
+
+        List<ProcedureMetadata> procedures = new ArrayList<>();
+        for (Map.Entry<String, List<ProcedureParameter>> entry : parameters.entrySet())
+        {
+            if (!ambiguous.contains(entry.getKey()))
+            {
+                procedures.add(new ProcedureMetadata(entry.getKey(), entry.getValue(), setReturning.contains(entry.getKey())));
+            }
+        }
+        return new ProcedureRegistry(procedures, ambiguous);
+    }
+
+    /**
+     * Loads registry from snapshot saved with {@link #save(Path)}.
+     *
+     * @param snapshot snapshot file
+     * @return registry
+     * @throws IOException
+     */
+    public static ProcedureRegistry load(Path snapshot) throws IOException
+    {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8))
+        {
+            props.load(reader);
+        }
+        List<ProcedureMetadata> procedures = new ArrayList<>();
+        for (String key : props.stringPropertyNames())
+        {
+            if (key.endsWith(".parameters"))
+            {
+                String name = key.substring(0, key.length() - ".parameters".length());
+                boolean setReturning = Boolean.parseBoolean(props.getProperty(name + ".set"));
+                procedures.add(new ProcedureMetadata(name, parseParameters(props.getProperty(key)), setReturning));
+            }
+        }
+        Set<String> ambiguous = new HashSet<>();
+        String ambiguousNames = props.getProperty("ambiguous", "");
+        if (!ambiguousNames.isEmpty())
+        {
+            Collections.addAll(ambiguous, ambiguousNames.split(","));
+        }
+        return new ProcedureRegistry(procedures, ambiguous);
+    }
+
+    /**
+     * Saves registry to snapshot file, which can be loaded at startup instead
+     * of introspecting database.
+     *
+     * @param snapshot snapshot file
+     * @throws IOException
+     */
+    public void save(Path snapshot) throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter(snapshot, StandardCharsets.UTF_8))
+        {
+            writer.write("# procedure metadata snapshot");
+            writer.newLine();
+            if (!ambiguous.isEmpty())
+            {
+                writer.write("ambiguous=" + String.join(",", new TreeSet<>(ambiguous)));
+                writer.newLine();
+            }
+            for (ProcedureMetadata procedure : procedures.values())
+            {
+                writer.write(procedure.getName() + ".set=" + procedure.isSetReturning());
+                writer.newLine();
+                writer.write(procedure.getName() + ".parameters=" + formatParameters(procedure.getParameters()));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @param name procedure name
+     * @return metadata of procedure, empty if procedure is unknown
+     * @throws IllegalArgumentException if procedure is overloaded
+     */
+    public Optional<ProcedureMetadata> find(String name)
+    {
+        checkAmbiguous(name);
+        return Optional.ofNullable(procedures.get(name));
+    }
+
+    /**
+     * @param name procedure name
+     * @return metadata of procedure
+     * @throws IllegalArgumentException if procedure is unknown or overloaded
+     */
+    public ProcedureMetadata get(String name)
+    {
+        return find(name).orElseThrow(() -> new IllegalArgumentException("Unknown procedure " + name));
+    }
+
+    /**
+     * @param name procedure name
+     * @return call signature generated for procedure
+     * @throws IllegalArgumentException if procedure is unknown or overloaded
+     */
+    public ProcedureSignature signature(String name)
+    {
+        checkAmbiguous(name);
+        ProcedureSignature signature = signatures.get(name);
+        if (signature == null)
+        {
+            throw new IllegalArgumentException("Unknown procedure " + name);
+        }
+        return signature;
+    }
+
+    public Collection<ProcedureMetadata> getProcedures()
+    {
+        return procedures.values();
+    }
+
+    public Set<String> getAmbiguousNames()
+    {
+        return ambiguous;
+    }
+
+    private void checkAmbiguous(String name)
+    {
+        if (ambiguous.contains(name))
+        {
+            throw new IllegalArgumentException("Procedure " + name + " is overloaded");
+        }
+    }
+
+    private static String formatParameters(List<ProcedureParameter> parameters)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (ProcedureParameter param : parameters)
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(param.getName()).append(':').append(param.getMode()).append(':')
+                    .append(param.getSqlType()).append(':').append(param.getTypeName());
+        }
+        return builder.toString();
+    }
+
+    private static List<ProcedureParameter> parseParameters(String value)
+    {
+        List<ProcedureParameter> parameters = new ArrayList<>();
+        if (value.isEmpty())
+        {
+            return parameters;
+        }
+        for (String param : value.split(","))
+        {
+            String[] parts = param.split(":", -1);
+            if (parts.length != 4)
+            {
+                throw new IllegalArgumentException("Malformed parameter " + param);
+            }
+            parameters.add(new ProcedureParameter(parts[0], ProcedureParameter.Mode.valueOf(parts[1]),
+                    Integer.parseInt(parts[2]), parts[3]));
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,124 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers statistics of each procedure as MXBean named
+ * <code>pl.mpiglas.dbproc:type=Procedure,name="gen_rows"</code>. Registered
+ * beans read live statistics, so export has to be repeated only to register
+ * procedures called for the first time and after statistics were reset.
+ * Every export takes statistics of all procedures: beans of replaced
+ * statistics are registered again and beans of procedures missing from
+ * export, e.g. after {@link ProcedureMetrics#reset()}, are unregistered.
+ *
+ * @author Milosz Piglas
+ */
+public class JmxExporter implements MetricsExporter, AutoCloseable
+{
+
+    public static final String DEFAULT_DOMAIN = "pl.mpiglas.dbproc";
+
+    private final MBeanServer server;
+    private final String domain;
+    private final ConcurrentMap<ObjectName, ProcedureStats> registered = new ConcurrentHashMap<>();
+
+    public JmxExporter()
+    {
+        this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+    }
+
+    /**
+     * @param server MBean server
+     * @param domain domain of bean names
+     */
+    public JmxExporter(MBeanServer server, String domain)
+    {
+        this.server = server;
+        this.domain = domain;
+    }
+
+    @Override
+    public synchronized void export(Collection<ProcedureStats> stats) throws IOException
+    {
+        Set<ObjectName> exported = new HashSet<>();
+        for (ProcedureStats procedure : stats)
+        {
+            try
+            {
+                ObjectName name = objectName(procedure.getProcedure());
+                exported.add(name);
+                ProcedureStats current = registered.get(name);
+                if (current != procedure)
+                {
+                    if (current != null)
+                    {
+                        unregister(name);
+                    }
+                    server.registerMBean(procedure, name);
+                    registered.put(name, procedure);
+                }
+            }
+            catch (InstanceAlreadyExistsException ex)
+            {
+                throw new IOException("Procedure " + procedure.getProcedure() + " is already registered in "
+                        + domain + " by another exporter", ex);
+            }
+            catch (JMException ex)
+            {
+                throw new IOException("Cannot register statistics of " + procedure.getProcedure(), ex);
+            }
+        }
+        for (ObjectName name : registered.keySet())
+        {
+            if (!exported.contains(name))
+            {
+                unregister(name);
+            }
+        }
+    }
+
+    /**
+     * @param procedure procedure name
+     * @return name of procedure bean
+     * @throws JMException if name is malformed
+     */
+    public ObjectName objectName(String procedure) throws JMException
+    {
+        return new ObjectName(domain + ":type=Procedure,name=" + ObjectName.quote(procedure));
+    }
+
+    /**
+     * Unregisters all beans registered by exporter.
+     */
+    @Override
+    public synchronized void close()
+    {
+        for (ObjectName name : registered.keySet())
+        {
+            unregister(name);
+        }
+    }
+
+    private void unregister(ObjectName name)
+    {
+        try
+        {
+            server.unregisterMBean(name);
+        }
+        catch (JMException ex)
+        {
+            // already unregistered
+        }
+        registered.remove(name);
+    }
+}
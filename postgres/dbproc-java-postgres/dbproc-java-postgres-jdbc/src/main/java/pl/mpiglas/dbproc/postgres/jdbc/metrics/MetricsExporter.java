@@ -0,0 +1,17 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Publishes procedure statistics, see {@link TextExporter} and
+ * {@link JmxExporter}.
+ *
+ * @author Milosz Piglas
+ */
+@FunctionalInterface
+public interface MetricsExporter
+{
+
+    void export(Collection<ProcedureStats> stats) throws IOException;
+}
@@ -0,0 +1,224 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Single procedure call observed by {@link ProcedureListener}. Call is
+ * started before statement is executed, rows are counted while read and call
+ * is finished when the last row was read or when it failed.
+ *
+ * Calls, which return no rows, like procedures with OUT parameters, have time
+ * to first row equal to duration.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureCall
+{
+
+    private static final Pattern PROCEDURE_NAME = Pattern.compile("(?i)\\b(?:from|call|select)\\s+([\\w.\"]+)\\s*\\(");
+
+    private final ProcedureListener listener;
+    private final String procedure;
+    private final Object[] args;
+    private final int fetchSize;
+    private final long startNanos;
+    private long firstRowNanos = -1;
+    private long endNanos = -1;
+    private long rows;
+    private Throwable error;
+
+    private ProcedureCall(ProcedureListener listener, String procedure, Object[] args, int fetchSize)
+    {
+        this.listener = listener;
+        this.procedure = procedure;
+        this.args = args;
+        this.fetchSize = fetchSize;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts call and notifies listener.
+     *
+     * @param listener listener of calls
+     * @param procedure procedure name
+     * @param args procedure arguments, not copied
+     * @return started call
+     */
+    public static ProcedureCall start(ProcedureListener listener, String procedure, Object[] args)
+    {
+        return start(listener, procedure, args, 0);
+    }
+
+    /**
+     * Starts call reading rows in batches and notifies listener.
+     *
+     * @param listener listener of calls
+     * @param procedure procedure name
+     * @param args procedure arguments, not copied
+     * @param fetchSize number of rows fetched in single round trip, 0 if all
+     * rows are fetched at once
+     * @return started call
+     */
+    public static ProcedureCall start(ProcedureListener listener, String procedure, Object[] args, int fetchSize)
+    {
+        ProcedureCall call = new ProcedureCall(listener, procedure, args, fetchSize);
+        listener.callStarted(call);
+        return call;
+    }
+
+    /**
+     * Marks row as read.
+     */
+    public void rowRead()
+    {
+        if (rows++ == 0)
+        {
+            firstRowNanos = System.nanoTime();
+            listener.firstRowRead(this);
+        }
+    }
+
+    /**
+     * Marks rows read at once, e.g. by JPA provider.
+     *
+     * @param count number of rows
+     */
+    public void rowsRead(long count)
+    {
+        if (count <= 0)
+        {
+            return;
+        }
+        rows += count;
+        if (rows == count)
+        {
+            firstRowNanos = System.nanoTime();
+            listener.firstRowRead(this);
+        }
+    }
+
+    /**
+     * Finishes call and notifies listener, which it was started with.
+     * Subsequent calls are ignored.
+     */
+    public void finish()
+    {
+        if (endNanos >= 0)
+        {
+            return;
+        }
+        endNanos = System.nanoTime();
+        if (firstRowNanos < 0)
+        {
+            firstRowNanos = endNanos;
+        }
+        listener.callCompleted(this);
+    }
+
+    /**
+     * Finishes call with error and notifies listener, which it was started
+     * with.
+     *
+     * @param cause failure
+     */
+    public void fail(Throwable cause)
+    {
+        if (endNanos < 0)
+        {
+            error = cause;
+        }
+        finish();
+    }
+
+    public String getProcedure()
+    {
+        return procedure;
+    }
+
+    /**
+     * @return arguments of call, array must not be modified
+     */
+    public Object[] getArgs()
+    {
+        return args;
+    }
+
+    /**
+     * @return number of rows fetched in single round trip, 0 if all rows are
+     * fetched at once
+     */
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    /**
+     * @return value of {@link System#nanoTime()} when call started
+     */
+    public long getStartNanos()
+    {
+        return startNanos;
+    }
+
+    /**
+     * @return nanoseconds from start to the first row, -1 if call is not
+     * finished
+     */
+    public long getTimeToFirstRow()
+    {
+        return firstRowNanos < 0 ? -1 : firstRowNanos - startNanos;
+    }
+
+    /**
+     * @return nanoseconds from start to the last row, -1 if call is not
+     * finished
+     */
+    public long getDuration()
+    {
+        return endNanos < 0 ? -1 : endNanos - startNanos;
+    }
+
+    public long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * @return failure of call, null if call succeeded
+     */
+    public Throwable getError()
+    {
+        return error;
+    }
+
+    public boolean isFailed()
+    {
+        return error != null;
+    }
+
+    public boolean isFinished()
+    {
+        return endNanos >= 0;
+    }
+
+    /**
+     * Finds name of called procedure in SQL, e.g. <code>gen_rows</code> in
+     * <code>SELECT * FROM gen_rows(?)</code> or <code>{call gen_rows(?)}</code>.
+     *
+     * @param sql procedure call
+     * @return procedure name or SQL itself if name was not found
+     */
+    public static String procedureName(String sql)
+    {
+        Matcher matcher = PROCEDURE_NAME.matcher(sql);
+        return matcher.find() ? matcher.group(1) : sql;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ProcedureCall{" + procedure + ", rows=" + rows + ", duration=" + getDuration()
+                + (error == null ? "" : ", error=" + error) + '}';
+    }
+}
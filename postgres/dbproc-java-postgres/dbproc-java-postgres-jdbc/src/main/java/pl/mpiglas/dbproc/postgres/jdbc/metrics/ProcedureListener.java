@@ -0,0 +1,84 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Listener of procedure calls, notified by {@link pl.mpiglas.dbproc.postgres.jdbc.ProcedureCaller},
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader} and JPA and
+ * Cayenne helpers. Listener is called on thread, which calls procedure, so it
+ * must be fast and thread safe.
+ *
+ * @author Milosz Piglas
+ */
+@FunctionalInterface
+public interface ProcedureListener
+{
+
+    ProcedureListener NONE = call ->
+    {
+    };
+
+    /**
+     * Called before statement is executed.
+     *
+     * @param call started call
+     */
+    default void callStarted(ProcedureCall call)
+    {
+    }
+
+    /**
+     * Called when the first row was read.
+     *
+     * @param call running call
+     */
+    default void firstRowRead(ProcedureCall call)
+    {
+    }
+
+    /**
+     * Called when the last row was read or call failed.
+     *
+     * @param call finished call
+     */
+    void callCompleted(ProcedureCall call);
+
+    /**
+     * @param listeners listeners notified in given order
+     * @return listener notifying all of given listeners
+     */
+    static ProcedureListener of(ProcedureListener... listeners)
+    {
+        List<ProcedureListener> all = Arrays.asList(listeners.clone());
+        return new ProcedureListener()
+        {
+            @Override
+            public void callStarted(ProcedureCall call)
+            {
+                for (ProcedureListener listener : all)
+                {
+                    listener.callStarted(call);
+                }
+            }
+
+            @Override
+            public void firstRowRead(ProcedureCall call)
+            {
+                for (ProcedureListener listener : all)
+                {
+                    listener.firstRowRead(call);
+                }
+            }
+
+            @Override
+            public void callCompleted(ProcedureCall call)
+            {
+                for (ProcedureListener listener : all)
+                {
+                    listener.callCompleted(call);
+                }
+            }
+        };
+    }
+}
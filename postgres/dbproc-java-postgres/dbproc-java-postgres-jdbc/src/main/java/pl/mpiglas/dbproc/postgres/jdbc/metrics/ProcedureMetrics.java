@@ -0,0 +1,99 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects statistics of procedure calls per procedure name: number of calls,
+ * rows and errors and histograms of time to the first and to the last row.
+ *
+ * <pre>
+ * ProcedureMetrics metrics = new ProcedureMetrics();
+ * caller.setListener(metrics);
+ * ...
+ * metrics.export(new TextExporter(System.out));
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureMetrics implements ProcedureListener
+{
+
+    public static final long DEFAULT_HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+    private final long highestTrackableNanos;
+    private final int significantDigits;
+    private final ConcurrentMap<String, ProcedureStats> stats = new ConcurrentHashMap<>();
+
+    public ProcedureMetrics()
+    {
+        this(DEFAULT_HIGHEST_TRACKABLE_NANOS, DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param highestTrackableNanos highest recorded latency
+     * @param significantDigits precision of histograms, 0 to 5
+     */
+    public ProcedureMetrics(long highestTrackableNanos, int significantDigits)
+    {
+        this.highestTrackableNanos = highestTrackableNanos;
+        this.significantDigits = significantDigits;
+    }
+
+    @Override
+    public void callCompleted(ProcedureCall call)
+    {
+        ProcedureStats procedure = stats.get(call.getProcedure());
+        if (procedure == null)
+        {
+            procedure = stats.computeIfAbsent(call.getProcedure(),
+                    name -> new ProcedureStats(name, highestTrackableNanos, significantDigits));
+        }
+        procedure.record(call);
+    }
+
+    /**
+     * @param procedure procedure name
+     * @return statistics of procedure or null if it was not called
+     */
+    public ProcedureStats get(String procedure)
+    {
+        return stats.get(procedure);
+    }
+
+    /**
+     * @return statistics of called procedures, ordered by name
+     */
+    public List<ProcedureStats> getAll()
+    {
+        List<ProcedureStats> all = new ArrayList<>(stats.values());
+        all.sort(Comparator.comparing(ProcedureStats::getProcedure));
+        return all;
+    }
+
+    /**
+     * Exports statistics of all called procedures.
+     *
+     * @param exporter exporter
+     * @throws IOException
+     */
+    public void export(MetricsExporter exporter) throws IOException
+    {
+        exporter.export(getAll());
+    }
+
+    /**
+     * Drops all statistics. Statistics exported to {@link JmxExporter} are
+     * replaced on next export.
+     */
+    public void reset()
+    {
+        stats.clear();
+    }
+}
@@ -0,0 +1,171 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Statistics of single procedure. Calls are recorded without locks: counters
+ * are {@link LongAdder}s and latencies are recorded to HdrHistogram
+ * {@link Recorder}s, which are drained to cumulative histograms when
+ * statistics are read.
+ *
+ * Latencies of failed calls are not recorded, so that fast failures do not
+ * hide slow calls.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureStats implements ProcedureStatsMXBean
+{
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String procedure;
+    private final long highestTrackableNanos;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Recorder firstRow;
+    private final Recorder lastRow;
+    private final Histogram firstRowTotal;
+    private final Histogram lastRowTotal;
+    private Histogram firstRowInterval;
+    private Histogram lastRowInterval;
+
+    /**
+     * @param procedure procedure name
+     * @param highestTrackableNanos highest recorded latency, longer latencies
+     * are recorded as this value
+     * @param significantDigits precision of histograms, 0 to 5
+     */
+    public ProcedureStats(String procedure, long highestTrackableNanos, int significantDigits)
+    {
+        this.procedure = procedure;
+        this.highestTrackableNanos = highestTrackableNanos;
+        this.firstRow = new Recorder(highestTrackableNanos, significantDigits);
+        this.lastRow = new Recorder(highestTrackableNanos, significantDigits);
+        this.firstRowTotal = new Histogram(highestTrackableNanos, significantDigits);
+        this.lastRowTotal = new Histogram(highestTrackableNanos, significantDigits);
+    }
+
+    /**
+     * Records finished call.
+     *
+     * @param call finished call
+     */
+    public void record(ProcedureCall call)
+    {
+        calls.increment();
+        rows.add(call.getRows());
+        if (call.isFailed())
+        {
+            errors.increment();
+            return;
+        }
+        firstRow.recordValue(clamp(call.getTimeToFirstRow()));
+        lastRow.recordValue(clamp(call.getDuration()));
+    }
+
+    /**
+     * @return copy of histogram of nanoseconds to the first row
+     */
+    public synchronized Histogram getFirstRowHistogram()
+    {
+        firstRowInterval = firstRow.getIntervalHistogram(firstRowInterval);
+        firstRowTotal.add(firstRowInterval);
+        return firstRowTotal.copy();
+    }
+
+    /**
+     * @return copy of histogram of nanoseconds to the last row
+     */
+    public synchronized Histogram getLastRowHistogram()
+    {
+        lastRowInterval = lastRow.getIntervalHistogram(lastRowInterval);
+        lastRowTotal.add(lastRowInterval);
+        return lastRowTotal.copy();
+    }
+
+    @Override
+    public String getProcedure()
+    {
+        return procedure;
+    }
+
+    @Override
+    public long getCalls()
+    {
+        return calls.sum();
+    }
+
+    @Override
+    public long getRows()
+    {
+        return rows.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public double getFirstRowMeanMillis()
+    {
+        return getFirstRowHistogram().getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getFirstRowP50Millis()
+    {
+        return millis(getFirstRowHistogram(), 50.0);
+    }
+
+    @Override
+    public double getFirstRowP99Millis()
+    {
+        return millis(getFirstRowHistogram(), 99.0);
+    }
+
+    @Override
+    public double getLastRowMeanMillis()
+    {
+        return getLastRowHistogram().getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastRowP50Millis()
+    {
+        return millis(getLastRowHistogram(), 50.0);
+    }
+
+    @Override
+    public double getLastRowP99Millis()
+    {
+        return millis(getLastRowHistogram(), 99.0);
+    }
+
+    @Override
+    public double getLastRowP999Millis()
+    {
+        return millis(getLastRowHistogram(), 99.9);
+    }
+
+    @Override
+    public double getLastRowMaxMillis()
+    {
+        return getLastRowHistogram().getMaxValue() / NANOS_PER_MILLI;
+    }
+
+    static double millis(Histogram histogram, double percentile)
+    {
+        return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+    }
+
+    private long clamp(long nanos)
+    {
+        return Math.min(Math.max(nanos, 0), highestTrackableNanos);
+    }
+}
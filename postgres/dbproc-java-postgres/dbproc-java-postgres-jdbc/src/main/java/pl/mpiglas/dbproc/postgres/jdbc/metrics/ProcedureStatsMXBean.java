@@ -0,0 +1,35 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+/**
+ * Statistics of single procedure exposed by {@link JmxExporter}. Latencies are
+ * in milliseconds.
+ *
+ * @author Milosz Piglas
+ */
+public interface ProcedureStatsMXBean
+{
+
+    String getProcedure();
+
+    long getCalls();
+
+    long getRows();
+
+    long getErrors();
+
+    double getFirstRowMeanMillis();
+
+    double getFirstRowP50Millis();
+
+    double getFirstRowP99Millis();
+
+    double getLastRowMeanMillis();
+
+    double getLastRowP50Millis();
+
+    double getLastRowP99Millis();
+
+    double getLastRowP999Millis();
+
+    double getLastRowMaxMillis();
+}
@@ -0,0 +1,52 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Locale;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Writes statistics as text table, one procedure per line. Latencies are in
+ * milliseconds.
+ *
+ * <pre>
+ * procedure      calls       rows  errors  first p50  first p99   last p50   last p99  last p999   last max
+ * gen_rows         120  120000000       0      0.412      1.035    812.122    990.511   1003.487   1003.487
+ * </pre>
+ *
+ * @author Milosz Piglas
+ */
+public class TextExporter implements MetricsExporter
+{
+
+    private static final String HEADER_FORMAT = "%-20s %10s %12s %7s %10s %10s %10s %10s %10s %10s%n";
+    private static final String ROW_FORMAT = "%-20s %10d %12d %7d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n";
+
+    private final Appendable out;
+
+    /**
+     * @param out target of text, e.g. {@link System#out} or
+     * {@link java.io.StringWriter}
+     */
+    public TextExporter(Appendable out)
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void export(Collection<ProcedureStats> stats) throws IOException
+    {
+        out.append(String.format(Locale.ROOT, HEADER_FORMAT, "procedure", "calls", "rows", "errors",
+                "first p50", "first p99", "last p50", "last p99", "last p999", "last max"));
+        for (ProcedureStats procedure : stats)
+        {
+            Histogram firstRow = procedure.getFirstRowHistogram();
+            Histogram lastRow = procedure.getLastRowHistogram();
+            out.append(String.format(Locale.ROOT, ROW_FORMAT, procedure.getProcedure(), procedure.getCalls(),
+                    procedure.getRows(), procedure.getErrors(),
+                    ProcedureStats.millis(firstRow, 50.0), ProcedureStats.millis(firstRow, 99.0),
+                    ProcedureStats.millis(lastRow, 50.0), ProcedureStats.millis(lastRow, 99.0),
+                    ProcedureStats.millis(lastRow, 99.9), ProcedureStats.millis(lastRow, 100.0)));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection held longer than leak threshold. Stack trace of this exception
+ * shows where connection was taken from pool.
+ *
+ * @author Milosz Piglas
+ */
+public class ConnectionLeak extends Exception
+{
+
+    private static final long serialVersionUID = 1L;
+
+    private final long heldNanos;
+    private final String thread;
+
+    ConnectionLeak(StackTraceElement[] checkout, String thread, long heldNanos)
+    {
+        super("Connection taken by " + thread + " not returned for " + TimeUnit.NANOSECONDS.toMillis(heldNanos)
+                + " ms");
+        this.heldNanos = heldNanos;
+        this.thread = thread;
+        setStackTrace(checkout);
+    }
+
+    public long getHeld(TimeUnit unit)
+    {
+        return unit.convert(heldNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return name of thread, which took connection
+     */
+    public String getThread()
+    {
+        return thread;
+    }
+}
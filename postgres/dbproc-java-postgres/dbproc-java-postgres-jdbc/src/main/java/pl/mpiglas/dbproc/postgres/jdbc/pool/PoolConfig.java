@@ -0,0 +1,263 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Settings of {@link ProcedureConnectionPool}. Settings are immutable, each
+ * <code>with</code> method returns modified copy.
+ *
+ * <pre>
+ * PoolConfig config = PoolConfig.of(url, user, password)
+ *         .withMaxSize(20)
+ *         .withMinIdle(4)
+ *         .withLeakThreshold(30, TimeUnit.SECONDS)
+ *         .withWarmUp(ProcedureRegistry.introspect(connection, "public"));
+ * </pre>
+ *
+ * Driver property <code>prepareThreshold</code> defaults to 1, so calls
+ * executed once during warm-up are kept as server side prepared statements.
+ *
+ * @author Milosz Piglas
+ */
+public final class PoolConfig
+{
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final int DEFAULT_MIN_IDLE = 0;
+    public static final long DEFAULT_CHECKOUT_TIMEOUT_MILLIS = 30000;
+    public static final String DEFAULT_PREPARE_THRESHOLD = "1";
+
+    private static final Logger LOG = Logger.getLogger(ProcedureConnectionPool.class.getName());
+    private static final Consumer<ConnectionLeak> LOG_LEAK = leak -> LOG.log(Level.WARNING, leak.getMessage(), leak);
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final int minIdle;
+    private final long checkoutTimeoutNanos;
+    private final long leakThresholdNanos;
+    private final Consumer<ConnectionLeak> leakHandler;
+    private final List<ProcedureSignature> warmUp;
+
+    private PoolConfig(String url, Properties properties, int maxSize, int minIdle, long checkoutTimeoutNanos,
+            long leakThresholdNanos, Consumer<ConnectionLeak> leakHandler, List<ProcedureSignature> warmUp)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        if (minIdle < 0 || minIdle > maxSize)
+        {
+            throw new IllegalArgumentException("Minimal number of idle connections must be between 0 and "
+                    + maxSize + ": " + minIdle);
+        }
+        this.url = Objects.requireNonNull(url, "url");
+        this.properties = properties;
+        this.maxSize = maxSize;
+        this.minIdle = minIdle;
+        this.checkoutTimeoutNanos = checkoutTimeoutNanos;
+        this.leakThresholdNanos = leakThresholdNanos;
+        this.leakHandler = Objects.requireNonNull(leakHandler, "leakHandler");
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @param url JDBC URL
+     * @param user database user
+     * @param password user password
+     * @return default settings
+     */
+    public static PoolConfig of(String url, String user, String password)
+    {
+        Properties properties = new Properties();
+        properties.setProperty("user", user);
+        if (password != null)
+        {
+            properties.setProperty("password", password);
+        }
+        return of(url, properties);
+    }
+
+    /**
+     * @param url JDBC URL
+     * @param properties driver properties, copied
+     * @return default settings
+     */
+    public static PoolConfig of(String url, Properties properties)
+    {
+        Properties copy = new Properties();
+        copy.setProperty("prepareThreshold", DEFAULT_PREPARE_THRESHOLD);
+        copy.putAll(properties);
+        return new PoolConfig(url, copy, DEFAULT_MAX_SIZE, DEFAULT_MIN_IDLE,
+                TimeUnit.MILLISECONDS.toNanos(DEFAULT_CHECKOUT_TIMEOUT_MILLIS), 0, LOG_LEAK,
+                Collections.emptyList());
+    }
+
+    /**
+     * @param maxSize maximal number of physical connections
+     * @return modified copy
+     */
+    public PoolConfig withMaxSize(int maxSize)
+    {
+        return new PoolConfig(url, properties, maxSize, Math.min(minIdle, maxSize), checkoutTimeoutNanos,
+                leakThresholdNanos, leakHandler, warmUp);
+    }
+
+    /**
+     * @param minIdle number of connections opened and warmed up when pool is
+     * created
+     * @return modified copy
+     */
+    public PoolConfig withMinIdle(int minIdle)
+    {
+        return new PoolConfig(url, properties, maxSize, minIdle, checkoutTimeoutNanos, leakThresholdNanos,
+                leakHandler, warmUp);
+    }
+
+    /**
+     * @param timeout maximal time of waiting for free connection
+     * @param unit unit of timeout
+     * @return modified copy
+     */
+    public PoolConfig withCheckoutTimeout(long timeout, TimeUnit unit)
+    {
+        return new PoolConfig(url, properties, maxSize, minIdle, unit.toNanos(timeout), leakThresholdNanos,
+                leakHandler, warmUp);
+    }
+
+    /**
+     * Enables leak detection. Connections held longer than threshold are
+     * logged with stack trace of checkout.
+     *
+     * @param threshold time after which held connection is reported, 0
+     * disables detection
+     * @param unit unit of threshold
+     * @return modified copy
+     */
+    public PoolConfig withLeakThreshold(long threshold, TimeUnit unit)
+    {
+        return withLeakThreshold(threshold, unit, LOG_LEAK);
+    }
+
+    /**
+     * Enables leak detection with custom handler of leaks.
+     *
+     * @param threshold time after which held connection is reported, 0
+     * disables detection
+     * @param unit unit of threshold
+     * @param handler called once for each connection held longer than
+     * threshold
+     * @return modified copy
+     */
+    public PoolConfig withLeakThreshold(long threshold, TimeUnit unit, Consumer<ConnectionLeak> handler)
+    {
+        return new PoolConfig(url, properties, maxSize, minIdle, checkoutTimeoutNanos, unit.toNanos(threshold),
+                handler, warmUp);
+    }
+
+    /**
+     * @param key driver property, e.g. <code>prepareThreshold</code>
+     * @param value property value
+     * @return modified copy
+     */
+    public PoolConfig withProperty(String key, String value)
+    {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        copy.setProperty(key, value);
+        return new PoolConfig(url, copy, maxSize, minIdle, checkoutTimeoutNanos, leakThresholdNanos, leakHandler,
+                warmUp);
+    }
+
+    /**
+     * Adds procedure calls executed with NULL arguments on every new physical
+     * connection, see {@link ProcedureConnectionPool}.
+     *
+     * @param signatures procedure calls
+     * @return modified copy
+     */
+    public PoolConfig withWarmUp(Collection<ProcedureSignature> signatures)
+    {
+        List<ProcedureSignature> all = new ArrayList<>(warmUp);
+        all.addAll(signatures);
+        return new PoolConfig(url, properties, maxSize, minIdle, checkoutTimeoutNanos, leakThresholdNanos,
+                leakHandler, Collections.unmodifiableList(all));
+    }
+
+    /**
+     * Adds calls of all unambiguous procedures from registry, see
+     * {@link ProcedureMetadata#toSignature()}.
+     *
+     * @param registry procedure metadata
+     * @return modified copy
+     */
+    public PoolConfig withWarmUp(ProcedureRegistry registry)
+    {
+        List<ProcedureSignature> signatures = new ArrayList<>();
+        for (ProcedureMetadata procedure : registry.getProcedures())
+        {
+            if (!registry.getAmbiguousNames().contains(procedure.getName()))
+            {
+                signatures.add(procedure.toSignature());
+            }
+        }
+        return withWarmUp(signatures);
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * @return copy of driver properties
+     */
+    public Properties getProperties()
+    {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public int getMinIdle()
+    {
+        return minIdle;
+    }
+
+    public long getCheckoutTimeout(TimeUnit unit)
+    {
+        return unit.convert(checkoutTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getLeakThreshold(TimeUnit unit)
+    {
+        return unit.convert(leakThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    Consumer<ConnectionLeak> getLeakHandler()
+    {
+        return leakHandler;
+    }
+
+    public List<ProcedureSignature> getWarmUp()
+    {
+        return warmUp;
+    }
+}
@@ -0,0 +1,183 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handle of physical connection taken from pool. Closing handle closes
+ * statements left open and returns physical connection to pool, handle cannot
+ * be used afterwards. Statements, result sets and metadata are handed out as
+ * {@link PooledResource} proxies, so connection errors thrown by them mark
+ * connection as broken.
+ *
+ * @author Milosz Piglas
+ */
+final class PooledConnection implements InvocationHandler
+{
+
+    private final ProcedureConnectionPool pool;
+    private final Connection physical;
+    private final Connection proxy;
+    private final long checkoutNanos;
+    private final StackTraceElement[] checkoutTrace;
+    private final String thread;
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private volatile boolean broken;
+    private volatile boolean leakReported;
+
+    PooledConnection(ProcedureConnectionPool pool, Connection physical, boolean traceCheckout)
+    {
+        this.pool = pool;
+        this.physical = physical;
+        this.checkoutNanos = System.nanoTime();
+        this.checkoutTrace = traceCheckout ? new Throwable().getStackTrace() : null;
+        this.thread = Thread.currentThread().getName();
+        this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]
+        {
+            Connection.class
+        }, this);
+    }
+
+    @Override
+    public Object invoke(Object target, Method method, Object[] args) throws Throwable
+    {
+        switch (method.getName())
+        {
+            case "close":
+                if (!closed)
+                {
+                    closed = true;
+                    closeStatements();
+                    pool.release(this);
+                }
+                return null;
+            case "isClosed":
+                return closed || physical.isClosed();
+            case "unwrap":
+                if (((Class<?>) args[0]).isInstance(target))
+                {
+                    return target;
+                }
+                break;
+            case "isWrapperFor":
+                if (((Class<?>) args[0]).isInstance(target))
+                {
+                    return true;
+                }
+                break;
+            case "equals":
+                return target == args[0];
+            case "hashCode":
+                return System.identityHashCode(target);
+            case "toString":
+                return "Pooled" + (closed ? "(closed)" : "") + "[" + physical + "]";
+            default:
+                break;
+        }
+        if (closed)
+        {
+            throw new SQLException("Connection was returned to pool", "08003");
+        }
+        Object value;
+        try
+        {
+            value = method.invoke(physical, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw report(ex.getCause());
+        }
+        return method.getName().equals("unwrap") ? value
+                : PooledResource.wrap(this, value, method.getReturnType(), target);
+    }
+
+    /**
+     * Marks connection as broken if exception is connection error.
+     *
+     * @param cause exception thrown by physical connection or its statement
+     * @return the same exception
+     */
+    Throwable report(Throwable cause)
+    {
+        if (cause instanceof SQLException && isConnectionError((SQLException) cause))
+        {
+            broken = true;
+        }
+        return cause;
+    }
+
+    void track(Statement statement)
+    {
+        statements.add(statement);
+    }
+
+    void untrack(Statement statement)
+    {
+        statements.remove(statement);
+    }
+
+    Connection getProxy()
+    {
+        return proxy;
+    }
+
+    Connection getPhysical()
+    {
+        return physical;
+    }
+
+    boolean isBroken()
+    {
+        return broken;
+    }
+
+    long getHeldNanos(long now)
+    {
+        return now - checkoutNanos;
+    }
+
+    /**
+     * Reports leak once.
+     *
+     * @return leak or null if it was already reported or checkout was not
+     * traced
+     */
+    ConnectionLeak leak(long now)
+    {
+        if (leakReported || checkoutTrace == null || closed)
+        {
+            return null;
+        }
+        leakReported = true;
+        return new ConnectionLeak(checkoutTrace, thread, getHeldNanos(now));
+    }
+
+    private void closeStatements()
+    {
+        for (Statement statement : statements)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException ex)
+            {
+                report(ex);
+            }
+        }
+        statements.clear();
+    }
+
+    private static boolean isConnectionError(SQLException ex)
+    {
+        return ex.getSQLState() != null && ex.getSQLState().startsWith("08");
+    }
+}
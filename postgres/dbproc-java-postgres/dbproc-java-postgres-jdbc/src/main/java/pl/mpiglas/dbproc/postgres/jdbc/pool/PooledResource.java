@@ -0,0 +1,113 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Proxy of statement, result set or database metadata created through pooled
+ * connection. Proxy returns connection proxy instead of physical connection,
+ * reports connection errors to its {@link PooledConnection}, so broken
+ * connection is not returned to pool, and wraps statements and result sets it
+ * creates. Unwrapping to vendor classes, e.g. <code>PgResultSet</code>, is
+ * delegated to physical object.
+ *
+ * @author Milosz Piglas
+ */
+final class PooledResource implements InvocationHandler
+{
+
+    private final PooledConnection connection;
+    private final Object physical;
+    private final Object owner;
+    private final Object proxy;
+
+    private PooledResource(PooledConnection connection, Object physical, Class<?> type, Object owner)
+    {
+        this.connection = connection;
+        this.physical = physical;
+        this.owner = owner;
+        this.proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]
+        {
+            type
+        }, this);
+    }
+
+    /**
+     * Wraps value returned by JDBC method, other values are returned as they
+     * are.
+     *
+     * @param connection handle of connection
+     * @param value returned value
+     * @param type declared return type of method
+     * @param owner proxy, which created value
+     * @return proxy of statement, result set or metadata
+     */
+    static Object wrap(PooledConnection connection, Object value, Class<?> type, Object owner)
+    {
+        if (value instanceof Statement && type.isInterface() && Statement.class.isAssignableFrom(type))
+        {
+            connection.track((Statement) value);
+            return new PooledResource(connection, value, type, owner).proxy;
+        }
+        if (value instanceof ResultSet)
+        {
+            return new PooledResource(connection, value, ResultSet.class, owner).proxy;
+        }
+        if (value instanceof DatabaseMetaData)
+        {
+            return new PooledResource(connection, value, DatabaseMetaData.class, owner).proxy;
+        }
+        return value;
+    }
+
+    @Override
+    public Object invoke(Object target, Method method, Object[] args) throws Throwable
+    {
+        switch (method.getName())
+        {
+            case "getConnection":
+                return connection.getProxy();
+            case "getStatement":
+                return owner instanceof Statement ? owner : null;
+            case "unwrap":
+                if (((Class<?>) args[0]).isInstance(target))
+                {
+                    return target;
+                }
+                break;
+            case "isWrapperFor":
+                if (((Class<?>) args[0]).isInstance(target))
+                {
+                    return true;
+                }
+                break;
+            case "equals":
+                return target == args[0];
+            case "hashCode":
+                return System.identityHashCode(target);
+            case "toString":
+                return "Pooled[" + physical + "]";
+            default:
+                break;
+        }
+        Object value;
+        try
+        {
+            value = method.invoke(physical, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw connection.report(ex.getCause());
+        }
+        if (physical instanceof Statement && "close".equals(method.getName()))
+        {
+            connection.untrack((Statement) physical);
+        }
+        return method.getName().equals("unwrap") ? value : wrap(connection, value, method.getReturnType(), target);
+    }
+}
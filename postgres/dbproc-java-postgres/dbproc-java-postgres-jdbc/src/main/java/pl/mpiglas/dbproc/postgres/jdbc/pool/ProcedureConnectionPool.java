@@ -0,0 +1,463 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.io.PrintWriter;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Types;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import pl.mpiglas.dbproc.postgres.jdbc.ConnectionSource;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+
+/**
+ * Pool of PostgreSQL connections for calling procedures. Every new physical
+ * connection is warmed up before it is handed out: calls registered in
+ * {@link PoolConfig#withWarmUp(java.util.Collection)} are executed once with
+ * NULL arguments in transaction, which is rolled back. Driver keeps them as
+ * named server side prepared statements, so the first real call with
+ * arguments of types resolved by server skips parsing. Warmed up procedures
+ * must not have effects surviving rollback, like advancing sequences.
+ *
+ * <pre>
+ * try (ProcedureConnectionPool pool = new ProcedureConnectionPool(config);
+ *         Connection connection = pool.getConnection())
+ * {
+ *     ...
+ * }
+ * </pre>
+ *
+ * Connections are handed out as proxies, closing proxy returns connection to
+ * pool. Statements left open are closed, open transaction is rolled back and
+ * auto-commit is restored on return. Connections, which failed with
+ * connection error in any of their statements or result sets, are discarded.
+ * Idle connections are reused in LIFO order, so the most recently used ones,
+ * with the warmest caches, are taken first.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureConnectionPool implements DataSource, ConnectionSource, AutoCloseable
+{
+
+    private static final long MIN_LEAK_CHECK_MILLIS = 100;
+
+    private final PoolConfig config;
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final Set<PooledConnection> checkedOut = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder checkouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder warmUpNanos = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    /**
+     * Creates pool and opens {@link PoolConfig#getMinIdle()} connections.
+     *
+     * @param config pool settings
+     * @throws SQLException if connection could not be opened or warmed up
+     */
+    public ProcedureConnectionPool(PoolConfig config) throws SQLException
+    {
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxSize(), true);
+        long leakThreshold = config.getLeakThreshold(TimeUnit.MILLISECONDS);
+        if (leakThreshold > 0)
+        {
+            long period = Math.max(MIN_LEAK_CHECK_MILLIS, leakThreshold / 2);
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "dbproc-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leakDetector.scheduleWithFixedDelay(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            leakDetector = null;
+        }
+        try
+        {
+            for (int i = 0; i < config.getMinIdle(); i++)
+            {
+                idle.offerFirst(openConnection());
+            }
+        }
+        catch (SQLException ex)
+        {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes connection from pool, opening and warming up new one if no idle
+     * connection is available and pool is not full.
+     *
+     * @return connection, which has to be closed to return it to pool
+     * @throws SQLTransientConnectionException if no connection became
+     * available within checkout timeout
+     * @throws SQLException if pool is closed or connection could not be opened
+     */
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        if (closed)
+        {
+            throw new SQLException("Connection pool is closed", "08003");
+        }
+        long start = System.nanoTime();
+        try
+        {
+            if (!permits.tryAcquire(config.getCheckoutTimeout(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS))
+            {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("No connection available within "
+                        + config.getCheckoutTimeout(TimeUnit.MILLISECONDS) + " ms, " + checkedOut.size()
+                        + " connections in use", "08001");
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for connection", "08001", ex);
+        }
+        try
+        {
+            Connection physical = idle.pollFirst();
+            while (physical != null && physical.isClosed())
+            {
+                open.decrementAndGet();
+                physical = idle.pollFirst();
+            }
+            if (physical == null)
+            {
+                physical = openConnection();
+            }
+            PooledConnection handle = new PooledConnection(this, physical, leakDetector != null);
+            checkedOut.add(handle);
+            checkouts.increment();
+            waitNanos.add(System.nanoTime() - start);
+            return handle.getProxy();
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns connection to pool.
+     */
+    void release(PooledConnection handle)
+    {
+        checkedOut.remove(handle);
+        Connection physical = handle.getPhysical();
+        try
+        {
+            if (handle.isBroken() || closed || physical.isClosed())
+            {
+                discard(physical);
+                return;
+            }
+            if (!physical.getAutoCommit())
+            {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            physical.clearWarnings();
+            idle.offerFirst(physical);
+            if (closed)
+            {
+                // pool was closed after the check above
+                closeIdle();
+            }
+        }
+        catch (SQLException ex)
+        {
+            discard(physical);
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes idle connections and stops leak detection. Connections in use
+     * are closed when returned.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        if (leakDetector != null)
+        {
+            leakDetector.shutdownNow();
+        }
+        closeIdle();
+    }
+
+    public PoolConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * @return number of open physical connections
+     */
+    public int getSize()
+    {
+        return open.get();
+    }
+
+    public int getIdle()
+    {
+        return idle.size();
+    }
+
+    public int getActive()
+    {
+        return checkedOut.size();
+    }
+
+    /**
+     * @return number of threads waiting for connection
+     */
+    public int getWaiting()
+    {
+        return permits.getQueueLength();
+    }
+
+    public long getCheckouts()
+    {
+        return checkouts.sum();
+    }
+
+    /**
+     * @param unit unit of time
+     * @return total time of waiting for connections, including opening and
+     * warming up new ones
+     */
+    public long getWaitTime(TimeUnit unit)
+    {
+        return unit.convert(waitNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return number of physical connections opened by pool
+     */
+    public long getCreated()
+    {
+        return created.sum();
+    }
+
+    /**
+     * @param unit unit of time
+     * @return total time of warming up new connections
+     */
+    public long getWarmUpTime(TimeUnit unit)
+    {
+        return unit.convert(warmUpNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getLeaks()
+    {
+        return leaks.sum();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException("Pool connects with configured user");
+    }
+
+    @Override
+    public PrintWriter getLogWriter()
+    {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out)
+    {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds)
+    {
+    }
+
+    @Override
+    public int getLoginTimeout()
+    {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        if (iface.isInstance(this))
+        {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface)
+    {
+        return iface.isInstance(this);
+    }
+
+    private Connection openConnection() throws SQLException
+    {
+        Connection physical = DriverManager.getConnection(config.getUrl(), config.getProperties());
+        open.incrementAndGet();
+        created.increment();
+        try
+        {
+            warmUp(physical);
+            return physical;
+        }
+        catch (SQLException | RuntimeException ex)
+        {
+            discard(physical);
+            throw ex;
+        }
+    }
+
+    /**
+     * Executes registered calls in transaction, which is rolled back. With
+     * <code>prepareThreshold=1</code> driver parses executed statement as
+     * named one, resolves types of NULL arguments on server and keeps it in
+     * its cache of prepared statements after statement is closed.
+     */
+    private void warmUp(Connection physical) throws SQLException
+    {
+        if (config.getWarmUp().isEmpty())
+        {
+            return;
+        }
+        long start = System.nanoTime();
+        // connection, which failed to warm up, is discarded without restoring it
+        physical.setAutoCommit(false);
+        for (ProcedureSignature signature : config.getWarmUp())
+        {
+            warmUp(physical, signature);
+        }
+        physical.rollback();
+        physical.setAutoCommit(true);
+        warmUpNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Executes call with NULL arguments. Errors raised by procedure for NULL
+     * arguments are ignored, statement is prepared before it is executed.
+     * Connection errors and errors of statement itself, like undefined
+     * procedure, are thrown.
+     */
+    private static void warmUp(Connection physical, ProcedureSignature signature) throws SQLException
+    {
+        String sql = signature.getSql();
+        try (PreparedStatement statement = sql.trim().startsWith("{")
+                ? physical.prepareCall(sql) : physical.prepareStatement(sql))
+        {
+            for (int index = 1; index <= signature.getParameterCount(); index++)
+            {
+                Integer out = signature.getOutParameters().get(index);
+                if (out != null)
+                {
+                    ((CallableStatement) statement).registerOutParameter(index, out);
+                }
+                else
+                {
+                    statement.setNull(index, Types.OTHER);
+                }
+            }
+            statement.setMaxRows(1);
+            statement.execute();
+        }
+        catch (SQLException ex)
+        {
+            String state = ex.getSQLState();
+            if (state == null || state.startsWith("08") || state.startsWith("42"))
+            {
+                throw ex;
+            }
+            // aborted transaction is rolled back, next call starts new one
+            physical.rollback();
+        }
+    }
+
+    private void closeIdle()
+    {
+        Connection physical;
+        while ((physical = idle.pollFirst()) != null)
+        {
+            discard(physical);
+        }
+    }
+
+    private void discard(Connection physical)
+    {
+        open.decrementAndGet();
+        try
+        {
+            physical.close();
+        }
+        catch (SQLException ex)
+        {
+            // connection is dropped anyway
+        }
+    }
+
+    private void detectLeaks()
+    {
+        long now = System.nanoTime();
+        long threshold = config.getLeakThreshold(TimeUnit.NANOSECONDS);
+        for (PooledConnection handle : checkedOut)
+        {
+            if (handle.getHeldNanos(now) >= threshold)
+            {
+                ConnectionLeak leak = handle.leak(now);
+                if (leak != null)
+                {
+                    leaks.increment();
+                    config.getLeakHandler().accept(leak);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Calling procedures asynchronously.
+ *
+ * @author Milosz Piglas
+ */
+public class AsyncProcedureCallerTest
+{
+
+    private static final ProcedureSignature NUM_SUM = ProcedureSignature.of("num_sum", "{? = call num_sum(?, ?)}")
+            .withOutParameter(1, Types.INTEGER);
+    private static final ProcedureSignature OUT_TEXT = ProcedureSignature.of("out_text", "{call out_text(?)}")
+            .withOutParameter(1, Types.VARCHAR);
+    private static final ProcedureSignature MODMUL = ProcedureSignature.of("modmul", "{call modmul(?, ?, ?, ?)}")
+            .withOutParameter(3, Types.INTEGER)
+            .withOutParameter(4, Types.INTEGER);
+
+    /**
+     * Calls over the limit wait for free slot, failures of connection source
+     * complete futures and release slots.
+     */
+    @Test
+    public void shouldLimitCallsInFlight()
+    {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ConnectionSource source = () ->
+        {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            throw new SQLException("connection refused");
+        };
+        try (AsyncProcedureCaller caller = new AsyncProcedureCaller(source, 2,
+                AsyncProcedureCaller.newExecutor(8), null))
+        {
+            List<CompletableFuture<Object[]>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+            {
+                calls.add(caller.call(NUM_SUM, i, i));
+            }
+            for (CompletableFuture<Object[]> call : calls)
+            {
+                Assertions.assertThatThrownBy(call::join).isInstanceOf(CompletionException.class)
+                        .hasCauseInstanceOf(SQLException.class);
+            }
+            Assertions.assertThat(maxRunning.get()).isEqualTo(2);
+            Assertions.assertThat(caller.getInFlight()).isZero();
+        }
+    }
+
+    /**
+     * Time waiting for free slot counts in deadline of call.
+     */
+    @Test
+    public void shouldFailCallQueuedPastDeadline()
+    {
+        ConnectionSource source = () ->
+        {
+            try
+            {
+                Thread.sleep(300);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+            throw new SQLException("connection refused");
+        };
+        try (AsyncProcedureCaller caller = new AsyncProcedureCaller(source, 1))
+        {
+            CompletableFuture<Object[]> first = caller.call(NUM_SUM, 1, 2);
+            CompletableFuture<Object[]> queued = caller.call(Deadline.after(50, TimeUnit.MILLISECONDS), NUM_SUM, 3, 4);
+            Assertions.assertThatThrownBy(queued::join).isInstanceOf(CompletionException.class)
+                    .hasCauseInstanceOf(SQLTimeoutException.class);
+            Assertions.assertThatThrownBy(first::join).hasCauseInstanceOf(SQLException.class)
+                    .hasMessageContaining("connection refused");
+        }
+    }
+
+    /**
+     * Independent procedures are called concurrently.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void shouldFanOutIndependentCalls() throws IOException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        ConnectionSource source = () -> DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+        try (AsyncProcedureCaller caller = new AsyncProcedureCaller(source, 3))
+        {
+            CompletableFuture<Object[]> sum = caller.call(NUM_SUM, 100, 11);
+            CompletableFuture<Object[]> text = caller.call(OUT_TEXT);
+            CompletableFuture<Object[]> mod = caller.call(MODMUL, 10, 3);
+            CompletableFuture.allOf(sum, text, mod).join();
+
+            Assertions.assertThat(sum.join()).containsExactly(111);
+            Assertions.assertThat(text.join()).containsExactly("out_text_result");
+            Assertions.assertThat(mod.join()).containsExactly(3, 1);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Keeping procedure results in columns.
+ *
+ * @author Milosz Piglas
+ */
+public class ColumnarResultTest
+{
+
+    private Connection pgCon;
+
+    @Before
+    public void setup() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+
+    @After
+    public void cleanup() throws SQLException
+    {
+        pgCon.close();
+    }
+
+    @Test
+    public void shouldReadRowsIntoDirectColumns() throws SQLException
+    {
+        ColumnarResult rows = ColumnarResult.read(new ProcedureStreamReader(pgCon, 500),
+                ColumnarResult.Memory.DIRECT, "SELECT * FROM gen_rows(?)", 5000);
+        Assertions.assertThat(rows.getRowCount()).isEqualTo(5000);
+        Assertions.assertThat(rows.getColumnCount()).isEqualTo(2);
+        Assertions.assertThat(rows.getColumnType(rows.columnIndex("str"))).isEqualTo(ColumnarResult.ColumnType.TEXT);
+        Assertions.assertThat(rows.getColumnType(rows.columnIndex("num"))).isEqualTo(ColumnarResult.ColumnType.INT);
+        Assertions.assertThat(rows.getString(0, 0)).isEqualTo("ROW0");
+        Assertions.assertThat(rows.getInt(4999, 1)).isEqualTo(5000);
+        Assertions.assertThat(rows.getMemoryUsage()).isGreaterThan(5000L * 2 * Integer.BYTES);
+        Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+    }
+
+    @Test
+    public void shouldFilterColumns() throws SQLException
+    {
+        ColumnarResult rows = ColumnarResult.read(new ProcedureStreamReader(pgCon), ColumnarResult.Memory.HEAP,
+                "SELECT * FROM gen_rows(?)", 100);
+        ColumnarResult.Selection even = rows.all().filterInt(1, num -> num % 2 == 0);
+        Assertions.assertThat(even.size()).isEqualTo(50);
+        Assertions.assertThat(even.filterTextEquals(0, "ROW41").rows()).containsExactly(41);
+        Assertions.assertThat(rows.all().filterText(0, str -> str.endsWith("9")).size()).isEqualTo(10);
+        List<String> scanned = new ArrayList<>();
+        ColumnarResult.Cursor cursor = even.filterInt(1, num -> num <= 6).cursor();
+        while (cursor.next())
+        {
+            scanned.add(cursor.getString(0) + ":" + cursor.getInt(1));
+        }
+        Assertions.assertThat(scanned).containsExactly("ROW1:2", "ROW3:4", "ROW5:6");
+    }
+
+    @Test
+    public void shouldKeepNulls() throws SQLException
+    {
+        try (PreparedStatement statement = pgCon.prepareStatement(
+                "SELECT * FROM (VALUES ('a'::varchar, 1::int4, 10::int8, 1.5::float8), "
+                + "(NULL, NULL, NULL, NULL), ('ż', 3, 30, 3.5)) AS v(str, num, big, dbl)");
+                ResultSet resultSet = statement.executeQuery())
+        {
+            ColumnarResult rows = ColumnarResult.from(resultSet, ColumnarResult.Memory.HEAP, 1);
+            Assertions.assertThat(rows.getRowCount()).isEqualTo(3);
+            Assertions.assertThat(rows.isNull(1, 0)).isTrue();
+            Assertions.assertThat(rows.getString(1, 0)).isNull();
+            Assertions.assertThat(rows.getString(2, 0)).isEqualTo("ż");
+            Assertions.assertThat(rows.getLong(2, 2)).isEqualTo(30L);
+            Assertions.assertThat(rows.getDouble(0, 3)).isEqualTo(1.5);
+            Assertions.assertThat(rows.all().filterNotNull(1).rows()).containsExactly(0, 2);
+            Assertions.assertThat(rows.all().filterLong(2, big -> big > 0).rows()).containsExactly(0, 2);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Mapping procedure rows with constructors of plain classes.
+ *
+ * @author Milosz Piglas
+ */
+public class ConstructorRowMapperTest
+{
+
+    private static final ProcedureSignature NULLS = ProcedureSignature.of("nulls", "SELECT NULL::varchar, NULL::int4");
+
+    public static final class StrInt
+    {
+
+        private final String str;
+        private final int num;
+
+        public StrInt(String str, int num)
+        {
+            this.str = str;
+            this.num = num;
+        }
+
+        @Override
+        public String toString()
+        {
+            return str + ":" + num;
+        }
+    }
+
+    public static final class NullableStrInt
+    {
+
+        private final Integer num;
+
+        public NullableStrInt()
+        {
+            this(null, null);
+        }
+
+        public NullableStrInt(String str, Integer num)
+        {
+            this.num = num;
+        }
+    }
+
+    public static final class Ambiguous
+    {
+
+        public Ambiguous(String str)
+        {
+        }
+
+        public Ambiguous(String str, int num)
+        {
+        }
+    }
+
+    @Test
+    public void shouldIgnoreDefaultConstructor()
+    {
+        ConstructorRowMapper<NullableStrInt> mapper = ConstructorRowMapper.of(NullableStrInt.class);
+        Assertions.assertThat(mapper.getParameterCount()).isEqualTo(2);
+        Assertions.assertThat(mapper.getType()).isEqualTo(NullableStrInt.class);
+    }
+
+    @Test
+    public void shouldRejectAmbiguousConstructors()
+    {
+        Assertions.assertThatThrownBy(() -> ConstructorRowMapper.of(Ambiguous.class))
+                .isInstanceOf(IllegalArgumentException.class);
+        Assertions.assertThat(ConstructorRowMapper.of(Ambiguous.class, String.class, int.class).getParameterCount())
+                .isEqualTo(2);
+    }
+
+    /**
+     * Rows of <code>gen_rows</code> are mapped by column position, NULL can
+     * be passed only to boxed parameter.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldMapGenRowsWithConstructor() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 3);
+            try (Stream<StrInt> rows = reader.stream("SELECT * FROM gen_rows(?)",
+                    ConstructorRowMapper.of(StrInt.class), 5))
+            {
+                List<String> result = rows.map(StrInt::toString).collect(Collectors.toList());
+                Assertions.assertThat(result).containsExactly("ROW0:1", "ROW1:2", "ROW2:3", "ROW3:4", "ROW4:5");
+            }
+
+            ProcedureCaller caller = new ProcedureCaller(new StatementCache(pgCon));
+            List<NullableStrInt> nulls = caller.query(NULLS,
+                    ConstructorRowMapper.of(NullableStrInt.class));
+            Assertions.assertThat(nulls.get(0).num).isNull();
+            Assertions.assertThatThrownBy(() -> caller.query(NULLS,
+                    ConstructorRowMapper.of(StrInt.class))).isInstanceOf(SQLException.class);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.binary.CopyExporter;
+
+/**
+ * Procedure calls bounded by deadline.
+ *
+ * @author Milosz Piglas
+ */
+public class DeadlineTest
+{
+
+    @Test
+    public void shouldRoundQueryTimeoutUpToSeconds()
+    {
+        Assertions.assertThat(Deadline.after(200, TimeUnit.MILLISECONDS).getQueryTimeoutSeconds()).isEqualTo(1);
+        Assertions.assertThat(Deadline.after(2500, TimeUnit.MILLISECONDS).getQueryTimeoutSeconds()).isEqualTo(3);
+        Assertions.assertThat(Deadline.NONE.getQueryTimeoutSeconds()).isZero();
+        Assertions.assertThat(Deadline.NONE.isExpired()).isFalse();
+        Assertions.assertThat(Deadline.NONE.remaining(TimeUnit.SECONDS)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void shouldReportExpiredDeadline() throws InterruptedException
+    {
+        Deadline deadline = Deadline.after(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        Assertions.assertThat(deadline.isExpired()).isTrue();
+        Assertions.assertThat(deadline.remaining(TimeUnit.NANOSECONDS)).isZero();
+        Assertions.assertThatThrownBy(() -> deadline.check("num_sum"))
+                .isInstanceOf(SQLTimeoutException.class)
+                .hasMessageContaining("num_sum")
+                .matches(ex -> Deadline.QUERY_CANCELED.equals(((SQLException) ex).getSQLState()));
+    }
+
+    /**
+     * Long running procedure is cancelled in database and connection can be
+     * used again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCancelStreamedProcedureAtDeadline() throws Exception
+    {
+        try (Connection pgCon = connect())
+        {
+            ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 1000);
+            long start = System.nanoTime();
+            Assertions.assertThatThrownBy(() ->
+            {
+                try (ProcedureResultIterator<String> rows = reader.iterator(
+                        Deadline.after(200, TimeUnit.MILLISECONDS), "SELECT * FROM gen_rows(?)",
+                        rs -> rs.getString(1), 100000000))
+                {
+                    while (rows.hasNext())
+                    {
+                        rows.next();
+                    }
+                }
+            }).matches(ex -> timedOut(ex));
+            Assertions.assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+            Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+            Assertions.assertThat(new ProcedureStreamReader(pgCon).stream("SELECT * FROM gen_rows(?)",
+                    rs -> rs.getString(1), 3).count()).isEqualTo(3);
+        }
+    }
+
+    @Test
+    public void shouldCancelCallAtDeadline() throws Exception
+    {
+        try (Connection pgCon = connect())
+        {
+            ProcedureCaller caller = new ProcedureCaller(new StatementCache(pgCon));
+            ProcedureSignature sleep = ProcedureSignature.of("pg_sleep", "SELECT pg_sleep(?)");
+            Assertions.assertThatThrownBy(() -> caller.call(Deadline.after(200, TimeUnit.MILLISECONDS), sleep, 10.0))
+                    .isInstanceOf(SQLTimeoutException.class);
+            Assertions.assertThat(caller.call(Deadline.after(5, TimeUnit.SECONDS), sleep, 0.0)).isNotNull();
+        }
+    }
+
+    /**
+     * Export is stopped by statement timeout and previous timeout of session
+     * is restored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldStopCopyAtDeadline() throws Exception
+    {
+        try (Connection pgCon = connect())
+        {
+            CopyExporter exporter = new CopyExporter(pgCon);
+            Assertions.assertThatThrownBy(() -> exporter.export(Deadline.after(200, TimeUnit.MILLISECONDS),
+                    "SELECT * FROM gen_rows(?)", Channels.newChannel(new ByteArrayOutputStream()), 100000000))
+                    .matches(ex -> timedOut(ex));
+            try (Statement statement = pgCon.createStatement();
+                    ResultSet resultSet = statement.executeQuery("SHOW statement_timeout"))
+            {
+                resultSet.next();
+                Assertions.assertThat(resultSet.getString(1)).isEqualTo("0");
+            }
+        }
+    }
+
+    private static boolean timedOut(Throwable ex)
+    {
+        Throwable cause = ex instanceof UncheckedSQLException ? ex.getCause() : ex;
+        return cause instanceof SQLTimeoutException
+                && Deadline.QUERY_CANCELED.equals(((SQLException) cause).getSQLState());
+    }
+
+    private Connection connect() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        return DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+}
@@ -0,0 +1,207 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Learning fetch sizes of procedures.
+ *
+ * @author Milosz Piglas
+ */
+public class FetchSizeTunerTest
+{
+
+    private final long[] clock =
+    {
+        0
+    };
+
+    @Test
+    public void shouldFitRowsOfFetchIntoMemoryBudget() throws SQLException
+    {
+        FetchSizeTuner tuner = new FetchSizeTuner(1024 * 1024, 10, 1000000, () -> clock[0]);
+        Assertions.assertThat(tuner.getFetchSize("gen_rows")).isEqualTo(ProcedureStreamReader.DEFAULT_FETCH_SIZE);
+        for (int call = 0; call < 10; call++)
+        {
+            read(tuner, "gen_rows", 5000, 1000, 1000000, 1000);
+            read(tuner, "int_set", 5000, 4, 1000000, 10);
+        }
+        // 1 MB of 1000-byte rows, changed at most 4 times per call
+        Assertions.assertThat(tuner.getFetchSize("gen_rows")).isBetween(900, 1024);
+        Assertions.assertThat(tuner.getBytesPerRow("gen_rows")).isGreaterThan(1000.0);
+        Assertions.assertThat(tuner.getFetchSize("int_set")).isGreaterThan(10000);
+    }
+
+    /**
+     * Fetch grows until round trip takes {@link FetchSizeTuner#ROUND_TRIP_SHARE}
+     * of its time.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldLimitShareOfRoundTrip() throws SQLException
+    {
+        FetchSizeTuner tuner = new FetchSizeTuner(1024 * 1024 * 1024, 10, 1000000, () -> clock[0]);
+        for (int call = 0; call < 10; call++)
+        {
+            read(tuner, "int_set", 50000, 4, 100000, 1000);
+        }
+        Assertions.assertThat(tuner.getRoundTrip("int_set", TimeUnit.MICROSECONDS)).isBetween(99L, 101L);
+        Assertions.assertThat(tuner.getFetchSize("int_set")).isBetween(890, 910);
+    }
+
+    /**
+     * Fetch time proportional to fetched rows does not shrink fetch size.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldIgnoreRoundTripWhenNotMeasurable() throws SQLException
+    {
+        FetchSizeTuner tuner = new FetchSizeTuner(1024 * 1024, 10, 1000000, () -> clock[0]);
+        for (int call = 0; call < 10; call++)
+        {
+            read(tuner, "gen_rows", 5000, 1000, 0, 1000);
+        }
+        Assertions.assertThat(tuner.getFetchSize("gen_rows")).isBetween(900, 1024);
+    }
+
+    @Test
+    public void shouldKeepFetchSizeWithinBounds() throws SQLException
+    {
+        FetchSizeTuner tuner = new FetchSizeTuner(1024, 100, 500, () -> clock[0]);
+        for (int call = 0; call < 5; call++)
+        {
+            read(tuner, "gen_rows", 1000, 1000, 1000000, 1000);
+        }
+        Assertions.assertThat(tuner.getFetchSize("gen_rows")).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldRestoreStoredSettings() throws IOException, SQLException
+    {
+        Path file = Files.createTempFile("fetch-sizes", ".properties");
+        try
+        {
+            FetchSizeTuner tuner = new FetchSizeTuner(1024 * 1024, 10, 1000000, () -> clock[0]);
+            read(tuner, "public.gen_rows", 2000, 1000, 1000000, 1000);
+            tuner.store(file);
+            FetchSizeTuner restored = new FetchSizeTuner(1024 * 1024);
+            restored.load(file);
+            Assertions.assertThat(restored.getFetchSize("public.gen_rows"))
+                    .isEqualTo(tuner.getFetchSize("public.gen_rows"));
+            Assertions.assertThat(restored.getBytesPerRow("public.gen_rows"))
+                    .isEqualTo(tuner.getBytesPerRow("public.gen_rows"));
+            FetchSizeTuner bounded = new FetchSizeTuner(1024 * 1024, 1, 10);
+            bounded.load(file);
+            Assertions.assertThat(bounded.getFetchSize("public.gen_rows")).isEqualTo(10);
+            Files.delete(file);
+            bounded.load(file);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Fetch sizes of narrow and wide rows differ.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldTuneFetchSizeOfStreamedProcedures() throws Exception
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            FetchSizeTuner tuner = new FetchSizeTuner(64 * 1024);
+            ProcedureStreamReader reader = new ProcedureStreamReader(pgCon);
+            reader.setFetchSizeTuner(tuner);
+            for (int call = 0; call < 5; call++)
+            {
+                try (Stream<String> rows = reader.stream("SELECT * FROM gen_rows(?)", rs -> rs.getString(1), 20000))
+                {
+                    Assertions.assertThat(rows.count()).isEqualTo(20000);
+                }
+                try (Stream<Integer> rows = reader.stream("SELECT * FROM int_set(?)", rs -> rs.getInt(1), 20000))
+                {
+                    Assertions.assertThat(rows.count()).isEqualTo(20000);
+                }
+            }
+            Assertions.assertThat(tuner.getFetchSize("gen_rows")).isLessThan(tuner.getFetchSize("int_set"));
+            Assertions.assertThat(tuner.getRoundTrip("gen_rows", TimeUnit.NANOSECONDS)).isGreaterThanOrEqualTo(0);
+        }
+    }
+
+    /**
+     * Reads rows of given width with fetch size chosen by tuner. Every fetch
+     * advances clock by round trip and transfer of its rows.
+     */
+    private void read(FetchSizeTuner tuner, String procedure, int rowCount, int width, long roundTripNanos,
+            long rowNanos) throws SQLException
+    {
+        FetchSizeTuner.Observation observation = tuner.observe(procedure, tuner.getFetchSize(procedure));
+        ResultSet resultSet = rows(rowCount, width, observation.getFetchSize(), roundTripNanos, rowNanos);
+        while (observation.next(resultSet))
+        {
+            resultSet.getObject(1);
+        }
+        observation.finish();
+    }
+
+    /**
+     * @return result set of single column of given width
+     */
+    private ResultSet rows(int rowCount, int width, int fetchSize, long roundTripNanos, long rowNanos)
+    {
+        int[] row =
+        {
+            0
+        };
+        byte[] value = new byte[width];
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                FetchSizeTunerTest.class.getClassLoader(), new Class<?>[]
+                {
+                    ResultSetMetaData.class
+                }, (proxy, method, args) -> 1);
+        return (ResultSet) Proxy.newProxyInstance(FetchSizeTunerTest.class.getClassLoader(), new Class<?>[]
+        {
+            ResultSet.class
+        }, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "next":
+                    if (row[0] > 0 && row[0] % fetchSize == 0 && row[0] < rowCount)
+                    {
+                        clock[0] += roundTripNanos + Math.min(fetchSize, rowCount - row[0]) * rowNanos;
+                    }
+                    return row[0]++ < rowCount;
+                case "getMetaData":
+                    return metaData;
+                case "getBytes":
+                    return value;
+                case "getObject":
+                    return Arrays.copyOf(value, 1);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
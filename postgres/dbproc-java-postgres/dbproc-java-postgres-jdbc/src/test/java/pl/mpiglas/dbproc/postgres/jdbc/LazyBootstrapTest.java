@@ -0,0 +1,119 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Building expensive objects once, in background.
+ *
+ * @author Milosz Piglas
+ */
+public class LazyBootstrapTest
+{
+
+    /**
+     * Callers started before bootstrap finished wait for the same object.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldBuildOnceInBackground() throws Exception
+    {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger builds = new AtomicInteger();
+        LazyBootstrap<String> bootstrap = new LazyBootstrap<>("test", phases ->
+        {
+            phases.time("wait", () ->
+            {
+                release.await();
+                return null;
+            });
+            return phases.time("build", () -> "built" + builds.incrementAndGet());
+        }).start();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String>> calls = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+            {
+                calls.add(executor.submit(bootstrap::get));
+            }
+            Thread.sleep(20);
+            Assertions.assertThat(bootstrap.isDone()).isFalse();
+            release.countDown();
+            for (Future<String> call : calls)
+            {
+                Assertions.assertThat(call.get()).isEqualTo("built1");
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        Assertions.assertThat(builds.get()).isEqualTo(1);
+        Assertions.assertThat(bootstrap.isBackground()).isTrue();
+        Assertions.assertThat(bootstrap.getPhases(TimeUnit.NANOSECONDS)).containsOnlyKeys("wait", "build");
+        Assertions.assertThat(bootstrap.getBootstrapTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+        Assertions.assertThat(bootstrap.getWaitTime(TimeUnit.NANOSECONDS)).isPositive();
+    }
+
+    @Test
+    public void shouldBuildInCallerIfNotStarted()
+    {
+        LazyBootstrap<String> bootstrap = new LazyBootstrap<>("test", phases -> Thread.currentThread().getName());
+        Assertions.assertThat(bootstrap.get()).isEqualTo(Thread.currentThread().getName());
+        Assertions.assertThat(bootstrap.isBackground()).isFalse();
+    }
+
+    @Test
+    public void shouldRethrowFailureAndSkipClosing()
+    {
+        LazyBootstrap<String> bootstrap = new LazyBootstrap<>("test", phases ->
+        {
+            throw new IOException("no database");
+        });
+        Assertions.assertThatThrownBy(bootstrap::get).isInstanceOf(IllegalStateException.class)
+                .hasCauseInstanceOf(IOException.class);
+        List<String> closed = new ArrayList<>();
+        bootstrap.close(closed::add);
+        Assertions.assertThat(closed).isEmpty();
+    }
+
+    /**
+     * Error of factory, like missing class of provider, is thrown by get and
+     * not again by close.
+     */
+    @Test
+    public void shouldSkipClosingAfterError()
+    {
+        LazyBootstrap<String> bootstrap = new LazyBootstrap<String>("test", phases ->
+        {
+            throw new NoClassDefFoundError("javax/xml/bind/JAXBException");
+        }).start();
+        Assertions.assertThatThrownBy(bootstrap::get).isInstanceOf(NoClassDefFoundError.class);
+        List<String> closed = new ArrayList<>();
+        bootstrap.close(closed::add);
+        Assertions.assertThat(closed).isEmpty();
+    }
+
+    @Test
+    public void shouldNotBuildAfterClose()
+    {
+        AtomicInteger builds = new AtomicInteger();
+        LazyBootstrap<Integer> bootstrap = new LazyBootstrap<>("test", phases -> builds.incrementAndGet());
+        bootstrap.close(value ->
+        {
+        });
+        Assertions.assertThatThrownBy(bootstrap::get).isInstanceOf(IllegalStateException.class);
+        Assertions.assertThat(builds.get()).isZero();
+    }
+}
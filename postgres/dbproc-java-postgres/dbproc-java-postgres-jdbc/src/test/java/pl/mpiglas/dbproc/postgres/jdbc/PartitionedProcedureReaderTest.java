@@ -0,0 +1,155 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Reading partitions of set-returning procedure on several connections.
+ *
+ * @author Milosz Piglas
+ */
+public class PartitionedProcedureReaderTest
+{
+
+    private static final String GEN_ROWS_RANGE = "SELECT * FROM gen_rows_range(?, ?)";
+
+    @Test
+    public void shouldSplitRangeIntoContiguousPartitions()
+    {
+        List<Object[]> ranges = PartitionedProcedureReader.ranges(0, 10, 3);
+        Assertions.assertThat(ranges).hasSize(3);
+        Assertions.assertThat(ranges.get(0)).containsExactly(0, 3);
+        Assertions.assertThat(ranges.get(1)).containsExactly(3, 6);
+        Assertions.assertThat(ranges.get(2)).containsExactly(6, 10);
+        Assertions.assertThat(PartitionedProcedureReader.ranges(0, 2, 4)).hasSize(2);
+        Assertions.assertThat(PartitionedProcedureReader.ranges(5, 5, 4)).isEmpty();
+    }
+
+    @Test
+    public void shouldReportFailureOfConnectionSource()
+    {
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() ->
+        {
+            throw new SQLException("No connection", "08001");
+        }, 2))
+        {
+            Assertions.assertThatThrownBy(() -> reader.collect(GEN_ROWS_RANGE,
+                    PartitionedProcedureReader.ranges(0, 10, 4), rs -> rs.getInt(2), Collectors.counting()))
+                    .isInstanceOf(SQLException.class).hasMessage("No connection");
+            Assertions.assertThatThrownBy(() ->
+            {
+                try (Stream<Integer> rows = reader.stream(GEN_ROWS_RANGE,
+                        PartitionedProcedureReader.ranges(0, 10, 4), rs -> rs.getInt(2), true))
+                {
+                    rows.count();
+                }
+            }).isInstanceOf(UncheckedSQLException.class).hasCauseInstanceOf(SQLException.class);
+        }
+    }
+
+    /**
+     * Ordered partitions read on several connections give the same rows as
+     * single call of <code>gen_rows</code>.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldMergePartitionsInOrder() throws Exception
+    {
+        Properties props = connectionProperties();
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() -> connect(props), 3, 7,
+                AsyncProcedureCaller.newExecutor(3));
+                Stream<Integer> rows = reader.stream(GEN_ROWS_RANGE, PartitionedProcedureReader.ranges(0, 1000, 8),
+                        rs -> rs.getInt(2), true))
+        {
+            Assertions.assertThat(rows.collect(Collectors.toList()))
+                    .isEqualTo(IntStream.rangeClosed(1, 1000).boxed().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void shouldMergePartitionsUnordered() throws Exception
+    {
+        Properties props = connectionProperties();
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() -> connect(props), 4);
+                Stream<String> rows = reader.stream(GEN_ROWS_RANGE, PartitionedProcedureReader.ranges(0, 1000, 4),
+                        rs -> rs.getString(1), false))
+        {
+            Assertions.assertThat(rows.collect(Collectors.toSet())).hasSize(1000).contains("ROW0", "ROW999");
+        }
+    }
+
+    /**
+     * Workers share tuner, which learns row width of procedure from
+     * partitions.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldTuneFetchSizeOfPartitions() throws Exception
+    {
+        Properties props = connectionProperties();
+        FetchSizeTuner tuner = new FetchSizeTuner();
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() -> connect(props), 2))
+        {
+            reader.setFetchSizeTuner(tuner);
+            long count = reader.collect(GEN_ROWS_RANGE, PartitionedProcedureReader.ranges(0, 1000, 4),
+                    rs -> rs.getString(1), Collectors.counting());
+            Assertions.assertThat(count).isEqualTo(1000);
+        }
+        Assertions.assertThat(tuner.getBytesPerRow("gen_rows_range")).isPositive();
+    }
+
+    @Test
+    public void shouldReducePartitions() throws Exception
+    {
+        Properties props = connectionProperties();
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() -> connect(props), 4))
+        {
+            long sum = reader.collect(GEN_ROWS_RANGE, PartitionedProcedureReader.ranges(0, 1000, 16),
+                    rs -> rs.getInt(2), Collectors.summingLong(Integer::longValue));
+            Assertions.assertThat(sum).isEqualTo(1000L * 1001 / 2);
+        }
+    }
+
+    /**
+     * Stream closed early stops workers.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldStopWorkersWhenClosedEarly() throws Exception
+    {
+        Properties props = connectionProperties();
+        try (PartitionedProcedureReader reader = new PartitionedProcedureReader(() -> connect(props), 2))
+        {
+            try (Stream<Integer> rows = reader.stream(GEN_ROWS_RANGE,
+                    PartitionedProcedureReader.ranges(0, 10000000, 4), rs -> rs.getInt(2), true))
+            {
+                Assertions.assertThat(rows.limit(3).collect(Collectors.toList())).containsExactly(1, 2, 3);
+            }
+        }
+    }
+
+    private Properties connectionProperties() throws IOException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        return props;
+    }
+
+    private static Connection connect(Properties props) throws SQLException
+    {
+        return DriverManager.getConnection(props.getProperty("url"), props.getProperty("user"),
+                props.getProperty("password"));
+    }
+}
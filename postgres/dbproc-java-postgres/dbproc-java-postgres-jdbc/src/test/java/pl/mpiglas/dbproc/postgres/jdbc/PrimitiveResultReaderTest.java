@@ -0,0 +1,106 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Reading sets of numbers without boxing.
+ *
+ * @author Milosz Piglas
+ */
+public class PrimitiveResultReaderTest
+{
+
+    @BeforeClass
+    public static void loadClass() throws ClassNotFoundException
+    {
+        Class.forName("org.postgresql.Driver");
+    }
+    private Connection pgCon;
+
+    @Before
+    public void setup() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+
+    /**
+     * Values are collected into reused buffer, growing past its initial
+     * capacity.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldFillReusedBuffer() throws SQLException
+    {
+        PrimitiveResultReader reader = new PrimitiveResultReader(pgCon, 3);
+        PrimitiveResultReader.IntArray values = new PrimitiveResultReader.IntArray(2);
+        for (int call = 0; call < 2; call++)
+        {
+            values.clear();
+            Assertions.assertThat(reader.forEachInt("SELECT * FROM int_set(?)", values, 10)).isEqualTo(10);
+            Assertions.assertThat(values.toArray()).containsExactly(100, 200, 300, 400, 500, 600, 700, 800, 900, 1000);
+        }
+        Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+    }
+
+    @Test
+    public void shouldReadLongs() throws SQLException
+    {
+        PrimitiveResultReader reader = new PrimitiveResultReader(pgCon);
+        Assertions.assertThat(reader.readLongs("{call int_set(?)}", 3)).containsExactly(100L, 200L, 300L);
+    }
+
+    /**
+     * NULL is not read as 0.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldRejectNull() throws SQLException
+    {
+        PrimitiveResultReader reader = new PrimitiveResultReader(pgCon);
+        Assertions.assertThatThrownBy(() -> reader.readInts("SELECT * FROM (VALUES (1), (NULL::int)) AS v(x)"))
+                .isInstanceOf(SQLException.class).hasMessageContaining("Row 2");
+        Assertions.assertThat(reader.readDoubles("SELECT * FROM (VALUES (0.0::float8)) AS v(x)")).containsExactly(0.0);
+    }
+
+    /**
+     * Stream closed before reading all rows releases cursor.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldStreamInts() throws SQLException
+    {
+        PrimitiveResultReader reader = new PrimitiveResultReader(pgCon, 2);
+        try (IntStream values = reader.intStream("SELECT * FROM int_set(?)", 100))
+        {
+            Assertions.assertThat(values.limit(5).sum()).isEqualTo(1500);
+        }
+        try (LongStream values = reader.longStream("SELECT * FROM int_set(?)", 4))
+        {
+            Assertions.assertThat(values.sum()).isEqualTo(1000L);
+        }
+        Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+    }
+
+    @After
+    public void releaseResources() throws SQLException
+    {
+        pgCon.close();
+    }
+}
@@ -0,0 +1,114 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Calling procedures for many argument tuples in single statement.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureBatchTest
+{
+
+    @BeforeClass
+    public static void loadClass() throws ClassNotFoundException
+    {
+        Class.forName("org.postgresql.Driver");
+    }
+    private Connection pgCon;
+    private ProcedureRegistry registry;
+
+    @Before
+    public void setup() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+        registry = ProcedureRegistry.introspect(pgCon, "public");
+    }
+
+    /**
+     * Procedure with two OUT parameters is called for tuples split into
+     * several chunks. Results keep order of arguments.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReturnResultsInInputOrder() throws SQLException
+    {
+        List<Object[]> args = new ArrayList<>();
+        for (int i = 1; i <= 25; i++)
+        {
+            args.add(new Object[]
+            {
+                100 + i, i
+            });
+        }
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            ProcedureBatch batch = new ProcedureBatch(caller, 10);
+            List<Object[]> result = batch.call(registry.get("modmul"), args);
+
+            Assertions.assertThat(result).hasSize(25);
+            for (int i = 1; i <= 25; i++)
+            {
+                Assertions.assertThat(result.get(i - 1)).containsExactly((100 + i) / i, (100 + i) % i);
+            }
+            Assertions.assertThat(caller.getStatementCache().getMisses()).isEqualTo(1);
+        }
+    }
+
+    /**
+     * Values returned from scalar procedure are mapped with row mapper.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldMapScalarResults() throws SQLException
+    {
+        List<Object[]> args = new ArrayList<>();
+        args.add(new Object[]
+        {
+            100, 11
+        });
+        args.add(new Object[]
+        {
+            1, 2
+        });
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            List<Integer> result = new ProcedureBatch(caller).call(registry.get("num_sum"), args, rs -> rs.getInt(1));
+            Assertions.assertThat(result).containsExactly(111, 3);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectSetReturningProcedure() throws SQLException
+    {
+        ProcedureMetadata genRows = registry.get("gen_rows");
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            new ProcedureBatch(caller).call(genRows, new ArrayList<>());
+        }
+    }
+
+    @After
+    public void releaseResources() throws SQLException
+    {
+        pgCon.close();
+    }
+}
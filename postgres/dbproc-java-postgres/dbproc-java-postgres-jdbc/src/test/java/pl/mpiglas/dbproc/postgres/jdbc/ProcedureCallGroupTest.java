@@ -0,0 +1,79 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter.Mode;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Calling several procedures in one round trip.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureCallGroupTest
+{
+
+    private static final ProcedureMetadata NUM_SUM = new ProcedureMetadata("num_sum", Arrays.asList(
+            new ProcedureParameter("anum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("bnum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("returnValue", Mode.RETURN, Types.INTEGER, "int4")), false);
+    private static final ProcedureMetadata OUT_TEXT = new ProcedureMetadata("out_text", Arrays.asList(
+            new ProcedureParameter("txt", Mode.OUT, Types.VARCHAR, "varchar")), false);
+
+    @Test
+    public void shouldMergeCallsIntoSingleStatement()
+    {
+        Assertions.assertThat(ProcedureCallGroup.mergedSql(Arrays.asList(NUM_SUM, OUT_TEXT)))
+                .isEqualTo("SELECT * FROM num_sum(?::int4, ?::int4) c1, out_text() c2");
+        Assertions.assertThat(ProcedureCallGroup.pipelinedSql(Arrays.asList(NUM_SUM, OUT_TEXT)))
+                .isEqualTo("SELECT * FROM num_sum(?::int4, ?::int4); SELECT * FROM out_text()");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWrongArgumentCount()
+    {
+        new ProcedureCallGroup(null).add(NUM_SUM, 1);
+    }
+
+    /**
+     * Outputs of merged and pipelined calls are split per call.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldSplitOutputsPerCall() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+                ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            ProcedureRegistry registry = ProcedureRegistry.introspect(pgCon, "public");
+            ProcedureCallGroup group = new ProcedureCallGroup(caller);
+            for (int round = 0; round < 2; round++)
+            {
+                int sum = group.add(registry.get("num_sum"), 100, 11);
+                int text = group.add(registry.get("out_text"));
+                int mod = group.add(registry.get("modmul"), 10, 3);
+                List<Object[]> out = round == 0 ? group.execute() : group.executePipelined();
+
+                Assertions.assertThat(out.get(sum)).containsExactly(111);
+                Assertions.assertThat(out.get(text)).containsExactly("out_text_result");
+                Assertions.assertThat(out.get(mod)).containsExactly(3, 1);
+                Assertions.assertThat(group.size()).isZero();
+            }
+        }
+    }
+}
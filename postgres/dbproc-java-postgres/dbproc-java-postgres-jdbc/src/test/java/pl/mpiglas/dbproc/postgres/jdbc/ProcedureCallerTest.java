@@ -0,0 +1,127 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Calling procedures with cached statements.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureCallerTest
+{
+
+    private static final ProcedureSignature NUM_SUM = ProcedureSignature.of("num_sum", "{? = call num_sum(?, ?)}")
+            .withOutParameter(1, Types.INTEGER);
+    private static final ProcedureSignature MODMUL = ProcedureSignature.of("modmul", "{call modmul(?, ?, ?, ?)}")
+            .withOutParameter(3, Types.INTEGER)
+            .withOutParameter(4, Types.INTEGER);
+    private static final ProcedureSignature INT_SET = ProcedureSignature.of("int_set", "SELECT * FROM int_set(?)");
+
+    @BeforeClass
+    public static void loadClass() throws ClassNotFoundException
+    {
+        Class.forName("org.postgresql.Driver");
+    }
+    private Connection pgCon;
+
+    @Before
+    public void setup() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+
+    /**
+     * Repeated calls reuse single statement with registered output parameter.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReuseStatementForRepeatedCalls() throws SQLException
+    {
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            for (int i = 0; i < 5; i++)
+            {
+                Object[] out = caller.call(NUM_SUM, 100, i);
+                Assertions.assertThat(out).containsExactly(100 + i);
+            }
+            StatementCache cache = caller.getStatementCache();
+            Assertions.assertThat(cache.getMisses()).isEqualTo(1);
+            Assertions.assertThat(cache.getHits()).isEqualTo(4);
+            Assertions.assertThat(cache.getHitRatio()).isEqualTo(0.8);
+        }
+    }
+
+    /**
+     * Output parameters are returned in order of their indexes.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReadOutParameters() throws SQLException
+    {
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            Assertions.assertThat(caller.call(MODMUL, 10, 3)).containsExactly(3, 1);
+            Assertions.assertThat(caller.call(MODMUL, 20, 6)).containsExactly(3, 2);
+        }
+    }
+
+    /**
+     * Rows of set-returning procedure are mapped with row mapper.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldQueryRows() throws SQLException
+    {
+        try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+        {
+            List<Integer> result = caller.query(INT_SET, rs -> rs.getInt(1), 4);
+            Assertions.assertThat(result).containsExactly(100, 200, 300, 400);
+        }
+    }
+
+    /**
+     * Least recently used statement is closed when cache is full.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldEvictLeastRecentlyUsedStatement() throws SQLException
+    {
+        try (StatementCache cache = new StatementCache(pgCon, 2))
+        {
+            PreparedStatement numSum = cache.prepare(NUM_SUM);
+            cache.prepare(MODMUL);
+            cache.prepare(NUM_SUM);
+            cache.prepare(INT_SET);
+
+            Assertions.assertThat(cache.contains(NUM_SUM)).isTrue();
+            Assertions.assertThat(cache.contains(MODMUL)).isFalse();
+            Assertions.assertThat(cache.getEvictions()).isEqualTo(1);
+            Assertions.assertThat(numSum.isClosed()).isFalse();
+        }
+    }
+
+    @After
+    public void releaseResources() throws SQLException
+    {
+        pgCon.close();
+    }
+}
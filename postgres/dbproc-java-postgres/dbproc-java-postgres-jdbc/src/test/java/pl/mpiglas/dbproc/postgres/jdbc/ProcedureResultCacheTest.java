@@ -0,0 +1,191 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Caching results of immutable procedures.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureResultCacheTest
+{
+
+    private static final ProcedureSignature NUM_SUM = ProcedureSignature.of("num_sum", "SELECT num_sum(?, ?)");
+
+    @Test
+    public void shouldServeRepeatedCallsFromCache() throws SQLException
+    {
+        ProcedureResultCache cache = new ProcedureResultCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++)
+        {
+            Object[] result = cache.get(NUM_SUM, new Object[]
+            {
+                1, 2
+            }, () -> new Object[]
+            {
+                loads.incrementAndGet()
+            });
+            Assertions.assertThat(result).containsExactly(1);
+        }
+
+        Assertions.assertThat(loads.get()).isEqualTo(1);
+        Assertions.assertThat(cache.getHits()).isEqualTo(2);
+        Assertions.assertThat(cache.getHitRatio()).isEqualTo(2.0 / 3.0);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedAndExpiredResults() throws SQLException, InterruptedException
+    {
+        ProcedureResultCache cache = new ProcedureResultCache(2, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 3; i++)
+        {
+            int value = i;
+            cache.get(NUM_SUM, new Object[]
+            {
+                value, value
+            }, () -> new Object[]
+            {
+                value
+            });
+        }
+        Assertions.assertThat(cache.size()).isEqualTo(2);
+        Assertions.assertThat(cache.getEvictions()).isEqualTo(1);
+
+        Thread.sleep(100);
+        cache.get(NUM_SUM, new Object[]
+        {
+            2, 2
+        }, () -> new Object[]
+        {
+            2
+        });
+        Assertions.assertThat(cache.getExpirations()).isEqualTo(1);
+        Assertions.assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    /**
+     * Concurrent calls with the same arguments wait for the first one.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void shouldCoalesceConcurrentCalls() throws Exception
+    {
+        ProcedureResultCache cache = new ProcedureResultCache();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Object[]>> calls = new ArrayList<>();
+            calls.add(executor.submit(() -> cache.get(NUM_SUM, new Object[]
+            {
+                1, 2
+            }, () ->
+            {
+                loads.incrementAndGet();
+                loading.countDown();
+                awaitQuietly(release);
+                return new Object[]
+                {
+                    3
+                };
+            })));
+            loading.await();
+            for (int i = 0; i < 3; i++)
+            {
+                calls.add(executor.submit(() -> cache.get(NUM_SUM, new Object[]
+                {
+                    1, 2
+                }, () -> new Object[]
+                {
+                    loads.incrementAndGet()
+                })));
+            }
+            while (cache.getCoalesced() < 3)
+            {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Object[]> call : calls)
+            {
+                Assertions.assertThat(call.get()).containsExactly(3);
+            }
+            Assertions.assertThat(loads.get()).isEqualTo(1);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void shouldNotCacheFailures()
+    {
+        ProcedureResultCache cache = new ProcedureResultCache();
+        Assertions.assertThatThrownBy(() -> cache.get(NUM_SUM, new Object[0], () ->
+        {
+            throw new SQLException("division by zero");
+        })).isInstanceOf(SQLException.class);
+        Assertions.assertThat(cache.size()).isZero();
+    }
+
+    /**
+     * Immutable sample procedures are detected from catalog and their
+     * results are cached by caller.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldEnableImmutableProceduresFromCatalog() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            ProcedureResultCache results = new ProcedureResultCache();
+            Assertions.assertThat(results.enableFromCatalog(pgCon, "public", false))
+                    .contains("num_sum", "modmul").doesNotContain("gen_rows");
+
+            try (ProcedureCaller caller = new ProcedureCaller(new StatementCache(pgCon), results))
+            {
+                Assertions.assertThat(caller.call(NUM_SUM, 100, 11)).containsExactly(111);
+                Assertions.assertThat(caller.call(NUM_SUM, 100, 11)).containsExactly(111);
+                Assertions.assertThat(caller.getStatementCache().getMisses()).isEqualTo(1);
+                Assertions.assertThat(caller.getStatementCache().getHits()).isZero();
+                Assertions.assertThat(results.getHits()).isEqualTo(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Streaming results of set-returning procedures.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureStreamReaderTest
+{
+
+    @BeforeClass
+    public static void loadClass() throws ClassNotFoundException
+    {
+        Class.forName("org.postgresql.Driver");
+    }
+    private Connection pgCon;
+
+    @Before
+    public void setup() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+
+    /**
+     * Rows are read in batches smaller than result, so driver has to use
+     * cursor.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldStreamRecordsInBatches() throws SQLException
+    {
+        ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 3);
+        try (Stream<String> rows = reader.stream("SELECT * FROM gen_rows(?)",
+                rs -> rs.getString(1) + ":" + rs.getInt(2), 10))
+        {
+            List<String> result = rows.collect(Collectors.toList());
+            Assertions.assertThat(result).hasSize(10);
+            Assertions.assertThat(result).startsWith("ROW0:1", "ROW1:2").endsWith("ROW9:10");
+        }
+        Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+    }
+
+    /**
+     * Stream closed before reading all rows releases cursor and restores
+     * auto-commit.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReleaseCursorWhenClosedEarly() throws SQLException
+    {
+        ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 2);
+        try (Stream<Integer> rows = reader.stream("{call int_set(?)}", rs -> rs.getInt(1), 100))
+        {
+            Assertions.assertThat(rows.limit(3).collect(Collectors.toList())).containsExactly(100, 200, 300);
+        }
+        Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+    }
+
+    /**
+     * Reader does not end transaction started by caller.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldKeepCallerTransaction() throws SQLException
+    {
+        pgCon.setAutoCommit(false);
+        ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 4);
+        try (ProcedureResultIterator<Integer> rows = reader.iterator("SELECT * FROM int_set(?)", rs -> rs.getInt(1), 10))
+        {
+            int count = 0;
+            while (rows.hasNext())
+            {
+                count++;
+                Assertions.assertThat(rows.next()).isEqualTo(count * 100);
+            }
+            Assertions.assertThat(count).isEqualTo(10);
+        }
+        Assertions.assertThat(pgCon.getAutoCommit()).isFalse();
+        pgCon.rollback();
+    }
+
+    @After
+    public void releaseResources() throws SQLException
+    {
+        pgCon.close();
+    }
+}
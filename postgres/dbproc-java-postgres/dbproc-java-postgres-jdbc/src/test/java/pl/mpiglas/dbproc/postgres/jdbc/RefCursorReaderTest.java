@@ -0,0 +1,90 @@
+package pl.mpiglas.dbproc.postgres.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Reading cursors returned from procedures.
+ *
+ * @author Milosz Piglas
+ */
+public class RefCursorReaderTest
+{
+
+    @Test
+    public void shouldQuoteCursorName()
+    {
+        Assertions.assertThat(RefCursors.quote("<unnamed portal 1>")).isEqualTo("\"<unnamed portal 1>\"");
+        Assertions.assertThat(RefCursors.quote("a\"b")).isEqualTo("\"a\"\"b\"");
+    }
+
+    /**
+     * Single cursor is read in several batches.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldFetchCursorInBatches() throws IOException, SQLException
+    {
+        try (Connection pgCon = connect();
+                RefCursors cursors = new RefCursorReader(pgCon, 100).call("SELECT gen_rows_cursor(?)", 1050);
+                Stream<String> rows = cursors.stream(0, rs -> rs.getString(1) + ":" + rs.getInt(2)))
+        {
+            List<String> all = rows.collect(Collectors.toList());
+            Assertions.assertThat(all).hasSize(1050).startsWith("ROW0:1").endsWith("ROW1049:1050");
+            cursors.close();
+            Assertions.assertThat(pgCon.getAutoCommit()).isTrue();
+        }
+    }
+
+    /**
+     * Two cursors returned from one call are read interleaved.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReadCursorsIndependently() throws IOException, SQLException
+    {
+        try (Connection pgCon = connect();
+                RefCursors cursors = new RefCursorReader(pgCon, 3).call("SELECT * FROM rows_and_ints(?, ?)", 10, 5))
+        {
+            Assertions.assertThat(cursors.size()).isEqualTo(2);
+            RefCursors.Cursor<String> rows = cursors.iterator(0, rs -> rs.getString(1));
+            RefCursors.Cursor<Integer> ints = cursors.iterator(1, rs -> rs.getInt(1));
+            List<Object> interleaved = new ArrayList<>();
+            while (rows.hasNext() || ints.hasNext())
+            {
+                if (ints.hasNext())
+                {
+                    interleaved.add(ints.next());
+                }
+                if (rows.hasNext())
+                {
+                    interleaved.add(rows.next());
+                }
+            }
+            Assertions.assertThat(interleaved).hasSize(15).startsWith(100, "ROW0", 200, "ROW1");
+            Assertions.assertThatThrownBy(() -> cursors.iterator(0, rs -> rs.getString(1)))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    private Connection connect() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("jdbc-connection.properties"));
+        return DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password"));
+    }
+}
@@ -0,0 +1,215 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.postgresql.core.Oid;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * Binary encoding and decoding of composite type <code>ctype</code>.
+ *
+ * @author Milosz Piglas
+ */
+public class CompositeTypeTest
+{
+
+    private static final int CTYPE_OID = 16400;
+    private static final int CTYPE_ARRAY_OID = 16399;
+
+    /**
+     * Value of <code>record_send</code> is decoded to record.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldDecodeRecord() throws IOException, SQLException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(2);
+        out.writeInt(Oid.VARCHAR);
+        out.writeInt(4);
+        out.write("ROW1".getBytes(StandardCharsets.UTF_8));
+        out.writeInt(Oid.INT4);
+        out.writeInt(4);
+        out.writeInt(2);
+
+        Assertions.assertThat(ctype(new CompositeTypeRegistry()).decode(bytes.toByteArray()))
+                .isEqualTo(new CType("ROW1", 2));
+    }
+
+    /**
+     * Records and arrays are encoded in binary format and decoded back.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldEncodeRecordsAndArrays() throws SQLException
+    {
+        CompositeType<CType> ctype = ctype(new CompositeTypeRegistry());
+        List<CType> values = Arrays.asList(new CType("a b", 1), new CType(null, 2), null);
+
+        PGobject record = ctype.encode(values.get(0));
+        PGobject array = ctype.encodeArray(values);
+
+        Assertions.assertThat(record.getType()).isEqualTo("ctype");
+        Assertions.assertThat(ctype.decode(bytes(record))).isEqualTo(values.get(0));
+        Assertions.assertThat(array.getType()).isEqualTo("_ctype");
+        Assertions.assertThat(ctype.decodeArray(bytes(array))).containsExactlyElementsOf(values);
+    }
+
+    /**
+     * Text value is used when driver does not send type in binary format.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldFormatTextValue() throws SQLException
+    {
+        CompositeType<CType> ctype = ctype(new CompositeTypeRegistry());
+
+        Assertions.assertThat(ctype.encode(new CType("a \"b\"", 1)).getValue()).isEqualTo("(\"a \"\"b\"\"\",1)");
+        Assertions.assertThat(ctype.encodeArray(Arrays.asList(new CType("x", 1), new CType(null, 2))).getValue())
+                .isEqualTo("{\"(x,1)\",\"(,2)\"}");
+    }
+
+    @Test
+    public void shouldEncodeAndDecodeNumeric() throws IOException, SQLException
+    {
+        for (String number : Arrays.asList("0", "1.5", "-12345.6789", "0.00005", "100000000", "1E+5", "10000.0000"))
+        {
+            BigDecimal value = new BigDecimal(number);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryCodec.encode(new DataOutputStream(bytes), Oid.NUMERIC, value, null);
+            Object decoded = BinaryCodec.decode(ByteBuffer.wrap(bytes.toByteArray()), Oid.NUMERIC, bytes.size(), null);
+            Assertions.assertThat((BigDecimal) decoded).isEqualByComparingTo(value);
+        }
+    }
+
+    /**
+     * Results of <code>gen_rows</code> are read in binary format, parameters
+     * are accepted by database.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldReadAndWriteCtypeInDatabase() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            CompositeTypeRegistry registry = new CompositeTypeRegistry();
+            CompositeType<CType> ctype = registry.register(pgCon, "ctype", CType.class,
+                    fields -> new CType((String) fields[0], (Integer) fields[1]),
+                    c -> new Object[]
+                    {
+                        c.str, c.num
+                    });
+
+            List<CType> rows = new ArrayList<>();
+            try (PreparedStatement statement = pgCon.prepareStatement("SELECT record_send(r) FROM gen_rows(?) r"))
+            {
+                statement.setInt(1, 3);
+                try (ResultSet resultSet = statement.executeQuery())
+                {
+                    while (resultSet.next())
+                    {
+                        rows.add(ctype.read(resultSet, 1));
+                    }
+                }
+            }
+            Assertions.assertThat(rows).containsExactly(new CType("ROW0", 1), new CType("ROW1", 2), new CType("ROW2", 3));
+
+            try (PreparedStatement statement = pgCon.prepareStatement("SELECT array_send(?::ctype[])"))
+            {
+                statement.setObject(1, ctype.encodeArray(rows));
+                try (ResultSet resultSet = statement.executeQuery())
+                {
+                    resultSet.next();
+                    Assertions.assertThat(ctype.readArray(resultSet, 1)).containsExactlyElementsOf(rows);
+                }
+            }
+        }
+    }
+
+    private static CompositeType<CType> ctype(CompositeTypeRegistry registry)
+    {
+        CompositeType<CType> ctype = new CompositeType<>(registry, "ctype", CTYPE_OID, "_ctype", CTYPE_ARRAY_OID,
+                Arrays.asList("str", "num"), new int[]
+                {
+                    Oid.VARCHAR, Oid.INT4
+                }, CType.class,
+                fields -> new CType((String) fields[0], (Integer) fields[1]),
+                c -> new Object[]
+                {
+                    c.str, c.num
+                });
+        registry.add(ctype);
+        return ctype;
+    }
+
+    private static byte[] bytes(PGobject value)
+    {
+        PGBinaryObject binary = (PGBinaryObject) value;
+        byte[] bytes = new byte[binary.lengthInBytes()];
+        binary.toBytes(bytes, 0);
+        return bytes;
+    }
+
+    static final class CType
+    {
+
+        private final String str;
+        private final Integer num;
+
+        CType(String str, Integer num)
+        {
+            this.str = str;
+            this.num = num;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof CType))
+            {
+                return false;
+            }
+            CType other = (CType) obj;
+            return Objects.equals(str, other.str) && Objects.equals(num, other.num);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(str, num);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + str + "," + num + ")";
+        }
+    }
+}
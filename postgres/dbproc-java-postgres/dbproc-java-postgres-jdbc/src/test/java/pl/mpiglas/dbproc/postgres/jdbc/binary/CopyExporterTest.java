@@ -0,0 +1,165 @@
+package pl.mpiglas.dbproc.postgres.jdbc.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.postgresql.core.Oid;
+
+/**
+ * Exporting procedure output with binary COPY.
+ *
+ * @author Milosz Piglas
+ */
+public class CopyExporterTest
+{
+
+    @Test
+    public void shouldInlineArguments() throws SQLException
+    {
+        Assertions.assertThat(CopyExporter.inline("SELECT * FROM f(?, ?, '?', ?)", new Object[]
+        {
+            10, "it's \\", null
+        }, true)).isEqualTo("SELECT * FROM f(10, E'it''s \\\\', '?', NULL)");
+        Assertions.assertThat(CopyExporter.inline("SELECT * FROM f(10-?, ?)", new Object[]
+        {
+            -1, -2.5
+        }, true)).isEqualTo("SELECT * FROM f(10-(-1), (-2.5))");
+    }
+
+    /**
+     * Question marks and apostrophes in comments, dollar quoted bodies and
+     * escaped strings are not placeholders.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldSkipCommentsAndQuotedBodies() throws SQLException
+    {
+        Object[] args =
+        {
+            1, 2
+        };
+        Assertions.assertThat(CopyExporter.inline("SELECT * FROM f(?) -- isn't it?\n, g(?)", args, true))
+                .isEqualTo("SELECT * FROM f(1) -- isn't it?\n, g(2)");
+        Assertions.assertThat(CopyExporter.inline("SELECT /* why? don't */ f(?), $$?'$$, $tag$?$tag$, ?", args, true))
+                .isEqualTo("SELECT /* why? don't */ f(1), $$?'$$, $tag$?$tag$, 2");
+        Assertions.assertThat(CopyExporter.inline("SELECT E'\\'?', ?, ?", args, true))
+                .isEqualTo("SELECT E'\\'?', 1, 2");
+        Assertions.assertThat(CopyExporter.inline("SELECT '\\'?', ?, ?", args, false))
+                .isEqualTo("SELECT '\\'?', 1, 2");
+    }
+
+    @Test
+    public void shouldRejectMismatchedArguments()
+    {
+        Assertions.assertThatThrownBy(() -> CopyExporter.inline("SELECT * FROM f(?, '?')", new Object[]
+        {
+            1, 2
+        }, true)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("1 placeholders");
+        Assertions.assertThatThrownBy(() -> CopyExporter.inline("SELECT f(?); SELECT g(?)", new Object[]
+        {
+            1, 2
+        }, true)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("single query");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnsupportedArgument() throws SQLException
+    {
+        CopyExporter.inline("SELECT * FROM f(?)", new Object[]
+        {
+            new Object()
+        }, true);
+    }
+
+    /**
+     * Rows split between chunks are decoded when the rest arrives.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldDecodeRowsSplitBetweenChunks() throws IOException, SQLException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]
+        {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+        });
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int i = 0; i < 3; i++)
+        {
+            byte[] str = ("ROW" + i).getBytes(StandardCharsets.UTF_8);
+            out.writeShort(2);
+            out.writeInt(str.length);
+            out.write(str);
+            out.writeInt(4);
+            out.writeInt(i + 1);
+        }
+        out.writeShort(-1);
+        byte[] data = bytes.toByteArray();
+
+        BinaryCopyDecoder decoder = new BinaryCopyDecoder(new int[]
+        {
+            Oid.VARCHAR, Oid.INT4
+        }, null);
+        List<String> rows = new ArrayList<>();
+        for (int from = 0; from < data.length; from += 7)
+        {
+            decoder.feed(ByteBuffer.wrap(data, from, Math.min(7, data.length - from)),
+                    values -> values[0] + ":" + values[1], rows::add);
+        }
+
+        Assertions.assertThat(decoder.isFinished()).isTrue();
+        Assertions.assertThat(rows).containsExactly("ROW0:1", "ROW1:2", "ROW2:3");
+    }
+
+    /**
+     * Output of <code>gen_rows</code> is exported to mapped file and decoded
+     * while copied.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldExportGenRows() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        Path file = Files.createTempFile("gen_rows", ".copy");
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            CopyExporter exporter = new CopyExporter(pgCon);
+            MappedByteBuffer mapped = exporter.exportMapped("SELECT * FROM gen_rows(?)", file, 1000);
+            List<String> rows = new ArrayList<>();
+            long count = new BinaryCopyDecoder(exporter.columnTypes("SELECT * FROM gen_rows(?)", 1000), null)
+                    .decode(mapped, values -> values[0] + ":" + values[1], rows::add);
+
+            Assertions.assertThat(count).isEqualTo(1000);
+            Assertions.assertThat(rows).startsWith("ROW0:1").endsWith("ROW999:1000");
+
+            List<Integer> values = new ArrayList<>();
+            exporter.decode("SELECT * FROM int_set(?)", columns -> (Integer) columns[0], values::add, 5);
+            Assertions.assertThat(values).containsExactly(100, 200, 300, 400, 500);
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+}
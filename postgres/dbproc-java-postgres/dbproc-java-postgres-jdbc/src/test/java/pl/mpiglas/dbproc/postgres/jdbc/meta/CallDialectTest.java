@@ -0,0 +1,172 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureCaller;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter.Mode;
+
+/**
+ * Routing procedures to the cheapest call form.
+ *
+ * @author Milosz Piglas
+ */
+public class CallDialectTest
+{
+
+    private static final String DRIVER = "PostgreSQL JDBC Driver 9.4.1211";
+    private static final ProcedureMetadata NUM_SUM = new ProcedureMetadata("num_sum", Arrays.asList(
+            new ProcedureParameter("anum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("bnum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("returnValue", Mode.RETURN, Types.INTEGER, "int4")), false);
+    private static final ProcedureMetadata MODMUL = new ProcedureMetadata("modmul", Arrays.asList(
+            new ProcedureParameter("anum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("bnum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("result", Mode.OUT, Types.INTEGER, "int4"),
+            new ProcedureParameter("modulo", Mode.OUT, Types.INTEGER, "int4")), false);
+    private static final ProcedureMetadata GEN_ROWS = new ProcedureMetadata("gen_rows", Arrays.asList(
+            new ProcedureParameter("nrows", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("str", Mode.RESULT, Types.VARCHAR, "varchar"),
+            new ProcedureParameter("num", Mode.RESULT, Types.INTEGER, "int4")), true);
+    private static final ProcedureRegistry REGISTRY = new ProcedureRegistry(Arrays.asList(NUM_SUM, MODMUL,
+            GEN_ROWS));
+
+    /**
+     * Every procedure shape has its own equivalent forms.
+     */
+    @Test
+    public void shouldListFormsOfProcedureShape()
+    {
+        Assertions.assertThat(CallForm.supported(NUM_SUM)).containsExactly(CallForm.SELECT_FROM,
+                CallForm.SELECT_VALUE, CallForm.CALL_RESULT_SET, CallForm.CALL_RETURN);
+        Assertions.assertThat(CallForm.supported(MODMUL)).containsExactly(CallForm.SELECT_FROM,
+                CallForm.CALL_RESULT_SET, CallForm.CALL_OUT_PARAMETERS);
+        Assertions.assertThat(CallForm.supported(GEN_ROWS)).containsExactly(CallForm.SELECT_FROM,
+                CallForm.CALL_RESULT_SET);
+        Assertions.assertThat(CallForm.CALL_OUT_PARAMETERS.signature(MODMUL)).isEqualTo(
+                ProcedureSignature.of("modmul", "{call modmul(?, ?, ?, ?)}")
+                .withOutParameter(3, Types.INTEGER)
+                .withOutParameter(4, Types.INTEGER));
+        Assertions.assertThat(CallForm.SELECT_VALUE.signature(NUM_SUM).getSql()).isEqualTo("SELECT num_sum(?, ?)");
+    }
+
+    /**
+     * Procedures without chosen form are called as before.
+     */
+    @Test
+    public void shouldRouteToChosenForm()
+    {
+        CallDialect dialect = new CallDialect(REGISTRY, DRIVER);
+        Assertions.assertThat(dialect.signature("num_sum")).isEqualTo(REGISTRY.signature("num_sum"));
+        Assertions.assertThat(dialect.signature("modmul")).isEqualTo(REGISTRY.signature("modmul"));
+
+        dialect.setForm("modmul", CallForm.CALL_OUT_PARAMETERS);
+        Assertions.assertThat(dialect.signature("modmul").getSql()).isEqualTo("{call modmul(?, ?, ?, ?)}");
+        Assertions.assertThatThrownBy(() -> dialect.setForm("gen_rows", CallForm.CALL_RETURN))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldRestoreProfileOfTheSameDriver() throws IOException
+    {
+        Path profile = Files.createTempFile("call-profile", ".properties");
+        try
+        {
+            CallDialect dialect = new CallDialect(REGISTRY, DRIVER);
+            dialect.setForm("num_sum", CallForm.SELECT_VALUE);
+            dialect.setForm("modmul", CallForm.CALL_OUT_PARAMETERS);
+            dialect.save(profile);
+
+            CallDialect loaded = new CallDialect(REGISTRY, DRIVER);
+            Assertions.assertThat(loaded.load(profile)).isTrue();
+            Assertions.assertThat(loaded.getForm("num_sum")).isEqualTo(CallForm.SELECT_VALUE);
+            Assertions.assertThat(loaded.getForm("modmul")).isEqualTo(CallForm.CALL_OUT_PARAMETERS);
+            Assertions.assertThat(loaded.getForm("gen_rows")).isEqualTo(CallForm.SELECT_FROM);
+
+            CallDialect other = new CallDialect(REGISTRY, "Oracle JDBC driver 19.3.0.0.0");
+            Assertions.assertThat(other.load(profile)).isFalse();
+            Assertions.assertThat(other.getForm("num_sum")).isEqualTo(CallForm.CALL_RETURN);
+        }
+        finally
+        {
+            Files.delete(profile);
+        }
+    }
+
+    /**
+     * Driver name is escaped and profile is replaced without leaving
+     * temporary files.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void shouldEscapeDriverName() throws IOException
+    {
+        Path dir = Files.createTempDirectory("call-profiles");
+        Path profile = dir.resolve("call-profile.properties");
+        try
+        {
+            String driver = "Driver = 1.0 # build:2\\x";
+            CallDialect dialect = new CallDialect(REGISTRY, driver);
+            dialect.setForm("num_sum", CallForm.SELECT_VALUE);
+            dialect.save(profile);
+            dialect.setForm("num_sum", CallForm.CALL_RESULT_SET);
+            dialect.save(profile);
+
+            CallDialect loaded = new CallDialect(REGISTRY, driver);
+            Assertions.assertThat(loaded.load(profile)).isTrue();
+            Assertions.assertThat(loaded.getForm("num_sum")).isEqualTo(CallForm.CALL_RESULT_SET);
+            try (Stream<Path> files = Files.list(dir))
+            {
+                Assertions.assertThat(files).containsExactly(profile);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(profile);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Probed procedures are routed to a form giving the same output.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldProbeFormsOfProcedures() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            CallDialect dialect = CallDialect.of(REGISTRY, pgCon);
+            Map<CallForm, Long> numSum = dialect.probe(pgCon, 5, 20, "num_sum", 1, 2);
+            Map<CallForm, Long> modmul = dialect.probe(pgCon, 5, 20, "modmul", 10, 3);
+            dialect.probe(pgCon, 5, 20, "gen_rows", 10);
+
+            Assertions.assertThat(numSum).containsKey(dialect.getForm("num_sum"));
+            Assertions.assertThat(modmul).containsKey(dialect.getForm("modmul"));
+            try (ProcedureCaller caller = new ProcedureCaller(pgCon))
+            {
+                Assertions.assertThat(caller.call(dialect.signature("num_sum"), 100, 11)).containsExactly(111);
+                Assertions.assertThat(caller.call(dialect.signature("modmul"), 10, 3)).containsExactly(3, 1);
+                Assertions.assertThat(caller.query(dialect.signature("gen_rows"), rs -> rs.getString(1), 3))
+                        .isEqualTo(Arrays.asList("ROW0", "ROW1", "ROW2"));
+            }
+        }
+    }
+}
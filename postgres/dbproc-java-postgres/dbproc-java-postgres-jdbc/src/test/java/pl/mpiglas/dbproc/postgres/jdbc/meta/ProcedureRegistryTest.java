@@ -0,0 +1,102 @@
+package pl.mpiglas.dbproc.postgres.jdbc.meta;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Properties;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter.Mode;
+
+/**
+ * Reading procedure metadata and generating call signatures.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureRegistryTest
+{
+
+    private static final ProcedureMetadata NUM_SUM = new ProcedureMetadata("num_sum", Arrays.asList(
+            new ProcedureParameter("anum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("bnum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("returnValue", Mode.RETURN, Types.INTEGER, "int4")), false);
+    private static final ProcedureMetadata MODMUL = new ProcedureMetadata("modmul", Arrays.asList(
+            new ProcedureParameter("anum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("bnum", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("result", Mode.OUT, Types.INTEGER, "int4"),
+            new ProcedureParameter("modulo", Mode.OUT, Types.INTEGER, "int4")), false);
+    private static final ProcedureMetadata GEN_ROWS = new ProcedureMetadata("gen_rows", Arrays.asList(
+            new ProcedureParameter("nrows", Mode.IN, Types.INTEGER, "int4"),
+            new ProcedureParameter("str", Mode.RESULT, Types.VARCHAR, "varchar"),
+            new ProcedureParameter("num", Mode.RESULT, Types.INTEGER, "int4")), true);
+
+    /**
+     * Scalar procedure is called with registered return value, others with
+     * SELECT.
+     */
+    @Test
+    public void shouldGenerateSignatureForProcedureShape()
+    {
+        ProcedureRegistry registry = new ProcedureRegistry(Arrays.asList(NUM_SUM, MODMUL, GEN_ROWS));
+
+        Assertions.assertThat(registry.signature("num_sum")).isEqualTo(
+                ProcedureSignature.of("num_sum", "{? = call num_sum(?, ?)}").withOutParameter(1, Types.INTEGER));
+        Assertions.assertThat(registry.signature("modmul").getSql()).isEqualTo("SELECT * FROM modmul(?, ?)");
+        Assertions.assertThat(registry.signature("gen_rows").getSql()).isEqualTo("SELECT * FROM gen_rows(?)");
+    }
+
+    /**
+     * Snapshot restores the same registry.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void shouldRestoreRegistryFromSnapshot() throws IOException
+    {
+        ProcedureRegistry registry = new ProcedureRegistry(Arrays.asList(NUM_SUM, MODMUL, GEN_ROWS));
+        Path snapshot = Files.createTempFile("procedures", ".properties");
+        try
+        {
+            registry.save(snapshot);
+            ProcedureRegistry loaded = ProcedureRegistry.load(snapshot);
+            Assertions.assertThat(loaded.getProcedures()).containsExactlyElementsOf(registry.getProcedures());
+        }
+        finally
+        {
+            Files.delete(snapshot);
+        }
+    }
+
+    /**
+     * Metadata of sample procedures is read from database.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldIntrospectSampleProcedures() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            ProcedureRegistry registry = ProcedureRegistry.introspect(pgCon, "public");
+
+            Assertions.assertThat(registry.get("gen_rows").isSetReturning()).isTrue();
+            Assertions.assertThat(registry.get("int_set").isSetReturning()).isTrue();
+            Assertions.assertThat(registry.get("num_sum").isScalar()).isTrue();
+            Assertions.assertThat(registry.get("out_text").isScalar()).isTrue();
+            Assertions.assertThat(registry.get("modmul").getInParameters()).extracting(ProcedureParameter::getName)
+                    .containsExactly("anum", "bnum");
+            Assertions.assertThat(registry.get("modmul").getOutputs()).extracting(ProcedureParameter::getName)
+                    .containsExactly("result", "modulo");
+        }
+    }
+}
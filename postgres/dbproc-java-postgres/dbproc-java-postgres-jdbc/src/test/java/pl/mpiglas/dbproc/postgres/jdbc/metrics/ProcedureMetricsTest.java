@@ -0,0 +1,116 @@
+package pl.mpiglas.dbproc.postgres.jdbc.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader;
+
+/**
+ * Collecting and exporting procedure statistics.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureMetricsTest
+{
+
+    @Test
+    public void shouldFindProcedureName()
+    {
+        Assertions.assertThat(ProcedureCall.procedureName("SELECT * FROM gen_rows(?)")).isEqualTo("gen_rows");
+        Assertions.assertThat(ProcedureCall.procedureName("{? = call num_sum(?, ?)}")).isEqualTo("num_sum");
+        Assertions.assertThat(ProcedureCall.procedureName("select public.out_text()")).isEqualTo("public.out_text");
+    }
+
+    /**
+     * Rows and errors are counted, latencies of failed calls are skipped.
+     *
+     * @throws IOException
+     * @throws JMException
+     */
+    @Test
+    public void shouldRecordAndExportCalls() throws IOException, JMException
+    {
+        ProcedureMetrics metrics = new ProcedureMetrics();
+        for (int i = 0; i < 3; i++)
+        {
+            ProcedureCall call = ProcedureCall.start(metrics, "gen_rows", new Object[]
+            {
+                10
+            });
+            for (int r = 0; r < 10; r++)
+            {
+                call.rowRead();
+            }
+            call.finish();
+            call.finish();
+        }
+        ProcedureCall.start(metrics, "gen_rows", new Object[0]).fail(new SQLException("canceled"));
+
+        ProcedureStats stats = metrics.get("gen_rows");
+        Assertions.assertThat(stats.getCalls()).isEqualTo(4);
+        Assertions.assertThat(stats.getRows()).isEqualTo(30);
+        Assertions.assertThat(stats.getErrors()).isEqualTo(1);
+        Assertions.assertThat(stats.getLastRowHistogram().getTotalCount()).isEqualTo(3);
+        Assertions.assertThat(stats.getFirstRowHistogram().getMaxValue())
+                .isLessThanOrEqualTo(stats.getLastRowHistogram().getMaxValue());
+
+        StringBuilder text = new StringBuilder();
+        metrics.export(new TextExporter(text));
+        Assertions.assertThat(text.toString()).startsWith("procedure").contains("gen_rows");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try (JmxExporter jmx = new JmxExporter(server, "test.dbproc"))
+        {
+            metrics.export(jmx);
+            metrics.export(jmx);
+            Assertions.assertThat(server.getAttribute(jmx.objectName("gen_rows"), "Rows")).isEqualTo(30L);
+
+            metrics.reset();
+            ProcedureCall call = ProcedureCall.start(metrics, "gen_rows", new Object[0]);
+            call.rowRead();
+            call.finish();
+            metrics.export(jmx);
+            Assertions.assertThat(server.getAttribute(jmx.objectName("gen_rows"), "Rows")).isEqualTo(1L);
+
+            metrics.reset();
+            metrics.export(jmx);
+            Assertions.assertThat(server.isRegistered(jmx.objectName("gen_rows"))).isFalse();
+        }
+        Assertions.assertThat(server.queryNames(new JmxExporter(server, "test.dbproc").objectName("gen_rows"), null))
+                .isEmpty();
+    }
+
+    /**
+     * Stream of <code>gen_rows</code> is reported when closed.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldRecordStreamedProcedure() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        try (Connection pgCon = DriverManager.getConnection(
+                props.getProperty("url"), props.getProperty("user"), props.getProperty("password")))
+        {
+            ProcedureMetrics metrics = new ProcedureMetrics();
+            ProcedureStreamReader reader = new ProcedureStreamReader(pgCon, 100);
+            reader.setListener(metrics);
+            try (Stream<String> rows = reader.stream("SELECT * FROM gen_rows(?)", rs -> rs.getString(1), 1000))
+            {
+                Assertions.assertThat(rows.count()).isEqualTo(1000);
+            }
+            Assertions.assertThat(metrics.get("gen_rows").getRows()).isEqualTo(1000);
+            Assertions.assertThat(metrics.get("gen_rows").getCalls()).isEqualTo(1);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package pl.mpiglas.dbproc.postgres.jdbc.pool;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureCaller;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureSignature;
+
+/**
+ * Pooling and warming up connections.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureConnectionPoolTest
+{
+
+    private static final ProcedureSignature NUM_SUM = ProcedureSignature.of("num_sum", "{? = call num_sum(?, ?)}")
+            .withOutParameter(1, Types.INTEGER);
+    private static final ProcedureSignature INT_SET = ProcedureSignature.of("int_set", "SELECT * FROM int_set(?)");
+
+    @Test
+    public void shouldKeepPreparedStatementsOnServerByDefault()
+    {
+        PoolConfig config = PoolConfig.of("jdbc:postgresql://localhost/test_db", "postgres", null)
+                .withMaxSize(4)
+                .withProperty("ApplicationName", "dbproc");
+
+        Assertions.assertThat(config.getProperties()).containsEntry("prepareThreshold", "1")
+                .containsEntry("ApplicationName", "dbproc").doesNotContainKey("password");
+        Assertions.assertThat(config.getCheckoutTimeout(TimeUnit.MILLISECONDS))
+                .isEqualTo(PoolConfig.DEFAULT_CHECKOUT_TIMEOUT_MILLIS);
+        Assertions.assertThatThrownBy(() -> config.withMinIdle(5)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Warmed up connections are reused, leaked connection is reported and
+     * exhausted pool times out.
+     *
+     * @throws IOException
+     * @throws SQLException
+     * @throws InterruptedException
+     */
+    @Test
+    public void shouldReuseWarmedUpConnections() throws IOException, SQLException, InterruptedException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        List<ConnectionLeak> leaks = new CopyOnWriteArrayList<>();
+        PoolConfig config = PoolConfig.of(props.getProperty("url"), props.getProperty("user"),
+                props.getProperty("password"))
+                .withMaxSize(2)
+                .withMinIdle(1)
+                .withCheckoutTimeout(100, TimeUnit.MILLISECONDS)
+                .withLeakThreshold(200, TimeUnit.MILLISECONDS, leaks::add)
+                .withWarmUp(Arrays.asList(NUM_SUM, INT_SET));
+        try (ProcedureConnectionPool pool = new ProcedureConnectionPool(config))
+        {
+            Assertions.assertThat(pool.getSize()).isEqualTo(1);
+            for (int i = 0; i < 3; i++)
+            {
+                try (Connection connection = pool.getConnection();
+                        ProcedureCaller caller = new ProcedureCaller(connection))
+                {
+                    connection.setAutoCommit(false);
+                    Assertions.assertThat(caller.call(NUM_SUM, 100, i)).containsExactly(100 + i);
+                }
+            }
+            Assertions.assertThat(pool.getCreated()).isEqualTo(1);
+            Assertions.assertThat(pool.getCheckouts()).isEqualTo(3);
+
+            Connection first = pool.getConnection();
+            Assertions.assertThat(first.getAutoCommit()).isTrue();
+            Connection second = pool.getConnection();
+            Assertions.assertThatThrownBy(pool::getConnection).isInstanceOf(SQLTransientConnectionException.class);
+            Thread.sleep(400);
+            Assertions.assertThat(leaks).hasSize(2);
+            first.close();
+            second.close();
+            Assertions.assertThat(first.isClosed()).isTrue();
+            Assertions.assertThat(pool.getIdle()).isEqualTo(2);
+        }
+    }
+
+    /**
+     * Warm-up leaves registered calls as server side prepared statements.
+     *
+     * @throws IOException
+     * @throws SQLException
+     */
+    @Test
+    public void shouldPrepareWarmedUpCallsOnServer() throws IOException, SQLException
+    {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/jdbc-connection.properties"));
+        PoolConfig config = PoolConfig.of(props.getProperty("url"), props.getProperty("user"),
+                props.getProperty("password"))
+                .withMinIdle(1)
+                .withWarmUp(Arrays.asList(NUM_SUM, INT_SET));
+        try (ProcedureConnectionPool pool = new ProcedureConnectionPool(config);
+                Connection connection = pool.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT statement FROM pg_prepared_statements"))
+        {
+            List<String> prepared = new ArrayList<>();
+            while (resultSet.next())
+            {
+                prepared.add(resultSet.getString(1));
+            }
+            Assertions.assertThat(String.join("\n", prepared)).contains("num_sum(", "int_set(");
+            Assertions.assertThat(connection.getAutoCommit()).isTrue();
+        }
+    }
+
+    /**
+     * Statements of pooled connection return its proxy, report connection
+     * errors and are closed when connection is returned.
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void shouldDiscardConnectionBrokenInStatement() throws SQLException
+    {
+        List<String> closed = new ArrayList<>();
+        PreparedStatement physicalStatement = (PreparedStatement) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]
+                {
+                    PreparedStatement.class
+                }, (target, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "executeQuery":
+                    throw new SQLException("An I/O error occurred while sending to the backend.", "08006");
+                case "close":
+                    closed.add("statement");
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "equals":
+                    return target == args[0];
+                default:
+                    return null;
+            }
+        });
+        Connection physical = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]
+        {
+            Connection.class
+        }, (target, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "prepareStatement":
+                    return physicalStatement;
+                case "close":
+                    closed.add("connection");
+                    return null;
+                default:
+                    return method.getReturnType() == boolean.class ? Boolean.TRUE : null;
+            }
+        });
+        try (ProcedureConnectionPool pool = new ProcedureConnectionPool(
+                PoolConfig.of("jdbc:postgresql://localhost/none", "postgres", null)))
+        {
+            PooledConnection handle = new PooledConnection(pool, physical, false);
+            Connection connection = handle.getProxy();
+            PreparedStatement statement = connection.prepareStatement("SELECT * FROM int_set(?)");
+            Assertions.assertThat(statement).isNotSameAs(physicalStatement);
+            Assertions.assertThat(statement.getConnection()).isSameAs(connection);
+            Assertions.assertThat(connection.unwrap(Connection.class)).isSameAs(connection);
+            Assertions.assertThatThrownBy(statement::executeQuery).isInstanceOf(SQLException.class);
+            Assertions.assertThat(handle.isBroken()).isTrue();
+
+            connection.close();
+            Assertions.assertThat(closed).containsExactly("statement", "connection");
+            Assertions.assertThat(pool.getIdle()).isZero();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pl.mpiglas.dbproc.postgres.jfr;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureListener;
+
+/**
+ * Emits {@link ProcedureCallEvent} and {@link ProcedureFetchEvent} for
+ * procedure calls. Calls slower than threshold also carry bound argument
+ * values.
+ *
+ * <pre>
+ * caller.setListener(ProcedureListener.of(metrics, new JfrProcedureListener(500, TimeUnit.MILLISECONDS)));
+ * StoredProcedures.instrument(query, "gen_rows", new JfrProcedureListener());
+ * </pre>
+ *
+ * When events are not enabled in any running recording, listener only checks
+ * if they are enabled and does not track calls. Tracked calls are weakly
+ * referenced, so calls which never complete, e.g. abandoned iterators, do not
+ * leak.
+ *
+ * @author Milosz Piglas
+ */
+public class JfrProcedureListener implements ProcedureListener
+{
+
+    public static final long DEFAULT_ARGUMENTS_THRESHOLD_MILLIS = 1000;
+    public static final int MAX_ARGUMENTS_LENGTH = 1024;
+
+    private final long argumentsThresholdNanos;
+    private final Map<ProcedureCall, Events> running = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public JfrProcedureListener()
+    {
+        this(DEFAULT_ARGUMENTS_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param argumentsThreshold calls taking at least that long capture
+     * arguments
+     * @param unit unit of threshold
+     */
+    public JfrProcedureListener(long argumentsThreshold, TimeUnit unit)
+    {
+        this.argumentsThresholdNanos = unit.toNanos(argumentsThreshold);
+    }
+
+    @Override
+    public void callStarted(ProcedureCall call)
+    {
+        ProcedureCallEvent event = new ProcedureCallEvent();
+        boolean fetchEnabled = call.getFetchSize() > 0 && new ProcedureFetchEvent().isEnabled();
+        if (!event.isEnabled() && !fetchEnabled)
+        {
+            return;
+        }
+        event.begin();
+        running.put(call, new Events(event, fetchEnabled));
+    }
+
+    @Override
+    public void firstRowRead(ProcedureCall call)
+    {
+        Events events = running.get(call);
+        if (events != null && events.fetchEnabled)
+        {
+            events.fetch = new ProcedureFetchEvent();
+            events.fetch.begin();
+        }
+    }
+
+    @Override
+    public void callCompleted(ProcedureCall call)
+    {
+        Events events = running.remove(call);
+        if (events == null)
+        {
+            return;
+        }
+        ProcedureCallEvent event = events.call;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.procedure = call.getProcedure();
+            event.parameterCount = call.getArgs().length;
+            event.fetchSize = call.getFetchSize();
+            event.rows = call.getRows();
+            event.timeToFirstRow = call.getTimeToFirstRow();
+            event.failed = call.isFailed();
+            event.error = call.isFailed() ? String.valueOf(call.getError()) : null;
+            if (call.getDuration() >= argumentsThresholdNanos)
+            {
+                event.arguments = arguments(call.getArgs());
+            }
+            event.commit();
+        }
+        ProcedureFetchEvent fetch = events.fetch;
+        if (fetch != null)
+        {
+            fetch.end();
+            if (fetch.shouldCommit())
+            {
+                fetch.procedure = call.getProcedure();
+                fetch.fetchSize = call.getFetchSize();
+                fetch.rows = call.getRows();
+                fetch.commit();
+            }
+        }
+    }
+
+    public long getArgumentsThreshold(TimeUnit unit)
+    {
+        return unit.convert(argumentsThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of tracked calls
+     */
+    int getTrackedCount()
+    {
+        return running.size();
+    }
+
+    static String arguments(Object[] args)
+    {
+        String text = Arrays.deepToString(args);
+        return text.length() <= MAX_ARGUMENTS_LENGTH ? text : text.substring(0, MAX_ARGUMENTS_LENGTH - 3) + "...";
+    }
+
+    /**
+     * Events of running call.
+     */
+    private static final class Events
+    {
+
+        private final ProcedureCallEvent call;
+        private final boolean fetchEnabled;
+        private ProcedureFetchEvent fetch;
+
+        Events(ProcedureCallEvent call, boolean fetchEnabled)
+        {
+            this.call = call;
+            this.fetchEnabled = fetchEnabled;
+        }
+    }
+}
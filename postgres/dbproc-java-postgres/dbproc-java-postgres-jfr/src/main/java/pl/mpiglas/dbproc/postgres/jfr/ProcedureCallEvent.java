@@ -0,0 +1,51 @@
+package pl.mpiglas.dbproc.postgres.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Procedure call, from executing statement to reading the last row.
+ *
+ * @author Milosz Piglas
+ */
+@Name("pl.mpiglas.dbproc.ProcedureCall")
+@Label("Procedure Call")
+@Category(
+{
+    "Database", "Stored Procedures"
+})
+@Description("Call of stored procedure, from executing statement to reading the last row")
+public class ProcedureCallEvent extends Event
+{
+
+    @Label("Procedure")
+    String procedure;
+
+    @Label("Parameter Count")
+    int parameterCount;
+
+    @Label("Fetch Size")
+    @Description("Rows fetched in single round trip, 0 if all rows are fetched at once")
+    int fetchSize;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Time to First Row")
+    @Timespan(Timespan.NANOSECONDS)
+    long timeToFirstRow;
+
+    @Label("Failed")
+    boolean failed;
+
+    @Label("Error")
+    String error;
+
+    @Label("Arguments")
+    @Description("Bound argument values, captured only for calls slower than threshold")
+    String arguments;
+}
@@ -0,0 +1,34 @@
+package pl.mpiglas.dbproc.postgres.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Reading rows of set-returning procedure in batches, from the first row to
+ * the last one. Emitted only for calls with fetch size, like streams of
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader}.
+ *
+ * @author Milosz Piglas
+ */
+@Name("pl.mpiglas.dbproc.ProcedureFetch")
+@Label("Procedure Fetch")
+@Category(
+{
+    "Database", "Stored Procedures"
+})
+@Description("Reading rows of set-returning procedure, from the first row to the last one")
+public class ProcedureFetchEvent extends Event
+{
+
+    @Label("Procedure")
+    String procedure;
+
+    @Label("Fetch Size")
+    int fetchSize;
+
+    @Label("Rows")
+    long rows;
+}
@@ -0,0 +1,104 @@
+package pl.mpiglas.dbproc.postgres.jfr;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+
+/**
+ * Emitting flight recorder events for procedure calls.
+ *
+ * @author Milosz Piglas
+ */
+public class JfrProcedureListenerTest
+{
+
+    /**
+     * Only slow call captures arguments, streamed call emits fetch event.
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void shouldRecordCallsAndCaptureArgumentsOfSlowOnes() throws IOException, InterruptedException
+    {
+        JfrProcedureListener listener = new JfrProcedureListener(200, TimeUnit.MILLISECONDS);
+        Path file = Files.createTempFile("procedures", ".jfr");
+        try (Recording recording = new Recording())
+        {
+            recording.enable(ProcedureCallEvent.class);
+            recording.enable(ProcedureFetchEvent.class);
+            recording.start();
+
+            ProcedureCall.start(listener, "num_sum", new Object[]
+            {
+                100, 11
+            }).finish();
+
+            ProcedureCall slow = ProcedureCall.start(listener, "gen_rows", new Object[]
+            {
+                1000
+            }, 100);
+            Assertions.assertThat(listener.getTrackedCount()).isEqualTo(1);
+            slow.rowRead();
+            Thread.sleep(250);
+            slow.rowRead();
+            slow.finish();
+            Assertions.assertThat(listener.getTrackedCount()).isZero();
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> calls = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("pl.mpiglas.dbproc.ProcedureCall"))
+                    .collect(Collectors.toList());
+            Assertions.assertThat(calls).hasSize(2);
+            Assertions.assertThat(calls.get(0).getString("procedure")).isEqualTo("num_sum");
+            Assertions.assertThat(calls.get(0).getInt("parameterCount")).isEqualTo(2);
+            Assertions.assertThat(calls.get(0).getString("arguments")).isNull();
+            Assertions.assertThat(calls.get(1).getString("procedure")).isEqualTo("gen_rows");
+            Assertions.assertThat(calls.get(1).getLong("rows")).isEqualTo(2);
+            Assertions.assertThat(calls.get(1).getInt("fetchSize")).isEqualTo(100);
+            Assertions.assertThat(calls.get(1).getString("arguments")).isEqualTo("[1000]");
+
+            Assertions.assertThat(events.stream()
+                    .filter(e -> e.getEventType().getName().equals("pl.mpiglas.dbproc.ProcedureFetch"))
+                    .map(e -> e.getString("procedure"))).containsExactly("gen_rows");
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldNotTrackCallsWithoutRecording()
+    {
+        JfrProcedureListener listener = new JfrProcedureListener();
+        ProcedureCall call = ProcedureCall.start(listener, "num_sum", new Object[0]);
+        Assertions.assertThat(listener.getTrackedCount()).isZero();
+        call.finish();
+        Assertions.assertThat(listener.getTrackedCount()).isZero();
+    }
+
+    @Test
+    public void shouldFormatArguments()
+    {
+        Assertions.assertThat(JfrProcedureListener.arguments(new Object[]
+        {
+            new int[]
+            {
+                1, 2
+            }, "a"
+        })).isEqualTo("[[1, 2], a]");
+    }
+}
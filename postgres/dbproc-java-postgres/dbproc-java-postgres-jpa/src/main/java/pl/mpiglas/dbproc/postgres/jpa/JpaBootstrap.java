@@ -0,0 +1,210 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.hibernate.Session;
+import pl.mpiglas.dbproc.postgres.jdbc.LazyBootstrap;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Builds {@link EntityManagerFactory} of persistence unit once, on background
+ * thread, and registers procedures read from database as named stored
+ * procedure queries, so workers only create entity managers and call
+ * {@link EntityManager#createNamedStoredProcedureQuery(String)}.
+ *
+ * <pre>
+ * JpaBootstrap jpa = JpaBootstrap.shared("postgresPu");
+ * // other startup work
+ * EntityManager em = jpa.createEntityManager();
+ * StoredProcedureQuery proc = em.createNamedStoredProcedureQuery("modmul");
+ * </pre>
+ *
+ * Overloaded procedures are not registered, since one query name cannot
+ * stand for several signatures. Bootstrap phases are
+ * <code>createEntityManagerFactory</code>, <code>introspectProcedures</code>
+ * and <code>registerProcedures</code>.
+ *
+ * @author Milosz Piglas
+ */
+public final class JpaBootstrap implements AutoCloseable
+{
+
+    public static final String DEFAULT_SCHEMA = "public";
+
+    private static final ConcurrentMap<String, JpaBootstrap> SHARED = new ConcurrentHashMap<>();
+
+    private final String unitName;
+    private final LazyBootstrap<Bootstrapped> bootstrap;
+
+    public JpaBootstrap(String unitName)
+    {
+        this(unitName, Collections.emptyMap(), DEFAULT_SCHEMA);
+    }
+
+    /**
+     * @param unitName name of persistence unit
+     * @param properties properties overriding persistence unit
+     * @param schema schema of procedures registered as named queries, null to
+     * skip registration
+     */
+    public JpaBootstrap(String unitName, Map<String, ?> properties, String schema)
+    {
+        this.unitName = unitName;
+        this.bootstrap = new LazyBootstrap<>(unitName, phases ->
+        {
+            EntityManagerFactory factory = phases.time("createEntityManagerFactory",
+                    () -> Persistence.createEntityManagerFactory(unitName, properties));
+            try
+            {
+                ProcedureRegistry registry = null;
+                if (schema != null)
+                {
+                    EntityManager em = factory.createEntityManager();
+                    try
+                    {
+                        ProcedureRegistry introspected = phases.time("introspectProcedures",
+                                () -> em.unwrap(Session.class).doReturningWork(con -> ProcedureRegistry.introspect(con, schema)));
+                        registry = phases.time("registerProcedures", () -> register(factory, em, introspected));
+                    }
+                    finally
+                    {
+                        em.close();
+                    }
+                }
+                return new Bootstrapped(factory, registry);
+            }
+            catch (Exception | Error ex)
+            {
+                factory.close();
+                throw ex;
+            }
+        });
+    }
+
+    /**
+     * Returns bootstrap shared by all callers with the same persistence unit
+     * name. Bootstrap is started on the first call.
+     *
+     * @param unitName name of persistence unit
+     * @return started bootstrap
+     */
+    public static JpaBootstrap shared(String unitName)
+    {
+        return SHARED.computeIfAbsent(unitName, JpaBootstrap::new).start();
+    }
+
+    /**
+     * Starts building factory on background thread.
+     *
+     * @return this bootstrap
+     */
+    public JpaBootstrap start()
+    {
+        bootstrap.start();
+        return this;
+    }
+
+    /**
+     * @return factory, waits for bootstrap or builds it in calling thread if
+     * bootstrap was not started
+     */
+    public EntityManagerFactory getFactory()
+    {
+        return bootstrap.get().factory;
+    }
+
+    public EntityManager createEntityManager()
+    {
+        return getFactory().createEntityManager();
+    }
+
+    /**
+     * @return procedures registered as named queries, or null if registration
+     * was skipped
+     */
+    public ProcedureRegistry getRegistry()
+    {
+        return bootstrap.get().registry;
+    }
+
+    public String getUnitName()
+    {
+        return unitName;
+    }
+
+    public boolean isReady()
+    {
+        return bootstrap.isDone();
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of bootstrap, or -1 if it is not finished
+     */
+    public long getBootstrapTime(TimeUnit unit)
+    {
+        return bootstrap.getBootstrapTime(unit);
+    }
+
+    /**
+     * @param unit time unit
+     * @return total time callers waited for factory
+     */
+    public long getWaitTime(TimeUnit unit)
+    {
+        return bootstrap.getWaitTime(unit);
+    }
+
+    /**
+     * @param unit time unit
+     * @return duration of completed bootstrap phases
+     */
+    public Map<String, Long> getPhases(TimeUnit unit)
+    {
+        return bootstrap.getPhases(unit);
+    }
+
+    /**
+     * Closes factory and removes bootstrap from shared ones.
+     */
+    @Override
+    public void close()
+    {
+        SHARED.remove(unitName, this);
+        bootstrap.close(built -> built.factory.close());
+    }
+
+    private static ProcedureRegistry register(EntityManagerFactory factory, EntityManager em,
+            ProcedureRegistry registry)
+    {
+        for (ProcedureMetadata procedure : registry.getProcedures())
+        {
+            if (!registry.getAmbiguousNames().contains(procedure.getName()))
+            {
+                factory.addNamedQuery(procedure.getName(),
+                        StoredProcedures.register(em.createStoredProcedureQuery(procedure.getName()), procedure));
+            }
+        }
+        return registry;
+    }
+
+    private static final class Bootstrapped
+    {
+
+        private final EntityManagerFactory factory;
+        private final ProcedureRegistry registry;
+
+        Bootstrapped(EntityManagerFactory factory, ProcedureRegistry registry)
+        {
+            this.factory = factory;
+            this.registry = registry;
+        }
+    }
+}
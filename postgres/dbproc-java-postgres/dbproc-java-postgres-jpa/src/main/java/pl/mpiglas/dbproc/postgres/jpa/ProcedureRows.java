@@ -0,0 +1,198 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import org.hibernate.Session;
+import pl.mpiglas.dbproc.postgres.jdbc.ConstructorRowMapper;
+import pl.mpiglas.dbproc.postgres.jdbc.Deadline;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureResultIterator;
+import pl.mpiglas.dbproc.postgres.jdbc.ProcedureStreamReader;
+import pl.mpiglas.dbproc.postgres.jdbc.RowMapper;
+import pl.mpiglas.dbproc.postgres.jdbc.UncheckedSQLException;
+
+/**
+ * Reads rows returned from procedures into plain objects, which are not
+ * entities. Mapping procedure output with
+ * {@link javax.persistence.SqlResultSetMapping} requires fake entity with
+ * <code>@Id</code>, like <code>StrIntRecord</code>, and every row is
+ * registered in persistence context, which grows with the number of rows.
+ *
+ * Procedures are called on JDBC connection of Hibernate session and rows are
+ * mapped with {@link RowMapper}, by default with {@link ConstructorRowMapper},
+ * so persistence context stays empty and rows can be read with database cursor.
+ *
+ * <pre>
+ * List&lt;StrIntValue&gt; rows = ProcedureRows.list(em, StrIntValue.class, "SELECT * FROM gen_rows(?)", 1000);
+ * </pre>
+ *
+ * Pending changes are flushed before call if entity manager is joined to
+ * transaction and flush mode is <code>AUTO</code>, just like before native
+ * queries. Database errors of {@link #list list} and {@link #forEach forEach},
+ * also those raised while rows are fetched, are thrown as
+ * {@link org.hibernate.JDBCException}. Streams returned by
+ * {@link #stream stream} throw errors raised while rows are fetched as
+ * {@link pl.mpiglas.dbproc.postgres.jdbc.UncheckedSQLException}.
+ *
+ * @author Milosz Piglas
+ */
+public final class ProcedureRows
+{
+
+    private ProcedureRows()
+    {
+    }
+
+    /**
+     * @param em entity manager
+     * @param type class with public constructor matching procedure columns
+     * @param sql procedure call, e.g. <code>SELECT * FROM gen_rows(?)</code>
+     * @param args procedure arguments
+     * @return rows, not managed by entity manager
+     */
+    public static <T> List<T> list(EntityManager em, Class<T> type, String sql, Object... args)
+    {
+        return list(em, ConstructorRowMapper.of(type), sql, args);
+    }
+
+    /**
+     * @param em entity manager
+     * @param mapper maps single row
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return rows, not managed by entity manager
+     */
+    public static <T> List<T> list(EntityManager em, RowMapper<T> mapper, String sql, Object... args)
+    {
+        List<T> rows = new ArrayList<>();
+        forEach(em, mapper, rows::add, sql, args);
+        return rows;
+    }
+
+    /**
+     * Passes rows to consumer while they are fetched from database cursor.
+     * Works with and without transaction, cursor is closed before return.
+     *
+     * @param em entity manager
+     * @param mapper maps single row
+     * @param consumer consumer of rows
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return number of rows
+     */
+    public static <T> long forEach(EntityManager em, RowMapper<T> mapper, Consumer<? super T> consumer, String sql,
+            Object... args)
+    {
+        return forEach(em, mapper, consumer, ProcedureStreamReader.DEFAULT_FETCH_SIZE, sql, args);
+    }
+
+    /**
+     * @param em entity manager
+     * @param mapper maps single row
+     * @param consumer consumer of rows
+     * @param fetchSize number of rows fetched in single round trip
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return number of rows
+     */
+    public static <T> long forEach(EntityManager em, RowMapper<T> mapper, Consumer<? super T> consumer, int fetchSize,
+            String sql, Object... args)
+    {
+        return forEach(em, mapper, consumer, fetchSize, Deadline.NONE, sql, args);
+    }
+
+    /**
+     * Passes rows to consumer until all are read or deadline passes. Running
+     * query is then cancelled in database and
+     * {@link org.hibernate.QueryTimeoutException} is thrown.
+     *
+     * @param em entity manager
+     * @param mapper maps single row
+     * @param consumer consumer of rows
+     * @param fetchSize number of rows fetched in single round trip
+     * @param deadline deadline of call, including consuming rows
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return number of rows
+     */
+    public static <T> long forEach(EntityManager em, RowMapper<T> mapper, Consumer<? super T> consumer, int fetchSize,
+            Deadline deadline, String sql, Object... args)
+    {
+        flushIfNeeded(em);
+        return em.unwrap(Session.class).doReturningWork(connection ->
+        {
+            long count = 0;
+            try (ProcedureResultIterator<T> rows = new ProcedureStreamReader(connection, fetchSize)
+                    .iterator(deadline, sql, mapper, args))
+            {
+                while (rows.hasNext())
+                {
+                    consumer.accept(rows.next());
+                    count++;
+                }
+            }
+            catch (UncheckedSQLException ex)
+            {
+                // translated by session like errors of call
+                throw ex.getCause();
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Returns stream of rows read with database cursor. Session keeps its
+     * connection until transaction ends, so stream can be returned only
+     * within transaction, and it must be closed before commit.
+     *
+     * @param em entity manager joined to transaction
+     * @param mapper maps single row
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return stream of rows, not managed by entity manager
+     * @throws IllegalStateException if entity manager is not joined to
+     * transaction
+     */
+    public static <T> Stream<T> stream(EntityManager em, RowMapper<T> mapper, String sql, Object... args)
+    {
+        return stream(em, mapper, Deadline.NONE, sql, args);
+    }
+
+    /**
+     * Returns stream of rows, which have to be read before deadline. Running
+     * query is then cancelled in database and stream throws
+     * {@link UncheckedSQLException} caused by
+     * {@link java.sql.SQLTimeoutException}.
+     *
+     * @param em entity manager joined to transaction
+     * @param mapper maps single row
+     * @param deadline deadline of call, including consuming rows
+     * @param sql procedure call
+     * @param args procedure arguments
+     * @return stream of rows, not managed by entity manager
+     * @throws IllegalStateException if entity manager is not joined to
+     * transaction
+     */
+    public static <T> Stream<T> stream(EntityManager em, RowMapper<T> mapper, Deadline deadline, String sql,
+            Object... args)
+    {
+        if (!em.isJoinedToTransaction())
+        {
+            throw new IllegalStateException("Streaming procedure rows requires transaction, use forEach instead");
+        }
+        flushIfNeeded(em);
+        return em.unwrap(Session.class).doReturningWork(connection -> new ProcedureStreamReader(connection)
+                .stream(deadline, sql, mapper, args));
+    }
+
+    private static void flushIfNeeded(EntityManager em)
+    {
+        if (em.isJoinedToTransaction() && em.getFlushMode() == FlushModeType.AUTO)
+        {
+            em.flush();
+        }
+    }
+}
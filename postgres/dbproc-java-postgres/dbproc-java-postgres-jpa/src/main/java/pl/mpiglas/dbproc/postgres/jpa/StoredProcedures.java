@@ -0,0 +1,278 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.persistence.EntityManager;
+import javax.persistence.ParameterMode;
+import javax.persistence.QueryTimeoutException;
+import javax.persistence.StoredProcedureQuery;
+import org.hibernate.Session;
+import pl.mpiglas.dbproc.postgres.jdbc.Deadline;
+import pl.mpiglas.dbproc.postgres.jdbc.StatementTimeout;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureCall;
+import pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureListener;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureMetadata;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureParameter;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
+
+/**
+ * Creates {@link StoredProcedureQuery} with parameters registered from
+ * {@link ProcedureRegistry}, so call sites only set parameter values.
+ *
+ * PostgreSQL supports only positional parameters, so input parameters are
+ * registered by their position, starting from 1.
+ *
+ * @author Milosz Piglas
+ */
+public final class StoredProcedures
+{
+
+    private StoredProcedures()
+    {
+    }
+
+    /**
+     * @param em entity manager
+     * @param registry procedure metadata
+     * @param name procedure name
+     * @return query with registered input parameters
+     */
+    public static StoredProcedureQuery create(EntityManager em, ProcedureRegistry registry, String name)
+    {
+        ProcedureMetadata procedure = registry.get(name);
+        return register(em.createStoredProcedureQuery(procedure.getName()), procedure);
+    }
+
+    /**
+     * @param em entity manager
+     * @param registry procedure metadata
+     * @param name procedure name
+     * @param resultSetMapping name of {@link javax.persistence.SqlResultSetMapping}
+     * @return query with registered input parameters
+     */
+    public static StoredProcedureQuery create(EntityManager em, ProcedureRegistry registry, String name,
+            String resultSetMapping)
+    {
+        ProcedureMetadata procedure = registry.get(name);
+        return register(em.createStoredProcedureQuery(procedure.getName(), resultSetMapping), procedure);
+    }
+
+    /**
+     * Registers input parameters of procedure in query.
+     *
+     * @param query stored procedure query
+     * @param procedure procedure metadata
+     * @return the same query
+     */
+    public static StoredProcedureQuery register(StoredProcedureQuery query, ProcedureMetadata procedure)
+    {
+        List<ProcedureParameter> inputs = procedure.getInParameters();
+        for (int i = 0; i < inputs.size(); i++)
+        {
+            ProcedureParameter param = inputs.get(i);
+            ParameterMode mode = param.getMode() == ProcedureParameter.Mode.INOUT ? ParameterMode.INOUT : ParameterMode.IN;
+            query.registerStoredProcedureParameter(i + 1, param.getJavaType(), mode);
+        }
+        return query;
+    }
+
+    /**
+     * Wraps query, so that its executions are reported to listener, e.g.
+     * {@link pl.mpiglas.dbproc.postgres.jdbc.metrics.ProcedureMetrics}.
+     * Provider reads all rows at once, so time to the first row is measured
+     * when result list is complete. If results are read after
+     * {@link StoredProcedureQuery#execute()}, only execution is reported.
+     *
+     * @param query stored procedure query
+     * @param procedure procedure name reported to listener
+     * @param listener listener of calls
+     * @return instrumented query
+     */
+    public static StoredProcedureQuery instrument(StoredProcedureQuery query, String procedure,
+            ProcedureListener listener)
+    {
+        return (StoredProcedureQuery) Proxy.newProxyInstance(StoredProcedureQuery.class.getClassLoader(),
+                new Class<?>[]
+                {
+                    StoredProcedureQuery.class
+                }, new InstrumentedQuery(query, procedure, listener));
+    }
+
+    /**
+     * Wraps query, so that its executions have to finish before deadline.
+     * Hibernate ignores <code>javax.persistence.query.timeout</code> hint of
+     * procedure calls, so {@link StatementTimeout} of session connection is
+     * limited for the time of execution instead. Execution stopped by
+     * deadline fails with {@link QueryTimeoutException}.
+     *
+     * @param em entity manager, which created query
+     * @param query stored procedure query
+     * @param procedure procedure name reported in exceptions
+     * @param deadline deadline of executions
+     * @return bounded query
+     */
+    public static StoredProcedureQuery withDeadline(EntityManager em, StoredProcedureQuery query, String procedure,
+            Deadline deadline)
+    {
+        if (!deadline.isBounded())
+        {
+            return query;
+        }
+        return (StoredProcedureQuery) Proxy.newProxyInstance(StoredProcedureQuery.class.getClassLoader(),
+                new Class<?>[]
+                {
+                    StoredProcedureQuery.class
+                }, new BoundedQuery(em.unwrap(Session.class), query, procedure, deadline));
+    }
+
+    private static boolean isExecution(String method)
+    {
+        return "execute".equals(method) || "executeUpdate".equals(method);
+    }
+
+    private static boolean isRead(String method)
+    {
+        return "getResultList".equals(method) || "getSingleResult".equals(method);
+    }
+
+    private static Object delegate(StoredProcedureQuery query, Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(query, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Limits statement timeout of session for executions of wrapped query.
+     */
+    private static final class BoundedQuery implements InvocationHandler
+    {
+
+        private final Session session;
+        private final StoredProcedureQuery query;
+        private final String procedure;
+        private final Deadline deadline;
+        private boolean executed;
+
+        BoundedQuery(Session session, StoredProcedureQuery query, String procedure, Deadline deadline)
+        {
+            this.session = session;
+            this.query = query;
+            this.procedure = procedure;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            boolean execute = isExecution(name);
+            if (!execute && !(isRead(name) && !executed))
+            {
+                Object result = delegate(query, method, args);
+                return result == query ? proxy : result;
+            }
+            executed |= execute;
+            try
+            {
+                deadline.check(procedure);
+            }
+            catch (SQLTimeoutException ex)
+            {
+                throw new QueryTimeoutException(ex.getMessage(), ex, query);
+            }
+            StatementTimeout timeout = session.doReturningWork(connection ->
+                    StatementTimeout.set(connection, deadline, procedure));
+            Object result;
+            try
+            {
+                result = delegate(query, method, args);
+            }
+            catch (Throwable ex)
+            {
+                try
+                {
+                    session.doWork(connection -> timeout.close());
+                }
+                catch (RuntimeException restoreEx)
+                {
+                    // transaction failed and its rollback restores timeout
+                    ex.addSuppressed(restoreEx);
+                }
+                throw ex;
+            }
+            session.doWork(connection -> timeout.close());
+            return result;
+        }
+    }
+
+    /**
+     * Reports executions of wrapped query. Positional parameter values are
+     * remembered and reported as call arguments.
+     */
+    private static final class InstrumentedQuery implements InvocationHandler
+    {
+
+        private final StoredProcedureQuery query;
+        private final String procedure;
+        private final ProcedureListener listener;
+        private final SortedMap<Integer, Object> parameters = new TreeMap<>();
+        private boolean executed;
+
+        InstrumentedQuery(StoredProcedureQuery query, String procedure, ProcedureListener listener)
+        {
+            this.query = query;
+            this.procedure = procedure;
+            this.listener = listener;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            boolean execute = isExecution(name);
+            boolean read = isRead(name);
+            if ("setParameter".equals(name) && args[0] instanceof Integer)
+            {
+                parameters.put((Integer) args[0], args[1]);
+            }
+            if (!execute && !(read && !executed))
+            {
+                Object result = delegate(query, method, args);
+                return result == query ? proxy : result;
+            }
+            executed |= execute;
+            ProcedureCall call = ProcedureCall.start(listener, procedure, parameters.values().toArray());
+            try
+            {
+                Object result = delegate(query, method, args);
+                if (result instanceof List)
+                {
+                    call.rowsRead(((List<?>) result).size());
+                }
+                else if (read)
+                {
+                    call.rowsRead(1);
+                }
+                call.finish();
+                return result;
+            }
+            catch (RuntimeException ex)
+            {
+                call.fail(ex);
+                throw ex;
+            }
+        }
+    }
+}
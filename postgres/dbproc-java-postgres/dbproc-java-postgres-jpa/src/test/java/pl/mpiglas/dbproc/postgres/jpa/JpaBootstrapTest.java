@@ -0,0 +1,45 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.StoredProcedureQuery;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+/**
+ * Shared factory built in background with procedures registered as named
+ * queries.
+ *
+ * @author Milosz Piglas
+ */
+public class JpaBootstrapTest
+{
+
+    @Test
+    public void shouldCallNamedProcedureOfSharedFactory()
+    {
+        try (JpaBootstrap jpa = JpaBootstrap.shared("postgresPu"))
+        {
+            Assertions.assertThat(JpaBootstrap.shared("postgresPu")).isSameAs(jpa);
+
+            EntityManager em = jpa.createEntityManager();
+            try
+            {
+                StoredProcedureQuery proc = em.createNamedStoredProcedureQuery("modmul");
+                proc.setParameter(1, 10);
+                proc.setParameter(2, 3);
+                Assertions.assertThat((Object[]) proc.getSingleResult()).containsExactly(3, 1);
+            }
+            finally
+            {
+                em.close();
+            }
+
+            Assertions.assertThat(jpa.isReady()).isTrue();
+            Assertions.assertThat(jpa.getRegistry().find("gen_rows").isPresent()).isTrue();
+            Assertions.assertThat(jpa.getPhases(TimeUnit.MILLISECONDS))
+                    .containsOnlyKeys("createEntityManagerFactory", "introspectProcedures", "registerProcedures");
+            Assertions.assertThat(jpa.getBootstrapTime(TimeUnit.MILLISECONDS)).isNotNegative();
+        }
+    }
+}
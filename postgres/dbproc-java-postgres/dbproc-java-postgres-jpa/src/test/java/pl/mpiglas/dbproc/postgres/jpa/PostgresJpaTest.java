@@ -7,9 +7,11 @@ import javax.persistence.ParameterMode;
 import javax.persistence.Persistence;
 import javax.persistence.StoredProcedureQuery;
 import org.assertj.core.api.Assertions;
+import org.hibernate.Session;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.meta.ProcedureRegistry;
 
 /**
  * Test calling PostgreSQL procedures with JPA/Hibernate.
@@ -183,6 +185,24 @@ public class PostgresJpaTest
         Assertions.assertThat(result).contains(rec(0), rec(1), rec(2), rec(3), rec(4), rec(5));
     }
 
+    /**
+     * Calls procedure with input parameters registered from metadata read
+     * from database.
+     */
+    @Test
+    public void shouldRegisterParametersFromMetadata()
+    {
+        ProcedureRegistry registry = em.unwrap(Session.class)
+                .doReturningWork(con -> ProcedureRegistry.introspect(con, "public"));
+
+        StoredProcedureQuery proc = StoredProcedures.create(em, registry, "modmul");
+        proc.setParameter(1, 10);
+        proc.setParameter(2, 3);
+
+        Object[] result = (Object[]) proc.getSingleResult();
+        Assertions.assertThat(result).containsExactly(3, 1);
+    }
+
     private static StrIntRecord rec(int index)
     {
         return new StrIntRecord("ROW" + index, index + 1);
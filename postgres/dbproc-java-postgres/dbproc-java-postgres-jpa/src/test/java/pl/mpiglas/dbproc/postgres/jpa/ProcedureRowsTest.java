@@ -0,0 +1,90 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.assertj.core.api.Assertions;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import pl.mpiglas.dbproc.postgres.jdbc.ConstructorRowMapper;
+
+/**
+ * Reading procedure rows into objects not managed by entity manager.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureRowsTest
+{
+
+    private EntityManager em;
+    private EntityManagerFactory factory;
+
+    @Before
+    public void initEntityManager()
+    {
+        factory = Persistence.createEntityManagerFactory("postgresPu");
+        em = factory.createEntityManager();
+    }
+
+    /**
+     * Rows are created with constructor and persistence context stays empty.
+     */
+    @Test
+    public void shouldListRowsWithoutManagingThem()
+    {
+        List<StrIntValue> rows = ProcedureRows.list(em, StrIntValue.class, "SELECT * FROM gen_rows(?)", 6);
+
+        Assertions.assertThat(rows).containsExactly(value(0), value(1), value(2), value(3), value(4), value(5));
+        Assertions.assertThat(em.unwrap(Session.class).getStatistics().getEntityCount()).isZero();
+    }
+
+    /**
+     * Rows are passed to consumer while they are fetched in small batches.
+     */
+    @Test
+    public void shouldPassRowsToConsumer()
+    {
+        AtomicInteger sum = new AtomicInteger();
+        long count = ProcedureRows.forEach(em, ConstructorRowMapper.of(StrIntValue.class),
+                row -> sum.addAndGet(row.getNum()), 7, "SELECT * FROM gen_rows(?)", 100);
+
+        Assertions.assertThat(count).isEqualTo(100);
+        Assertions.assertThat(sum.get()).isEqualTo(5050);
+    }
+
+    /**
+     * Stream is read with cursor of transaction.
+     */
+    @Test
+    public void shouldStreamRowsInTransaction()
+    {
+        Assertions.assertThatThrownBy(() -> ProcedureRows.stream(em, ConstructorRowMapper.of(StrIntValue.class),
+                "SELECT * FROM gen_rows(?)", 3)).isInstanceOf(IllegalStateException.class);
+
+        em.getTransaction().begin();
+        try (Stream<StrIntValue> rows = ProcedureRows.stream(em, ConstructorRowMapper.of(StrIntValue.class),
+                "SELECT * FROM gen_rows(?)", 3))
+        {
+            Assertions.assertThat(rows.collect(Collectors.toList())).containsExactly(value(0), value(1), value(2));
+        }
+        em.getTransaction().commit();
+    }
+
+    private static StrIntValue value(int index)
+    {
+        return new StrIntValue("ROW" + index, index + 1);
+    }
+
+    @After
+    public void releaseResources()
+    {
+        em.close();
+        factory.close();
+    }
+}
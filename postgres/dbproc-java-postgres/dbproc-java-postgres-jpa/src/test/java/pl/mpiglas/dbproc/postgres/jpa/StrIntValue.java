@@ -0,0 +1,59 @@
+package pl.mpiglas.dbproc.postgres.jpa;
+
+import java.util.Objects;
+
+/**
+ * Row of <code>gen_rows</code> as plain immutable object. Unlike
+ * {@link StrIntRecord} it is not an entity.
+ *
+ * @author Milosz Piglas
+ */
+public final class StrIntValue
+{
+
+    private final String str;
+    private final int num;
+
+    public StrIntValue(String str, int num)
+    {
+        this.str = str;
+        this.num = num;
+    }
+
+    public String getStr()
+    {
+        return str;
+    }
+
+    public int getNum()
+    {
+        return num;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(str, num);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof StrIntValue))
+        {
+            return false;
+        }
+        StrIntValue other = (StrIntValue) obj;
+        return num == other.num && Objects.equals(str, other.str);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "StrIntValue{" + "str=" + str + ", num=" + num + '}';
+    }
+}
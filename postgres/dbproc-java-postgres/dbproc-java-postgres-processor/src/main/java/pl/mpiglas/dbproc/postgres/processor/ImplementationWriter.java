@@ -0,0 +1,317 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Writes source of procedures interface implementation for single backend.
+ * Generated code binds parameters and reads columns with typed JDBC accessors,
+ * so no reflection is involved at runtime.
+ *
+ * @author Milosz Piglas
+ */
+final class ImplementationWriter
+{
+
+    /**
+     * Backend of generated implementation, mirrors
+     * <code>Procedures.Backend</code>.
+     */
+    enum Backend
+    {
+        JDBC("Jdbc"), JPA("Jpa"), CAYENNE("Cayenne");
+
+        private final String suffix;
+
+        Backend(String suffix)
+        {
+            this.suffix = suffix;
+        }
+
+        String getSuffix()
+        {
+            return suffix;
+        }
+    }
+
+    private static final String JDBC_PACKAGE = "pl.mpiglas.dbproc.postgres.jdbc";
+
+    private final String packageName;
+    private final String interfaceName;
+    private final String className;
+    private final List<ProcedureMethod> methods;
+    private final Backend backend;
+
+    /**
+     * @param packageName package of interface, empty for default package
+     * @param interfaceName canonical name of interface
+     * @param simpleName simple name of interface
+     * @param methods methods of interface
+     * @param backend backend
+     */
+    ImplementationWriter(String packageName, String interfaceName, String simpleName, List<ProcedureMethod> methods,
+            Backend backend)
+    {
+        this.packageName = packageName;
+        this.interfaceName = interfaceName;
+        this.className = simpleName + backend.getSuffix();
+        this.methods = methods;
+        this.backend = backend;
+    }
+
+    String getQualifiedClassName()
+    {
+        return packageName.isEmpty() ? className : packageName + "." + className;
+    }
+
+    void write(PrintWriter out)
+    {
+        if (!packageName.isEmpty())
+        {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("/**");
+        out.println(" * Implementation of {@link " + interfaceName + "} generated by");
+        out.println(" * <code>" + ProcedureProcessor.class.getName() + "</code>.");
+        if (backend == Backend.CAYENNE)
+        {
+            out.println(" * Calls take part in Cayenne transaction bound to current thread.");
+        }
+        out.println(" */");
+        out.println("public class " + className + " implements " + interfaceName);
+        out.println("{");
+        out.println();
+        for (ProcedureMethod method : methods)
+        {
+            if (backend == Backend.JDBC)
+            {
+                out.println("    private static final " + JDBC_PACKAGE + ".ProcedureSignature " + method.getConstantName()
+                        + " = " + JDBC_PACKAGE + ".ProcedureSignature.of(\"" + method.getProcedureName() + "\", \""
+                        + method.getSql() + "\");");
+            }
+            else
+            {
+                out.println("    private static final String " + method.getConstantName() + " = \"" + method.getSql() + "\";");
+            }
+        }
+        out.println();
+        writeConstructors(out);
+        for (ProcedureMethod method : methods)
+        {
+            out.println();
+            writeMethod(out, method);
+        }
+        out.println("}");
+    }
+
+    private void writeConstructors(PrintWriter out)
+    {
+        switch (backend)
+        {
+            case JDBC:
+                out.println("    private final " + JDBC_PACKAGE + ".StatementCache cache;");
+                out.println();
+                out.println("    public " + className + "(java.sql.Connection connection)");
+                out.println("    {");
+                out.println("        this(new " + JDBC_PACKAGE + ".StatementCache(connection));");
+                out.println("    }");
+                out.println();
+                out.println("    public " + className + "(" + JDBC_PACKAGE + ".StatementCache cache)");
+                out.println("    {");
+                out.println("        this.cache = cache;");
+                out.println("    }");
+                break;
+            case JPA:
+                out.println("    private final javax.persistence.EntityManager entityManager;");
+                out.println();
+                out.println("    public " + className + "(javax.persistence.EntityManager entityManager)");
+                out.println("    {");
+                out.println("        this.entityManager = entityManager;");
+                out.println("    }");
+                break;
+            case CAYENNE:
+                out.println("    private final org.apache.cayenne.configuration.server.ServerRuntime runtime;");
+                out.println();
+                out.println("    public " + className + "(org.apache.cayenne.configuration.server.ServerRuntime runtime)");
+                out.println("    {");
+                out.println("        this.runtime = runtime;");
+                out.println("    }");
+                break;
+            default:
+                throw new IllegalStateException(backend.name());
+        }
+    }
+
+    private void writeMethod(PrintWriter out, ProcedureMethod method)
+    {
+        ResultShape result = method.getResult();
+        StringBuilder signature = new StringBuilder("    public ").append(result.getTypeName()).append(' ')
+                .append(method.getMethodName()).append('(');
+        List<ProcedureMethod.Parameter> params = method.getParameters();
+        for (int i = 0; i < params.size(); i++)
+        {
+            if (i > 0)
+            {
+                signature.append(", ");
+            }
+            signature.append(params.get(i).getTypeName()).append(' ').append(params.get(i).getName());
+        }
+        signature.append(')');
+        if (!method.getThrownTypes().isEmpty())
+        {
+            signature.append(" throws ").append(String.join(", ", method.getThrownTypes()));
+        }
+        out.println("    @Override");
+        out.println(signature);
+        out.println("    {");
+        switch (backend)
+        {
+            case JDBC:
+                writeJdbcBody(out, method);
+                break;
+            case JPA:
+                writeJpaBody(out, method);
+                break;
+            case CAYENNE:
+                writeCayenneBody(out, method);
+                break;
+            default:
+                throw new IllegalStateException(backend.name());
+        }
+        out.println("    }");
+    }
+
+    private void writeJdbcBody(PrintWriter out, ProcedureMethod method)
+    {
+        String indent = openWrapping(out, method, "        ");
+        String constant = method.getConstantName();
+        out.println(indent + "java.sql.PreparedStatement $statement = this.cache.prepare(" + constant + ");");
+        out.println(indent + "try");
+        out.println(indent + "{");
+        writeCall(out, method, indent + "    ");
+        out.println(indent + "}");
+        out.println(indent + "catch (java.sql.SQLException $ex)");
+        out.println(indent + "{");
+        out.println(indent + "    try");
+        out.println(indent + "    {");
+        out.println(indent + "        this.cache.invalidate(" + constant + ");");
+        out.println(indent + "    }");
+        out.println(indent + "    catch (java.sql.SQLException $suppressed)");
+        out.println(indent + "    {");
+        out.println(indent + "        $ex.addSuppressed($suppressed);");
+        out.println(indent + "    }");
+        out.println(indent + "    throw $ex;");
+        out.println(indent + "}");
+        closeWrapping(out, method, "        ");
+    }
+
+    private void writeJpaBody(PrintWriter out, ProcedureMethod method)
+    {
+        boolean returning = method.getResult().getKind() != ResultShape.Kind.VOID;
+        out.println("        " + (returning ? "return " : "") + "this.entityManager.unwrap(org.hibernate.Session.class)."
+                + (returning ? "doReturningWork" : "doWork") + "($connection ->");
+        out.println("        {");
+        out.println("            try (java.sql.PreparedStatement $statement = $connection.prepareStatement("
+                + method.getConstantName() + "))");
+        out.println("            {");
+        writeCall(out, method, "                ");
+        out.println("            }");
+        out.println("        });");
+    }
+
+    /**
+     * Data source of runtime returns connection of Cayenne transaction bound
+     * to thread, if there is one, and closing it leaves connection to
+     * transaction.
+     */
+    private void writeCayenneBody(PrintWriter out, ProcedureMethod method)
+    {
+        String indent = openWrapping(out, method, "        ");
+        out.println(indent + "try (java.sql.Connection $connection = this.runtime.getDataSource().getConnection();");
+        out.println(indent + "        java.sql.PreparedStatement $statement = $connection.prepareStatement("
+                + method.getConstantName() + "))");
+        out.println(indent + "{");
+        writeCall(out, method, indent + "    ");
+        out.println(indent + "}");
+        closeWrapping(out, method, "        ");
+    }
+
+    private static String openWrapping(PrintWriter out, ProcedureMethod method, String indent)
+    {
+        if (method.isThrowingSQLException())
+        {
+            return indent;
+        }
+        out.println(indent + "try");
+        out.println(indent + "{");
+        return indent + "    ";
+    }
+
+    private static void closeWrapping(PrintWriter out, ProcedureMethod method, String indent)
+    {
+        if (method.isThrowingSQLException())
+        {
+            return;
+        }
+        out.println(indent + "}");
+        out.println(indent + "catch (java.sql.SQLException $ex)");
+        out.println(indent + "{");
+        out.println(indent + "    throw new " + JDBC_PACKAGE + ".UncheckedSQLException($ex);");
+        out.println(indent + "}");
+    }
+
+    private static void writeCall(PrintWriter out, ProcedureMethod method, String indent)
+    {
+        List<ProcedureMethod.Parameter> params = method.getParameters();
+        for (int i = 0; i < params.size(); i++)
+        {
+            out.println(indent + params.get(i).bind("$statement", i + 1));
+        }
+        ResultShape result = method.getResult();
+        if (result.getKind() == ResultShape.Kind.VOID)
+        {
+            out.println(indent + "$statement.execute();");
+            return;
+        }
+        out.println(indent + "try (java.sql.ResultSet $resultSet = $statement.executeQuery())");
+        out.println(indent + "{");
+        String body = indent + "    ";
+        String row = result.rowExpression("$resultSet");
+        switch (result.getKind())
+        {
+            case VALUE:
+            case OBJECT:
+                out.println(body + "if (!$resultSet.next())");
+                out.println(body + "{");
+                out.println(body + "    throw new java.sql.SQLException(\"Procedure " + method.getProcedureName()
+                        + " returned no rows\");");
+                out.println(body + "}");
+                out.println(body + "return " + row + ";");
+                break;
+            case LIST:
+                out.println(body + "java.util.List<" + result.getElementTypeName() + "> $rows = new java.util.ArrayList<>();");
+                out.println(body + "while ($resultSet.next())");
+                out.println(body + "{");
+                out.println(body + "    $rows.add(" + row + ");");
+                out.println(body + "}");
+                out.println(body + "return $rows;");
+                break;
+            default:
+                String element = result.getElementTypeName();
+                out.println(body + element + "[] $values = new " + element + "[16];");
+                out.println(body + "int $size = 0;");
+                out.println(body + "while ($resultSet.next())");
+                out.println(body + "{");
+                out.println(body + "    if ($size == $values.length)");
+                out.println(body + "    {");
+                out.println(body + "        $values = java.util.Arrays.copyOf($values, $size * 2);");
+                out.println(body + "    }");
+                out.println(body + "    $values[$size++] = " + row + ";");
+                out.println(body + "}");
+                out.println(body + "return java.util.Arrays.copyOf($values, $size);");
+                break;
+        }
+        out.println(indent + "}");
+    }
+}
@@ -0,0 +1,139 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.util.List;
+
+/**
+ * Interface method bound to procedure.
+ *
+ * @author Milosz Piglas
+ */
+final class ProcedureMethod
+{
+
+    /**
+     * Method parameter passed to procedure.
+     */
+    static final class Parameter
+    {
+
+        private final String name;
+        private final String typeName;
+        private final ValueType valueType;
+
+        Parameter(String name, String typeName, ValueType valueType)
+        {
+            this.name = name;
+            this.typeName = typeName;
+            this.valueType = valueType;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        String getTypeName()
+        {
+            return typeName;
+        }
+
+        /**
+         * @return value type or null if parameter is bound with
+         * {@link java.sql.PreparedStatement#setObject(int, Object)}
+         */
+        ValueType getValueType()
+        {
+            return valueType;
+        }
+
+        /**
+         * @return statement binding parameter value, with
+         * {@link java.sql.PreparedStatement#setObject(int, Object)} for types
+         * without dedicated setter
+         */
+        String bind(String statement, int index)
+        {
+            if (valueType == null)
+            {
+                return statement + ".setObject(" + index + ", " + name + ");";
+            }
+            return valueType.bind(statement, index, name);
+        }
+    }
+
+    private final String methodName;
+    private final String procedureName;
+    private final String constantName;
+    private final List<Parameter> parameters;
+    private final ResultShape result;
+    private final List<String> thrownTypes;
+    private final boolean throwingSQLException;
+
+    ProcedureMethod(String methodName, String procedureName, String constantName, List<Parameter> parameters,
+            ResultShape result, List<String> thrownTypes, boolean throwingSQLException)
+    {
+        this.methodName = methodName;
+        this.procedureName = procedureName;
+        this.constantName = constantName;
+        this.parameters = parameters;
+        this.result = result;
+        this.thrownTypes = thrownTypes;
+        this.throwingSQLException = throwingSQLException;
+    }
+
+    String getMethodName()
+    {
+        return methodName;
+    }
+
+    String getProcedureName()
+    {
+        return procedureName;
+    }
+
+    /**
+     * @return name of static field holding procedure statement
+     */
+    String getConstantName()
+    {
+        return constantName;
+    }
+
+    List<Parameter> getParameters()
+    {
+        return parameters;
+    }
+
+    ResultShape getResult()
+    {
+        return result;
+    }
+
+    List<String> getThrownTypes()
+    {
+        return thrownTypes;
+    }
+
+    /**
+     * @return true if method declares exception, which {@link java.sql.SQLException}
+     * can be thrown as, false if it has to be wrapped
+     */
+    boolean isThrowingSQLException()
+    {
+        return throwingSQLException;
+    }
+
+    /**
+     * @return statement calling procedure, all rows and columns of result are
+     * selected
+     */
+    String getSql()
+    {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(procedureName).append('(');
+        for (int i = 0; i < parameters.size(); i++)
+        {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+}
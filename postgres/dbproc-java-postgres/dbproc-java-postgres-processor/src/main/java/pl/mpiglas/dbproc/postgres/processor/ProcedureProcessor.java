@@ -0,0 +1,386 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates implementations of interfaces annotated with
+ * <code>&#64;Procedures</code>. For every requested backend class named after
+ * interface with backend suffix is generated, e.g. <code>ArithmeticJdbc</code>.
+ * Abstract methods inherited from superinterfaces are implemented as well.
+ *
+ * If option <code>dbproc.sql</code> lists SQL scripts (separated with commas),
+ * every method is checked against function declared in scripts: function
+ * must exist, accept the same number of arguments and return as many columns
+ * as method reads. Simple types of arguments and columns must match too:
+ * argument must be implicitly cast by PostgreSQL to parameter type, e.g.
+ * <code>int</code> to <code>bigint</code> but not <code>long</code> to
+ * <code>integer</code>, and column must be read without loss. Mismatch is
+ * reported as compilation error, so interface cannot silently drift from
+ * procedures.
+ *
+ * <pre>
+ * javac -Adbproc.sql=postgres/etc/postgres-procedures.sql ...
+ * </pre>
+ *
+ * Annotations are matched by name, so processor does not depend on
+ * <code>dbproc-java-postgres-jdbc</code>, only generated code does.
+ *
+ * @author Milosz Piglas
+ */
+@SupportedAnnotationTypes(ProcedureProcessor.PROCEDURES_ANNOTATION)
+@SupportedOptions(ProcedureProcessor.SQL_OPTION)
+public class ProcedureProcessor extends AbstractProcessor
+{
+
+    public static final String SQL_OPTION = "dbproc.sql";
+
+    static final String PROCEDURES_ANNOTATION = "pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedures";
+    static final String PROCEDURE_ANNOTATION = "pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedure";
+
+    private SqlScript script;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv)
+    {
+        super.init(processingEnv);
+        String scripts = processingEnv.getOptions().get(SQL_OPTION);
+        if (scripts == null || scripts.trim().isEmpty())
+        {
+            return;
+        }
+        script = SqlScript.empty();
+        for (String path : scripts.split(","))
+        {
+            try
+            {
+                byte[] content = Files.readAllBytes(Paths.get(path.trim()));
+                script.merge(SqlScript.parse(new String(content, StandardCharsets.UTF_8)));
+            }
+            catch (IOException | IllegalArgumentException ex)
+            {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Cannot read SQL script " + path.trim() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+    {
+        for (TypeElement annotation : annotations)
+        {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation))
+            {
+                if (element.getKind() != ElementKind.INTERFACE)
+                {
+                    error(element, "@Procedures can be placed only on interface");
+                    continue;
+                }
+                process((TypeElement) element);
+            }
+        }
+        return true;
+    }
+
+    private void process(TypeElement type)
+    {
+        if (!type.getTypeParameters().isEmpty())
+        {
+            error(type, "Generic procedure interfaces are not supported");
+            return;
+        }
+        List<ProcedureMethod> methods = new ArrayList<>();
+        Set<String> constants = new HashSet<>();
+        boolean valid = true;
+        // abstract methods inherited from superinterfaces are implemented too
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type)))
+        {
+            if (!method.getModifiers().contains(Modifier.ABSTRACT))
+            {
+                continue;
+            }
+            if (!((TypeElement) method.getEnclosingElement()).getTypeParameters().isEmpty())
+            {
+                error(type, "Method " + method.getSimpleName() + " is inherited from generic interface "
+                        + method.getEnclosingElement() + ", which is not supported");
+                valid = false;
+                continue;
+            }
+            ProcedureMethod procedure = toProcedureMethod(method, constants);
+            if (procedure == null || !checkDrift(method, procedure))
+            {
+                valid = false;
+            }
+            else
+            {
+                methods.add(procedure);
+            }
+        }
+        if (!valid)
+        {
+            return;
+        }
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        for (ImplementationWriter.Backend backend : backends(type))
+        {
+            ImplementationWriter writer = new ImplementationWriter(packageName, type.getQualifiedName().toString(),
+                    type.getSimpleName().toString(), methods, backend);
+            try
+            {
+                JavaFileObject file = processingEnv.getFiler().createSourceFile(writer.getQualifiedClassName(), type);
+                try (PrintWriter out = new PrintWriter(file.openWriter()))
+                {
+                    writer.write(out);
+                }
+            }
+            catch (IOException ex)
+            {
+                error(type, "Cannot write " + writer.getQualifiedClassName() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private ProcedureMethod toProcedureMethod(ExecutableElement method, Set<String> constants)
+    {
+        AnnotationMirror procedure = findAnnotation(method, PROCEDURE_ANNOTATION);
+        if (procedure == null)
+        {
+            error(method, "Method of procedures interface must be annotated with @Procedure");
+            return null;
+        }
+        if (!method.getTypeParameters().isEmpty())
+        {
+            error(method, "Generic procedure methods are not supported");
+            return null;
+        }
+        String procedureName = (String) annotationValue(procedure, "value").getValue();
+        if (!procedureName.matches("[\\w.]+"))
+        {
+            error(method, "Invalid procedure name " + procedureName);
+            return null;
+        }
+        ResultShape result;
+        try
+        {
+            result = ResultShape.of(method.getReturnType());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            error(method, ex.getMessage());
+            return null;
+        }
+        List<ProcedureMethod.Parameter> params = new ArrayList<>();
+        for (VariableElement param : method.getParameters())
+        {
+            TypeMirror paramType = param.asType();
+            params.add(new ProcedureMethod.Parameter(param.getSimpleName().toString(), paramType.toString(),
+                    ValueType.of(paramType)));
+        }
+        TypeMirror sqlException = processingEnv.getElementUtils().getTypeElement("java.sql.SQLException").asType();
+        List<String> thrown = new ArrayList<>();
+        boolean throwingSql = false;
+        for (TypeMirror thrownType : method.getThrownTypes())
+        {
+            thrown.add(thrownType.toString());
+            throwingSql |= processingEnv.getTypeUtils().isAssignable(sqlException, thrownType);
+        }
+        String constant = constantName(method.getSimpleName().toString());
+        String unique = constant;
+        for (int i = 2; !constants.add(unique); i++)
+        {
+            unique = constant + "_" + i;
+        }
+        return new ProcedureMethod(method.getSimpleName().toString(), procedureName, unique,
+                Collections.unmodifiableList(params), result, Collections.unmodifiableList(thrown), throwingSql);
+    }
+
+    /**
+     * Compares method with function declared in SQL scripts.
+     *
+     * @return false if method does not match function
+     */
+    private boolean checkDrift(ExecutableElement method, ProcedureMethod procedure)
+    {
+        if (script == null)
+        {
+            return true;
+        }
+        List<SqlScript.Function> overloads = script.find(procedure.getProcedureName());
+        if (overloads.isEmpty())
+        {
+            error(method, "Procedure " + procedure.getProcedureName() + " is not declared in SQL scripts");
+            return false;
+        }
+        SqlScript.Function function = null;
+        String mismatch = null;
+        for (SqlScript.Function overload : overloads)
+        {
+            if (overload.getInputCount() == procedure.getParameters().size())
+            {
+                String argumentMismatch = argumentMismatch(procedure, overload);
+                if (argumentMismatch == null)
+                {
+                    function = overload;
+                }
+                else if (mismatch == null)
+                {
+                    mismatch = argumentMismatch;
+                }
+            }
+        }
+        if (function == null)
+        {
+            error(method, mismatch != null ? mismatch : "Procedure " + procedure.getProcedureName()
+                    + " does not accept " + procedure.getParameters().size() + " arguments");
+            return false;
+        }
+        ResultShape result = procedure.getResult();
+        if (result.getKind() != ResultShape.Kind.VOID && function.getColumnCount() >= 0
+                && function.getColumnCount() != result.getColumnCount())
+        {
+            error(method, "Procedure " + procedure.getProcedureName() + " returns " + function.getColumnCount()
+                    + " columns, but " + result.getTypeName() + " reads " + result.getColumnCount());
+            return false;
+        }
+        if (result.getKind() != ResultShape.Kind.VOID && function.getColumnTypes() != null)
+        {
+            for (int i = 0; i < result.getColumnCount(); i++)
+            {
+                String columnType = function.getColumnTypes().get(i);
+                ValueType column = result.getColumns().get(i);
+                if (columnType != null && !column.reads(columnType))
+                {
+                    error(method, "Procedure " + procedure.getProcedureName() + " returns " + columnType
+                            + " in column " + (i + 1) + ", which cannot be read as " + column.getTypeName());
+                    return false;
+                }
+            }
+        }
+        if (function.isSetReturning() && !result.isMultiRow() && result.getKind() != ResultShape.Kind.VOID)
+        {
+            error(method, "Procedure " + procedure.getProcedureName() + " returns set, declare List or array result");
+            return false;
+        }
+        if (!function.isSetReturning() && result.isMultiRow())
+        {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Procedure " + procedure.getProcedureName() + " returns single row", method);
+        }
+        return true;
+    }
+
+    /**
+     * @return description of first argument, which cannot be bound to
+     * function parameter without explicit cast, null if all can
+     */
+    private static String argumentMismatch(ProcedureMethod procedure, SqlScript.Function function)
+    {
+        for (int i = 0; i < function.getInputCount(); i++)
+        {
+            String parameterType = function.getInputTypes().get(i);
+            ProcedureMethod.Parameter param = procedure.getParameters().get(i);
+            if (parameterType != null && param.getValueType() != null
+                    && !SqlScript.castsImplicitly(param.getValueType().getDatabaseType(), parameterType))
+            {
+                return "Procedure " + procedure.getProcedureName() + " accepts " + parameterType
+                        + " as argument " + (i + 1) + ", which cannot be bound from " + param.getTypeName()
+                        + " " + param.getName();
+            }
+        }
+        return null;
+    }
+
+    private Set<ImplementationWriter.Backend> backends(TypeElement type)
+    {
+        AnnotationValue value = annotationValue(findAnnotation(type, PROCEDURES_ANNOTATION), "backends");
+        Set<ImplementationWriter.Backend> backends = EnumSet.noneOf(ImplementationWriter.Backend.class);
+        for (Object item : (List<?>) value.getValue())
+        {
+            VariableElement constant = (VariableElement) ((AnnotationValue) item).getValue();
+            backends.add(ImplementationWriter.Backend.valueOf(constant.getSimpleName().toString()));
+        }
+        return backends;
+    }
+
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static AnnotationMirror findAnnotation(Element element, String name)
+    {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors())
+        {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name))
+            {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private AnnotationValue annotationValue(AnnotationMirror mirror, String name)
+    {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values
+                = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet())
+        {
+            if (entry.getKey().getSimpleName().contentEquals(name))
+            {
+                return entry.getValue();
+            }
+        }
+        throw new IllegalStateException("Missing annotation value " + name);
+    }
+
+    static String constantName(String methodName)
+    {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < methodName.length(); i++)
+        {
+            char c = methodName.charAt(i);
+            if (Character.isUpperCase(c) && i > 0)
+            {
+                name.append('_');
+            }
+            name.append(c);
+        }
+        return name.toString().toUpperCase(Locale.ROOT);
+    }
+}
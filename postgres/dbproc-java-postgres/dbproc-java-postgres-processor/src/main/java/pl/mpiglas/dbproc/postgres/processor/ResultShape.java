@@ -0,0 +1,197 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Describes how result of procedure is turned into value returned from
+ * interface method.
+ *
+ * @author Milosz Piglas
+ */
+final class ResultShape
+{
+
+    enum Kind
+    {
+        VOID, VALUE, OBJECT, LIST, INT_ARRAY, LONG_ARRAY, DOUBLE_ARRAY
+    }
+
+    private final Kind kind;
+    private final String typeName;
+    private final String elementTypeName;
+    private final List<ValueType> columns;
+    private final boolean constructed;
+
+    private ResultShape(Kind kind, String typeName, String elementTypeName, List<ValueType> columns,
+            boolean constructed)
+    {
+        this.kind = kind;
+        this.typeName = typeName;
+        this.elementTypeName = elementTypeName;
+        this.columns = columns;
+        this.constructed = constructed;
+    }
+
+    /**
+     * Resolves shape of method return type.
+     *
+     * @param type return type
+     * @return shape
+     * @throws IllegalArgumentException with explanation if type is not
+     * supported
+     */
+    static ResultShape of(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.VOID)
+        {
+            return new ResultShape(Kind.VOID, "void", null, Collections.<ValueType>emptyList(), false);
+        }
+        if (type.getKind() == TypeKind.ARRAY)
+        {
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            switch (component.getKind())
+            {
+                case INT:
+                    return new ResultShape(Kind.INT_ARRAY, type.toString(), "int", Collections.singletonList(ValueType.INT), false);
+                case LONG:
+                    return new ResultShape(Kind.LONG_ARRAY, type.toString(), "long", Collections.singletonList(ValueType.LONG), false);
+                case DOUBLE:
+                    return new ResultShape(Kind.DOUBLE_ARRAY, type.toString(), "double", Collections.singletonList(ValueType.DOUBLE), false);
+                default:
+                    throw new IllegalArgumentException("Only int[], long[] and double[] arrays are supported, got " + type);
+            }
+        }
+        if (type.getKind() == TypeKind.DECLARED && isList((DeclaredType) type))
+        {
+            List<? extends TypeMirror> typeArgs = ((DeclaredType) type).getTypeArguments();
+            if (typeArgs.size() != 1 || typeArgs.get(0).getKind() != TypeKind.DECLARED)
+            {
+                throw new IllegalArgumentException("List must declare element type, got " + type);
+            }
+            ResultShape element = single(typeArgs.get(0));
+            return new ResultShape(Kind.LIST, type.toString(), element.typeName, element.columns,
+                    element.constructed);
+        }
+        return single(type);
+    }
+
+    private static ResultShape single(TypeMirror type)
+    {
+        ValueType value = ValueType.of(type);
+        if (value != null)
+        {
+            return new ResultShape(Kind.VALUE, type.toString(), type.toString(), Collections.singletonList(value), false);
+        }
+        if (type.getKind() != TypeKind.DECLARED)
+        {
+            throw new IllegalArgumentException("Unsupported result type " + type);
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT))
+        {
+            throw new IllegalArgumentException("Result type " + type + " must be concrete class");
+        }
+        ExecutableElement widest = null;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements()))
+        {
+            if (constructor.getModifiers().contains(Modifier.PUBLIC)
+                    && (widest == null || constructor.getParameters().size() > widest.getParameters().size()))
+            {
+                widest = constructor;
+            }
+        }
+        if (widest == null || widest.getParameters().isEmpty())
+        {
+            throw new IllegalArgumentException("Result type " + type + " needs public constructor accepting result columns");
+        }
+        List<ValueType> columns = new ArrayList<>();
+        for (VariableElement param : widest.getParameters())
+        {
+            ValueType column = ValueType.of(param.asType());
+            if (column == null)
+            {
+                throw new IllegalArgumentException("Unsupported type " + param.asType() + " of constructor parameter "
+                        + param.getSimpleName() + " in " + type);
+            }
+            columns.add(column);
+        }
+        return new ResultShape(Kind.OBJECT, type.toString(), type.toString(), Collections.unmodifiableList(columns), true);
+    }
+
+    private static boolean isList(DeclaredType type)
+    {
+        return ((TypeElement) type.asElement()).getQualifiedName().contentEquals("java.util.List");
+    }
+
+    Kind getKind()
+    {
+        return kind;
+    }
+
+    String getTypeName()
+    {
+        return typeName;
+    }
+
+    String getElementTypeName()
+    {
+        return elementTypeName;
+    }
+
+    /**
+     * @return types of result columns read for single row
+     */
+    List<ValueType> getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @return number of result columns read for single row
+     */
+    int getColumnCount()
+    {
+        return columns.size();
+    }
+
+    /**
+     * @return true if all rows of result are read
+     */
+    boolean isMultiRow()
+    {
+        return kind == Kind.LIST || kind == Kind.INT_ARRAY || kind == Kind.LONG_ARRAY || kind == Kind.DOUBLE_ARRAY;
+    }
+
+    /**
+     * @return expression creating single element from current row
+     */
+    String rowExpression(String resultSet)
+    {
+        if (!constructed)
+        {
+            return columns.get(0).read(resultSet, 1);
+        }
+        StringBuilder builder = new StringBuilder("new ").append(elementTypeName).append('(');
+        for (int i = 0; i < columns.size(); i++)
+        {
+            if (i > 0)
+            {
+                builder.append(", ");
+            }
+            builder.append(columns.get(i).read(resultSet, i + 1));
+        }
+        return builder.append(')').toString();
+    }
+}
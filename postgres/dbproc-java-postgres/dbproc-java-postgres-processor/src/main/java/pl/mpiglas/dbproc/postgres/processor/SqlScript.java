@@ -0,0 +1,346 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Function and composite type declarations read from SQL script, like
+ * <code>postgres-procedures.sql</code>. Parser understands only declarations
+ * and ignores function bodies, so it is good enough to detect drift between
+ * interfaces and procedures, but it is not SQL validator.
+ *
+ * @author Milosz Piglas
+ */
+final class SqlScript
+{
+
+    private static final Pattern DOLLAR_QUOTED = Pattern.compile("\\$(\\w*)\\$.*?\\$\\1\\$", Pattern.DOTALL);
+    private static final Pattern LINE_COMMENT = Pattern.compile("--[^\\n]*");
+    private static final Pattern CREATE_FUNCTION = Pattern.compile(
+            "create\\s+(?:or\\s+replace\\s+)?function\\s+([\\w.\"]+)\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_TYPE = Pattern.compile(
+            "create\\s+type\\s+([\\w.\"]+)\\s+(?:as\\s*)?\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern RETURNS = Pattern.compile(
+            "\\s*returns\\s+(setof\\s+)?(table\\s*\\(|[\\w.\"]+(?:\\s+precision|\\s+varying)?)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ARG_DEFAULT = Pattern.compile("\\s+(?:default\\s|=).*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern TYPE_MODIFIER = Pattern.compile("\\s*\\([^)]*\\)");
+    private static final Map<String, String> TYPES = new HashMap<>();
+    /**
+     * Numeric types in order of implicit casts done by PostgreSQL.
+     */
+    private static final List<String> NUMERIC = Arrays.asList("int2", "int4", "int8", "numeric", "float4", "float8");
+
+    static
+    {
+        alias("int2", "smallint", "int2");
+        alias("int4", "integer", "int", "int4");
+        alias("int8", "bigint", "int8");
+        alias("numeric", "numeric", "decimal");
+        alias("float4", "real", "float4");
+        alias("float8", "double precision", "float8");
+        alias("bool", "boolean", "bool");
+        alias("text", "text", "varchar", "character varying", "char", "character", "bpchar");
+    }
+
+    /**
+     * Single declared function. Types are canonical PostgreSQL names, like
+     * <code>int4</code> or <code>text</code>, or null if type is not one of
+     * simple types known to {@link #typeOf(String)}.
+     */
+    static final class Function
+    {
+
+        private final String name;
+        private final List<String> inputTypes;
+        private final List<String> columnTypes;
+        private final boolean setReturning;
+
+        Function(String name, List<String> inputTypes, List<String> columnTypes, boolean setReturning)
+        {
+            this.name = name;
+            this.inputTypes = inputTypes;
+            this.columnTypes = columnTypes;
+            this.setReturning = setReturning;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        int getInputCount()
+        {
+            return inputTypes.size();
+        }
+
+        List<String> getInputTypes()
+        {
+            return inputTypes;
+        }
+
+        /**
+         * @return number of columns of result row, -1 if unknown
+         */
+        int getColumnCount()
+        {
+            return columnTypes == null ? -1 : columnTypes.size();
+        }
+
+        /**
+         * @return types of result columns, null if unknown
+         */
+        List<String> getColumnTypes()
+        {
+            return columnTypes;
+        }
+
+        boolean isSetReturning()
+        {
+            return setReturning;
+        }
+    }
+
+    private final Map<String, List<Function>> functions;
+
+    private SqlScript(Map<String, List<Function>> functions)
+    {
+        this.functions = functions;
+    }
+
+    static SqlScript parse(CharSequence script)
+    {
+        String text = LINE_COMMENT.matcher(DOLLAR_QUOTED.matcher(script).replaceAll("''")).replaceAll("");
+        Map<String, List<String>> types = new HashMap<>();
+        Matcher type = CREATE_TYPE.matcher(text);
+        while (type.find())
+        {
+            int close = closingParen(text, type.end());
+            List<String> attributes = new ArrayList<>();
+            for (String attribute : splitTopLevel(text.substring(type.end(), close)))
+            {
+                attributes.add(namedTypeOf(attribute));
+            }
+            types.put(simpleName(type.group(1)), attributes);
+        }
+
+        Map<String, List<Function>> functions = new HashMap<>();
+        Matcher function = CREATE_FUNCTION.matcher(text);
+        while (function.find())
+        {
+            String name = simpleName(function.group(1));
+            int close = closingParen(text, function.end());
+            List<String> inputs = new ArrayList<>();
+            List<String> outs = new ArrayList<>();
+            for (String arg : splitTopLevel(text.substring(function.end(), close)))
+            {
+                String[] words = arg.split("\\s+", 2);
+                String mode = words[0].toLowerCase(Locale.ROOT);
+                if ("out".equals(mode))
+                {
+                    outs.add(argumentTypeOf(words[1]));
+                }
+                else if ("inout".equals(mode))
+                {
+                    String argType = argumentTypeOf(words[1]);
+                    inputs.add(argType);
+                    outs.add(argType);
+                }
+                else if ("in".equals(mode) || "variadic".equals(mode))
+                {
+                    inputs.add(argumentTypeOf(words[1]));
+                }
+                else
+                {
+                    inputs.add(argumentTypeOf(arg));
+                }
+            }
+            List<String> columns = outs.isEmpty() ? null : outs;
+            boolean set = false;
+            Matcher returns = RETURNS.matcher(text).region(close + 1, text.length());
+            if (returns.lookingAt())
+            {
+                set = returns.group(1) != null;
+                String returned = returns.group(2);
+                if (returned.toLowerCase(Locale.ROOT).startsWith("table"))
+                {
+                    set = true;
+                    columns = new ArrayList<>();
+                    for (String column : splitTopLevel(text.substring(returns.end(),
+                            closingParen(text, returns.end()))))
+                    {
+                        columns.add(namedTypeOf(column));
+                    }
+                }
+                else if (outs.isEmpty())
+                {
+                    String typeName = simpleName(returned);
+                    if ("void".equals(typeName))
+                    {
+                        columns = Collections.emptyList();
+                    }
+                    else if (types.containsKey(typeName))
+                    {
+                        columns = types.get(typeName);
+                    }
+                    else if (!"record".equals(typeName))
+                    {
+                        columns = Collections.singletonList(typeOf(typeName));
+                    }
+                }
+            }
+            functions.computeIfAbsent(name, n -> new ArrayList<>()).add(new Function(name,
+                    Collections.unmodifiableList(inputs),
+                    columns == null ? null : Collections.unmodifiableList(columns), set));
+        }
+        return new SqlScript(functions);
+    }
+
+    /**
+     * @return declared overloads of function, empty if function is not
+     * declared
+     */
+    List<Function> find(String name)
+    {
+        List<Function> found = functions.get(simpleName(name));
+        return found == null ? Collections.<Function>emptyList() : found;
+    }
+
+    void merge(SqlScript other)
+    {
+        for (Map.Entry<String, List<Function>> entry : other.functions.entrySet())
+        {
+            functions.computeIfAbsent(entry.getKey(), n -> new ArrayList<>()).addAll(entry.getValue());
+        }
+    }
+
+    static SqlScript empty()
+    {
+        return new SqlScript(new HashMap<>());
+    }
+
+    /**
+     * @param declaration type as declared in SQL, e.g.
+     * <code>varchar(10)</code>
+     * @return canonical name of simple type, null if type is not known
+     */
+    static String typeOf(String declaration)
+    {
+        String normalized = TYPE_MODIFIER.matcher(declaration.trim()).replaceAll("")
+                .replaceAll("\\s+", " ").replace("\"", "").toLowerCase(Locale.ROOT);
+        if (normalized.startsWith("pg_catalog."))
+        {
+            normalized = normalized.substring("pg_catalog.".length());
+        }
+        return TYPES.get(normalized);
+    }
+
+    /**
+     * Checks whether value of one type can be used, without explicit cast, as
+     * value of the other type: the same types and numeric types widened
+     * along <code>int2, int4, int8, numeric, float4, float8</code>.
+     *
+     * @param from canonical type of value
+     * @param to canonical type of target
+     * @return true if value can be used
+     */
+    static boolean castsImplicitly(String from, String to)
+    {
+        if (from.equals(to))
+        {
+            return true;
+        }
+        int fromRank = NUMERIC.indexOf(from);
+        return fromRank >= 0 && fromRank <= NUMERIC.indexOf(to);
+    }
+
+    private static void alias(String type, String... aliases)
+    {
+        for (String alias : aliases)
+        {
+            TYPES.put(alias, type);
+        }
+    }
+
+    /**
+     * @return type of function argument declared with optional name and
+     * default value
+     */
+    private static String argumentTypeOf(String argument)
+    {
+        String declaration = ARG_DEFAULT.matcher(argument.trim()).replaceFirst("");
+        String type = typeOf(declaration);
+        return type == null ? namedTypeOf(declaration) : type;
+    }
+
+    /**
+     * @return type of column or attribute declared with name
+     */
+    private static String namedTypeOf(String declaration)
+    {
+        String[] words = declaration.trim().split("\\s+", 2);
+        return words.length < 2 ? null : typeOf(words[1]);
+    }
+
+    private static String simpleName(String name)
+    {
+        String unquoted = name.replace("\"", "");
+        return unquoted.substring(unquoted.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static int closingParen(String text, int from)
+    {
+        int depth = 1;
+        for (int i = from; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')' && --depth == 0)
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unbalanced parentheses after position " + from);
+    }
+
+    private static List<String> splitTopLevel(String list)
+    {
+        List<String> items = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++)
+        {
+            char c = list.charAt(i);
+            if (c == '(')
+            {
+                depth++;
+            }
+            else if (c == ')')
+            {
+                depth--;
+            }
+            else if (c == ',' && depth == 0)
+            {
+                items.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        String last = list.substring(start).trim();
+        if (!last.isEmpty() || !items.isEmpty())
+        {
+            items.add(last);
+        }
+        return items;
+    }
+}
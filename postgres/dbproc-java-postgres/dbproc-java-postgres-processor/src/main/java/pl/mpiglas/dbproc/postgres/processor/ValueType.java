@@ -0,0 +1,106 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * JDBC accessors of single column or parameter value of given Java type.
+ *
+ * @author Milosz Piglas
+ */
+enum ValueType
+{
+    INT("int", "Int", null, "int4"),
+    LONG("long", "Long", null, "int8"),
+    SHORT("short", "Short", null, "int2"),
+    DOUBLE("double", "Double", null, "float8"),
+    FLOAT("float", "Float", null, "float4"),
+    BOOLEAN("boolean", "Boolean", null, "bool"),
+    STRING("java.lang.String", "String", null, "text"),
+    BIG_DECIMAL("java.math.BigDecimal", "BigDecimal", null, "numeric"),
+    BOXED_INT("java.lang.Integer", null, "INTEGER", "int4"),
+    BOXED_LONG("java.lang.Long", null, "BIGINT", "int8"),
+    BOXED_SHORT("java.lang.Short", null, "SMALLINT", "int2"),
+    BOXED_DOUBLE("java.lang.Double", null, "DOUBLE", "float8"),
+    BOXED_FLOAT("java.lang.Float", null, "REAL", "float4"),
+    BOXED_BOOLEAN("java.lang.Boolean", null, "BOOLEAN", "bool");
+
+    private final String typeName;
+    private final String accessor;
+    private final String sqlType;
+    private final String databaseType;
+
+    ValueType(String typeName, String accessor, String sqlType, String databaseType)
+    {
+        this.typeName = typeName;
+        this.accessor = accessor;
+        this.sqlType = sqlType;
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * @return value type or null if type is not a simple column value
+     */
+    static ValueType of(TypeMirror type)
+    {
+        if (type.getKind() == TypeKind.DECLARED || type.getKind().isPrimitive())
+        {
+            String name = type.toString();
+            for (ValueType value : values())
+            {
+                if (value.typeName.equals(name))
+                {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return statement binding value of variable to parameter
+     */
+    String bind(String statement, int index, String variable)
+    {
+        if (accessor != null)
+        {
+            return statement + ".set" + accessor + "(" + index + ", " + variable + ");";
+        }
+        return statement + ".setObject(" + index + ", " + variable + ", java.sql.Types." + sqlType + ");";
+    }
+
+    /**
+     * @return expression reading column of result set
+     */
+    String read(String resultSet, int column)
+    {
+        if (accessor != null)
+        {
+            return resultSet + ".get" + accessor + "(" + column + ")";
+        }
+        return resultSet + ".getObject(" + column + ", " + typeName + ".class)";
+    }
+
+    String getTypeName()
+    {
+        return typeName;
+    }
+
+    /**
+     * @return canonical name of PostgreSQL type, which value is bound as
+     */
+    String getDatabaseType()
+    {
+        return databaseType;
+    }
+
+    /**
+     * @param columnType canonical type of result column
+     * @return true if column of given type can be read without loss, any
+     * column can be read as text
+     */
+    boolean reads(String columnType)
+    {
+        return this == STRING || SqlScript.castsImplicitly(columnType, databaseType);
+    }
+}
@@ -0,0 +1,211 @@
+package pl.mpiglas.dbproc.postgres.processor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Generating procedure interface implementations and checking them against
+ * <code>postgres-procedures.sql</code>.
+ *
+ * @author Milosz Piglas
+ */
+public class ProcedureProcessorTest
+{
+
+    private static final String SQL_SCRIPT = "../../etc/postgres-procedures.sql";
+
+    private Path output;
+    private DiagnosticCollector<JavaFileObject> diagnostics;
+
+    @Before
+    public void setup() throws IOException
+    {
+        output = Files.createTempDirectory("dbproc-processor");
+        diagnostics = new DiagnosticCollector<>();
+    }
+
+    /**
+     * Implementations for all backends are generated and compile against
+     * JDBC, Hibernate and Cayenne.
+     */
+    @Test
+    public void shouldGenerateImplementationsForAllBackends() throws IOException
+    {
+        boolean compiled = compile("sample.Sample",
+                "package sample;",
+                "import java.util.List;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedure;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedures;",
+                "@Procedures(backends = {Procedures.Backend.JDBC, Procedures.Backend.JPA, Procedures.Backend.CAYENNE})",
+                "public interface Sample {",
+                "    class Row { public Row(String str, int num) {} }",
+                "    class ModMul { public ModMul(int result, Integer modulo) {} }",
+                "    @Procedure(\"num_sum\") int numSum(int anum, int bnum);",
+                "    @Procedure(\"modmul\") ModMul modmul(int anum, int bnum) throws java.sql.SQLException;",
+                "    @Procedure(\"out_text\") String outText();",
+                "    @Procedure(\"gen_rows\") List<Row> genRows(int nrows);",
+                "    @Procedure(\"int_set\") int[] intSet(int len);",
+                "    @Procedure(\"int_set\") List<Long> intList(Integer len);",
+                "}");
+
+        Assertions.assertThat(compiled).as(errors().toString()).isTrue();
+        Assertions.assertThat(output.resolve("sample/SampleJdbc.class")).exists();
+        Assertions.assertThat(output.resolve("sample/SampleJpa.class")).exists();
+        Assertions.assertThat(output.resolve("sample/SampleCayenne.class")).exists();
+    }
+
+    /**
+     * Methods inherited from superinterface are implemented too.
+     */
+    @Test
+    public void shouldImplementInheritedMethods() throws IOException
+    {
+        boolean compiled = compile("sample.Extended",
+                "package sample;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedure;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedures;",
+                "@Procedures(backends = {Procedures.Backend.JDBC, Procedures.Backend.CAYENNE})",
+                "public interface Extended extends Base {",
+                "    @Procedure(\"out_text\") String outText();",
+                "}",
+                "interface Base {",
+                "    @Procedure(\"num_sum\") int numSum(int anum, int bnum);",
+                "    default int twice(int anum) { return numSum(anum, anum); }",
+                "}");
+
+        Assertions.assertThat(compiled).as(errors().toString()).isTrue();
+        Assertions.assertThat(output.resolve("sample/ExtendedJdbc.class")).exists();
+        Assertions.assertThat(output.resolve("sample/ExtendedCayenne.class")).exists();
+    }
+
+    @Test
+    public void shouldRejectMethodsOfGenericSuperinterface() throws IOException
+    {
+        boolean compiled = compile("sample.Typed",
+                "package sample;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedure;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedures;",
+                "@Procedures",
+                "public interface Typed extends Generic<Integer> {",
+                "}",
+                "interface Generic<T> {",
+                "    @Procedure(\"num_sum\") T numSum(T anum, T bnum);",
+                "}");
+
+        Assertions.assertThat(compiled).isFalse();
+        Assertions.assertThat(String.join("\n", errors())).contains("inherited from generic interface");
+    }
+
+    /**
+     * Methods, which do not match declared functions, fail compilation.
+     */
+    @Test
+    public void shouldReportDriftFromSqlScript() throws IOException
+    {
+        boolean compiled = compile("sample.Drifted",
+                "package sample;",
+                "import java.util.List;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedure;",
+                "import pl.mpiglas.dbproc.postgres.jdbc.annotation.Procedures;",
+                "@Procedures",
+                "public interface Drifted {",
+                "    class Row { public Row(String str) {} }",
+                "    class Range { public Range(int str, int num) {} }",
+                "    @Procedure(\"num_sum\") int numSum(int anum);",
+                "    @Procedure(\"missing\") void missing();",
+                "    @Procedure(\"gen_rows\") List<Row> genRows(int nrows);",
+                "    @Procedure(\"int_set\") int intSet(int len);",
+                "    @Procedure(\"int_set\") List<Integer> intList(Long len);",
+                "    @Procedure(\"gen_rows_range\") List<Range> range(int rowFrom, int rowTo);",
+                "    @Procedure(\"num_sum\") short shortSum(short anum, int bnum);",
+                "}");
+
+        Assertions.assertThat(compiled).isFalse();
+        Assertions.assertThat(errors()).hasSize(7);
+        Assertions.assertThat(String.join("\n", errors())).contains(
+                "num_sum does not accept 1 arguments",
+                "missing is not declared",
+                "gen_rows returns 2 columns",
+                "int_set returns set",
+                "int_set accepts int4 as argument 1, which cannot be bound from java.lang.Long len",
+                "gen_rows_range returns text in column 1, which cannot be read as int",
+                "num_sum returns int4 in column 1, which cannot be read as short");
+        Assertions.assertThat(output.resolve("sample/DriftedJdbc.class")).doesNotExist();
+    }
+
+    @Test
+    public void shouldConvertMethodNameToConstant()
+    {
+        Assertions.assertThat(ProcedureProcessor.constantName("genRows")).isEqualTo("GEN_ROWS");
+        Assertions.assertThat(ProcedureProcessor.constantName("modmul")).isEqualTo("MODMUL");
+    }
+
+    @After
+    public void releaseResources() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(output))
+        {
+            List<Path> paths = files.collect(Collectors.toList());
+            Collections.reverse(paths);
+            for (Path path : paths)
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private boolean compile(String className, String... lines)
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaFileObject source = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE)
+        {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            {
+                return String.join("\n", lines);
+            }
+        };
+        List<String> options = new ArrayList<>(Arrays.asList(
+                "-d", output.toString(),
+                "-s", output.toString(),
+                "-classpath", System.getProperty("java.class.path"),
+                "-A" + ProcedureProcessor.SQL_OPTION + "=" + SQL_SCRIPT));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null,
+                Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new ProcedureProcessor()));
+        return task.call();
+    }
+
+    private List<String> errors()
+    {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+        {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+            {
+                errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return errors;
+    }
+}
@@ -18,12 +18,27 @@ create or replace function gen_rows(nrows integer) returns setof ctype as $$
 	end;
 $$ language plpgsql;
 
+-- procedure returns rows of gen_rows with numbers from row_from + 1 to row_to,
+-- so gen_rows(n) can be read in partitions
+create or replace function gen_rows_range(row_from integer, row_to integer) returns setof ctype as $$
+	declare
+		str varchar(10); nr integer;
+	begin
+		nr := row_from;
+		while nr < row_to loop
+			str := 'ROW'||nr; nr := nr + 1;
+			return next (str, nr);
+		end loop;
+		return;
+	end;
+$$ language plpgsql;
+
 -- procedure accepts two input arguments and returns single numeric value
 create or replace function num_sum(anum integer, bnum integer) returns integer as $$
 begin
 	return anum + bnum;
 end;
-$$ language plpgsql;
+$$ language plpgsql immutable;
 
 -- procedure puts string to ouput argument
 create or replace function out_text(out txt varchar(10)) as $$
@@ -38,7 +53,7 @@ begin
 	 result := anum / bnum;
 	 modulo := anum % bnum;
 end;
-$$ language plpgsql;
+$$ language plpgsql immutable;
 
 -- procedure generates set of integers
 create or replace function int_set(len integer) returns setof integer as $$
@@ -49,3 +64,25 @@ begin
 end;
 $$ language plpgsql;
 
+-- procedure opens cursor over generated tuples and returns its name
+create or replace function gen_rows_cursor(nrows integer) returns refcursor as $$
+declare
+	rows_cursor refcursor;
+begin
+	open rows_cursor for select * from gen_rows(nrows);
+	return rows_cursor;
+end;
+$$ language plpgsql;
+
+-- procedure returns two cursors: generated tuples and set of integers
+create or replace function rows_and_ints(nrows integer, len integer) returns setof refcursor as $$
+declare
+	rows_cursor refcursor;
+	ints_cursor refcursor;
+begin
+	open rows_cursor for select * from gen_rows(nrows);
+	return next rows_cursor;
+	open ints_cursor for select * from int_set(len);
+	return next ints_cursor;
+end;
+$$ language plpgsql;